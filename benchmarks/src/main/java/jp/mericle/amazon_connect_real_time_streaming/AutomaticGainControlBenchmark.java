@@ -0,0 +1,65 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link AutomaticGainControl#process}のベンチマークです。
+ * フレームのバイト数に比例した時間で処理できることを確認できます。
+ * @author Bladean Mericle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutomaticGainControlBenchmark {
+
+    /**
+     * フレームのバイト数。
+     */
+    @Param({"320", "640", "2048"})
+    public int frameBytes;
+
+    /**
+     * 音声データ。
+     */
+    private byte[] data;
+
+    /**
+     * 音量の調整。
+     */
+    private AutomaticGainControl gainControl;
+
+    /**
+     * 音声データを生成します。
+     */
+    @Setup
+    public void createData() {
+        data = new byte[frameBytes];
+        new Random(0).nextBytes(data);
+        gainControl = new AutomaticGainControl(AutomaticGainControl.Parameters.DEFAULT);
+    }
+
+    /**
+     * 音量を調整します。
+     * @return 音量を調整した音声データ
+     */
+    @Benchmark
+    public byte[] process() {
+        return gainControl.process(data);
+    }
+}
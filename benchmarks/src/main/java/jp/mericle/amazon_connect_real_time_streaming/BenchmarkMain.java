@@ -0,0 +1,29 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * ベンチマークを実行します。
+ * JMHのコマンドライン引数をそのまま受け付け、常にGCプロファイラを有効にしてアロケーションレートを出力します。
+ * @author Bladean Mericle
+ */
+public class BenchmarkMain {
+
+    /**
+     * メインメソッドです。
+     * @param args JMHのコマンドライン引数
+     * @throws CommandLineOptionException コマンドライン引数が不正な場合
+     * @throws RunnerException ベンチマークの実行に失敗した場合
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
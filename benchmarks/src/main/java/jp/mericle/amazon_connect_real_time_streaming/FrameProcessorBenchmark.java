@@ -0,0 +1,200 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.kinesisvideo.parser.ebml.InputStreamParserByteSource;
+import com.amazonaws.kinesisvideo.parser.mkv.Frame;
+import com.amazonaws.kinesisvideo.parser.mkv.FrameProcessException;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadata;
+import com.amazonaws.kinesisvideo.parser.utilities.FrameVisitor;
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+
+/**
+ * {@link AudioRecordFrameProcessor#process}のベンチマークです。
+ * GetMediaで取得したMKVストリームを事前にフレームへ分解しておき、1ストリーム分のフレームの処理を1回の操作として計測します。
+ * MKVファイルを指定しない場合は、{@link SyntheticMkvGenerator}で生成した1分間のストリームを使います。
+ * @author Bladean Mericle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameProcessorBenchmark {
+
+    /**
+     * 取得済みのフレームです。
+     */
+    private static class CapturedFrame {
+
+        /**
+         * フレーム。
+         */
+        private final Frame frame;
+
+        /**
+         * トラックメタ情報。
+         */
+        private final MkvTrackMetadata trackMetadata;
+
+        /**
+         * フラグメントメタ情報。
+         */
+        private final Optional<FragmentMetadata> fragmentMetadata;
+
+        /**
+         * コンストラクタ。
+         * @param frame フレーム
+         * @param trackMetadata トラックメタ情報
+         * @param fragmentMetadata フラグメントメタ情報
+         */
+        private CapturedFrame(
+                final Frame frame,
+                final MkvTrackMetadata trackMetadata,
+                final Optional<FragmentMetadata> fragmentMetadata) {
+            this.frame = frame;
+            this.trackMetadata = trackMetadata;
+            this.fragmentMetadata = fragmentMetadata;
+        }
+    }
+
+    /**
+     * 合成するストリームの長さ(ms)。
+     */
+    private static final long SYNTHETIC_CALL_MILLIS = 60000;
+
+    /**
+     * GetMediaのペイロードを保存したMKVファイルのパス、空の場合は合成したストリームを使います。
+     */
+    @Param({""})
+    public String mkvFile;
+
+    /**
+     * 取得済みのフレーム。
+     */
+    private final List<CapturedFrame> frames = new ArrayList<CapturedFrame>();
+
+    /**
+     * 音声の保存先フォルダ。
+     */
+    private Path audioPath;
+
+    /**
+     * 計測対象のフレーム処理。
+     */
+    private AudioRecordFrameProcessor processor;
+
+    /**
+     * MKVストリームをフレームに分解します。
+     * @throws IOException 読み込みエラー
+     * @throws MkvElementVisitException 解析エラー
+     */
+    @Setup(Level.Trial)
+    public void loadFrames() throws IOException, MkvElementVisitException {
+        audioPath = Files.createTempDirectory("benchmark-audio");
+        try (InputStream inputStream = mkvFile == null || mkvFile.isEmpty()
+                ? new ByteArrayInputStream(new SyntheticMkvGenerator(SYNTHETIC_CALL_MILLIS, 2000, 20).generate("benchmark-contact", 0))
+                : Files.newInputStream(Paths.get(mkvFile))) {
+            final StreamingMkvReader reader = StreamingMkvReader.createDefault(new InputStreamParserByteSource(inputStream));
+            reader.apply(FrameVisitor.create(new FrameVisitor.FrameProcessor() {
+                @Override
+                public void process(
+                        final Frame frame,
+                        final MkvTrackMetadata trackMetadata,
+                        final Optional<FragmentMetadata> fragmentMetadata) {
+                    // 処理のたびに読み込み位置を戻せるように印を付けておきます。
+                    frame.getFrameData().mark();
+                    frames.add(new CapturedFrame(frame, trackMetadata, fragmentMetadata));
+                }
+            }));
+        }
+
+        if (frames.isEmpty()) {
+            throw new IllegalStateException("No frames found in " + mkvFile + ".");
+        }
+    }
+
+    /**
+     * 計測ごとにフレーム処理を作り直します。
+     * 録音データが計測をまたいで溜まらないようにしています。
+     */
+    @Setup(Level.Invocation)
+    public void createProcessor() {
+        processor = new AudioRecordFrameProcessor(
+                audioPath.toString(),
+                new VideoStreamData("benchmark-stream", new Date(0)),
+                null);
+    }
+
+    /**
+     * 計測ごとにフレーム処理を終了します。
+     * 録音中のセッション数やバッファの使用量が計測をまたいで増え続けないようにしています。
+     */
+    @TearDown(Level.Invocation)
+    public void closeProcessor() {
+        processor.close();
+        processor = null;
+    }
+
+    /**
+     * 保存した音声と保存先フォルダを削除します。
+     */
+    @TearDown(Level.Trial)
+    public void deleteAudio() {
+        final File[] files = audioPath.toFile().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        audioPath.toFile().delete();
+    }
+
+    /**
+     * 1ストリーム分のフレームを処理します。
+     * @return フレーム処理
+     * @throws FrameProcessException 処理エラー
+     */
+    @Benchmark
+    public AudioRecordFrameProcessor process() throws FrameProcessException {
+        for (CapturedFrame capturedFrame : frames) {
+            capturedFrame.frame.getFrameData().reset();
+            processor.process(
+                    capturedFrame.frame,
+                    capturedFrame.trackMetadata,
+                    capturedFrame.fragmentMetadata,
+                    Optional.empty());
+        }
+
+        return processor;
+    }
+}
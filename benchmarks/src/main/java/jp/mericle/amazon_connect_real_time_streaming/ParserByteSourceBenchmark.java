@@ -0,0 +1,150 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.kinesisvideo.parser.ebml.InputStreamParserByteSource;
+import com.amazonaws.kinesisvideo.parser.mkv.Frame;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadata;
+import com.amazonaws.kinesisvideo.parser.utilities.FrameVisitor;
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+
+/**
+ * バイトソースごとのMKVストリームの解析のベンチマークです。
+ * 1回の操作で1ファイル分を解析するので、操作あたりの時間をファイルサイズで割るとMBあたりのCPU時間になります。
+ * 解析処理の差だけを見るため、フレームの処理はバイト数を数えるだけにしています。
+ * @author Bladean Mericle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserByteSourceBenchmark {
+
+    /**
+     * 合成するストリームの長さ(ms)。
+     */
+    private static final long SYNTHETIC_CALL_MILLIS = 300000;
+
+    /**
+     * バイトソースの種類("inputstream"、"channel"、"readahead"、"mapped")。
+     */
+    @Param({"inputstream", "channel", "readahead", "mapped"})
+    public String source;
+
+    /**
+     * バッファのサイズ(byte)。
+     */
+    @Param({"65536"})
+    public int bufferSize;
+
+    /**
+     * GetMediaのペイロードを保存したMKVファイルのパス、空の場合は合成したストリームを使います。
+     */
+    @Param({""})
+    public String mkvFile;
+
+    /**
+     * 解析するファイル。
+     */
+    private File payloadFile;
+
+    /**
+     * 合成したストリームを保存したかどうか。
+     */
+    private boolean temporary;
+
+    /**
+     * 解析するファイルを準備します。
+     * @throws IOException 書き込みエラー
+     */
+    @Setup
+    public void createFile() throws IOException {
+        if (mkvFile != null && !mkvFile.isEmpty()) {
+            payloadFile = new File(mkvFile);
+            return;
+        }
+
+        payloadFile = File.createTempFile("benchmark-payload", ".mkv");
+        temporary = true;
+        Files.write(payloadFile.toPath(),
+                new SyntheticMkvGenerator(SYNTHETIC_CALL_MILLIS, 2000, 20).generate("benchmark-contact", 0));
+    }
+
+    /**
+     * 合成したストリームのファイルを削除します。
+     */
+    @TearDown
+    public void deleteFile() {
+        if (temporary) {
+            payloadFile.delete();
+        }
+    }
+
+    /**
+     * 1ファイル分を解析します。
+     * @return 処理したフレームのバイト数
+     * @throws IOException 読み込みエラー
+     * @throws MkvElementVisitException 解析エラー
+     */
+    @Benchmark
+    public long parse() throws IOException, MkvElementVisitException {
+        final long[] bytes = new long[1];
+        final FrameVisitor.FrameProcessor processor = new FrameVisitor.FrameProcessor() {
+            @Override
+            public void process(
+                    final Frame frame,
+                    final MkvTrackMetadata trackMetadata,
+                    final Optional<FragmentMetadata> fragmentMetadata) {
+                bytes[0] += frame.getFrameData().remaining();
+            }
+        };
+
+        switch (source) {
+        case "inputstream":
+            try (InputStream inputStream = new FileInputStream(payloadFile)) {
+                MediaStreamReader.read(new InputStreamParserByteSource(inputStream), processor, "benchmark-stream");
+            }
+            break;
+        case "channel":
+        case "readahead":
+            try (InputStream inputStream = new FileInputStream(payloadFile);
+                    ChannelParserByteSource byteSource = new ChannelParserByteSource(
+                            Channels.newChannel(inputStream), bufferSize, "readahead".equals(source) ? 2 : 0)) {
+                MediaStreamReader.read(byteSource, processor, "benchmark-stream");
+            }
+            break;
+        case "mapped":
+            try (ChannelParserByteSource byteSource = ChannelParserByteSource.map(payloadFile)) {
+                MediaStreamReader.read(byteSource, processor, "benchmark-stream");
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown source: " + source);
+        }
+
+        return bytes[0];
+    }
+}
@@ -0,0 +1,71 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ToneDetector#process}のベンチマークです。
+ * {@link FrequencySpectrumBenchmark}と同じフレームのバイト数で比較できます。
+ * @author Bladean Mericle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToneDetectorBenchmark {
+
+    /**
+     * フレームのバイト数。
+     */
+    @Param({"320", "640", "2048"})
+    public int frameBytes;
+
+    /**
+     * 音声データ。
+     */
+    private byte[] data;
+
+    /**
+     * トーンの検出。
+     */
+    private ToneDetector detector;
+
+    /**
+     * 検出したトーンの数。
+     */
+    private int detections;
+
+    /**
+     * 音声データを生成します。
+     */
+    @Setup
+    public void createData() {
+        data = new byte[frameBytes];
+        new Random(0).nextBytes(data);
+        detector = new ToneDetector(ToneDetector.Thresholds.DEFAULT, detection -> ++detections);
+    }
+
+    /**
+     * トーンを検出します。
+     * @return 検出したトーンの数
+     */
+    @Benchmark
+    public int process() {
+        detector.process(data);
+        return detections;
+    }
+}
@@ -0,0 +1,80 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * {@link App#getVideoStreamData}のベンチマークです。
+ * Contact Flow eventのJSONは"contact-flow-event.json"を使います。
+ * @author Bladean Mericle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VideoStreamDataBenchmark {
+
+    /**
+     * JSONマッパー。
+     */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Contact Flow eventのJSON。
+     */
+    private byte[] json;
+
+    /**
+     * 解析済みのJSONノード。
+     */
+    private JsonNode node;
+
+    /**
+     * Contact Flow eventのJSONを読み込みます。
+     * @throws IOException 読み込みエラー
+     */
+    @Setup
+    public void loadJson() throws IOException {
+        try (InputStream inputStream = VideoStreamDataBenchmark.class.getResourceAsStream("/contact-flow-event.json")) {
+            json = inputStream.readAllBytes();
+        }
+
+        node = mapper.readTree(json);
+    }
+
+    /**
+     * レコードのデータを解析してストリーム情報を取得します。
+     * @return ストリーム情報
+     * @throws IOException 解析エラー
+     */
+    @Benchmark
+    public VideoStreamData parseAndExtract() throws IOException {
+        return App.getVideoStreamData(mapper.readTree(json));
+    }
+
+    /**
+     * 解析済みのJSONノードからストリーム情報を取得します。
+     * @return ストリーム情報
+     */
+    @Benchmark
+    public VideoStreamData extract() {
+        return App.getVideoStreamData(node);
+    }
+}
@@ -0,0 +1,71 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link AudioRecordFrameProcessor#WriteAudioData}のベンチマークです。
+ * ディスクの性能に左右されないように、書き込み先は破棄するストリームにしています。
+ * @author Bladean Mericle
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteAudioDataBenchmark {
+
+    /**
+     * 1秒あたりの音声データのバイト数(8kHz * 1ch * 16bit / 8)。
+     */
+    private static final int BYTES_PER_SECOND = 16000;
+
+    /**
+     * 音声の長さ(秒)。
+     */
+    @Param({"60", "600"})
+    public int seconds;
+
+    /**
+     * 音声データ。
+     */
+    private byte[] audioData;
+
+    /**
+     * 書き込み先。
+     */
+    private final OutputStream outputStream = OutputStream.nullOutputStream();
+
+    /**
+     * 音声データを生成します。
+     */
+    @Setup
+    public void createData() {
+        audioData = new byte[BYTES_PER_SECOND * seconds];
+        new Random(0).nextBytes(audioData);
+    }
+
+    /**
+     * 音声データを書き込みます。
+     * @throws IOException 書き込みエラー
+     */
+    @Benchmark
+    public void writeAudioData() throws IOException {
+        AudioRecordFrameProcessor.WriteAudioData(outputStream, audioData);
+    }
+}
@@ -1,13 +1,26 @@
 package jp.mericle.amazon_connect_real_time_streaming;
 
+import java.awt.GraphicsEnvironment;
+import java.io.Closeable;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import javax.swing.SwingUtilities;
 
@@ -15,14 +28,13 @@ import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.ClientConfigurationFactory;
+import com.amazonaws.SDKGlobalConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.client.builder.AwsClientBuilder;
-import com.amazonaws.kinesisvideo.parser.ebml.InputStreamParserByteSource;
-import com.amazonaws.kinesisvideo.parser.ebml.ParserByteSource;
 import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
-import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
-import com.amazonaws.kinesisvideo.parser.utilities.FrameVisitor;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.kinesis.AmazonKinesis;
 import com.amazonaws.services.kinesis.AmazonKinesisClientBuilder;
@@ -60,11 +72,48 @@ public class App
      */
     private static final String PROPERTIES_FILE_NAME = "properties.xml";
 
+    /**
+     * GetRecordsの所要時間。
+     */
+    private static final Histogram GET_RECORDS_LATENCY = MetricsRegistry.getDefault().histogram(
+            "getrecords_latency_millis", "Latency of GetRecords calls in milliseconds.");
+
+    /**
+     * GetRecordsで取得したレコード数。
+     */
+    private static final Counter RECEIVED_RECORDS = MetricsRegistry.getDefault().counter(
+            "records_received_total", "Number of records received from Kinesis Data Streams.");
+
+    /**
+     * ストリームの最新レコードからの遅れ。
+     */
+    private static final Gauge MILLIS_BEHIND_LATEST = MetricsRegistry.getDefault().gauge(
+            "millis_behind_latest", "MillisBehindLatest of the last GetRecords call.");
+
+    /**
+     * ポーリングの回数。
+     */
+    private static final Counter POLL_CYCLES = MetricsRegistry.getDefault().counter(
+            "poll_cycles_total", "Number of polling cycles.");
+
+    /**
+     * 起動してから最初のGetRecordsを呼び出すまでの時間。
+     */
+    private static final Gauge STARTUP_READY_MILLIS = MetricsRegistry.getDefault().gauge(
+            "startup_ready_millis", "Time from startup to the first GetRecords call in milliseconds.");
+
+    /**
+     * 起動してから最初の問い合わせを受け付けるまでの時間。
+     */
+    private static final Gauge STARTUP_FIRST_CONTACT_MILLIS = MetricsRegistry.getDefault().gauge(
+            "startup_first_contact_millis", "Time from startup to the first contact in milliseconds.");
+
     /**
      * メインメソッドです。
      * @param args コマンドライン引数
      */
     public static void main(final String[] args) {
+        final long startTime = System.nanoTime();
         Properties settings = getSettings(PROPERTIES_FILE_NAME);
         if (settings == null)
         {
@@ -78,85 +127,278 @@ public class App
         // GetRecords の引数です。
         final String streamName = settings.getProperty("streamname");
 
-        // AWS リクエストの最大リトライ数です。
-        final int maxRetryCount = Integer.parseInt(settings.getProperty("maxretrycount"));
+        // 録音を止めずに変更できる設定です。
+        // GetRecordsの実行間隔、AWSリクエストのリトライ、スレッド数、WAVファイルとペイロードの保存先、
+        // 問い合わせごとの分析の設定、周波数スペクトルの表示回数、負荷の上限を含みます。
+        final SettingsWatcher settingsWatcher;
+        try {
+            settingsWatcher = new SettingsWatcher(PROPERTIES_FILE_NAME, settings);
+        } catch (IllegalArgumentException e) {
+            System.err.printf("設定が正しくありません。(%s)\n", e.getMessage());
+            return;
+        }
 
-        // AWS リクエストのリトライ間隔です。
-        final int retryInterval = Integer.parseInt(settings.getProperty("retryinterval"));
+        final RuntimeSettings initialSettings = settingsWatcher.get();
 
-        // GetRecords の実行間隔です。
-        final int getRecordsInterval = Integer.parseInt(settings.getProperty("getrecordsinterval"));
+        // 録音した音声の保存先です。WAVファイルの保存先は、問い合わせを保存するたびに現在の設定から取得します。
+        final RecordingSink recordingSink = createRecordingSink(settings, () -> settingsWatcher.get().getAudioPath());
 
-        // 音声の保存先フォルダです。
-        final String audioPath = settings.getProperty("audiopath");
+        // GetMediaのペイロードを読み込むバッファのサイズです。
+        final int readBufferSize = Integer.parseInt(
+                settings.getProperty("readbuffersize", Integer.toString(ChannelParserByteSource.DEFAULT_BUFFER_SIZE)));
+
+        // GetMediaのペイロードを先読みするバッファの数です。0の場合は先読みしません。
+        final int readAheadBuffers = Integer.parseInt(settings.getProperty("readaheadbuffers", "2"));
+
+        // 周波数スペクトルの帯域の分割方法です。
+        final SpectrumBands.Scale spectrumScale = SpectrumBands.Scale.fromName(
+                settings.getProperty("spectrumscale"), SpectrumBands.Scale.MEL);
+
+        // ウインドウを表示しない場合はtrueです。画面がない環境では、設定にかかわらず表示しません。
+        // 表示しない場合は、Swingのクラスを読み込みません。
+        final boolean headless = Boolean.parseBoolean(settings.getProperty("headless", "false"))
+                || GraphicsEnvironment.isHeadless();
+
+        // メトリクスを公開するポート番号です。0の場合は公開しません。
+        final int metricsPort = Integer.parseInt(settings.getProperty("metricsport", "0"));
+        if (metricsPort > 0) {
+            try {
+                new MetricsHttpServer(MetricsRegistry.getDefault(), metricsPort).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // 録音中の音声を配信するポート番号です。0の場合は配信しません。
+        final int liveAudioPort = Integer.parseInt(settings.getProperty("liveaudioport", "0"));
+        if (liveAudioPort > 0) {
+            try {
+                new LiveAudioServer(
+                        LiveAudioHub.getDefault(),
+                        liveAudioPort,
+                        Integer.parseInt(settings.getProperty("liveaudioqueuesize", "50")),
+                        Integer.parseInt(settings.getProperty("liveaudiomaxlisteners", "20"))).start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // 全ての問い合わせで録音中の音声のバイト数と、処理待ちの作業の数の上限です。
+        // 上限に近づくと、録音を優先して周波数スペクトルの表示と音声の分析を止めます。
+        configureResourceGovernor(initialSettings);
+        if (!headless) {
+            ContactPanel.setSpectrumFrameRate(initialSettings.getSpectrumFrameRate());
+        }
 
+        // 問い合わせごとの処理を同時に実行する数は、録音中はスレッドを占有するので、同時に録音できる問い合わせ数の上限になります。
+        // 受け付けてから完了していない問い合わせの数の上限を超えると、レコードの取得を待ちます。
+        final int dispatchQueueSize = Integer.parseInt(settings.getProperty("dispatchqueuesize", "1000"));
+        final OrderedDispatcher dispatcher = new OrderedDispatcher(initialSettings.getDispatchThreads(), dispatchQueueSize);
+
+        // 設定ファイルの変更を確認する間隔です。0の場合は確認しません。
+        final long settingsWatchInterval = Long.parseLong(settings.getProperty("settingswatchinterval", "5000"));
+        settingsWatcher.addListener((runtimeSettings) -> {
+            dispatcher.setThreads(runtimeSettings.getDispatchThreads());
+            if (recordingSink instanceof RecordingOutbox) {
+                ((RecordingOutbox)recordingSink).setThreads(runtimeSettings.getOutboxThreads());
+            }
+
+            configureResourceGovernor(runtimeSettings);
+            if (!headless) {
+                ContactPanel.setSpectrumFrameRate(runtimeSettings.getSpectrumFrameRate());
+            }
+        });
+        if (settingsWatchInterval > 0) {
+            settingsWatcher.start(settingsWatchInterval);
+        }
+
+        // 複数のインスタンスで録音を分担する場合の、リースの保存先フォルダです。空の場合は分担しません。
+        final String leasePath = settings.getProperty("leasepath", "");
+
+        // リースの有効期間です。インスタンスが停止してから、他のインスタンスが録音を引き継ぐまでの時間になります。
+        final long leaseDuration = Long.parseLong(settings.getProperty("leaseduration", "10000"));
+        LeaseCoordinator leaseCoordinator = null;
+        if (!leasePath.isEmpty()) {
+            try {
+                leaseCoordinator = new LeaseCoordinator(
+                        new FileLeaseStore(new File(leasePath)), LeaseCoordinator.createOwnerId(), leaseDuration);
+                Runtime.getRuntime().addShutdownHook(new Thread(leaseCoordinator::close));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        final LeaseCoordinator coordinator = leaseCoordinator;
+
+        // 問い合わせの情報の索引の保存先フォルダです。空の場合は索引を作りません。
+        final String indexPath = settings.getProperty("indexpath", "");
+        ContactIndex index = null;
+        if (!indexPath.isEmpty()) {
+            try {
+                index = new ContactIndex(
+                        new File(indexPath), Integer.parseInt(settings.getProperty("indexsegmentsize", "4096")));
+                Runtime.getRuntime().addShutdownHook(new Thread(index::close));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        final ContactIndex contactIndex = index;
+
+        // AWS APIの接続先です。空の場合はリージョンの標準の接続先を使います。
+        String endpoint = settings.getProperty("endpoint", "");
 
         // 最適な認証情報プロバイダを選択して使用します。
         // 例えば環境変数で設定する場合は、"AWS_ACCESS_KEY_ID"と"AWS_SECRET_ACCESS_KEY"を設定してください。
-        final AWSCredentialsProvider credentialsProvider = new DefaultAWSCredentialsProviderChain();
+        AWSCredentialsProvider credentialsProvider = new DefaultAWSCredentialsProviderChain();
+
+        // ローカルのKinesisサーバーのポート番号です。0の場合は起動しません。
+        // 起動した場合は、AWSの代わりにローカルのKinesisサーバーに接続します。
+        final int localServerPort = Integer.parseInt(settings.getProperty("localserverport", "0"));
+        if (localServerPort > 0) {
+            try {
+                final LocalKinesisServer localServer = LocalKinesisServer.fromSettings(settings, localServerPort);
+                localServer.start();
+                endpoint = localServer.getEndpoint();
+                credentialsProvider = new AWSStaticCredentialsProvider(new BasicAWSCredentials("local", "local"));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+
+        // AWS以外に接続する場合は、Kinesis Data StreamsのクライアントをJSONで通信させます。
+        if (!endpoint.isEmpty()) {
+            System.setProperty(SDKGlobalConfiguration.AWS_CBOR_DISABLE_SYSTEM_PROPERTY, "true");
+        }
 
         // クライアント環境の設定を行います。
         // 例えばプロキシの設定などはここで行います。
         final ClientConfiguration config = new ClientConfigurationFactory().getConfig();
 
-        // Kinesis Data Streamsクライアントの設定を行います。
-        final AmazonKinesis dataStreams = AmazonKinesisClientBuilder.standard()
-                .withRegion(region)
-                .withCredentials(credentialsProvider)
-                .withClientConfiguration(config).build();
+        // 認証情報の取得、クライアントの生成、シャードの一覧とシャードイテレータの取得は、ウインドウの作成と並行して行います。
+        // 再起動した時に、問い合わせを取りこぼす時間を短くするためです。
+        final String clientEndpoint = endpoint;
+        final AWSCredentialsProvider clientCredentialsProvider = credentialsProvider;
+        final ExecutorService startupExecutor = Executors.newFixedThreadPool(3, runnable -> {
+            final Thread thread = new Thread(runnable, "startup");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        Window window = new Window((w) -> {
-            // シャードの一覧を取得します。
+        // Kinesis Data Streamsクライアントを生成し、一番最初のシャードのシャードイテレータを取得します。
+        final CompletableFuture<AmazonKinesis> dataStreamsFuture = CompletableFuture.supplyAsync(
+                () -> withEndpoint(AmazonKinesisClientBuilder.standard(), region, clientEndpoint)
+                        .withCredentials(clientCredentialsProvider)
+                        .withClientConfiguration(config).build(),
+                startupExecutor);
+        final CompletableFuture<String> shardIteratorFuture = dataStreamsFuture.thenApplyAsync((dataStreams) -> {
             final List<Shard> shards = getShards(
-                    dataStreams, streamName, maxRetryCount, retryInterval);
-            if (shards == null || shards.size() == 0)
-            {
-                return;
+                    dataStreams, streamName, initialSettings.getMaxRetryCount(), initialSettings.getRetryInterval());
+            if (shards == null || shards.size() == 0) {
+                return null;
             }
 
-            // 一番最初のシャードから、シャードイテレータを取得します。
-            String shardIterator = getShardIterator(
-                    dataStreams, streamName, shards.get(0), maxRetryCount, retryInterval);
-            if (shardIterator == null || shardIterator.isEmpty())
-            {
-                return;
+            return getShardIterator(
+                    dataStreams, streamName, shards.get(0), initialSettings.getMaxRetryCount(), initialSettings.getRetryInterval());
+        }, startupExecutor);
+
+        // Kinesis Video Streamsクライアントは、最初の問い合わせを待たずに生成し、認証情報も取得しておきます。
+        final CompletableFuture<AmazonKinesisVideo> videoStreamsFuture = CompletableFuture.supplyAsync(() -> {
+            final AmazonKinesisVideo videoStreams = withEndpoint(AmazonKinesisVideoClientBuilder.standard(), region, clientEndpoint)
+                    .withCredentials(clientCredentialsProvider)
+                    .withClientConfiguration(config).build();
+            try {
+                clientCredentialsProvider.getCredentials();
+            } catch (AmazonClientException e) {
+                System.err.printf("認証情報を取得できませんでした。(%s)\n", e.getMessage());
             }
 
-            // レコードごとの処理を生成します。
-            final ObjectMapper mapper = new ObjectMapper();
-            final Consumer<Record> recordProcessing = createRecordProcessing(
-                    region, credentialsProvider, config, mapper, audioPath, maxRetryCount, retryInterval, w);
+            return videoStreams;
+        }, startupExecutor);
+        final CompletableFuture<ObjectMapper> mapperFuture = CompletableFuture.supplyAsync(ObjectMapper::new, startupExecutor);
 
-            System.out.println("Kinesis Data Streamsからのデータの受信を開始します。");
-            while (true)
-            {
-                if (w.isCompleted()) {
-                    break;
-                }
+        Window window = null;
+        if (!headless) {
+            window = new Window(null, spectrumScale);
+            SwingUtilities.invokeLater(window);
+        }
 
-                // レコードの一覧を取得します。
-                shardIterator = getRecords(
-                        dataStreams,
-                        shardIterator,
-                        recordProcessing,
-                        maxRetryCount,
-                        retryInterval);
-                if (shardIterator == null || shardIterator.isEmpty())
-                {
-                    break;
-                }
+        final AmazonKinesis dataStreams;
+        String shardIterator;
+        final AmazonKinesisVideo videoStreams;
+        final ObjectMapper mapper;
+        try {
+            dataStreams = dataStreamsFuture.join();
+            shardIterator = shardIteratorFuture.join();
+            videoStreams = videoStreamsFuture.join();
+            mapper = mapperFuture.join();
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
+            return;
+        } finally {
+            startupExecutor.shutdown();
+        }
 
-                try {
-                    Thread.sleep(getRecordsInterval);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                    break;
-                }
+        if (shardIterator == null || shardIterator.isEmpty())
+        {
+            return;
+        }
+
+        // 問い合わせごとの処理を生成します。最初の問い合わせを受け付けるまでの時間を記録します。
+        final BiConsumer<VideoStreamData, String> recordingProcessing = createSessionProcessing(
+                region, clientCredentialsProvider, config, videoStreams, mapper, recordingSink, readBufferSize, readAheadBuffers, settingsWatcher::get, coordinator, dispatcher, contactIndex, window);
+        final AtomicBoolean firstContact = new AtomicBoolean(true);
+        final BiConsumer<VideoStreamData, String> sessionProcessing = (videoStreamData, event) -> {
+            if (firstContact.compareAndSet(true, false)) {
+                final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                STARTUP_FIRST_CONTACT_MILLIS.set(elapsedMillis);
+                System.out.printf("起動してから最初の問い合わせを受け付けるまで%dmsかかりました。\n", elapsedMillis);
             }
 
-            System.out.println("Kinesis Data Streamsからのデータの受信を終了します。"); // これが出るのは異常系
-        });
-        SwingUtilities.invokeLater(window);
+            recordingProcessing.accept(videoStreamData, event);
+        };
+
+        final long readyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        STARTUP_READY_MILLIS.set(readyMillis);
+        System.out.printf("Kinesis Data Streamsからのデータの受信を開始します。(起動してから%dms)\n", readyMillis);
+        while (true)
+        {
+            if (window != null && window.isCompleted()) {
+                break;
+            }
+
+            POLL_CYCLES.increment();
+
+            // 1回のポーリングの間は、同じ設定を使います。
+            final RuntimeSettings runtimeSettings = settingsWatcher.get();
+
+            // レコードの一覧を取得します。
+            shardIterator = getRecords(
+                    dataStreams,
+                    streamName,
+                    shardIterator,
+                    mapper,
+                    sessionProcessing,
+                    dispatcher,
+                    runtimeSettings.getMaxRetryCount(),
+                    runtimeSettings.getRetryInterval());
+            if (shardIterator == null || shardIterator.isEmpty())
+            {
+                break;
+            }
+
+            try {
+                Thread.sleep(runtimeSettings.getGetRecordsInterval());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                break;
+            }
+        }
+
+        System.out.println("Kinesis Data Streamsからのデータの受信を終了します。"); // これが出るのは異常系
     }
 
     /**
@@ -164,7 +406,7 @@ public class App
      * @param path 設定のファイルパス
      * @return 設定
      */
-    private static Properties getSettings(final String path) {
+    static Properties getSettings(final String path) {
         if (path == null || path.isEmpty()) {
             return null;
         }
@@ -180,77 +422,315 @@ public class App
     }
 
     /**
-     * レコードごとの処理を生成します。
-     * @param mapper JSONマッパー
+     * 録音した音声の保存先を生成します。
+     * "archivepath"が空の場合は"audiopath"に問い合わせごとのWAVファイルを保存し、
+     * 設定されている場合は日ごとのアーカイブに保存します。
+     * "outboxpath"が設定されている場合は、送信待ちフォルダを経由して別のスレッドで保存します。
+     * @param settings 設定
+     * @return 録音した音声の保存先
+     */
+    static RecordingSink createRecordingSink(final Properties settings) {
+        final String audioPath = settings.getProperty("audiopath");
+        return createRecordingSink(settings, () -> audioPath);
+    }
+
+    /**
+     * 録音した音声の保存先を生成します。
+     * WAVファイルに保存する場合は、問い合わせを保存するたびに保存先のフォルダを取得します。
+     * @param settings 設定
+     * @param audioPathSupplier WAVファイルの保存先フォルダを取得する処理
+     * @return 録音した音声の保存先
+     */
+    static RecordingSink createRecordingSink(final Properties settings, final Supplier<String> audioPathSupplier) {
+        final String archivePath = settings.getProperty("archivepath", "");
+        final String audioPath = audioPathSupplier.get();
+        if (archivePath.isEmpty() && (audioPath == null || audioPath.isEmpty())) {
+            throw new IllegalArgumentException("audiopath can't set null or empty.");
+        }
+
+        final RecordingArchive archive = archivePath.isEmpty() ? null : new RecordingArchive(new File(archivePath));
+        final RecordingSink sink = archive != null ? archive : new WavFileSink(audioPathSupplier);
+
+        // 通話が終わった録音の送信待ちフォルダです。空の場合は、録音のスレッドで直接書き込みます。
+        final String outboxPath = settings.getProperty("outboxpath", "");
+        RecordingOutbox outbox = null;
+        if (!outboxPath.isEmpty()) {
+            outbox = new RecordingOutbox(
+                    new File(outboxPath),
+                    sink,
+                    Integer.parseInt(settings.getProperty("outboxthreads", "2")),
+                    Integer.parseInt(settings.getProperty("outboxretrycount", "5")),
+                    Long.parseLong(settings.getProperty("outboxretryinterval", "5000")));
+            try {
+                outbox.start();
+            } catch (IOException e) {
+                System.err.printf("送信待ちフォルダを使えないため、録音のスレッドで直接書き込みます。(%s)\n", outboxPath);
+                e.printStackTrace();
+                outbox = null;
+            }
+        }
+
+        // 送信待ちの録音をアーカイブに書き込んでから、アーカイブを閉じます。
+        if (outbox != null || archive != null) {
+            final RecordingOutbox closingOutbox = outbox;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (closingOutbox != null) {
+                    closingOutbox.close();
+                }
+
+                if (archive != null) {
+                    archive.close();
+                }
+            }));
+        }
+
+        return outbox != null ? outbox : sink;
+    }
+
+    /**
+     * 録音中の音声のバイト数と処理待ちの作業の数の上限を設定します。
+     * @param settings 録音を止めずに変更できる設定
+     */
+    private static void configureResourceGovernor(final RuntimeSettings settings) {
+        ResourceGovernor.getDefault().configure(
+                settings.getBufferLimit() > 0 ? settings.getBufferLimit() : Runtime.getRuntime().maxMemory() / 2,
+                settings.getMaxPendingWork());
+    }
+
+    /**
+     * クライアントビルダーに接続先を設定します。
+     * @param <T> クライアントビルダーの型
+     * @param builder クライアントビルダー
+     * @param region リージョン
+     * @param endpoint AWS APIの接続先、空の場合はリージョンの標準の接続先
+     * @return クライアントビルダー
+     */
+    static <T extends AwsClientBuilder<T, ?>> T withEndpoint(
+            final T builder,
+            final Regions region,
+            final String endpoint) {
+        if (endpoint == null || endpoint.isEmpty()) {
+            return builder.withRegion(region);
+        }
+
+        return builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region.getName()));
+    }
+
+    /**
+     * 問い合わせごとの処理を生成します。
+     * 生成した処理は、問い合わせのストリーム情報とイベントのJSONを受け取り、通話が終わるまで録音します。
+     * @param region リージョン
+     * @param credentialsProvider 認証情報プロバイダ
+     * @param config クライアント環境の設定
      * @param videoStreams Kinesis Video Streamsのクライアント
-     * @param videoStreamsMediaBuilder Kinesis Video Streams Mediaのクライアントビルダー
-     * @param audioPath 音声の保存先フォルダ
-     * @param maxRetryCount 最大リトライ数
-     * @param retryInterval リトライ間隔
-     * @return レコードごとの処理
+     * @param mapper JSONマッパー
+     * @param recordingSink 録音した音声の保存先
+     * @param readBufferSize GetMediaのペイロードを読み込むバッファのサイズ(byte)
+     * @param readAheadBuffers GetMediaのペイロードを先読みするバッファの数
+     * @param settingsSupplier 現在の録音を止めずに変更できる設定を取得する処理
+     * @param coordinator 複数のインスタンスで録音を分担する場合はリースの管理、分担しない場合は{@code null}
+     * @param dispatcher 他のインスタンスから引き継いだ録音を実行するディスパッチャー
+     * @param contactIndex 問い合わせの情報の索引、索引を作らない場合は{@code null}
+     * @param window ウインドウ、表示しない場合は{@code null}
+     * @return 問い合わせごとの処理
      */
-    private static Consumer<Record> createRecordProcessing(
+    private static BiConsumer<VideoStreamData, String> createSessionProcessing(
             final Regions region,
             final AWSCredentialsProvider credentialsProvider,
             final ClientConfiguration config,
+            final AmazonKinesisVideo videoStreams,
             final ObjectMapper mapper,
-            final String audioPath,
-            final int maxRetryCount,
-            final int retryInterval,
+            final RecordingSink recordingSink,
+            final int readBufferSize,
+            final int readAheadBuffers,
+            final Supplier<RuntimeSettings> settingsSupplier,
+            final LeaseCoordinator coordinator,
+            final OrderedDispatcher dispatcher,
+            final ContactIndex contactIndex,
             final Window window) {
-        // Kinesis Video Streamsクライアントの設定を行います。
-        final AmazonKinesisVideo videoStreams = AmazonKinesisVideoClientBuilder.standard()
-                .withRegion(region)
-                .withCredentials(credentialsProvider)
-                .withClientConfiguration(config).build();
-        return (record) -> {
-            System.out.printf("データを受信しました。\n");
-            try {
-                final JsonNode node = mapper.readTree(record.getData().array());
-                final VideoStreamData videoStreamData = getVideoStreamData(node);
-                if (videoStreamData == null) {
+        final BiConsumer<VideoStreamData, String> recordSession = (videoStreamData, event) -> {
+            // 設定が変更されても、録音中の問い合わせは開始した時の設定を使い続けます。
+            final RuntimeSettings settings = settingsSupplier.get();
+            final String dataEndPoint = getDataEndpoint(
+                    videoStreams, videoStreamData, settings.getMaxRetryCount(), settings.getRetryInterval());
+            if (dataEndPoint == null || dataEndPoint.isEmpty()) {
+                return;
+            }
+
+            // Kinesis Video Streams Mediaクライアントの設定を行います。
+            final AmazonKinesisVideoMedia videoStreamsMedia = AmazonKinesisVideoMediaClientBuilder.standard()
+                    .withCredentials(credentialsProvider)
+                    .withClientConfiguration(config)
+                    .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(
+                            dataEndPoint,
+                            region.getName())).build();
+
+            try (InputStream payload = capturePayload(
+                        getMedia(videoStreamsMedia, videoStreamData, settings.getMaxRetryCount(), settings.getRetryInterval()),
+                        settings, videoStreamData);
+                    AudioRecordFrameProcessor frameProcessor = new AudioRecordFrameProcessor(
+                            recordingSink, videoStreamData, window, AudioRecordFrameProcessor.Options.fromSettings(settings))){
+                if (payload == null) {
                     return;
                 }
 
-                Thread thraed = new Thread(() -> {
-                    final String dataEndPoint = getDataEndpoint(videoStreams, videoStreamData, maxRetryCount, retryInterval);
-                    if (dataEndPoint == null || dataEndPoint.isEmpty()) {
-                        return;
+                // 他のインスタンスに引き継がれた場合は、音声の受信を止めて録音を中止します。
+                // 受信はこのスレッドで読み込み中なので、別のスレッドから閉じて読み込みを終わらせます。
+                if (coordinator != null) {
+                    final Closeable receiver = payload;
+                    coordinator.setLostListener(getLeaseKey(videoStreamData), () -> {
+                        System.err.printf("他のインスタンスに引き継がれたので、録音を中止します。(%s)\n",
+                                videoStreamData.getStreamName());
+                        try {
+                            receiver.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    });
+                }
+
+                // 音声の取得中はここで処理が止まるので、ディスパッチャーのスレッドで処理しています。
+                System.out.printf("録音を開始します。\n");
+                final MkvTagCollector tagCollector = contactIndex != null ? new MkvTagCollector() : null;
+                try (ChannelParserByteSource source = new ChannelParserByteSource(
+                        Channels.newChannel(payload), readBufferSize, readAheadBuffers)) {
+                    MediaStreamReader.read(source, frameProcessor, tagCollector, videoStreamData.getStreamName());
+                } finally {
+                    if (contactIndex != null) {
+                        indexContact(contactIndex, mapper, videoStreamData, event, tagCollector.getTags());
                     }
+                }
+                System.out.printf("録音を終了します。\n");
+            } catch (MkvElementVisitException | IOException e) {
+                e.printStackTrace();
+            }
+        };
 
-                    // Kinesis Video Streams Mediaクライアントの設定を行います。
-                    final AmazonKinesisVideoMedia videoStreamsMedia = AmazonKinesisVideoMediaClientBuilder.standard()
-                            .withCredentials(credentialsProvider)
-                            .withClientConfiguration(config)
-                            .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(
-                                    dataEndPoint,
-                                    region.getName())).build();
-
-                    try (InputStream payload = getMedia(videoStreamsMedia, videoStreamData, maxRetryCount, retryInterval);
-                            AudioRecordFrameProcessor frameProcessor = new AudioRecordFrameProcessor(audioPath, videoStreamData, window)){
-                        if (payload == null) {
-                            return;
-                        }
+        // 他のインスタンスから引き継いだ録音は、リースに保存したイベントから、受信した問い合わせと同じディスパッチャーで録音し直します。
+        // リースの延長を止めないよう空きを待たず、空きがない場合はすぐに他のインスタンスが引き継げるように手放します。
+        if (coordinator != null) {
+            coordinator.start((lease) -> {
+                final VideoStreamData videoStreamData;
+                try {
+                    videoStreamData = getVideoStreamData(mapper.readTree(lease.getData()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    coordinator.complete(lease.getKey());
+                    return;
+                }
 
-                        ParserByteSource byteSource = new InputStreamParserByteSource(payload);
-                        FrameVisitor visitor = FrameVisitor.create(frameProcessor);
-                        StreamingMkvReader reader = StreamingMkvReader.createDefault(byteSource);
+                if (videoStreamData == null) {
+                    coordinator.complete(lease.getKey());
+                    return;
+                }
 
-                        // 音声の取得中はここで処理が止まるので、別スレッドで処理しています。
-                        System.out.printf("録音を開始します。\n");
-                        reader.apply(visitor);
-                        System.out.printf("録音を終了します。\n");
-                    } catch (MkvElementVisitException | IOException e) {
-                        e.printStackTrace();
+                final boolean dispatched = dispatcher.tryDispatch(videoStreamData.getStreamName(), () -> {
+                    try {
+                        recordSession.accept(videoStreamData, lease.getData());
+                    } finally {
+                        coordinator.complete(lease.getKey());
                     }
                 });
-                thraed.run();
-            } catch (IOException e) {
-                e.printStackTrace();
+                if (!dispatched) {
+                    System.err.printf("処理待ちの問い合わせが多いので、引き継いだ録音を手放します。(%s)\n", lease.getKey());
+                    coordinator.abandon(lease.getKey());
+                }
+            });
+        }
+
+        return (videoStreamData, event) -> {
+            if (coordinator == null) {
+                recordSession.accept(videoStreamData, event);
+                return;
+            }
+
+            final String key = getLeaseKey(videoStreamData);
+            if (!coordinator.offer(key, event)) {
+                System.out.printf("録音を他のインスタンスに任せます。(%s)\n", key);
+                return;
+            }
+
+            try {
+                recordSession.accept(videoStreamData, event);
+            } finally {
+                coordinator.complete(key);
             }
         };
     }
 
+    /**
+     * 問い合わせの録音を分担するリースのキーを取得します。
+     * @param videoStreamData ストリーム情報
+     * @return リースのキー(ストリーム名と開始時刻)
+     */
+    private static String getLeaseKey(final VideoStreamData videoStreamData) {
+        return videoStreamData.getStreamName() + "/" + videoStreamData.getStartTimestamp().getTime();
+    }
+
+    /**
+     * 問い合わせの情報を索引に追加します。
+     * イベントを解析できない場合も、ストリーム情報とMKVタグは追加します。
+     * @param contactIndex 問い合わせの情報の索引
+     * @param mapper JSONマッパー
+     * @param videoStreamData ストリーム情報
+     * @param event Contact flow eventのJSON
+     * @param tags MKVタグ
+     */
+    private static void indexContact(
+            final ContactIndex contactIndex,
+            final ObjectMapper mapper,
+            final VideoStreamData videoStreamData,
+            final String event,
+            final Map<String, String> tags) {
+        ContactMetadata metadata;
+        try {
+            metadata = ContactMetadata.fromEvent(videoStreamData, mapper.readTree(event));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            metadata = new ContactMetadata(videoStreamData, null, null, null, null, null);
+        }
+
+        try {
+            contactIndex.append(metadata.withTags(tags));
+        } catch (IOException e) {
+            System.err.printf("問い合わせの情報を索引に追加できませんでした。(%s)\n", videoStreamData.getContactId());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 設定で選んだ問い合わせだけ、GetMediaのペイロードを保存するように設定します。
+     * 保存先のファイルを作成できない場合は、保存せずに録音を続けます。
+     * @param payload メディアの映像・音声のペイロード
+     * @param settings 録音を止めずに変更できる設定
+     * @param videoStreamData ストリーム情報
+     * @return ペイロード
+     */
+    private static InputStream capturePayload(
+            final InputStream payload,
+            final RuntimeSettings settings,
+            final VideoStreamData videoStreamData) {
+        if (payload == null || !settings.shouldCapture(videoStreamData)) {
+            return payload;
+        }
+
+        final String capturePath = settings.getCapturePath();
+        final File captureDirectory = new File(capturePath);
+        if (!captureDirectory.isDirectory() && !captureDirectory.mkdirs()) {
+            System.err.printf("ペイロードの保存先フォルダを作成できませんでした。(%s)\n", capturePath);
+            return payload;
+        }
+
+        final File captureFile = new File(captureDirectory, String.format(
+                "%s-%d.mkv", videoStreamData.getStreamName(), videoStreamData.getStartTimestamp().getTime()));
+        try {
+            return new CapturingInputStream(payload, captureFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return payload;
+        }
+    }
+
     /**
      * シャードの一覧を取得します。
      * https://docs.aws.amazon.com/kinesis/latest/APIReference/API_DescribeStream.html
@@ -274,6 +754,7 @@ public class App
         }
 
         return runAwsRequest(
+                "DescribeStream",
                 () -> {
                     final DescribeStreamRequest request = new DescribeStreamRequest()
                             .withStreamName(streamName);
@@ -312,6 +793,7 @@ public class App
         }
 
         return runAwsRequest(
+                "GetShardIterator",
                 () -> {
                     final GetShardIteratorRequest request = new GetShardIteratorRequest()
                             .withStreamName(streamName)
@@ -325,19 +807,27 @@ public class App
     }
 
     /**
-     * レコードの一覧を取得します。
+     * レコードの一覧を取得し、問い合わせごとの処理に渡します。
      * https://docs.aws.amazon.com/kinesis/latest/APIReference/API_GetRecords.html
+     * レコードの解析は並列に行い、同じストリームの問い合わせは受信した順に、異なるストリームの問い合わせは同時に処理します。
+     * リトライするのはGetRecordsの呼び出しだけなので、1件のレコードの失敗で同じレコードを処理し直すことはありません。
      * @param dataStreams Kinesis Data Streams のクライアント
+     * @param streamName ストリーム名
      * @param shardIterator シャードイテレータ
-     * @param recordProcessing レコードの処理
+     * @param mapper JSONマッパー
+     * @param sessionProcessing 問い合わせごとの処理
+     * @param dispatcher 問い合わせごとの処理を実行するディスパッチャー
      * @param maxRetryCount 最大リトライ数
      * @param retryInterval リトライ間隔
-     * @return 次のシャードイテレータ
+     * @return 次のシャードイテレータ、全てのレコードを処理に渡す前に中断した場合は{@code null}
      */
-    private static String getRecords(
+    static String getRecords(
             final AmazonKinesis dataStreams,
+            final String streamName,
             final String shardIterator,
-            final Consumer<Record> recordProcessing,
+            final ObjectMapper mapper,
+            final BiConsumer<VideoStreamData, String> sessionProcessing,
+            final OrderedDispatcher dispatcher,
             final int maxRetryCount,
             final int retryInterval) {
         if (dataStreams == null) {
@@ -348,24 +838,85 @@ public class App
             throw new IllegalArgumentException("shardIterator can't set null or empty.");
         }
 
-        if (recordProcessing == null) {
-            throw new IllegalArgumentException("recordProcessing can't set null.");
+        if (sessionProcessing == null) {
+            throw new IllegalArgumentException("sessionProcessing can't set null.");
         }
 
-        return runAwsRequest(
+        if (dispatcher == null) {
+            throw new IllegalArgumentException("dispatcher can't set null.");
+        }
+
+        final GetRecordsEvent event = new GetRecordsEvent();
+        event.begin();
+        final GetRecordsResult result = runAwsRequest(
+                "GetRecords",
                 () -> {
                     final GetRecordsRequest request = new GetRecordsRequest()
                             .withShardIterator(shardIterator);
-                    final GetRecordsResult result = dataStreams.getRecords(request);
-                    final List<Record> records = result.getRecords();
-                    for (Record record : records) {
-                        recordProcessing.accept(record);
-                    }
-
-                    return result.getNextShardIterator();
+                    final long startTime = System.nanoTime();
+                    final GetRecordsResult getRecordsResult = dataStreams.getRecords(request);
+                    GET_RECORDS_LATENCY.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                    return getRecordsResult;
                 },
                 maxRetryCount,
                 retryInterval);
+        if (result == null) {
+            return null;
+        }
+
+        if (result.getMillisBehindLatest() != null) {
+            MILLIS_BEHIND_LATEST.set(result.getMillisBehindLatest());
+        }
+
+        final List<Record> records = result.getRecords();
+        RECEIVED_RECORDS.add(records.size());
+        final List<VideoStreamData> videoStreamDataList = records.parallelStream()
+                .map((record) -> decodeRecord(mapper, record))
+                .collect(Collectors.toList());
+        long bytes = 0;
+        for (int i = 0; i < records.size(); ++i) {
+            final Record record = records.get(i);
+            bytes += record.getData().remaining();
+            final VideoStreamData videoStreamData = videoStreamDataList.get(i);
+            if (videoStreamData == null) {
+                continue;
+            }
+
+            final String json = new String(record.getData().array(), StandardCharsets.UTF_8);
+            try {
+                dispatcher.dispatch(videoStreamData.getStreamName(), () -> sessionProcessing.accept(videoStreamData, json));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.streamName = streamName;
+            event.recordCount = records.size();
+            event.bytes = bytes;
+            event.millisBehindLatest = result.getMillisBehindLatest() != null ? result.getMillisBehindLatest() : -1;
+            event.commit();
+        }
+
+        return result.getNextShardIterator();
+    }
+
+    /**
+     * レコードを解析します。
+     * @param mapper JSONマッパー
+     * @param record レコード
+     * @return ストリーム情報、解析できない場合は{@code null}
+     */
+    private static VideoStreamData decodeRecord(final ObjectMapper mapper, final Record record) {
+        System.out.printf("データを受信しました。\n");
+        try {
+            return getVideoStreamData(mapper.readTree(record.getData().array()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
     }
 
     /**
@@ -374,7 +925,7 @@ public class App
      * @param node JSONノード
      * @return ストリーム名
      */
-    private static VideoStreamData getVideoStreamData(final JsonNode node) {
+    static VideoStreamData getVideoStreamData(final JsonNode node) {
         final JsonNode audioNode = node
                 .path("Details")
                 .path("ContactData")
@@ -408,7 +959,12 @@ public class App
         final Date startTimestamp = new Date(audioNode
                 .path("StartTimestamp")
                 .asLong());
-        return new VideoStreamData(streamName, startTimestamp);
+        final String contactId = node
+                .path("Details")
+                .path("ContactData")
+                .path("ContactId")
+                .asText();
+        return new VideoStreamData(streamName, startTimestamp, contactId);
     }
 
     /**
@@ -434,11 +990,15 @@ public class App
         }
 
         return runAwsRequest(
+                "GetDataEndpoint",
                 () -> {
+                    final MediaSetupEvent event = new MediaSetupEvent();
+                    event.begin();
                     final GetDataEndpointRequest request = new GetDataEndpointRequest()
                             .withAPIName(APIName.GET_MEDIA)
                             .withStreamName(videoStreamData.getStreamName());
                     final GetDataEndpointResult result = videoStreams.getDataEndpoint(request);
+                    commitMediaSetupEvent(event, videoStreamData, "GetDataEndpoint");
                     return result.getDataEndpoint();
                 },
                 maxRetryCount,
@@ -468,7 +1028,10 @@ public class App
         }
 
         return runAwsRequest(
+                "GetMedia",
                 () -> {
+                    final MediaSetupEvent event = new MediaSetupEvent();
+                    event.begin();
                     final StartSelector startSelector = new StartSelector()
                             .withStartSelectorType(StartSelectorType.SERVER_TIMESTAMP)
                             .withStartTimestamp(videoStreamData.getStartTimestamp());
@@ -476,21 +1039,42 @@ public class App
                             .withStartSelector(startSelector)
                             .withStreamName(videoStreamData.getStreamName());
                     final GetMediaResult result = videoStreamsMedia.getMedia(request);
+                    commitMediaSetupEvent(event, videoStreamData, "GetMedia");
                     return result.getPayload();
                 },
                 maxRetryCount,
                 retryInterval);
     }
 
+    /**
+     * メディア取得準備のJFRイベントを確定します。
+     * @param event イベント
+     * @param videoStreamData ストリーム情報
+     * @param operation 操作名
+     */
+    private static void commitMediaSetupEvent(
+            final MediaSetupEvent event,
+            final VideoStreamData videoStreamData,
+            final String operation) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.streamName = videoStreamData.getStreamName();
+            event.operation = operation;
+            event.commit();
+        }
+    }
+
     /**
      * AWS のリクエスト処理を実行します。
      * @param <T> 結果の型
+     * @param operationName 操作名(メトリクスのラベルに使用します)
      * @param requestFunction AWS のリクエスト処理
      * @param maxRetryCount 最大リトライ数
      * @param retryInterval リトライ間隔
      * @return リクエスト結果、処理に失敗した場合は{@code null}
      */
-    private static <T> T runAwsRequest(
+    static <T> T runAwsRequest(
+            final String operationName,
             final Supplier<T> requestProcessing,
             final int maxRetryCount,
             final int retryInterval) {
@@ -506,10 +1090,23 @@ public class App
             throw new IllegalArgumentException("retryInterval can't set negative number.");
         }
 
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        final Counter requests = registry.counter(
+                "aws_requests_total", "Number of AWS request attempts.", "operation", operationName);
+        final Counter failures = registry.counter(
+                "aws_request_failures_total", "Number of failed AWS request attempts.", "operation", operationName);
+        final Histogram latency = registry.histogram(
+                "aws_request_latency_millis", "Latency of AWS request attempts in milliseconds.", "operation", operationName);
         for (int i = 0; i <= maxRetryCount; ++i) {
+            final long startTime = System.nanoTime();
+            requests.increment();
             try {
-                return requestProcessing.get();
+                final T result = requestProcessing.get();
+                latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                return result;
             } catch (AmazonServiceException e) {
+                latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                failures.increment();
                 System.err.printf("[AmazonServiceException]\n");
                 System.err.printf("     RequestId: %s\n", e.getRequestId());
                 System.err.printf("    StatusCode: %d\n", e.getStatusCode());
@@ -523,6 +1120,8 @@ public class App
                     return null;
                 }
             } catch (AmazonClientException e) {
+                latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                failures.increment();
                 System.err.printf("[AmazonClientException]\n");
                 System.err.printf("      Message: %s\n", e.getMessage());
                 System.err.printf("  IsRetryable: %b\n", e.isRetryable());
@@ -1,16 +1,19 @@
 package jp.mericle.amazon_connect_real_time_streaming;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.kinesisvideo.parser.mkv.Frame;
 import com.amazonaws.kinesisvideo.parser.mkv.FrameProcessException;
@@ -18,9 +21,12 @@ import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadata;
 import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
 import com.amazonaws.kinesisvideo.parser.utilities.FrameVisitor.FrameProcessor;
 import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * 音声をお客様側とオペレーター側に分割して録音します。
+ * 録音しながら通話品質の指標と保存する音声のハッシュを計算し、
+ * 終了時に分析結果のサマリーとハッシュを記録したマニフェストを録音の隣に保存します。
  * @author Bladean Mericle
  */
 public class AudioRecordFrameProcessor implements FrameProcessor {
@@ -36,9 +42,66 @@ public class AudioRecordFrameProcessor implements FrameProcessor {
     private static final String OPERATOR_TRACK_NAME = "AUDIO_TO_CUSTOMER";
 
     /**
-     * 保存先のフォルダ。
+     * 録音中のセッション数。
      */
-    private final String audioPath;
+    private static final Gauge ACTIVE_SESSIONS = MetricsRegistry.getDefault().gauge(
+            "active_sessions", "Number of sessions being recorded.");
+
+    /**
+     * お客様側のフレーム数。
+     */
+    private static final Counter CUSTOMER_FRAMES = MetricsRegistry.getDefault().counter(
+            "audio_frames_total", "Number of audio frames processed.", "track", CUSTOMER_TRACK_NAME);
+
+    /**
+     * オペレーター側のフレーム数。
+     */
+    private static final Counter OPERATOR_FRAMES = MetricsRegistry.getDefault().counter(
+            "audio_frames_total", "Number of audio frames processed.", "track", OPERATOR_TRACK_NAME);
+
+    /**
+     * お客様側のバイト数。
+     */
+    private static final Counter CUSTOMER_BYTES = MetricsRegistry.getDefault().counter(
+            "audio_bytes_total", "Number of audio bytes processed.", "track", CUSTOMER_TRACK_NAME);
+
+    /**
+     * オペレーター側のバイト数。
+     */
+    private static final Counter OPERATOR_BYTES = MetricsRegistry.getDefault().counter(
+            "audio_bytes_total", "Number of audio bytes processed.", "track", OPERATOR_TRACK_NAME);
+
+    /**
+     * フレームの処理時間。
+     */
+    private static final Histogram PROCESS_TIME = MetricsRegistry.getDefault().histogram(
+            "frame_process_time_micros", "Time spent processing one frame in microseconds.");
+
+    /**
+     * 終了処理の所要時間。
+     */
+    private static final Histogram CLOSE_TIME = MetricsRegistry.getDefault().histogram(
+            "session_close_time_millis", "Time spent finalizing a session in milliseconds.");
+
+    /**
+     * 遅延の表示を更新する間隔(ms)。
+     */
+    private static final long LATENCY_DISPLAY_INTERVAL = 1000;
+
+    /**
+     * 保持する検出したトーンの数の上限。
+     */
+    private static final int MAX_TONE_DETECTIONS = 1000;
+
+    /**
+     * 分析結果のサマリーの変換に使うJSONマッパー。
+     */
+    private static final ObjectMapper SUMMARY_MAPPER = new ObjectMapper();
+
+    /**
+     * 録音した音声の保存先。
+     */
+    private final RecordingSink recordingSink;
 
     /**
      * ストリーム情報。
@@ -46,12 +109,12 @@ public class AudioRecordFrameProcessor implements FrameProcessor {
     private final VideoStreamData videoStreamData;
 
     /**
-     * ウインドウ。
+     * ウインドウ、画面を表示しない場合は{@code null}。
      */
     private final Window window;
 
     /**
-     * 問い合わせの描画パネル。
+     * 問い合わせの描画パネル、画面を表示しない場合は{@code null}。
      */
     private final ContactPanel contactPanel;
 
@@ -65,35 +128,115 @@ public class AudioRecordFrameProcessor implements FrameProcessor {
      */
     private final ByteArrayOutputStream operatorStream = new ByteArrayOutputStream();
 
+    /**
+     * 遅延の記録。
+     */
+    private final MediaLatencyTracker latencyTracker;
+
+    /**
+     * 遅延の表示を最後に更新した時刻。
+     */
+    private long lastLatencyDisplayTime = 0;
+
+    /**
+     * お客様側のトーンの検出、検出しない場合は{@code null}。
+     */
+    private final ToneDetector customerToneDetector;
+
+    /**
+     * オペレーター側のトーンの検出、検出しない場合は{@code null}。
+     */
+    private final ToneDetector operatorToneDetector;
+
+    /**
+     * お客様側の音量の調整、調整しない場合は{@code null}。
+     */
+    private final AutomaticGainControl customerGainControl;
+
+    /**
+     * オペレーター側の音量の調整、調整しない場合は{@code null}。
+     */
+    private final AutomaticGainControl operatorGainControl;
+
+    /**
+     * 検出したトーン。
+     */
+    private final List<ToneDetection> toneDetections = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * 通話品質の指標。
+     */
+    private final ConversationAnalytics analytics = new ConversationAnalytics();
+
+    /**
+     * 通話品質の表示を最後に更新した時刻。
+     */
+    private long lastAnalyticsDisplayTime = 0;
+
+    /**
+     * 録音のマニフェスト。
+     */
+    private final RecordingManifest manifest;
+
     /**
      * コンストラクタ。
      * @param audioPath 保存先のフォルダ
      * @param videoStreamData ストリーム情報
-     * @param window ウインドウ
+     * @param window ウインドウ、画面を表示しない場合は{@code null}
      */
     public AudioRecordFrameProcessor(
             final String audioPath,
             final VideoStreamData videoStreamData,
             final Window window) {
-        if (audioPath == null || audioPath.isEmpty())
-        {
-            throw new IllegalArgumentException("audioPath can't set null or empty.");
+        this(new WavFileSink(audioPath), videoStreamData, window, Options.DEFAULT);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param recordingSink 録音した音声の保存先
+     * @param videoStreamData ストリーム情報
+     * @param window ウインドウ、画面を表示しない場合は{@code null}
+     * @param options 録音の設定
+     */
+    public AudioRecordFrameProcessor(
+            final RecordingSink recordingSink,
+            final VideoStreamData videoStreamData,
+            final Window window,
+            final Options options) {
+        if (recordingSink == null) {
+            throw new IllegalArgumentException("recordingSink can't set null.");
         }
 
         if (videoStreamData == null) {
             throw new IllegalArgumentException("videoStreamData can't set null.");
         }
 
-        if (window == null) {
-            throw new IllegalArgumentException("window can't set null.");
+        if (options == null) {
+            throw new IllegalArgumentException("options can't set null.");
         }
 
-        this.audioPath = audioPath;
+        final ToneDetector.Thresholds toneThresholds = options.getToneThresholds();
+        final AutomaticGainControl.Parameters gainParameters = options.getGainParameters();
+        this.recordingSink = recordingSink;
         this.videoStreamData = videoStreamData;
         this.window = window;
+        this.latencyTracker = new MediaLatencyTracker(options.getLagAlarmThreshold());
+        if (toneThresholds != null) {
+            customerToneDetector = new ToneDetector(toneThresholds, d -> recordTone(CUSTOMER_TRACK_NAME, d));
+            operatorToneDetector = new ToneDetector(toneThresholds, d -> recordTone(OPERATOR_TRACK_NAME, d));
+        } else {
+            customerToneDetector = null;
+            operatorToneDetector = null;
+        }
+
+        customerGainControl = gainParameters != null ? new AutomaticGainControl(gainParameters) : null;
+        operatorGainControl = gainParameters != null ? new AutomaticGainControl(gainParameters) : null;
+        manifest = new RecordingManifest(videoStreamData, options.getSegmentHashMillis());
 
         // 問い合わせの描画パネルを作成します。
-        contactPanel = window.addContactPanel(videoStreamData);
+        contactPanel = window != null ? window.addContactPanel(videoStreamData) : null;
+        LiveAudioHub.getDefault().open(videoStreamData);
+        ACTIVE_SESSIONS.add(1);
     }
 
     /**
@@ -123,64 +266,440 @@ public class AudioRecordFrameProcessor implements FrameProcessor {
             final MkvTrackMetadata trackMetadata,
             final Optional<FragmentMetadata> fragmentMetadata,
             final Optional<FragmentMetadataVisitor.MkvTagProcessor> tagProcessor) throws FrameProcessException {
+        final long startTime = System.nanoTime();
+        final FrameProcessEvent event = new FrameProcessEvent();
+        event.begin();
+        final ByteBuffer frameData = frame.getFrameData();
+        final String trackName = trackMetadata.getTrackName();
         try {
-            final ByteBuffer frameData = frame.getFrameData();
-            byte[] frameBytes = new byte[frameData.remaining()];
+            final byte[] frameBytes = new byte[frameData.remaining()];
             frameData.get(frameBytes);
-            final String trackName = trackMetadata.getTrackName();
 
             // トラック名でどちら側の音声なのか判別します。
             if (trackName.equals(CUSTOMER_TRACK_NAME)) {
-                customerStream.write(frameBytes);
-                contactPanel.updateCustomerFrequencySpectrum(frameBytes);
+                // 音量の調整は録音だけに行い、トーンの検出や分析には元の音量を使います。
+                final byte[] recordBytes = customerGainControl != null ? customerGainControl.process(frameBytes) : frameBytes;
+                customerStream.write(recordBytes);
+                manifest.updateCustomer(recordBytes, 0, recordBytes.length);
+                ResourceGovernor.getDefault().addBufferedBytes(recordBytes.length);
+                if (customerToneDetector != null) {
+                    customerToneDetector.process(frameBytes);
+                }
+
+                // 負荷が高い場合は、録音を優先して分析を省略します。
+                if (ResourceGovernor.getDefault().tryAcquire(ResourceGovernor.Work.ANALYTICS)) {
+                    try {
+                        analytics.processCustomer(frameBytes);
+                    } finally {
+                        ResourceGovernor.getDefault().release(ResourceGovernor.Work.ANALYTICS);
+                    }
+                } else {
+                    analytics.skipCustomer(frameBytes);
+                }
+
+                if (contactPanel != null) {
+                    contactPanel.updateCustomerFrequencySpectrum(frameBytes);
+                }
+
+                // フレームの配列は以降変更しないので、コピーせずに配信します。
+                LiveAudioHub.getDefault().publish(videoStreamData, LiveAudioHub.Track.CUSTOMER, frameBytes);
+                CUSTOMER_FRAMES.increment();
+                CUSTOMER_BYTES.add(frameBytes.length);
             } else if (trackName.equals(OPERATOR_TRACK_NAME)) {
-                operatorStream.write(frameBytes);
-                contactPanel.updateOperatorFrequencySpectrum(frameBytes);
+                final byte[] recordBytes = operatorGainControl != null ? operatorGainControl.process(frameBytes) : frameBytes;
+                operatorStream.write(recordBytes);
+                manifest.updateOperator(recordBytes, 0, recordBytes.length);
+                ResourceGovernor.getDefault().addBufferedBytes(recordBytes.length);
+                if (operatorToneDetector != null) {
+                    operatorToneDetector.process(frameBytes);
+                }
+
+                // 負荷が高い場合は、録音を優先して分析を省略します。
+                if (ResourceGovernor.getDefault().tryAcquire(ResourceGovernor.Work.ANALYTICS)) {
+                    try {
+                        analytics.processOperator(frameBytes);
+                    } finally {
+                        ResourceGovernor.getDefault().release(ResourceGovernor.Work.ANALYTICS);
+                    }
+                } else {
+                    analytics.skipOperator(frameBytes);
+                }
+
+                if (contactPanel != null) {
+                    contactPanel.updateOperatorFrequencySpectrum(frameBytes);
+                }
+
+                LiveAudioHub.getDefault().publish(videoStreamData, LiveAudioHub.Track.OPERATOR, frameBytes);
+                OPERATOR_FRAMES.increment();
+                OPERATOR_BYTES.add(frameBytes.length);
+            }
+
+            if (fragmentMetadata.isPresent()) {
+                manifest.recordFragment(fragmentMetadata.get().getFragmentNumberString());
+                recordLatency(fragmentMetadata.get(), frame.getTimeCode());
+            }
+
+            if (contactPanel != null) {
+                final long now = System.currentTimeMillis();
+                if (now - lastAnalyticsDisplayTime >= LATENCY_DISPLAY_INTERVAL) {
+                    lastAnalyticsDisplayTime = now;
+                    contactPanel.updateAnalytics(analytics);
+                }
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.streamName = videoStreamData.getStreamName();
+                event.trackName = trackName;
+                event.bytes = frameBytes.length;
+                event.commit();
             }
         } catch (IOException e) {
             throw new FrameProcessException("Failed to write audio file.", e);
+        } finally {
+            PROCESS_TIME.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+        }
+    }
+
+    /**
+     * 遅延を記録し、必要に応じて表示を更新します。
+     * @param fragmentMetadata フラグメントメタ情報
+     * @param frameTimeCode フラグメント内でのフレームの相対時刻(ms)
+     */
+    private void recordLatency(final FragmentMetadata fragmentMetadata, final long frameTimeCode) {
+        final long now = System.currentTimeMillis();
+        final boolean alarmChanged = latencyTracker.record(fragmentMetadata, frameTimeCode, now);
+        if (alarmChanged) {
+            if (latencyTracker.isAlarmActive()) {
+                System.err.printf("録音が遅れています。(%s, %d ms)\n",
+                        videoStreamData.getStreamName(), latencyTracker.getLastEndToEndLag());
+            } else {
+                System.out.printf("録音の遅れが解消しました。(%s, %d ms)\n",
+                        videoStreamData.getStreamName(), latencyTracker.getLastEndToEndLag());
+            }
+        }
+
+        if (contactPanel != null
+                && (alarmChanged || now - lastLatencyDisplayTime >= LATENCY_DISPLAY_INTERVAL)) {
+            lastLatencyDisplayTime = now;
+            contactPanel.updateLatency(latencyTracker);
+        }
+    }
+
+    /**
+     * 検出したトーンを記録します。
+     * @param trackName トラック名
+     * @param detection 検出したトーン
+     */
+    private void recordTone(final String trackName, final ToneDetector.Detection detection) {
+        System.out.printf("トーンを検出しました。(%s, %s, %s %s, %d ms, %d ms)\n",
+                videoStreamData.getStreamName(), trackName, detection.getType(), detection.getValue(),
+                detection.getStartMillis(), detection.getDurationMillis());
+        MetricsRegistry.getDefault().counter(
+                "tones_detected_total", "Number of tones detected.", "type", detection.getType().name().toLowerCase())
+                .increment();
+        if (toneDetections.size() < MAX_TONE_DETECTIONS) {
+            toneDetections.add(new ToneDetection(trackName, detection));
         }
     }
 
+    /**
+     * 検出したトーンを取得します。
+     * @return 検出したトーン
+     */
+    public List<ToneDetection> getToneDetections() {
+        synchronized (toneDetections) {
+            return new ArrayList<>(toneDetections);
+        }
+    }
+
+    /**
+     * 通話品質の指標を取得します。
+     * @return 通話品質の指標
+     */
+    public ConversationAnalytics getAnalytics() {
+        return analytics;
+    }
+
+    /**
+     * 分析結果のサマリーを生成します。
+     * @return サマリー(1行のJSON)
+     * @throws IOException 変換エラー
+     */
+    byte[] createSummary() throws IOException {
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("contactId", videoStreamData.getContactId());
+        summary.put("streamName", videoStreamData.getStreamName());
+        summary.put("startTimestamp", videoStreamData.getStartTimestamp().getTime());
+        summary.putAll(analytics.toSummary());
+        final List<Map<String, Object>> tones = new ArrayList<>();
+        for (ToneDetection toneDetection : getToneDetections()) {
+            final Map<String, Object> tone = new LinkedHashMap<>();
+            tone.put("track", toneDetection.getTrackName());
+            tone.put("type", toneDetection.getDetection().getType().name());
+            tone.put("value", toneDetection.getDetection().getValue());
+            tone.put("startMillis", toneDetection.getDetection().getStartMillis());
+            tone.put("durationMillis", toneDetection.getDetection().getDurationMillis());
+            tones.add(tone);
+        }
+
+        summary.put("tones", tones);
+        return SUMMARY_MAPPER.writeValueAsBytes(summary);
+    }
+
+    /**
+     * 遅延の記録を取得します。
+     * @return 遅延の記録
+     */
+    public MediaLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
     /**
      * フレームの処理を終了します。
+     * 保存に失敗した場合も、バッファの使用量と記録中のセッション数を戻し、音声の配信と描画パネルを必ず終了します。
      */
     @Override
     public void close() {
-        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS");
-        final String baseFileName = dateFormat.format(videoStreamData.getStartTimestamp());
+        final long startTime = System.nanoTime();
+        long audioBytes = customerStream.size() + operatorStream.size();
+        try {
+            final RecordingFlushEvent event = new RecordingFlushEvent();
+            event.begin();
+            if (customerGainControl != null) {
+                final byte[] customerRest = customerGainControl.flush();
+                final byte[] operatorRest = operatorGainControl.flush();
+                customerStream.write(customerRest, 0, customerRest.length);
+                operatorStream.write(operatorRest, 0, operatorRest.length);
+                manifest.updateCustomer(customerRest, 0, customerRest.length);
+                manifest.updateOperator(operatorRest, 0, operatorRest.length);
+                ResourceGovernor.getDefault().addBufferedBytes(customerRest.length + operatorRest.length);
+                audioBytes += customerRest.length + operatorRest.length;
+            }
 
-        // フォルダの作成
-        new File(audioPath).mkdirs();
+            if (customerToneDetector != null) {
+                customerToneDetector.flush();
+                operatorToneDetector.flush();
+            }
 
-        final File customerPath = new File(audioPath, baseFileName + "-cu.wav");
-        try (OutputStream customerFileStream = new FileOutputStream(customerPath, false)){
-            WriteAudioData(customerFileStream, customerStream.toByteArray());
-        } catch (IOException e) {
-            e.printStackTrace();
+            try {
+                recordingSink.write(videoStreamData, customerStream.toByteArray(), operatorStream.toByteArray());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            try {
+                recordingSink.writeSummary(videoStreamData, createSummary());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            try {
+                recordingSink.writeManifest(videoStreamData, manifest.finish());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.streamName = videoStreamData.getStreamName();
+                event.bytes = audioBytes;
+                event.commit();
+            }
+        } finally {
+            ResourceGovernor.getDefault().addBufferedBytes(-audioBytes);
+            ACTIVE_SESSIONS.add(-1);
+            try {
+                LiveAudioHub.getDefault().close(videoStreamData);
+            } finally {
+                // 問い合わせの描画パネルを削除します。
+                if (window != null) {
+                    window.removeContactPanel(videoStreamData);
+                }
+            }
+
+            CLOSE_TIME.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
         }
+    }
 
-        try {
-            customerStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * 録音の設定です。変更できない値を持ち、変更した設定は{@code with}で始まるメソッドで生成します。
+     */
+    public static class Options {
+
+        /**
+         * 遅延の警告、トーンの検出、音量の調整、区間ごとのハッシュを行わない設定。
+         */
+        public static final Options DEFAULT = new Options(0, null, null, 0);
+
+        /**
+         * 遅延の警告の閾値(ms)、0以下の場合は警告しません。
+         */
+        private final long lagAlarmThreshold;
+
+        /**
+         * トーンの検出の閾値、検出しない場合は{@code null}。
+         */
+        private final ToneDetector.Thresholds toneThresholds;
+
+        /**
+         * 録音の音量の調整の設定、調整しない場合は{@code null}。
+         */
+        private final AutomaticGainControl.Parameters gainParameters;
+
+        /**
+         * 区間ごとのハッシュを計算する長さ(ms)、0の場合は全体のハッシュだけを計算します。
+         */
+        private final long segmentHashMillis;
+
+        /**
+         * コンストラクタ。
+         * @param lagAlarmThreshold 遅延の警告の閾値(ms)、0以下の場合は警告しません
+         * @param toneThresholds トーンの検出の閾値、検出しない場合は{@code null}
+         * @param gainParameters 録音の音量の調整の設定、調整しない場合は{@code null}
+         * @param segmentHashMillis 区間ごとのハッシュを計算する長さ(ms)、0の場合は全体のハッシュだけを計算します
+         */
+        private Options(
+                final long lagAlarmThreshold,
+                final ToneDetector.Thresholds toneThresholds,
+                final AutomaticGainControl.Parameters gainParameters,
+                final long segmentHashMillis) {
+            if (segmentHashMillis < 0) {
+                throw new IllegalArgumentException("segmentHashMillis can't set negative number.");
+            }
+
+            this.lagAlarmThreshold = lagAlarmThreshold;
+            this.toneThresholds = toneThresholds;
+            this.gainParameters = gainParameters;
+            this.segmentHashMillis = segmentHashMillis;
         }
 
-        final File operatorPath = new File(audioPath, baseFileName + "-op.wav");
-        try (OutputStream operatorFileStream = new FileOutputStream(operatorPath, false)){
-            WriteAudioData(operatorFileStream, operatorStream.toByteArray());
-        } catch (IOException e) {
-            e.printStackTrace();
+        /**
+         * 録音を止めずに変更できる設定から生成します。
+         * @param settings 録音を止めずに変更できる設定
+         * @return 録音の設定
+         */
+        public static Options fromSettings(final RuntimeSettings settings) {
+            if (settings == null) {
+                throw new IllegalArgumentException("settings can't set null.");
+            }
+
+            return new Options(
+                    settings.getLagAlarmThreshold(),
+                    settings.getToneThresholds(),
+                    settings.getGainParameters(),
+                    settings.getSegmentHashMillis());
         }
 
-        try {
-            operatorStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        /**
+         * 遅延の警告の閾値を変更した設定を生成します。
+         * @param lagAlarmThreshold 遅延の警告の閾値(ms)、0以下の場合は警告しません
+         * @return 録音の設定
+         */
+        public Options withLagAlarmThreshold(final long lagAlarmThreshold) {
+            return new Options(lagAlarmThreshold, toneThresholds, gainParameters, segmentHashMillis);
+        }
+
+        /**
+         * トーンの検出の閾値を変更した設定を生成します。
+         * @param toneThresholds トーンの検出の閾値、検出しない場合は{@code null}
+         * @return 録音の設定
+         */
+        public Options withToneThresholds(final ToneDetector.Thresholds toneThresholds) {
+            return new Options(lagAlarmThreshold, toneThresholds, gainParameters, segmentHashMillis);
+        }
+
+        /**
+         * 録音の音量の調整の設定を変更した設定を生成します。
+         * @param gainParameters 録音の音量の調整の設定、調整しない場合は{@code null}
+         * @return 録音の設定
+         */
+        public Options withGainParameters(final AutomaticGainControl.Parameters gainParameters) {
+            return new Options(lagAlarmThreshold, toneThresholds, gainParameters, segmentHashMillis);
+        }
+
+        /**
+         * 区間ごとのハッシュを計算する長さを変更した設定を生成します。
+         * @param segmentHashMillis 区間ごとのハッシュを計算する長さ(ms)、0の場合は全体のハッシュだけを計算します
+         * @return 録音の設定
+         */
+        public Options withSegmentHashMillis(final long segmentHashMillis) {
+            return new Options(lagAlarmThreshold, toneThresholds, gainParameters, segmentHashMillis);
+        }
+
+        /**
+         * 遅延の警告の閾値を取得します。
+         * @return 遅延の警告の閾値(ms)、0以下の場合は警告しません
+         */
+        public long getLagAlarmThreshold() {
+            return lagAlarmThreshold;
+        }
+
+        /**
+         * トーンの検出の閾値を取得します。
+         * @return トーンの検出の閾値、検出しない場合は{@code null}
+         */
+        public ToneDetector.Thresholds getToneThresholds() {
+            return toneThresholds;
+        }
+
+        /**
+         * 録音の音量の調整の設定を取得します。
+         * @return 録音の音量の調整の設定、調整しない場合は{@code null}
+         */
+        public AutomaticGainControl.Parameters getGainParameters() {
+            return gainParameters;
         }
 
-        // 問い合わせの描画パネルを削除します。
-        window.removeContactPanel(videoStreamData);
+        /**
+         * 区間ごとのハッシュを計算する長さを取得します。
+         * @return 区間ごとのハッシュを計算する長さ(ms)、0の場合は全体のハッシュだけを計算します
+         */
+        public long getSegmentHashMillis() {
+            return segmentHashMillis;
+        }
+    }
+
+    /**
+     * トラックで検出したトーンです。
+     */
+    public static class ToneDetection {
+
+        /**
+         * トラック名。
+         */
+        private final String trackName;
+
+        /**
+         * 検出したトーン。
+         */
+        private final ToneDetector.Detection detection;
+
+        /**
+         * コンストラクタ。
+         * @param trackName トラック名
+         * @param detection 検出したトーン
+         */
+        public ToneDetection(final String trackName, final ToneDetector.Detection detection) {
+            this.trackName = trackName;
+            this.detection = detection;
+        }
+
+        /**
+         * トラック名を取得します。
+         * @return トラック名
+         */
+        public String getTrackName() {
+            return trackName;
+        }
+
+        /**
+         * 検出したトーンを取得します。
+         * @return 検出したトーン
+         */
+        public ToneDetector.Detection getDetection() {
+            return detection;
+        }
     }
 
     /**
@@ -190,15 +709,26 @@ public class AudioRecordFrameProcessor implements FrameProcessor {
      * @param audioData 音声データ
      * @throws IOException 書き込みエラー
      */
-    private static void WriteAudioData(final OutputStream outputStream, final byte[] audioData) throws IOException
+    static void WriteAudioData(final OutputStream outputStream, final byte[] audioData) throws IOException
+    {
+        WriteAudioHeader(outputStream, audioData.length);
+        outputStream.write(audioData);
+    }
+
+    /**
+     * 音声データの前に置くWAVヘッダーを書き込みます。
+     * @param outputStream 出力ストリーム
+     * @param audioLength 音声データのバイト数、長さを決めずに書き続ける場合は-1
+     * @throws IOException 書き込みエラー
+     */
+    static void WriteAudioHeader(final OutputStream outputStream, final int audioLength) throws IOException
     {
-        final int audioLength = audioData.length;
         final Charset charset = StandardCharsets.ISO_8859_1;
         final ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
 
         // チャンクの書き込み
         outputStream.write("RIFF".getBytes(charset));
-        outputStream.write(ByteBuffer.allocate(4).order(byteOrder).putInt(36 + audioLength).array()); // チャンクのサイズ
+        outputStream.write(ByteBuffer.allocate(4).order(byteOrder).putInt(audioLength < 0 ? -1 : 36 + audioLength).array()); // チャンクのサイズ
         outputStream.write("WAVE".getBytes(charset));
 
         // サブチャンク1の書き込み
@@ -214,6 +744,5 @@ public class AudioRecordFrameProcessor implements FrameProcessor {
         // サブチャンク2の書き込み
         outputStream.write("data".getBytes(charset));
         outputStream.write(ByteBuffer.allocate(4).order(byteOrder).putInt(audioLength).array()); // サブチャンク2のサイズ
-        outputStream.write(audioData);
     }
 }
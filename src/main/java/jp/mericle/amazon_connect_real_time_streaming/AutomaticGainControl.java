@@ -0,0 +1,423 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+
+/**
+ * 1つのトラックの音声の音量を、録音しながら目標の音量に揃えます。
+ * <p>
+ * {@value #BLOCK_SIZE}サンプル(20ms)ごとに発話の音量を平滑化して目標との比からゲインを求め、ブロックの間で少しずつ変化させます。
+ * 無音のブロックでは音量を更新しないので、無音の間に雑音を持ち上げることはありません。
+ * ゲインをかけた後は、先読みした区間の最大値でクリッピングしないよう、最大値に達するまでに少しずつ抑え(ルックアヘッドリミッター)、ゆっくり戻します。
+ * そのため出力は先読みの長さだけ遅れ、{@link #flush()}で残りを出力します。
+ * サンプルごとの処理は整数の乗算とシフトだけで、先読みの区間の最小値も固定長の配列で管理するので、フレームあたりの処理量は一定です。
+ * <p>
+ * 音声データは8kHz、16bitリトルエンディアンのPCMとして扱います。
+ * @author Bladean Mericle
+ */
+public class AutomaticGainControl {
+
+    /**
+     * 音声のサンプリング周波数(Hz)。
+     */
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * 音量を判定する単位となるサンプル数(20ms)。
+     */
+    static final int BLOCK_SIZE = 160;
+
+    /**
+     * ゲインの固定小数点の小数部のビット数(1.0 = 16384)。
+     */
+    private static final int GAIN_SHIFT = 14;
+
+    /**
+     * リミッターのゲインの固定小数点の小数部のビット数(1.0 = 32768)。
+     */
+    private static final int LIMITER_SHIFT = 15;
+
+    /**
+     * リミッターのゲインの1.0。
+     */
+    private static final int LIMITER_UNITY = 1 << LIMITER_SHIFT;
+
+    /**
+     * リミッターの出力の上限(約-0.2dBFS)。
+     */
+    private static final int CEILING = 32000;
+
+    /**
+     * リミッターのゲインを戻す速さ(1サンプルごとに差の1/2^nだけ戻す、約30ms)。
+     */
+    private static final int RELEASE_SHIFT = 8;
+
+    /**
+     * 音量の平滑化の速さ(1ブロックごとに差の1/2^nだけ追従する、約160ms)。
+     */
+    private static final int LEVEL_SHIFT = 3;
+
+    /**
+     * 1ブロックで変化させるゲインの割合の上限(1/2^n、約0.27dB)。
+     */
+    private static final int GAIN_RATE_SHIFT = 5;
+
+    /**
+     * 発話として扱うブロックの音量(dBFS)。
+     */
+    private static final double GATE_LEVEL = -50.0;
+
+    /**
+     * 発話として扱うブロックの平均エネルギー。
+     */
+    private static final long GATE_ENERGY = toEnergy(GATE_LEVEL);
+
+    /**
+     * 目標の平均エネルギー。
+     */
+    private final long targetEnergy;
+
+    /**
+     * ゲインの上限。
+     */
+    private final int maxGain;
+
+    /**
+     * ゲインの下限。
+     */
+    private final int minGain;
+
+    /**
+     * 先読みするサンプル数。
+     */
+    private final int lookAhead;
+
+    /**
+     * ゲインをかけたサンプルのリングバッファ。
+     * 出力するサンプルから最新のサンプルまでと、待ち行列から除く前の1つ前のサンプルを保持します。
+     */
+    private final int[] delayLine;
+
+    /**
+     * 先読みの区間で必要なリミッターのゲインの最小値を求めるための、サンプル番号の単調な待ち行列。
+     */
+    private final long[] minQueue;
+
+    /**
+     * サンプルごとに必要なリミッターのゲイン。
+     */
+    private final int[] requiredGains;
+
+    /**
+     * 待ち行列の先頭の位置。
+     */
+    private int minQueueHead = 0;
+
+    /**
+     * 待ち行列の長さ。
+     */
+    private int minQueueSize = 0;
+
+    /**
+     * 入力したサンプル数。
+     */
+    private long inputSamples = 0;
+
+    /**
+     * 現在のゲイン(固定小数点)。
+     */
+    private int gain = 1 << GAIN_SHIFT;
+
+    /**
+     * ゲインの1サンプルごとの変化量(固定小数点)。
+     */
+    private int gainStep = 0;
+
+    /**
+     * 現在のリミッターのゲイン(固定小数点)。
+     */
+    private int limiterGain = LIMITER_UNITY;
+
+    /**
+     * 平滑化した発話の平均エネルギー、まだ発話がない場合は0。
+     */
+    private long levelEnergy = 0;
+
+    /**
+     * 現在のブロックのエネルギー。
+     */
+    private long blockEnergy = 0;
+
+    /**
+     * 現在のブロックのサンプル数。
+     */
+    private int blockSamples = 0;
+
+    /**
+     * フレームをまたいだサンプルの下位バイト、ない場合は-1。
+     */
+    private int pendingLowByte = -1;
+
+    /**
+     * 出力先。フレームごとに再利用します。
+     */
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    /**
+     * コンストラクタ。
+     * @param parameters 音量の調整の設定
+     */
+    public AutomaticGainControl(final Parameters parameters) {
+        if (parameters == null) {
+            throw new IllegalArgumentException("parameters can't set null.");
+        }
+
+        this.targetEnergy = toEnergy(parameters.getTargetLevel());
+        this.maxGain = (int)Math.round(Math.pow(10.0, parameters.getMaxGain() / 20.0) * (1 << GAIN_SHIFT));
+        this.minGain = (int)Math.round(Math.pow(10.0, -parameters.getMaxGain() / 20.0) * (1 << GAIN_SHIFT));
+        this.lookAhead = (int)(parameters.getLookAheadMillis() * SAMPLE_RATE / 1000);
+        this.delayLine = new int[lookAhead + 2];
+        this.minQueue = new long[lookAhead + 2];
+        this.requiredGains = new int[lookAhead + 2];
+    }
+
+    /**
+     * 音声データの音量を調整します。
+     * 出力は先読みの長さだけ遅れるので、入力と長さが異なることがあります。
+     * @param data 音声データ
+     * @return 音量を調整した音声データ
+     */
+    public byte[] process(final byte[] data) {
+        output.reset();
+        if (data == null) {
+            return output.toByteArray();
+        }
+
+        int offset = 0;
+        if (pendingLowByte >= 0 && data.length > 0) {
+            processSample((short)((data[0] << 8) | pendingLowByte));
+            pendingLowByte = -1;
+            offset = 1;
+        }
+
+        for (; offset + 1 < data.length; offset += 2) {
+            processSample((short)((data[offset + 1] << 8) | (data[offset] & 0xFF)));
+        }
+
+        if (offset < data.length) {
+            pendingLowByte = data[offset] & 0xFF;
+        }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * 先読みのために残っているサンプルを出力します。通話の終了時に呼びます。
+     * @return 音量を調整した音声データ
+     */
+    public byte[] flush() {
+        output.reset();
+        final long outputSamples = Math.max(inputSamples - lookAhead, 0);
+        for (long n = outputSamples; n < inputSamples; ++n) {
+            emit(n);
+        }
+
+        inputSamples = 0;
+        minQueueSize = 0;
+        return output.toByteArray();
+    }
+
+    /**
+     * 1サンプルを処理し、先読みの長さだけ前のサンプルを出力します。
+     * @param sample サンプル
+     */
+    private void processSample(final short sample) {
+        blockEnergy += sample * sample;
+        if (++blockSamples == BLOCK_SIZE) {
+            updateGain();
+        }
+
+        gain += gainStep;
+        final int amplified = (int)(((long)sample * gain) >> GAIN_SHIFT);
+        final int magnitude = Math.abs(amplified);
+        final int required = magnitude <= CEILING ? LIMITER_UNITY : (int)(((long)CEILING << LIMITER_SHIFT) / magnitude);
+
+        final long n = inputSamples++;
+        final int index = (int)(n % delayLine.length);
+        delayLine[index] = amplified;
+        requiredGains[index] = required;
+
+        // 必要なゲインが新しいサンプルより大きいサンプルは、区間の最小値になることがないので待ち行列から除きます。
+        // 同じ値のサンプルは残すので、待ち行列の先頭は区間の最小値の最初のサンプルになります。
+        while (minQueueSize > 0 && requiredGains[queueIndex(minQueueSize - 1)] > required) {
+            --minQueueSize;
+        }
+
+        minQueue[(minQueueHead + minQueueSize) % minQueue.length] = n;
+        ++minQueueSize;
+        if (n >= lookAhead) {
+            emit(n - lookAhead);
+        }
+    }
+
+    /**
+     * 先読みの区間の最小値に向けてリミッターのゲインを変化させて、1サンプルを出力します。
+     * 区間の最小値が現在のゲインより小さい場合は、最小値のサンプルでちょうど最小値になるように1サンプルずつ下げます。
+     * @param n 出力するサンプルの番号
+     */
+    private void emit(final long n) {
+        while (minQueue[minQueueHead] < n) {
+            minQueueHead = (minQueueHead + 1) % minQueue.length;
+            --minQueueSize;
+        }
+
+        final int windowMin = requiredGains[queueIndex(0)];
+        if (windowMin < limiterGain) {
+            // 切り上げて割るので、最小値のサンプルでは必ず最小値まで下がります。
+            final long remaining = minQueue[minQueueHead] - n + 1;
+            limiterGain -= (int)((limiterGain - windowMin + remaining - 1) / remaining);
+        } else {
+            limiterGain = Math.min(limiterGain + ((LIMITER_UNITY - limiterGain) >> RELEASE_SHIFT), windowMin);
+        }
+
+        // 最小値より前に、下げている途中のゲインでは足りないサンプルがある場合は、そのサンプルだけ抑えます。
+        final int index = (int)(n % delayLine.length);
+        final int sampleGain = Math.min(limiterGain, requiredGains[index]);
+        int value = (int)(((long)delayLine[index] * sampleGain) >> LIMITER_SHIFT);
+        value = Math.max(Math.min(value, Short.MAX_VALUE), Short.MIN_VALUE);
+        output.write(value & 0xFF);
+        output.write((value >> 8) & 0xFF);
+    }
+
+    /**
+     * 待ち行列の位置をサンプルのリングバッファの位置に変換します。
+     * @param position 待ち行列の先頭からの位置
+     * @return リングバッファの位置
+     */
+    private int queueIndex(final int position) {
+        return (int)(minQueue[(minQueueHead + position) % minQueue.length] % delayLine.length);
+    }
+
+    /**
+     * ブロックの音量から、次のブロックのゲインの変化量を求めます。
+     */
+    private void updateGain() {
+        final long blockMean = blockEnergy / BLOCK_SIZE;
+        blockEnergy = 0;
+        blockSamples = 0;
+        if (blockMean < GATE_ENERGY) {
+            gainStep = 0;
+            return;
+        }
+
+        levelEnergy = levelEnergy == 0 ? blockMean : levelEnergy + ((blockMean - levelEnergy) >> LEVEL_SHIFT);
+
+        // ゲインの計算はブロックごとに1回だけなので、平方根は浮動小数点で求めます。
+        int target = (int)Math.round(Math.sqrt((double)targetEnergy / levelEnergy) * (1 << GAIN_SHIFT));
+        target = Math.max(Math.min(target, maxGain), minGain);
+        final int maxChange = Math.max(gain >> GAIN_RATE_SHIFT, 1);
+        target = Math.max(Math.min(target, gain + maxChange), gain - maxChange);
+        gainStep = (target - gain) / BLOCK_SIZE;
+    }
+
+    /**
+     * 音量を平均エネルギーに変換します。
+     * @param level 音量(dBFS)
+     * @return 平均エネルギー
+     */
+    private static long toEnergy(final double level) {
+        final double amplitude = Math.pow(10.0, level / 20.0) * Short.MAX_VALUE;
+        return Math.max((long)(amplitude * amplitude), 1);
+    }
+
+    /**
+     * 音量の調整の設定です。
+     */
+    public static class Parameters {
+
+        /**
+         * 先読みの長さの上限(ms)。
+         */
+        public static final long MAX_LOOK_AHEAD_MILLIS = 100;
+
+        /**
+         * 標準の設定。
+         */
+        public static final Parameters DEFAULT = new Parameters(-20.0, 20.0, 5);
+
+        /**
+         * 目標の発話の音量(dBFS)。
+         */
+        private final double targetLevel;
+
+        /**
+         * ゲインの上限(dB)。下限は符号を反転した値です。
+         */
+        private final double maxGain;
+
+        /**
+         * 先読みの長さ(ms)。
+         */
+        private final long lookAheadMillis;
+
+        /**
+         * コンストラクタ。
+         * @param targetLevel 目標の発話の音量(dBFS)
+         * @param maxGain ゲインの上限(dB)、下限は符号を反転した値
+         * @param lookAheadMillis 先読みの長さ(ms)
+         */
+        public Parameters(final double targetLevel, final double maxGain, final long lookAheadMillis) {
+            if (targetLevel >= 0.0) {
+                throw new IllegalArgumentException("targetLevel must be negative number.");
+            }
+
+            if (maxGain < 0.0 || maxGain > 40.0) {
+                throw new IllegalArgumentException("maxGain must be between 0 and 40.");
+            }
+
+            if (lookAheadMillis <= 0 || lookAheadMillis > MAX_LOOK_AHEAD_MILLIS) {
+                throw new IllegalArgumentException("lookAheadMillis must be between 1 and " + MAX_LOOK_AHEAD_MILLIS + ".");
+            }
+
+            this.targetLevel = targetLevel;
+            this.maxGain = maxGain;
+            this.lookAheadMillis = lookAheadMillis;
+        }
+
+        /**
+         * 設定から音量の調整の設定を生成します。
+         * @param settings 設定
+         * @return 音量の調整の設定
+         */
+        public static Parameters fromSettings(final Properties settings) {
+            return new Parameters(
+                    Double.parseDouble(settings.getProperty("agctargetlevel", Double.toString(DEFAULT.targetLevel))),
+                    Double.parseDouble(settings.getProperty("agcmaxgain", Double.toString(DEFAULT.maxGain))),
+                    Long.parseLong(settings.getProperty("agclookahead", Long.toString(DEFAULT.lookAheadMillis))));
+        }
+
+        /**
+         * 目標の発話の音量を取得します。
+         * @return 目標の発話の音量(dBFS)
+         */
+        public double getTargetLevel() {
+            return targetLevel;
+        }
+
+        /**
+         * ゲインの上限を取得します。
+         * @return ゲインの上限(dB)
+         */
+        public double getMaxGain() {
+            return maxGain;
+        }
+
+        /**
+         * 先読みの長さを取得します。
+         * @return 先読みの長さ(ms)
+         */
+        public long getLookAheadMillis() {
+            return lookAheadMillis;
+        }
+    }
+}
@@ -0,0 +1,684 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.ClientConfigurationFactory;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.kinesisvideo.AmazonKinesisVideo;
+import com.amazonaws.services.kinesisvideo.AmazonKinesisVideoArchivedMedia;
+import com.amazonaws.services.kinesisvideo.AmazonKinesisVideoArchivedMediaClientBuilder;
+import com.amazonaws.services.kinesisvideo.AmazonKinesisVideoClientBuilder;
+import com.amazonaws.services.kinesisvideo.model.APIName;
+import com.amazonaws.services.kinesisvideo.model.Fragment;
+import com.amazonaws.services.kinesisvideo.model.FragmentSelector;
+import com.amazonaws.services.kinesisvideo.model.FragmentSelectorType;
+import com.amazonaws.services.kinesisvideo.model.GetDataEndpointRequest;
+import com.amazonaws.services.kinesisvideo.model.GetMediaForFragmentListRequest;
+import com.amazonaws.services.kinesisvideo.model.ListFragmentsRequest;
+import com.amazonaws.services.kinesisvideo.model.ListFragmentsResult;
+import com.amazonaws.services.kinesisvideo.model.TimestampRange;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * 録音できなかった過去の問い合わせを、Kinesis Video Streamsに保存されている音声から録音し直します。
+ * <p>
+ * GetMediaは実時間でしか受信できないので、ListFragmentsでフラグメントの一覧を取得し、
+ * 一定数ごとにまとめたフラグメントをGetMediaForFragmentListで並列にダウンロードします。
+ * 解析していないダウンロードの数は、全ての問い合わせを合わせて同時にダウンロードする数までに制限します。
+ * ダウンロードしたフラグメントは順番通りに、通常の録音と同じ{@link AudioRecordFrameProcessor}に渡します。
+ * <p>
+ * 引数は"--events ./events.json"(1行に1件の問い合わせのイベントのJSON)、
+ * または"--stream (ストリーム名) --from 2020-01-01-09-00-00 --to 2020-01-01-10-00-00"のように指定します。
+ * "--parallel"で同時にダウンロードする数、"--batch"で1回にダウンロードするフラグメント数を指定します。
+ * 接続先と保存先は"properties.xml"(または"--settings"で指定したファイル)の設定を使います。
+ * @author Bladean Mericle
+ */
+public class Backfiller {
+
+    /**
+     * 日時の書式。
+     */
+    private static final String DATE_PATTERN = "yyyy-MM-dd-HH-mm-ss";
+
+    /**
+     * ListFragmentsで1回に取得するフラグメント数。
+     */
+    private static final long LIST_FRAGMENTS_MAX_RESULTS = 1000;
+
+    /**
+     * GetMediaForFragmentListで1回にダウンロードできるフラグメント数の上限。
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    /**
+     * 問い合わせのイベントに終了時刻がない場合に録音する長さ(ms)。
+     */
+    private static final long DEFAULT_CONTACT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * リージョン。
+     */
+    private final Regions region;
+
+    /**
+     * AWS APIの接続先、空の場合はリージョンの標準の接続先。
+     */
+    private final String endpoint;
+
+    /**
+     * 認証情報プロバイダ。
+     */
+    private final AWSCredentialsProvider credentialsProvider;
+
+    /**
+     * クライアント環境の設定。
+     */
+    private final ClientConfiguration config;
+
+    /**
+     * 録音した音声の保存先。
+     */
+    private final RecordingSink recordingSink;
+
+    /**
+     * 録音の設定。
+     */
+    private final AudioRecordFrameProcessor.Options options;
+
+    /**
+     * 同時にダウンロードする数。
+     */
+    private final int parallelism;
+
+    /**
+     * 1回にダウンロードするフラグメント数。
+     */
+    private final int batchSize;
+
+    /**
+     * 最大リトライ数。
+     */
+    private final int maxRetryCount;
+
+    /**
+     * リトライ間隔。
+     */
+    private final int retryInterval;
+
+    /**
+     * コンストラクタ。
+     * @param region リージョン
+     * @param endpoint AWS APIの接続先、空の場合はリージョンの標準の接続先
+     * @param credentialsProvider 認証情報プロバイダ
+     * @param config クライアント環境の設定
+     * @param recordingSink 録音した音声の保存先
+     * @param gainParameters 録音の音量の調整の設定、調整しない場合は{@code null}
+     * @param segmentHashMillis 区間ごとのハッシュを計算する長さ(ms)、0の場合は計算しません
+     * @param parallelism 同時にダウンロードする数
+     * @param batchSize 1回にダウンロードするフラグメント数
+     * @param maxRetryCount 最大リトライ数
+     * @param retryInterval リトライ間隔
+     */
+    public Backfiller(
+            final Regions region,
+            final String endpoint,
+            final AWSCredentialsProvider credentialsProvider,
+            final ClientConfiguration config,
+            final RecordingSink recordingSink,
+            final AutomaticGainControl.Parameters gainParameters,
+            final long segmentHashMillis,
+            final int parallelism,
+            final int batchSize,
+            final int maxRetryCount,
+            final int retryInterval) {
+        if (region == null) {
+            throw new IllegalArgumentException("region can't set null.");
+        }
+
+        if (credentialsProvider == null) {
+            throw new IllegalArgumentException("credentialsProvider can't set null.");
+        }
+
+        if (config == null) {
+            throw new IllegalArgumentException("config can't set null.");
+        }
+
+        if (recordingSink == null) {
+            throw new IllegalArgumentException("recordingSink can't set null.");
+        }
+
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive number.");
+        }
+
+        if (batchSize <= 0 || batchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("batchSize must be between 1 and " + MAX_BATCH_SIZE + ".");
+        }
+
+        this.region = region;
+        this.endpoint = endpoint;
+        this.credentialsProvider = credentialsProvider;
+        this.config = config;
+        this.recordingSink = recordingSink;
+        this.options = AudioRecordFrameProcessor.Options.DEFAULT
+                .withGainParameters(gainParameters)
+                .withSegmentHashMillis(segmentHashMillis);
+        this.parallelism = parallelism;
+        this.batchSize = batchSize;
+        this.maxRetryCount = maxRetryCount;
+        this.retryInterval = retryInterval;
+    }
+
+    /**
+     * メインメソッドです。
+     * @param args コマンドライン引数
+     * @throws Exception 録音に失敗した場合
+     */
+    public static void main(final String[] args) throws Exception {
+        String settingsPath = "properties.xml";
+        String eventsPath = null;
+        final List<String> streamNames = new ArrayList<>();
+        Date from = null;
+        Date to = new Date();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int batchSize = 50;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+            case "--settings":
+                settingsPath = args[++i];
+                break;
+            case "--events":
+                eventsPath = args[++i];
+                break;
+            case "--stream":
+                streamNames.add(args[++i]);
+                break;
+            case "--from":
+                from = parseDate(args[++i]);
+                break;
+            case "--to":
+                to = parseDate(args[++i]);
+                break;
+            case "--parallel":
+                parallelism = Integer.parseInt(args[++i]);
+                break;
+            case "--batch":
+                batchSize = Integer.parseInt(args[++i]);
+                break;
+            default:
+                System.err.printf("不明な引数です。(%s)\n", args[i]);
+                return;
+            }
+        }
+
+        final List<Contact> contacts = new ArrayList<>();
+        if (eventsPath != null) {
+            contacts.addAll(readContacts(eventsPath));
+        } else if (!streamNames.isEmpty() && from != null) {
+            for (String streamName : streamNames) {
+                contacts.add(new Contact(new VideoStreamData(streamName, from), to));
+            }
+        } else {
+            System.err.printf("\"--events\"、または\"--stream\"と\"--from\"を指定してください。\n");
+            return;
+        }
+
+        final Properties settings = App.getSettings(settingsPath);
+        if (settings == null) {
+            System.err.printf("\"%s\"が見つかりませんでした。\n", settingsPath);
+            return;
+        }
+
+        final Backfiller backfiller = new Backfiller(
+                Regions.fromName(settings.getProperty("regionname")),
+                settings.getProperty("endpoint", ""),
+                new DefaultAWSCredentialsProviderChain(),
+                new ClientConfigurationFactory().getConfig(),
+                App.createRecordingSink(settings),
+                Boolean.parseBoolean(settings.getProperty("agc", "false"))
+                        ? AutomaticGainControl.Parameters.fromSettings(settings) : null,
+                Long.parseLong(settings.getProperty("segmenthashmillis", "0")),
+                parallelism,
+                batchSize,
+                Integer.parseInt(settings.getProperty("maxretrycount")),
+                Integer.parseInt(settings.getProperty("retryinterval")));
+        backfiller.run(contacts);
+    }
+
+    /**
+     * 問い合わせのイベントのファイルを読み込みます。
+     * 終了時刻("StopTimestamp")がないイベントは、開始時刻から一定時間を録音します。
+     * ストリームは次の問い合わせで使い回されるので、同じストリームの次の問い合わせの開始時刻までで録音を終了します。
+     * @param eventsPath イベントのファイルのパス(1行に1件のJSON)
+     * @return 問い合わせの一覧
+     * @throws IOException 読み込みエラー
+     */
+    static List<Contact> readContacts(final String eventsPath) throws IOException {
+        final ObjectMapper mapper = new ObjectMapper();
+        final List<Contact> contacts = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(eventsPath), StandardCharsets.UTF_8)) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            final JsonNode node = mapper.readTree(line);
+            final VideoStreamData videoStreamData = App.getVideoStreamData(node);
+            if (videoStreamData == null) {
+                continue;
+            }
+
+            final long stopTimestamp = node
+                    .path("Details")
+                    .path("ContactData")
+                    .path("MediaStreams")
+                    .path("Customer")
+                    .path("Audio")
+                    .path("StopTimestamp")
+                    .asLong();
+            contacts.add(new Contact(videoStreamData, new Date(stopTimestamp > 0
+                    ? stopTimestamp
+                    : videoStreamData.getStartTimestamp().getTime() + DEFAULT_CONTACT_MILLIS)));
+        }
+
+        return limitToNextContact(contacts);
+    }
+
+    /**
+     * 問い合わせの終了時刻を、同じストリームの次の問い合わせの開始時刻までに制限します。
+     * 同じストリームで開始時刻も同じ問い合わせは、同じ問い合わせの重複したイベントとして最初の1件だけを残します。
+     * @param contacts 問い合わせの一覧
+     * @return 終了時刻を制限した問い合わせの一覧(元の順番)
+     */
+    static List<Contact> limitToNextContact(final List<Contact> contacts) {
+        final Map<String, TreeSet<Long>> startTimestamps = new HashMap<>();
+        for (Contact contact : contacts) {
+            startTimestamps
+                    .computeIfAbsent(contact.getVideoStreamData().getStreamName(), streamName -> new TreeSet<>())
+                    .add(contact.getVideoStreamData().getStartTimestamp().getTime());
+        }
+
+        final Set<String> added = new HashSet<>();
+        final List<Contact> limited = new ArrayList<>();
+        for (Contact contact : contacts) {
+            final VideoStreamData videoStreamData = contact.getVideoStreamData();
+            final long startTimestamp = videoStreamData.getStartTimestamp().getTime();
+            if (!added.add(videoStreamData.getStreamName() + "/" + startTimestamp)) {
+                continue;
+            }
+
+            final Long nextStartTimestamp = startTimestamps.get(videoStreamData.getStreamName()).higher(startTimestamp);
+            if (nextStartTimestamp != null && nextStartTimestamp < contact.getEndTimestamp().getTime()) {
+                limited.add(new Contact(videoStreamData, new Date(nextStartTimestamp)));
+            } else {
+                limited.add(contact);
+            }
+        }
+
+        return limited;
+    }
+
+    /**
+     * 全ての問い合わせを録音し、結果を出力します。
+     * ダウンロードと解析は別のスレッドプールで行い、解析中も次のフラグメントのダウンロードを進めます。
+     * @param contacts 問い合わせの一覧
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void run(final List<Contact> contacts) throws InterruptedException {
+        if (contacts == null) {
+            throw new IllegalArgumentException("contacts can't set null.");
+        }
+
+        final AmazonKinesisVideo videoStreams = App.withEndpoint(AmazonKinesisVideoClientBuilder.standard(), region, endpoint)
+                .withCredentials(credentialsProvider)
+                .withClientConfiguration(config).build();
+        final ExecutorService downloadExecutor = Executors.newFixedThreadPool(parallelism);
+        final ExecutorService contactExecutor = Executors.newFixedThreadPool(parallelism);
+        final Semaphore downloadPermits = new Semaphore(parallelism);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong totalBytes = new AtomicLong();
+        final AtomicLong totalDuration = new AtomicLong();
+
+        System.out.printf("過去の問い合わせの録音を開始します。(問い合わせ %d 件、同時 %d 件)\n", contacts.size(), parallelism);
+        final long runStart = System.nanoTime();
+        for (Contact contact : contacts) {
+            contactExecutor.execute(() -> {
+                try {
+                    final long duration = backfill(videoStreams, contact, downloadExecutor, downloadPermits, totalBytes);
+                    totalDuration.addAndGet(duration);
+                } catch (IOException | MkvElementVisitException | ExecutionException e) {
+                    failures.incrementAndGet();
+                    System.err.printf("録音に失敗しました。(%s)\n", contact.getVideoStreamData().getStreamName());
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    failures.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        contactExecutor.shutdown();
+        contactExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        downloadExecutor.shutdown();
+        videoStreams.shutdown();
+        final double elapsedSeconds = (System.nanoTime() - runStart) / 1.0e9;
+
+        System.out.printf("過去の問い合わせの録音を終了します。\n");
+        System.out.printf("       所要時間: %.2f 秒\n", elapsedSeconds);
+        System.out.printf("     問い合わせ: %d 件 (失敗 %d 件)\n", contacts.size(), failures.get());
+        System.out.printf("     スループット: %.2f MB/秒\n", totalBytes.get() / elapsedSeconds / 1024.0 / 1024.0);
+        System.out.printf("     実時間比: %.1f 倍 (録音 %.0f 秒分)\n",
+                totalDuration.get() / 1000.0 / elapsedSeconds, totalDuration.get() / 1000.0);
+    }
+
+    /**
+     * 1件の問い合わせを録音します。
+     * @param videoStreams Kinesis Video Streamsのクライアント
+     * @param contact 問い合わせ
+     * @param downloadExecutor ダウンロードを行うスレッドプール
+     * @param downloadPermits 全ての問い合わせで共有する、解析していないダウンロードの許可
+     * @param totalBytes ダウンロードしたバイト数の合計
+     * @return 録音した長さ(ms)
+     * @throws IOException ダウンロードまたは保存のエラー
+     * @throws MkvElementVisitException 解析エラー
+     * @throws ExecutionException ダウンロードのエラー
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    private long backfill(
+            final AmazonKinesisVideo videoStreams,
+            final Contact contact,
+            final ExecutorService downloadExecutor,
+            final Semaphore downloadPermits,
+            final AtomicLong totalBytes)
+            throws IOException, MkvElementVisitException, ExecutionException, InterruptedException {
+        final VideoStreamData videoStreamData = contact.getVideoStreamData();
+        final String streamName = videoStreamData.getStreamName();
+        final String dataEndpoint = App.runAwsRequest(
+                "GetDataEndpoint",
+                () -> videoStreams.getDataEndpoint(new GetDataEndpointRequest()
+                        .withAPIName(APIName.LIST_FRAGMENTS)
+                        .withStreamName(streamName)).getDataEndpoint(),
+                maxRetryCount,
+                retryInterval);
+        if (dataEndpoint == null || dataEndpoint.isEmpty()) {
+            throw new IOException("Failed to get data endpoint: " + streamName);
+        }
+
+        final AmazonKinesisVideoArchivedMedia archivedMedia = App.withEndpoint(
+                        AmazonKinesisVideoArchivedMediaClientBuilder.standard(), region, dataEndpoint)
+                .withCredentials(credentialsProvider)
+                .withClientConfiguration(config).build();
+        try {
+            final List<Fragment> fragments = listFragments(archivedMedia, contact);
+            if (fragments.isEmpty()) {
+                System.out.printf("フラグメントが見つかりませんでした。(%s)\n", streamName);
+                return 0;
+            }
+
+            // 解析が追いつかない場合にメモリを使い過ぎないよう、全ての問い合わせで共有する許可を得てからダウンロードします。
+            // ダウンロード中のものがない場合だけ許可を待つので、許可を持ったまま他の問い合わせを待つことはありません。
+            final List<List<Fragment>> batches = splitBatches(fragments, batchSize);
+            final Deque<Future<byte[]>> downloads = new ArrayDeque<>();
+            int next = 0;
+            try (AudioRecordFrameProcessor frameProcessor = new AudioRecordFrameProcessor(
+                    recordingSink, videoStreamData, null, options)) {
+                while (next < batches.size() || !downloads.isEmpty()) {
+                    while (next < batches.size() && acquirePermit(downloadPermits, downloads.isEmpty())) {
+                        final List<String> batch = new ArrayList<>();
+                        for (Fragment fragment : batches.get(next)) {
+                            batch.add(fragment.getFragmentNumber());
+                        }
+
+                        ++next;
+                        try {
+                            downloads.add(downloadExecutor.submit(() -> download(archivedMedia, streamName, batch)));
+                        } catch (RuntimeException e) {
+                            downloadPermits.release();
+                            throw e;
+                        }
+                    }
+
+                    final Future<byte[]> download = downloads.poll();
+                    try {
+                        final byte[] payload = download.get();
+                        totalBytes.addAndGet(payload.length);
+                        try (ChannelParserByteSource source = ChannelParserByteSource.wrap(ByteBuffer.wrap(payload))) {
+                            MediaStreamReader.read(source, frameProcessor, streamName);
+                        }
+                    } finally {
+                        downloadPermits.release();
+                    }
+                }
+            } finally {
+                for (Future<byte[]> download : downloads) {
+                    download.cancel(true);
+                    downloadPermits.release();
+                }
+            }
+
+            long duration = 0;
+            for (Fragment fragment : fragments) {
+                if (fragment.getFragmentLengthInMilliseconds() != null) {
+                    duration += fragment.getFragmentLengthInMilliseconds();
+                }
+            }
+
+            System.out.printf("録音しました。(%s、フラグメント %d 件)\n", streamName, fragments.size());
+            return duration;
+        } finally {
+            archivedMedia.shutdown();
+        }
+    }
+
+    /**
+     * 問い合わせの期間のフラグメントの一覧を、サーバーの受信時刻の順に取得します。
+     * https://docs.aws.amazon.com/kinesisvideostreams/latest/dg/API_reader_ListFragments.html
+     * @param archivedMedia Kinesis Video Streams Archived Mediaのクライアント
+     * @param contact 問い合わせ
+     * @return フラグメントの一覧
+     * @throws IOException 取得に失敗した場合
+     */
+    private List<Fragment> listFragments(
+            final AmazonKinesisVideoArchivedMedia archivedMedia,
+            final Contact contact) throws IOException {
+        final String streamName = contact.getVideoStreamData().getStreamName();
+        final FragmentSelector selector = new FragmentSelector()
+                .withFragmentSelectorType(FragmentSelectorType.SERVER_TIMESTAMP)
+                .withTimestampRange(new TimestampRange()
+                        .withStartTimestamp(contact.getVideoStreamData().getStartTimestamp())
+                        .withEndTimestamp(contact.getEndTimestamp()));
+        final List<Fragment> fragments = new ArrayList<>();
+        String nextToken = null;
+        do {
+            final String token = nextToken;
+            final ListFragmentsResult result = App.runAwsRequest(
+                    "ListFragments",
+                    () -> archivedMedia.listFragments(new ListFragmentsRequest()
+                            .withStreamName(streamName)
+                            .withFragmentSelector(selector)
+                            .withMaxResults(LIST_FRAGMENTS_MAX_RESULTS)
+                            .withNextToken(token)),
+                    maxRetryCount,
+                    retryInterval);
+            if (result == null) {
+                throw new IOException("Failed to list fragments: " + streamName);
+            }
+
+            fragments.addAll(result.getFragments());
+            nextToken = result.getNextToken();
+        } while (nextToken != null && !nextToken.isEmpty());
+
+        sortFragments(fragments);
+        return fragments;
+    }
+
+    /**
+     * フラグメントをフラグメント番号の順に並べ替えます。
+     * ListFragmentsの結果は順番が保証されておらず、フラグメント番号は桁数が変わることがあるので、数値として比べます。
+     * @param fragments フラグメントの一覧
+     */
+    static void sortFragments(final List<Fragment> fragments) {
+        fragments.sort(Comparator.comparing(fragment -> new BigInteger(fragment.getFragmentNumber())));
+    }
+
+    /**
+     * フラグメントの一覧を、順番を変えずに1回にダウンロードする数ごとに分けます。
+     * @param fragments フラグメントの一覧
+     * @param batchSize 1回にダウンロードするフラグメント数
+     * @return 分けたフラグメントの一覧
+     */
+    static List<List<Fragment>> splitBatches(final List<Fragment> fragments, final int batchSize) {
+        final List<List<Fragment>> batches = new ArrayList<>();
+        for (int from = 0; from < fragments.size(); from += batchSize) {
+            batches.add(fragments.subList(from, Math.min(from + batchSize, fragments.size())));
+        }
+
+        return batches;
+    }
+
+    /**
+     * ダウンロードの許可を得ます。
+     * @param downloadPermits ダウンロードの許可
+     * @param wait 許可を得られるまで待つ場合は{@code true}
+     * @return 許可を得た場合は{@code true}
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    private static boolean acquirePermit(final Semaphore downloadPermits, final boolean wait)
+            throws InterruptedException {
+        if (wait) {
+            downloadPermits.acquire();
+            return true;
+        }
+
+        return downloadPermits.tryAcquire();
+    }
+
+    /**
+     * フラグメントをまとめてダウンロードします。
+     * https://docs.aws.amazon.com/kinesisvideostreams/latest/dg/API_reader_GetMediaForFragmentList.html
+     * @param archivedMedia Kinesis Video Streams Archived Mediaのクライアント
+     * @param streamName ストリーム名
+     * @param fragmentNumbers フラグメント番号の一覧
+     * @return ダウンロードしたMKVストリーム
+     * @throws IOException ダウンロードに失敗した場合
+     */
+    private byte[] download(
+            final AmazonKinesisVideoArchivedMedia archivedMedia,
+            final String streamName,
+            final List<String> fragmentNumbers) throws IOException {
+        final InputStream payload = App.runAwsRequest(
+                "GetMediaForFragmentList",
+                () -> archivedMedia.getMediaForFragmentList(new GetMediaForFragmentListRequest()
+                        .withStreamName(streamName)
+                        .withFragments(fragmentNumbers)).getPayload(),
+                maxRetryCount,
+                retryInterval);
+        if (payload == null) {
+            throw new IOException("Failed to get media for fragment list: " + streamName);
+        }
+
+        try (InputStream inputStream = payload) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[ChannelParserByteSource.DEFAULT_BUFFER_SIZE];
+            int length;
+            while ((length = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, length);
+            }
+
+            return outputStream.toByteArray();
+        }
+    }
+
+    /**
+     * 日時を解析します。
+     * @param value 日時の文字列(yyyy-MM-dd-HH-mm-ss形式)
+     * @return 日時
+     * @throws ParseException 形式が正しくない場合
+     */
+    private static Date parseDate(final String value) throws ParseException {
+        return new SimpleDateFormat(DATE_PATTERN).parse(value);
+    }
+
+    /**
+     * 録音する問い合わせです。
+     */
+    public static class Contact {
+
+        /**
+         * ストリーム情報。
+         */
+        private final VideoStreamData videoStreamData;
+
+        /**
+         * 終了時刻。
+         */
+        private final Date endTimestamp;
+
+        /**
+         * コンストラクタ。
+         * @param videoStreamData ストリーム情報
+         * @param endTimestamp 終了時刻
+         */
+        public Contact(final VideoStreamData videoStreamData, final Date endTimestamp) {
+            if (videoStreamData == null) {
+                throw new IllegalArgumentException("videoStreamData can't set null.");
+            }
+
+            if (endTimestamp == null) {
+                throw new IllegalArgumentException("endTimestamp can't set null.");
+            }
+
+            this.videoStreamData = videoStreamData;
+            this.endTimestamp = endTimestamp;
+        }
+
+        /**
+         * ストリーム情報を取得します。
+         * @return ストリーム情報
+         */
+        public VideoStreamData getVideoStreamData() {
+            return videoStreamData;
+        }
+
+        /**
+         * 終了時刻を取得します。
+         * @return 終了時刻
+         */
+        public Date getEndTimestamp() {
+            return endTimestamp;
+        }
+    }
+}
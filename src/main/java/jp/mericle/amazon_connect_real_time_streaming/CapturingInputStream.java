@@ -0,0 +1,213 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 読み込んだバイト列をそのままファイルに保存する入力ストリームです。
+ * GetMediaのペイロードを保存しておき、{@link ReplayInputStream}で後から同じ処理に流し直すために使います。
+ * <p>
+ * ペイロードと一緒に、受信した位置と時刻の対応を"(ファイル名).timing"に保存します。
+ * 保存に失敗しても読み込みは続け、録音を止めないようにしています。
+ * @author Bladean Mericle
+ */
+public class CapturingInputStream extends FilterInputStream {
+
+    /**
+     * 受信時刻を記録する最小の間隔(ns)。
+     */
+    private static final long TIMING_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * 保存先のファイル。
+     */
+    private final File payloadFile;
+
+    /**
+     * ペイロードの出力先。
+     */
+    private final OutputStream payloadOutput;
+
+    /**
+     * 受信時刻の出力先。
+     */
+    private final DataOutputStream timingOutput;
+
+    /**
+     * 読み込みを開始した時刻(ns)。
+     */
+    private final long startTime;
+
+    /**
+     * 読み込んだバイト数。
+     */
+    private long position;
+
+    /**
+     * 最後に受信時刻を記録した時刻(ns)。
+     */
+    private long lastTimingTime;
+
+    /**
+     * 保存を続けるかどうか。
+     */
+    private boolean capturing = true;
+
+    /**
+     * コンストラクタ。
+     * @param in 入力ストリーム
+     * @param payloadFile 保存先のファイル
+     * @throws IOException 保存先のファイルを作成できない場合
+     */
+    public CapturingInputStream(final InputStream in, final File payloadFile) throws IOException {
+        super(in);
+        if (in == null) {
+            throw new IllegalArgumentException("in can't set null.");
+        }
+
+        if (payloadFile == null) {
+            throw new IllegalArgumentException("payloadFile can't set null.");
+        }
+
+        this.payloadFile = payloadFile;
+        this.payloadOutput = new BufferedOutputStream(new FileOutputStream(payloadFile));
+        try {
+            this.timingOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getTimingFile(payloadFile))));
+        } catch (IOException e) {
+            payloadOutput.close();
+            throw e;
+        }
+
+        this.startTime = System.nanoTime();
+        this.lastTimingTime = startTime - TIMING_INTERVAL;
+    }
+
+    /**
+     * ペイロードのファイルに対応する受信時刻のファイルを取得します。
+     * @param payloadFile ペイロードのファイル
+     * @return 受信時刻のファイル
+     */
+    public static File getTimingFile(final File payloadFile) {
+        return new File(payloadFile.getPath() + ".timing");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        final int value = super.read();
+        if (value >= 0 && capturing) {
+            try {
+                payloadOutput.write(value);
+                advance(1);
+            } catch (IOException e) {
+                stopCapturing(e);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int length = super.read(b, off, len);
+        if (length > 0 && capturing) {
+            try {
+                payloadOutput.write(b, off, length);
+                advance(length);
+            } catch (IOException e) {
+                stopCapturing(e);
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * 読み飛ばしたバイト列も保存するため、読み込みで代用します。
+     * @param n 読み飛ばすバイト数
+     * @return 読み飛ばしたバイト数
+     * @throws IOException 読み込みエラー
+     */
+    @Override
+    public long skip(final long n) throws IOException {
+        final byte[] buffer = new byte[(int)Math.min(Math.max(n, 0), 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            final int length = read(buffer, 0, (int)Math.min(buffer.length, n - skipped));
+            if (length < 0) {
+                break;
+            }
+
+            skipped += length;
+        }
+
+        return skipped;
+    }
+
+    /**
+     * 印を付けた位置に戻ると保存内容と食い違うので、サポートしません。
+     * @return 常に{@code false}
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * 読み込んだ位置を進め、必要に応じて受信時刻を記録します。
+     * @param length 読み込んだバイト数
+     * @throws IOException 書き込みエラー
+     */
+    private void advance(final int length) throws IOException {
+        position += length;
+        final long now = System.nanoTime();
+        if (now - lastTimingTime >= TIMING_INTERVAL) {
+            timingOutput.writeLong(position);
+            timingOutput.writeLong(now - startTime);
+            lastTimingTime = now;
+        }
+    }
+
+    /**
+     * 保存を止めます。
+     * @param e 保存に失敗した原因
+     */
+    private void stopCapturing(final IOException e) {
+        capturing = false;
+        System.err.printf("ペイロードの保存に失敗しました。以降は保存しません。(%s)\n", payloadFile.getPath());
+        e.printStackTrace();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            try {
+                // 最後に読み込んだ位置を必ず記録し、再生時に末尾まで時刻が分かるようにします。
+                if (capturing) {
+                    timingOutput.writeLong(position);
+                    timingOutput.writeLong(System.nanoTime() - startTime);
+                }
+            } finally {
+                timingOutput.close();
+                payloadOutput.close();
+            }
+        }
+    }
+}
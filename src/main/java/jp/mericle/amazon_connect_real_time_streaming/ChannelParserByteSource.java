@@ -0,0 +1,354 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.amazonaws.kinesisvideo.parser.ebml.ParserByteSource;
+
+/**
+ * チャネルから大きな単位で読み込むバイトソースです。
+ * {@code InputStreamParserByteSource}は1バイトごとに同期化された{@code BufferedInputStream}を読むので、
+ * 代わりにダイレクトバッファにまとめて読み込み、解析処理はバッファから直接読むようにしています。
+ * <p>
+ * 先読みするバッファの数を1以上にすると、専用のスレッドが次のバッファに読み込むので、
+ * 解析処理はネットワークの受信を待たずにバッファを切り替えるだけで済みます。
+ * ファイルの場合は{@link #map(File)}でメモリマップし、コピーせずに読み込みます。
+ * @author Bladean Mericle
+ */
+public class ChannelParserByteSource implements ParserByteSource, AutoCloseable {
+
+    /**
+     * 標準のバッファのサイズ(byte)。
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 先読みスレッドの終了を待つ時間(ms)。
+     */
+    private static final long READ_AHEAD_JOIN_TIMEOUT = 1000;
+
+    /**
+     * 読み込み元のチャネル、メモリマップしたファイルの場合は{@code null}。
+     */
+    private final ReadableByteChannel channel;
+
+    /**
+     * バッファのプール。
+     */
+    private final DirectBufferPool bufferPool;
+
+    /**
+     * プールから取得したバッファ。
+     */
+    private final List<ByteBuffer> pooledBuffers = new ArrayList<>();
+
+    /**
+     * 読み込み済みのバッファ、先読みしない場合は{@code null}。
+     */
+    private final BlockingQueue<ByteBuffer> filledBuffers;
+
+    /**
+     * 空のバッファ、先読みしない場合は{@code null}。
+     */
+    private final BlockingQueue<ByteBuffer> emptyBuffers;
+
+    /**
+     * 先読みスレッド、先読みしない場合は{@code null}。
+     */
+    private final Thread readAheadThread;
+
+    /**
+     * 先読みスレッドで発生したエラー。
+     */
+    private volatile IOException readAheadError;
+
+    /**
+     * 解析処理が読んでいるバッファ(読み込みモード)。
+     */
+    private ByteBuffer current;
+
+    /**
+     * 終端に達したかどうか。
+     */
+    private boolean endOfStream;
+
+    /**
+     * コンストラクタ。
+     * @param channel 読み込み元のチャネル
+     */
+    public ChannelParserByteSource(final ReadableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, 0);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param channel 読み込み元のチャネル
+     * @param bufferSize バッファのサイズ(byte)
+     * @param readAheadBuffers 先読みするバッファの数(0の場合は先読みしません)
+     */
+    public ChannelParserByteSource(
+            final ReadableByteChannel channel,
+            final int bufferSize,
+            final int readAheadBuffers) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel can't set null.");
+        }
+
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive number.");
+        }
+
+        if (readAheadBuffers < 0) {
+            throw new IllegalArgumentException("readAheadBuffers can't set negative number.");
+        }
+
+        this.channel = channel;
+        this.bufferPool = DirectBufferPool.getDefault();
+        this.current = acquireBuffer(bufferSize);
+        this.current.flip();
+        if (readAheadBuffers == 0) {
+            this.filledBuffers = null;
+            this.emptyBuffers = null;
+            this.readAheadThread = null;
+            return;
+        }
+
+        this.filledBuffers = new ArrayBlockingQueue<>(readAheadBuffers + 1);
+        this.emptyBuffers = new ArrayBlockingQueue<>(readAheadBuffers + 1);
+        for (int i = 0; i < readAheadBuffers; ++i) {
+            emptyBuffers.add(acquireBuffer(bufferSize));
+        }
+
+        this.readAheadThread = new Thread(this::readAhead, "parser-read-ahead");
+        this.readAheadThread.setDaemon(true);
+        this.readAheadThread.start();
+    }
+
+    /**
+     * コンストラクタ。読み込み済みのバッファから読み込みます。
+     * @param buffer 読み込み済みのバッファ
+     */
+    private ChannelParserByteSource(final ByteBuffer buffer) {
+        this.channel = null;
+        this.bufferPool = null;
+        this.filledBuffers = null;
+        this.emptyBuffers = null;
+        this.readAheadThread = null;
+        this.current = buffer;
+    }
+
+    /**
+     * 読み込み済みのバッファから読み込むバイトソースを作成します。
+     * @param buffer 読み込み済みのバッファ(読み込み位置から上限までを読み込みます)
+     * @return バイトソース
+     */
+    public static ChannelParserByteSource wrap(final ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("buffer can't set null.");
+        }
+
+        return new ChannelParserByteSource(buffer.slice());
+    }
+
+    /**
+     * ファイルをメモリマップして読み込むバイトソースを作成します。
+     * @param file ファイル
+     * @return バイトソース
+     * @throws IOException ファイルの読み込みエラー
+     */
+    public static ChannelParserByteSource map(final File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file can't set null.");
+        }
+
+        // マップした領域はチャネルを閉じても有効です。
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (fileChannel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to map: " + file.getPath());
+            }
+
+            return new ChannelParserByteSource(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+        }
+    }
+
+    /**
+     * プールからバッファを取得します。
+     * @param bufferSize バッファのサイズ(byte)
+     * @return 空のバッファ
+     */
+    private ByteBuffer acquireBuffer(final int bufferSize) {
+        final ByteBuffer buffer = bufferPool.acquire(bufferSize);
+        pooledBuffers.add(buffer);
+        return buffer;
+    }
+
+    /**
+     * 先読みスレッドの処理です。空のバッファに読み込み、読み込み済みのバッファとして渡します。
+     * 終端またはエラーの場合は、空のまま渡して知らせます。
+     */
+    private void readAhead() {
+        try {
+            while (true) {
+                final ByteBuffer buffer = emptyBuffers.take();
+                buffer.clear();
+                int length = 0;
+                try {
+                    do {
+                        length = channel.read(buffer);
+                    } while (length == 0);
+                } catch (IOException e) {
+                    readAheadError = e;
+                    length = -1;
+                }
+
+                buffer.flip();
+                filledBuffers.put(buffer);
+                if (length < 0) {
+                    // エラーの前に読み込めたデータがある場合は、終端を知らせる空のバッファを別に渡します。
+                    if (buffer.hasRemaining()) {
+                        final ByteBuffer endBuffer = emptyBuffers.take();
+                        endBuffer.clear();
+                        endBuffer.flip();
+                        filledBuffers.put(endBuffer);
+                    }
+
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // 閉じる時に割り込まれます。
+        }
+    }
+
+    /**
+     * 読み込むバッファに残りがなければ、次のデータを読み込みます。
+     * @return 読み込めるデータがある場合は{@code true}、終端の場合は{@code false}
+     */
+    private boolean fill() {
+        if (current.hasRemaining()) {
+            return true;
+        }
+
+        if (endOfStream || channel == null) {
+            endOfStream = true;
+            return false;
+        }
+
+        try {
+            if (readAheadThread == null) {
+                current.clear();
+                int length;
+                do {
+                    length = channel.read(current);
+                } while (length == 0);
+                current.flip();
+                endOfStream = length < 0;
+            } else {
+                emptyBuffers.put(current);
+                current = filledBuffers.take();
+                if (!current.hasRemaining()) {
+                    endOfStream = true;
+                    if (readAheadError != null) {
+                        throw readAheadError;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            endOfStream = true;
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            endOfStream = true;
+            throw new UncheckedIOException(new InterruptedIOException());
+        }
+
+        return !endOfStream;
+    }
+
+    /**
+     * 1バイト読み込みます。
+     * @return 読み込んだバイト、終端の場合は-1
+     */
+    @Override
+    public int readByte() {
+        if (!fill()) {
+            return -1;
+        }
+
+        return current.get() & 0xFF;
+    }
+
+    /**
+     * 待たずに読み込み可能なバイト数を取得します。
+     * @return 読み込み可能なバイト数
+     */
+    @Override
+    public int available() {
+        return current.remaining();
+    }
+
+    /**
+     * バッファに読み込みます。
+     * @param dest 読み込み先のバッファ
+     * @return 読み込んだバイト数、終端の場合は-1
+     */
+    @Override
+    public int readBytes(final ByteBuffer dest) {
+        if (!fill()) {
+            return -1;
+        }
+
+        final int length = Math.min(dest.remaining(), current.remaining());
+        final int limit = current.limit();
+        current.limit(current.position() + length);
+        dest.put(current);
+        current.limit(limit);
+        return length;
+    }
+
+    /**
+     * 終端かどうかを取得します。データが届くまで待ちます。
+     * @return 終端の場合は{@code true}
+     */
+    @Override
+    public boolean eof() {
+        return !fill();
+    }
+
+    /**
+     * 先読みスレッドを止め、バッファをプールに返却します。
+     * チャネルは閉じないので、呼び出し元で閉じてください。
+     */
+    @Override
+    public void close() {
+        if (readAheadThread != null) {
+            readAheadThread.interrupt();
+            try {
+                readAheadThread.join(READ_AHEAD_JOIN_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            // 先読みスレッドが読み込み中のバッファは返却できないので、破棄します。
+            if (readAheadThread.isAlive()) {
+                pooledBuffers.clear();
+            }
+        }
+
+        for (ByteBuffer buffer : pooledBuffers) {
+            bufferPool.release(buffer);
+        }
+
+        pooledBuffers.clear();
+    }
+}
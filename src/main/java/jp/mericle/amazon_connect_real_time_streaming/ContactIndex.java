@@ -0,0 +1,908 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 問い合わせの情報を記録し、問い合わせIDや開始時刻で録音を検索するための追記専用の索引です。
+ * <p>
+ * 追加した情報は、まず"(番号).log"に追記してメモリに保持します。一定の件数に達すると、開始時刻の順に並べ替えて
+ * 変更しない"(番号).seg"に書き出し、ログを削除します。異常終了した場合は、次に開いた時にログから読み込み直します。
+ * <p>
+ * セグメントには、開始時刻の疎な索引、問い合わせIDのハッシュの表、ブルームフィルタを一緒に保存します。
+ * 開いた時に疎な索引とブルームフィルタだけをメモリに読み込み、セグメントはメモリマップするので、
+ * 録音が数百万件あっても、問い合わせIDの検索は該当するセグメントの二分探索、開始時刻の検索は範囲の走査で済みます。
+ * @author Bladean Mericle
+ */
+public class ContactIndex implements AutoCloseable {
+
+    /**
+     * セグメントの拡張子。
+     */
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    /**
+     * ログの拡張子。
+     */
+    private static final String LOG_EXTENSION = ".log";
+
+    /**
+     * 書き込み中のセグメントの拡張子。
+     */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    /**
+     * セグメントの末尾を表す値("ACIS")。
+     */
+    private static final int SEGMENT_MAGIC = 0x41434953;
+
+    /**
+     * セグメントの末尾の固定長部分のサイズ(疎な索引、ハッシュの表、ブルームフィルタの位置、開始時刻の範囲、件数、末尾の値)。
+     */
+    private static final int FOOTER_SIZE = 8 * 5 + 4 + 4;
+
+    /**
+     * 開始時刻の疎な索引に記録する間隔(件)。
+     */
+    private static final int SPARSE_INTERVAL = 64;
+
+    /**
+     * ブルームフィルタの1件あたりのビット数。
+     */
+    private static final int BLOOM_BITS_PER_ENTRY = 10;
+
+    /**
+     * ブルームフィルタのハッシュの数。
+     */
+    private static final int BLOOM_HASHES = 7;
+
+    /**
+     * 1つのセグメントの件数の上限。
+     */
+    public static final int MAX_SEGMENT_SIZE = 65536;
+
+    /**
+     * 文字列の長さの上限。
+     */
+    private static final int MAX_STRING_LENGTH = 16384;
+
+    /**
+     * 索引に記録した問い合わせの数。
+     */
+    private static final Counter APPENDED = MetricsRegistry.getDefault().counter(
+            "contact_index_appended_total", "Number of contacts appended to the contact index.");
+
+    /**
+     * セグメントの数。
+     */
+    private static final Gauge SEGMENTS = MetricsRegistry.getDefault().gauge(
+            "contact_index_segments", "Number of sorted segments in the contact index.");
+
+    /**
+     * 保存先のフォルダ。
+     */
+    private final File directory;
+
+    /**
+     * 1つのセグメントの件数。
+     */
+    private final int segmentSize;
+
+    /**
+     * 読み込み専用かどうか。
+     */
+    private final boolean readOnly;
+
+    /**
+     * 番号の順のセグメント。
+     */
+    private final List<Segment> segments = new ArrayList<>();
+
+    /**
+     * セグメントに書き出していない情報。
+     */
+    private final List<ContactMetadata> pending = new ArrayList<>();
+
+    /**
+     * 現在のログの番号。
+     */
+    private long sequence = 0;
+
+    /**
+     * 現在のログ、閉じた場合は{@code null}。
+     */
+    private FileChannel log;
+
+    /**
+     * コンストラクタ。
+     * 保存先のフォルダのセグメントを読み込み、書き出していないログがあればメモリに読み込み直します。
+     * @param directory 保存先のフォルダ
+     * @param segmentSize 1つのセグメントの件数
+     * @throws IOException 読み込みエラー
+     */
+    public ContactIndex(final File directory, final int segmentSize) throws IOException {
+        this(directory, segmentSize, false);
+    }
+
+    /**
+     * コンストラクタ。
+     * 読み込み専用で開きます。追加している別のプロセスがあっても、ファイルを変更しません。
+     * @param directory 保存先のフォルダ
+     * @throws IOException 読み込みエラー
+     */
+    public ContactIndex(final File directory) throws IOException {
+        this(directory, MAX_SEGMENT_SIZE, true);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param directory 保存先のフォルダ
+     * @param segmentSize 1つのセグメントの件数
+     * @param readOnly 読み込み専用かどうか
+     * @throws IOException 読み込みエラー
+     */
+    private ContactIndex(final File directory, final int segmentSize, final boolean readOnly) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory can't set null.");
+        }
+
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segmentSize must be between 1 and " + MAX_SEGMENT_SIZE + ".");
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.readOnly = readOnly;
+        if (readOnly && !directory.isDirectory()) {
+            throw new IOException("Directory not found: " + directory.getPath());
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory.getPath());
+        }
+
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list directory: " + directory.getPath());
+        }
+
+        Arrays.sort(files);
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(TEMPORARY_EXTENSION)) {
+                if (!readOnly) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            } else if (name.endsWith(SEGMENT_EXTENSION)) {
+                final Segment segment = Segment.open(file);
+                if (segment != null) {
+                    segments.add(segment);
+                    sequence = Math.max(sequence, segment.sequence + 1);
+                } else {
+                    System.err.printf("問い合わせの索引のセグメントが壊れています。(%s)\n", file.getPath());
+                }
+            }
+        }
+
+        // セグメントに書き出した後に削除できなかったログは、削除します。
+        for (File file : files) {
+            final String name = file.getName();
+            if (!name.endsWith(LOG_EXTENSION)) {
+                continue;
+            }
+
+            final long logSequence = Long.parseLong(name.substring(0, name.length() - LOG_EXTENSION.length()));
+            if (logSequence < sequence) {
+                if (!readOnly) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            } else {
+                sequence = logSequence;
+            }
+        }
+
+        if (readOnly) {
+            loadLog();
+        } else {
+            openLog();
+            SEGMENTS.set(segments.size());
+        }
+    }
+
+    /**
+     * 読み込み専用で現在のログを読み込みます。
+     * @throws IOException 読み込みエラー
+     */
+    private void loadLog() throws IOException {
+        final File file = getFile(sequence, LOG_EXTENSION);
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            readLog(channel);
+        }
+    }
+
+    /**
+     * 現在のログを開き、記録されている情報を読み込みます。不完全な書き込みは切り詰めます。
+     * @throws IOException 読み書きのエラー
+     */
+    private void openLog() throws IOException {
+        log = FileChannel.open(getFile(sequence, LOG_EXTENSION).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long size = log.size();
+        final long position = readLog(log);
+        if (position < size) {
+            System.err.printf("問い合わせの索引の不完全な書き込みを切り詰めます。(%d bytes)\n", size - position);
+            log.truncate(position);
+        }
+
+        log.position(position);
+    }
+
+    /**
+     * ログに記録されている情報を、不完全な書き込みの手前まで読み込みます。
+     * @param channel ログ
+     * @return 読み込んだ終わりの位置
+     * @throws IOException 読み込みエラー
+     */
+    private long readLog(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        long position = 0;
+        final ByteBuffer header = ByteBuffer.allocate(8);
+        while (position + header.capacity() <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            final int length = header.getInt();
+            final int checksum = header.getInt();
+            if (length <= 0 || position + header.capacity() + length > size) {
+                break;
+            }
+
+            final ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, payload, position + header.capacity());
+            if (checksum != checksum(payload.array())) {
+                break;
+            }
+
+            pending.add(decode(payload.array()));
+            position += header.capacity() + length;
+        }
+
+        return position;
+    }
+
+    /**
+     * 問い合わせの情報を追加します。
+     * @param metadata 問い合わせの情報
+     * @throws IOException 書き込みエラー
+     */
+    public synchronized void append(final ContactMetadata metadata) throws IOException {
+        if (metadata == null) {
+            throw new IllegalArgumentException("metadata can't set null.");
+        }
+
+        if (readOnly) {
+            throw new IOException("Contact index is read only.");
+        }
+
+        if (log == null) {
+            throw new IOException("Contact index is closed.");
+        }
+
+        final byte[] payload = encode(metadata);
+        final ByteBuffer buffer = ByteBuffer.allocate(8 + payload.length);
+        buffer.putInt(payload.length).putInt(checksum(payload)).put(payload).flip();
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+
+        log.force(false);
+        pending.add(metadata);
+        APPENDED.increment();
+        if (pending.size() >= segmentSize) {
+            flush();
+        }
+    }
+
+    /**
+     * メモリに保持している情報をセグメントに書き出し、新しいログに切り替えます。
+     * @throws IOException 書き込みエラー
+     */
+    private void flush() throws IOException {
+        final List<ContactMetadata> sorted = new ArrayList<>(pending);
+        sorted.sort(Comparator.comparingLong((ContactMetadata m) -> m.getVideoStreamData().getStartTimestamp().getTime()));
+        final File temporaryFile = getFile(sequence, SEGMENT_EXTENSION + TEMPORARY_EXTENSION);
+        final File segmentFile = getFile(sequence, SEGMENT_EXTENSION);
+        Segment.write(temporaryFile, sorted);
+        Files.move(temporaryFile.toPath(), segmentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        final Segment segment = Segment.open(segmentFile);
+        if (segment == null) {
+            throw new IOException("Failed to open segment: " + segmentFile.getPath());
+        }
+
+        segments.add(segment);
+        SEGMENTS.set(segments.size());
+        pending.clear();
+
+        // セグメントに書き出したので、ログは不要です。
+        log.close();
+        Files.deleteIfExists(getFile(sequence, LOG_EXTENSION).toPath());
+        ++sequence;
+        openLog();
+    }
+
+    /**
+     * 問い合わせIDで検索します。
+     * @param contactId 問い合わせID
+     * @return 見つかった問い合わせの情報の一覧
+     * @throws IOException 読み込みエラー
+     */
+    public synchronized List<ContactMetadata> findByContactId(final String contactId) throws IOException {
+        if (contactId == null || contactId.isEmpty()) {
+            throw new IllegalArgumentException("contactId can't set null or empty.");
+        }
+
+        final long hash = RecordingArchive.hash(contactId);
+        final List<ContactMetadata> results = new ArrayList<>();
+        for (Segment segment : segments) {
+            segment.findByContactId(contactId, hash, results);
+        }
+
+        for (ContactMetadata metadata : pending) {
+            if (contactId.equals(metadata.getContactId())) {
+                results.add(metadata);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * 開始時刻で検索します。
+     * @param from 開始時刻の下限(エポックミリ秒、含む)
+     * @param to 開始時刻の上限(エポックミリ秒、含まない)
+     * @return 見つかった問い合わせの情報の一覧(開始時刻の順)
+     * @throws IOException 読み込みエラー
+     */
+    public synchronized List<ContactMetadata> findByTime(final long from, final long to) throws IOException {
+        final List<ContactMetadata> results = new ArrayList<>();
+        for (Segment segment : segments) {
+            segment.findByTime(from, to, results);
+        }
+
+        for (ContactMetadata metadata : pending) {
+            final long startTimestamp = metadata.getVideoStreamData().getStartTimestamp().getTime();
+            if (startTimestamp >= from && startTimestamp < to) {
+                results.add(metadata);
+            }
+        }
+
+        results.sort(Comparator.comparingLong((ContactMetadata m) -> m.getVideoStreamData().getStartTimestamp().getTime()));
+        return results;
+    }
+
+    /**
+     * 番号と拡張子からファイルを取得します。
+     * @param fileSequence 番号
+     * @param extension 拡張子
+     * @return ファイル
+     */
+    private File getFile(final long fileSequence, final String extension) {
+        return new File(directory, String.format("%012d", fileSequence) + extension);
+    }
+
+    /**
+     * ログとセグメントを閉じます。メモリに保持している情報は、次に開いた時にログから読み込みます。
+     */
+    @Override
+    public synchronized void close() {
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            log = null;
+        }
+
+        segments.clear();
+        pending.clear();
+        if (!readOnly) {
+            SEGMENTS.set(0);
+        }
+    }
+
+    /**
+     * 問い合わせの情報をバイト列に変換します。
+     * @param metadata 問い合わせの情報
+     * @return バイト列
+     * @throws IOException 変換エラー
+     */
+    static byte[] encode(final ContactMetadata metadata) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            final VideoStreamData videoStreamData = metadata.getVideoStreamData();
+            output.writeLong(videoStreamData.getStartTimestamp().getTime());
+            writeString(output, videoStreamData.getStreamName());
+            writeString(output, videoStreamData.getContactId());
+            writeString(output, metadata.getCustomerEndpoint());
+            writeString(output, metadata.getQueue());
+            writeString(output, metadata.getAgent());
+            writeMap(output, metadata.getAttributes());
+            writeMap(output, metadata.getTags());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * バイト列から問い合わせの情報に変換します。
+     * @param payload バイト列
+     * @return 問い合わせの情報
+     * @throws IOException 変換エラー
+     */
+    static ContactMetadata decode(final byte[] payload) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload))) {
+            final long startTimestamp = input.readLong();
+            final String streamName = input.readUTF();
+            final String contactId = input.readUTF();
+            final String customerEndpoint = input.readUTF();
+            final String queue = input.readUTF();
+            final String agent = input.readUTF();
+            final Map<String, String> attributes = readMap(input);
+            final Map<String, String> tags = readMap(input);
+            return new ContactMetadata(
+                    new VideoStreamData(streamName, new Date(startTimestamp), contactId.isEmpty() ? null : contactId),
+                    customerEndpoint, queue, agent, attributes, tags);
+        }
+    }
+
+    /**
+     * 文字列を書き込みます。長すぎる場合は切り詰めます。
+     * @param output 出力先
+     * @param value 文字列、{@code null}の場合は空
+     * @throws IOException 書き込みエラー
+     */
+    private static void writeString(final DataOutputStream output, final String value) throws IOException {
+        if (value == null) {
+            output.writeUTF("");
+        } else {
+            output.writeUTF(value.length() > MAX_STRING_LENGTH ? value.substring(0, MAX_STRING_LENGTH) : value);
+        }
+    }
+
+    /**
+     * 名前と値の組を書き込みます。
+     * @param output 出力先
+     * @param map 名前と値の組
+     * @throws IOException 書き込みエラー
+     */
+    private static void writeMap(final DataOutputStream output, final Map<String, String> map) throws IOException {
+        output.writeShort(Math.min(map.size(), 0xFFFF));
+        int count = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (count++ == 0xFFFF) {
+                break;
+            }
+
+            writeString(output, entry.getKey());
+            writeString(output, entry.getValue());
+        }
+    }
+
+    /**
+     * 名前と値の組を読み込みます。
+     * @param input 入力元
+     * @return 名前と値の組
+     * @throws IOException 読み込みエラー
+     */
+    private static Map<String, String> readMap(final DataInputStream input) throws IOException {
+        final int count = input.readUnsignedShort();
+        final Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < count; ++i) {
+            map.put(input.readUTF(), input.readUTF());
+        }
+
+        return map;
+    }
+
+    /**
+     * バイト列のチェックサムを求めます。
+     * @param payload バイト列
+     * @return チェックサム(CRC32)
+     */
+    private static int checksum(final byte[] payload) {
+        final CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        return (int)crc.getValue();
+    }
+
+    /**
+     * 指定した位置からバッファが一杯になるまで読み込みます。
+     * @param channel 読み込み元
+     * @param buffer 読み込み先
+     * @param position 読み込み位置
+     * @throws IOException 読み込みエラー、または途中で終端に達した場合
+     */
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            final int length = channel.read(buffer, current);
+            if (length < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+
+            current += length;
+        }
+    }
+
+    /**
+     * ブルームフィルタのビットの位置を求めます。
+     * @param hash 問い合わせIDのハッシュ
+     * @param index ハッシュの番号
+     * @param bits ブルームフィルタのビット数
+     * @return ビットの位置
+     */
+    private static int bloomBit(final long hash, final int index, final int bits) {
+        final int first = (int)hash;
+        final int second = (int)(hash >>> 32);
+        return Math.floorMod(first + index * second, bits);
+    }
+
+    /**
+     * 開始時刻の順に並べた、変更しないセグメントです。
+     */
+    private static class Segment {
+
+        /**
+         * 番号。
+         */
+        private final long sequence;
+
+        /**
+         * メモリマップしたファイル。
+         */
+        private final MappedByteBuffer data;
+
+        /**
+         * 件数。
+         */
+        private final int count;
+
+        /**
+         * 最も早い開始時刻。
+         */
+        private final long minTimestamp;
+
+        /**
+         * 最も遅い開始時刻。
+         */
+        private final long maxTimestamp;
+
+        /**
+         * 疎な索引の開始時刻。
+         */
+        private final long[] sparseTimestamps;
+
+        /**
+         * 疎な索引の情報の位置。
+         */
+        private final long[] sparseOffsets;
+
+        /**
+         * 情報の終わり(疎な索引の位置)。
+         */
+        private final int recordsEnd;
+
+        /**
+         * 問い合わせIDのハッシュの表の位置。
+         */
+        private final int contactTableOffset;
+
+        /**
+         * ブルームフィルタ。
+         */
+        private final long[] bloom;
+
+        /**
+         * コンストラクタ。
+         * @param sequence 番号
+         * @param data メモリマップしたファイル
+         * @param count 件数
+         * @param minTimestamp 最も早い開始時刻
+         * @param maxTimestamp 最も遅い開始時刻
+         * @param sparseTimestamps 疎な索引の開始時刻
+         * @param sparseOffsets 疎な索引の情報の位置
+         * @param recordsEnd 情報の終わり
+         * @param contactTableOffset 問い合わせIDのハッシュの表の位置
+         * @param bloom ブルームフィルタ
+         */
+        private Segment(
+                final long sequence,
+                final MappedByteBuffer data,
+                final int count,
+                final long minTimestamp,
+                final long maxTimestamp,
+                final long[] sparseTimestamps,
+                final long[] sparseOffsets,
+                final int recordsEnd,
+                final int contactTableOffset,
+                final long[] bloom) {
+            this.sequence = sequence;
+            this.data = data;
+            this.count = count;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+            this.sparseTimestamps = sparseTimestamps;
+            this.sparseOffsets = sparseOffsets;
+            this.recordsEnd = recordsEnd;
+            this.contactTableOffset = contactTableOffset;
+            this.bloom = bloom;
+        }
+
+        /**
+         * 開始時刻の順に並べた情報をセグメントに書き込みます。
+         * @param file 書き込み先
+         * @param sorted 開始時刻の順に並べた情報
+         * @throws IOException 書き込みエラー
+         */
+        private static void write(final File file, final List<ContactMetadata> sorted) throws IOException {
+            final int count = sorted.size();
+            final long[] offsets = new long[count];
+            final long[][] contactTable = new long[count][];
+            final long[] bloom = new long[Math.max(1, (count * BLOOM_BITS_PER_ENTRY + 63) / 64)];
+            final int bloomBits = bloom.length * 64;
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long position = 0;
+                for (int i = 0; i < count; ++i) {
+                    final ContactMetadata metadata = sorted.get(i);
+                    final byte[] payload = encode(metadata);
+                    offsets[i] = position;
+                    position += writeFully(channel, ByteBuffer.allocate(4 + payload.length).putInt(payload.length).put(payload));
+                    final long hash = RecordingArchive.hash(metadata.getContactId());
+                    contactTable[i] = new long[] { hash, offsets[i] };
+                    if (metadata.getContactId() != null) {
+                        for (int k = 0; k < BLOOM_HASHES; ++k) {
+                            final int bit = bloomBit(hash, k, bloomBits);
+                            bloom[bit >>> 6] |= 1L << (bit & 63);
+                        }
+                    }
+                }
+
+                // 開始時刻の疎な索引です。
+                final long sparseOffset = position;
+                final ByteBuffer sparse = ByteBuffer.allocate(((count + SPARSE_INTERVAL - 1) / SPARSE_INTERVAL) * 16);
+                for (int i = 0; i < count; i += SPARSE_INTERVAL) {
+                    sparse.putLong(sorted.get(i).getVideoStreamData().getStartTimestamp().getTime()).putLong(offsets[i]);
+                }
+
+                position += writeFully(channel, sparse);
+
+                // 問い合わせIDのハッシュの表です。
+                final long contactOffset = position;
+                Arrays.sort(contactTable, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+                final ByteBuffer table = ByteBuffer.allocate(count * 16);
+                for (long[] entry : contactTable) {
+                    table.putLong(entry[0]).putLong(entry[1]);
+                }
+
+                position += writeFully(channel, table);
+
+                // ブルームフィルタと末尾です。
+                final long bloomOffset = position;
+                final ByteBuffer bloomBuffer = ByteBuffer.allocate(bloom.length * 8 + FOOTER_SIZE);
+                for (long word : bloom) {
+                    bloomBuffer.putLong(word);
+                }
+
+                bloomBuffer.putLong(sparseOffset).putLong(contactOffset).putLong(bloomOffset)
+                        .putLong(count > 0 ? sorted.get(0).getVideoStreamData().getStartTimestamp().getTime() : 0)
+                        .putLong(count > 0 ? sorted.get(count - 1).getVideoStreamData().getStartTimestamp().getTime() : 0)
+                        .putInt(count)
+                        .putInt(SEGMENT_MAGIC);
+                writeFully(channel, bloomBuffer);
+                channel.force(true);
+            }
+        }
+
+        /**
+         * バッファの内容を全て書き込みます。
+         * @param channel 書き込み先
+         * @param buffer 書き込む内容(書き込み位置の直後)
+         * @return 書き込んだバイト数
+         * @throws IOException 書き込みエラー
+         */
+        private static int writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            final int length = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            return length;
+        }
+
+        /**
+         * セグメントを開きます。
+         * @param file セグメントのファイル
+         * @return セグメント、壊れている場合は{@code null}
+         * @throws IOException 読み込みエラー
+         */
+        private static Segment open(final File file) throws IOException {
+            final String name = file.getName();
+            final long sequence;
+            try {
+                sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                final long size = channel.size();
+                if (size < FOOTER_SIZE || size > Integer.MAX_VALUE) {
+                    return null;
+                }
+
+                final MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                final int footer = (int)size - FOOTER_SIZE;
+                if (data.getInt(footer + FOOTER_SIZE - 4) != SEGMENT_MAGIC) {
+                    return null;
+                }
+
+                final long sparseOffset = data.getLong(footer);
+                final long contactOffset = data.getLong(footer + 8);
+                final long bloomOffset = data.getLong(footer + 16);
+                final long minTimestamp = data.getLong(footer + 24);
+                final long maxTimestamp = data.getLong(footer + 32);
+                final int count = data.getInt(footer + 40);
+                final int sparseCount = (count + SPARSE_INTERVAL - 1) / SPARSE_INTERVAL;
+                if (count < 0 || sparseOffset + sparseCount * 16L != contactOffset
+                        || contactOffset + count * 16L != bloomOffset || bloomOffset > footer
+                        || (footer - bloomOffset) % 8 != 0) {
+                    return null;
+                }
+
+                final long[] sparseTimestamps = new long[sparseCount];
+                final long[] sparseOffsets = new long[sparseCount];
+                for (int i = 0; i < sparseCount; ++i) {
+                    sparseTimestamps[i] = data.getLong((int)sparseOffset + i * 16);
+                    sparseOffsets[i] = data.getLong((int)sparseOffset + i * 16 + 8);
+                }
+
+                final long[] bloom = new long[(int)(footer - bloomOffset) / 8];
+                for (int i = 0; i < bloom.length; ++i) {
+                    bloom[i] = data.getLong((int)bloomOffset + i * 8);
+                }
+
+                return new Segment(sequence, data, count, minTimestamp, maxTimestamp,
+                        sparseTimestamps, sparseOffsets, (int)sparseOffset, (int)contactOffset, bloom);
+            }
+        }
+
+        /**
+         * 問い合わせIDが含まれる可能性があるかどうかを判定します。
+         * @param hash 問い合わせIDのハッシュ
+         * @return 含まれる可能性がある場合は{@code true}
+         */
+        private boolean mightContain(final long hash) {
+            final int bits = bloom.length * 64;
+            for (int k = 0; k < BLOOM_HASHES; ++k) {
+                final int bit = bloomBit(hash, k, bits);
+                if ((bloom[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * 問い合わせIDで検索します。
+         * @param contactId 問い合わせID
+         * @param hash 問い合わせIDのハッシュ
+         * @param results 見つかった情報の追加先
+         * @throws IOException 読み込みエラー
+         */
+        private void findByContactId(
+                final String contactId,
+                final long hash,
+                final List<ContactMetadata> results) throws IOException {
+            if (count == 0 || !mightContain(hash)) {
+                return;
+            }
+
+            // ハッシュが一致する最初の位置を二分探索します。
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (data.getLong(contactTableOffset + middle * 16) < hash) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            for (int i = low; i < count && data.getLong(contactTableOffset + i * 16) == hash; ++i) {
+                final ContactMetadata metadata = read(data.getLong(contactTableOffset + i * 16 + 8));
+                if (contactId.equals(metadata.getContactId())) {
+                    results.add(metadata);
+                }
+            }
+        }
+
+        /**
+         * 開始時刻で検索します。
+         * @param from 開始時刻の下限(含む)
+         * @param to 開始時刻の上限(含まない)
+         * @param results 見つかった情報の追加先
+         * @throws IOException 読み込みエラー
+         */
+        private void findByTime(final long from, final long to, final List<ContactMetadata> results) throws IOException {
+            if (count == 0 || maxTimestamp < from || minTimestamp >= to) {
+                return;
+            }
+
+            // 下限より前の最後の疎な索引から走査します。
+            int sparse = Arrays.binarySearch(sparseTimestamps, from);
+            if (sparse < 0) {
+                sparse = -sparse - 2;
+            }
+
+            // 同じ開始時刻が疎な索引の境界をまたぐ場合に備えて、1つ前から走査します。
+            sparse = Math.max(0, sparse - 1);
+            long offset = sparseOffsets[sparse];
+            while (offset < recordsEnd) {
+                final int length = data.getInt((int)offset);
+                final long startTimestamp = data.getLong((int)offset + 4);
+                if (startTimestamp >= to) {
+                    break;
+                }
+
+                if (startTimestamp >= from) {
+                    results.add(read(offset));
+                }
+
+                offset += 4 + length;
+            }
+        }
+
+        /**
+         * 情報を読み込みます。
+         * @param offset 情報の位置
+         * @return 問い合わせの情報
+         * @throws IOException 読み込みエラー
+         */
+        private ContactMetadata read(final long offset) throws IOException {
+            final ByteBuffer view = data.duplicate();
+            view.position((int)offset);
+            final int length = view.getInt();
+            final byte[] payload = new byte[length];
+            view.get(payload);
+            return decode(payload);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ContactIndex}から問い合わせの情報を検索します。
+ * <p>
+ * 引数は"--index ./index/ --contact (問い合わせID)"のように指定します。
+ * 検索条件は"--contact"、"--from"と"--to"(yyyy-MM-dd-HH-mm-ss形式)のいずれかを指定します。
+ * 見つかった問い合わせは、開始時刻、問い合わせID、ストリーム名、お客様のエンドポイント、キュー、エージェント、
+ * 問い合わせの属性、MKVタグをタブ区切りで1行ずつ出力します。
+ * @author Bladean Mericle
+ */
+public class ContactIndexSearch {
+
+    /**
+     * 日時の書式。
+     */
+    private static final String DATE_PATTERN = "yyyy-MM-dd-HH-mm-ss";
+
+    /**
+     * メインメソッドです。
+     * @param args コマンドライン引数
+     * @throws Exception 検索に失敗した場合
+     */
+    public static void main(final String[] args) throws Exception {
+        String indexPath = "./index/";
+        String contactId = null;
+        Date from = null;
+        Date to = null;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+            case "--index":
+                indexPath = args[++i];
+                break;
+            case "--contact":
+                contactId = args[++i];
+                break;
+            case "--from":
+                from = parseDate(args[++i]);
+                break;
+            case "--to":
+                to = parseDate(args[++i]);
+                break;
+            default:
+                System.err.printf("不明な引数です。(%s)\n", args[i]);
+                return;
+            }
+        }
+
+        if (contactId == null && from == null && to == null) {
+            System.err.printf("\"--contact\"、\"--from\"、\"--to\"のいずれかを指定してください。\n");
+            return;
+        }
+
+        final List<ContactMetadata> results;
+        final long startTime = System.nanoTime();
+        try (ContactIndex index = new ContactIndex(new File(indexPath))) {
+            if (contactId != null) {
+                results = index.findByContactId(contactId);
+            } else {
+                results = index.findByTime(
+                        from != null ? from.getTime() : Long.MIN_VALUE,
+                        to != null ? to.getTime() : Long.MAX_VALUE);
+            }
+        }
+
+        final long elapsedMicros = (System.nanoTime() - startTime) / 1000;
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS");
+        for (ContactMetadata metadata : results) {
+            System.out.println(String.join("\t",
+                    dateFormat.format(metadata.getVideoStreamData().getStartTimestamp()),
+                    toText(metadata.getContactId()),
+                    metadata.getVideoStreamData().getStreamName(),
+                    toText(metadata.getCustomerEndpoint()),
+                    toText(metadata.getQueue()),
+                    toText(metadata.getAgent()),
+                    toText(metadata.getAttributes()),
+                    toText(metadata.getTags())));
+        }
+
+        System.out.printf("%d件の問い合わせが見つかりました。(%d us)\n", results.size(), elapsedMicros);
+    }
+
+    /**
+     * 出力する文字列に変換します。
+     * @param value 値、不明な場合は{@code null}
+     * @return 文字列、不明な場合は"-"
+     */
+    private static String toText(final String value) {
+        return value != null ? value.replace('\t', ' ').replace('\n', ' ') : "-";
+    }
+
+    /**
+     * 出力する文字列に変換します。
+     * @param map 名前と値の組
+     * @return "名前=値"をカンマで区切った文字列、ない場合は"-"
+     */
+    private static String toText(final Map<String, String> map) {
+        if (map.isEmpty()) {
+            return "-";
+        }
+
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+
+            builder.append(toText(entry.getKey())).append('=').append(toText(entry.getValue()));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * 日時を解析します。
+     * @param value 日時の文字列(yyyy-MM-dd-HH-mm-ss形式)
+     * @return 日時
+     * @throws ParseException 形式が正しくない場合
+     */
+    private static Date parseDate(final String value) throws ParseException {
+        return new SimpleDateFormat(DATE_PATTERN).parse(value);
+    }
+}
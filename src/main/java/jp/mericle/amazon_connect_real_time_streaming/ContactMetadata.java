@@ -0,0 +1,184 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * 録音を検索するための問い合わせの情報です。
+ * Contact flow eventから取得した問い合わせID、お客様の電話番号、キュー、エージェント、問い合わせの属性と、
+ * GetMediaのペイロードのMKVタグを持ちます。
+ * @author Bladean Mericle
+ */
+public class ContactMetadata {
+
+    /**
+     * ストリーム情報。
+     */
+    private final VideoStreamData videoStreamData;
+
+    /**
+     * お客様のエンドポイント(電話番号など)、不明な場合は{@code null}。
+     */
+    private final String customerEndpoint;
+
+    /**
+     * キュー、不明な場合は{@code null}。
+     */
+    private final String queue;
+
+    /**
+     * エージェント、不明な場合は{@code null}。
+     */
+    private final String agent;
+
+    /**
+     * 問い合わせの属性。
+     */
+    private final Map<String, String> attributes;
+
+    /**
+     * MKVタグ。
+     */
+    private final Map<String, String> tags;
+
+    /**
+     * コンストラクタ。
+     * @param videoStreamData ストリーム情報
+     * @param customerEndpoint お客様のエンドポイント、不明な場合は{@code null}
+     * @param queue キュー、不明な場合は{@code null}
+     * @param agent エージェント、不明な場合は{@code null}
+     * @param attributes 問い合わせの属性、ない場合は{@code null}
+     * @param tags MKVタグ、ない場合は{@code null}
+     */
+    public ContactMetadata(
+            final VideoStreamData videoStreamData,
+            final String customerEndpoint,
+            final String queue,
+            final String agent,
+            final Map<String, String> attributes,
+            final Map<String, String> tags) {
+        if (videoStreamData == null) {
+            throw new IllegalArgumentException("videoStreamData can't set null.");
+        }
+
+        this.videoStreamData = videoStreamData;
+        this.customerEndpoint = customerEndpoint != null && !customerEndpoint.isEmpty() ? customerEndpoint : null;
+        this.queue = queue != null && !queue.isEmpty() ? queue : null;
+        this.agent = agent != null && !agent.isEmpty() ? agent : null;
+        this.attributes = Collections.unmodifiableMap(attributes != null ? new TreeMap<>(attributes) : new TreeMap<>());
+        this.tags = Collections.unmodifiableMap(tags != null ? new TreeMap<>(tags) : new TreeMap<>());
+    }
+
+    /**
+     * Contact flow eventから生成します。
+     * @param videoStreamData ストリーム情報
+     * @param node Contact flow eventのJSONノード
+     * @return 問い合わせの情報
+     */
+    public static ContactMetadata fromEvent(final VideoStreamData videoStreamData, final JsonNode node) {
+        final JsonNode contactData = node.path("Details").path("ContactData");
+        final Map<String, String> attributes = new TreeMap<>();
+        final Iterator<Map.Entry<String, JsonNode>> fields = contactData.path("Attributes").fields();
+        while (fields != null && fields.hasNext()) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            final String value = getText(field.getValue());
+            if (value != null) {
+                attributes.put(field.getKey(), value);
+            }
+        }
+
+        // キューとエージェントは、名前がない場合はARNを使います。
+        final String queue = getText(contactData.path("Queue").path("Name"));
+        final String agent = getText(contactData.path("Agent").path("Username"));
+        return new ContactMetadata(
+                videoStreamData,
+                getText(contactData.path("CustomerEndpoint").path("Address")),
+                queue != null ? queue : getText(contactData.path("Queue").path("ARN")),
+                agent != null ? agent : getText(contactData.path("Agent").path("ARN")),
+                attributes,
+                null);
+    }
+
+    /**
+     * JSONノードの文字列を取得します。
+     * @param node JSONノード
+     * @return 文字列、値がない場合は{@code null}
+     */
+    private static String getText(final JsonNode node) {
+        if (node == null || !node.isValueNode() || node.isNull()) {
+            return null;
+        }
+
+        final String text = node.asText();
+        return text != null && !text.isEmpty() ? text : null;
+    }
+
+    /**
+     * MKVタグを設定した情報を生成します。
+     * @param tags MKVタグ
+     * @return 問い合わせの情報
+     */
+    public ContactMetadata withTags(final Map<String, String> tags) {
+        return new ContactMetadata(videoStreamData, customerEndpoint, queue, agent, attributes, tags);
+    }
+
+    /**
+     * ストリーム情報を取得します。
+     * @return ストリーム情報
+     */
+    public VideoStreamData getVideoStreamData() {
+        return videoStreamData;
+    }
+
+    /**
+     * 問い合わせIDを取得します。
+     * @return 問い合わせID、不明な場合は{@code null}
+     */
+    public String getContactId() {
+        return videoStreamData.getContactId();
+    }
+
+    /**
+     * お客様のエンドポイントを取得します。
+     * @return お客様のエンドポイント(電話番号など)、不明な場合は{@code null}
+     */
+    public String getCustomerEndpoint() {
+        return customerEndpoint;
+    }
+
+    /**
+     * キューを取得します。
+     * @return キュー、不明な場合は{@code null}
+     */
+    public String getQueue() {
+        return queue;
+    }
+
+    /**
+     * エージェントを取得します。
+     * @return エージェント、不明な場合は{@code null}
+     */
+    public String getAgent() {
+        return agent;
+    }
+
+    /**
+     * 問い合わせの属性を取得します。
+     * @return 問い合わせの属性(変更不可)
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * MKVタグを取得します。
+     * @return MKVタグ(変更不可)
+     */
+    public Map<String, String> getTags() {
+        return tags;
+    }
+}
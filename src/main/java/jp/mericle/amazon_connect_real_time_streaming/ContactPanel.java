@@ -4,10 +4,9 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
-import java.awt.geom.Path2D;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.BoxLayout;
 import javax.swing.JLabel;
@@ -22,6 +21,11 @@ import org.jtransforms.fft.DoubleFFT_1D;
  */
 public class ContactPanel extends JPanel {
 
+    /**
+     * ストリーム名。
+     */
+    private final String streamName;
+
     /**
      * お客様側の周波数スペクトルの描画パネル。
      */
@@ -32,27 +36,98 @@ public class ContactPanel extends JPanel {
      */
     private FrequencySpectrumCanvas operatorPanel;
 
+    /**
+     * 遅延の表示ラベル。
+     */
+    private JLabel latencyLabel;
+
+    /**
+     * 通話品質の表示ラベル。
+     */
+    private JLabel analyticsLabel;
+
+    /**
+     * 音声のサンプリング周波数(Hz)。
+     */
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * イベントディスパッチスレッドで処理待ちの更新数。
+     */
+    private static final Gauge PENDING_UPDATES = MetricsRegistry.getDefault().gauge(
+            "ui_pending_updates", "Number of spectrum updates waiting on the event dispatch thread.");
+
+    /**
+     * 周波数スペクトルの更新時間。
+     */
+    private static final Histogram UPDATE_TIME = MetricsRegistry.getDefault().histogram(
+            "spectrum_update_time_micros", "Time spent computing and applying one spectrum update in microseconds.");
+
+    /**
+     * 周波数スペクトルを表示する最小の間隔(ns)、0の場合は全てのフレームで表示します。
+     */
+    private static volatile long spectrumInterval = 0;
+
+    /**
+     * お客様側の周波数スペクトルを最後に表示した時刻(ns)。最初のフレームは必ず表示するよう、最大の間隔だけ前にしておきます。
+     */
+    private long lastCustomerSpectrumTime = System.nanoTime() - TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * オペレーター側の周波数スペクトルを最後に表示した時刻(ns)。
+     */
+    private long lastOperatorSpectrumTime = lastCustomerSpectrumTime;
+
     /**
      * コンストラクタ。
      * @param startDateTime 開始日時
      */
     public ContactPanel(Date startDateTime) {
+        this(null, startDateTime, SpectrumBands.Scale.MEL);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param streamName ストリーム名
+     * @param startDateTime 開始日時
+     * @param spectrumScale 周波数スペクトルの帯域の分割方法
+     */
+    public ContactPanel(String streamName, Date startDateTime, SpectrumBands.Scale spectrumScale) {
+        this.streamName = streamName;
         final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS");
         JLabel startDateTimeLabel = new JLabel(dateFormat.format(startDateTime));
         startDateTimeLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
-        customerPanel = new FrequencySpectrumCanvas(new Color(0xFF, 0xA0, 0x7A));
-        operatorPanel = new FrequencySpectrumCanvas(new Color(0x3C, 0xB3, 0x71));
+        latencyLabel = new JLabel(" ");
+        latencyLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        analyticsLabel = new JLabel(" ");
+        analyticsLabel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        customerPanel = new FrequencySpectrumCanvas(new Color(0xFF, 0xA0, 0x7A), spectrumScale);
+        operatorPanel = new FrequencySpectrumCanvas(new Color(0x3C, 0xB3, 0x71), spectrumScale);
 
         JLabel emptyLine = new JLabel(" ");
         emptyLine.setAlignmentX(Component.LEFT_ALIGNMENT);
 
         setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
         add(startDateTimeLabel);
+        add(latencyLabel);
+        add(analyticsLabel);
         add(customerPanel);
         add(operatorPanel);
         add(emptyLine);
     }
 
+    /**
+     * 全ての問い合わせの周波数スペクトルの、1秒あたりの表示回数の上限を設定します。
+     * @param frameRate 1秒あたりの表示回数の上限、0の場合は全てのフレームで表示します
+     */
+    public static void setSpectrumFrameRate(final int frameRate) {
+        if (frameRate < 0) {
+            throw new IllegalArgumentException("frameRate can't set negative number.");
+        }
+
+        spectrumInterval = frameRate > 0 ? TimeUnit.SECONDS.toNanos(1) / frameRate : 0;
+    }
+
     /**
      * お客様側の周波数スペクトルを更新します。
      * @param data 音声データ
@@ -62,10 +137,34 @@ public class ContactPanel extends JPanel {
             return;
         }
 
+        // 表示回数の上限を超える分は、計算せずに捨てます。
+        final long now = System.nanoTime();
+        if (spectrumInterval > 0 && now - lastCustomerSpectrumTime < spectrumInterval) {
+            return;
+        }
+
+        lastCustomerSpectrumTime = now;
+
+        // 負荷が高い場合は、録音を優先して表示を省略します。
+        if (!ResourceGovernor.getDefault().tryAcquire(ResourceGovernor.Work.SPECTRUM)) {
+            return;
+        }
+
+        PENDING_UPDATES.add(1);
         SwingUtilities.invokeLater(() -> {
-            customerPanel.updateFrequencySpectrum(toFrequencySpectrum(data));
-            customerPanel.revalidate();
-            customerPanel.repaint();
+            PENDING_UPDATES.add(-1);
+            final long startTime = System.nanoTime();
+            try {
+                final SpectrumEvent event = new SpectrumEvent();
+                event.begin();
+                customerPanel.updateFrequencySpectrum(toFrequencySpectrum(data));
+                commitSpectrumEvent(event, data.length);
+                customerPanel.revalidate();
+                customerPanel.repaint();
+            } finally {
+                ResourceGovernor.getDefault().release(ResourceGovernor.Work.SPECTRUM);
+            }
+            UPDATE_TIME.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
         });
     }
 
@@ -78,31 +177,128 @@ public class ContactPanel extends JPanel {
             return;
         }
 
+        final long now = System.nanoTime();
+        if (spectrumInterval > 0 && now - lastOperatorSpectrumTime < spectrumInterval) {
+            return;
+        }
+
+        lastOperatorSpectrumTime = now;
+
+        // 負荷が高い場合は、録音を優先して表示を省略します。
+        if (!ResourceGovernor.getDefault().tryAcquire(ResourceGovernor.Work.SPECTRUM)) {
+            return;
+        }
+
+        PENDING_UPDATES.add(1);
         SwingUtilities.invokeLater(() -> {
-            operatorPanel.updateFrequencySpectrum(toFrequencySpectrum(data));
-            operatorPanel.revalidate();
-            operatorPanel.repaint();
+            PENDING_UPDATES.add(-1);
+            final long startTime = System.nanoTime();
+            try {
+                final SpectrumEvent event = new SpectrumEvent();
+                event.begin();
+                operatorPanel.updateFrequencySpectrum(toFrequencySpectrum(data));
+                commitSpectrumEvent(event, data.length);
+                operatorPanel.revalidate();
+                operatorPanel.repaint();
+            } finally {
+                ResourceGovernor.getDefault().release(ResourceGovernor.Work.SPECTRUM);
+            }
+            UPDATE_TIME.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
         });
     }
 
+    /**
+     * 周波数スペクトルの計算のJFRイベントを確定します。
+     * @param event イベント
+     * @param bytes 音声データのバイト数
+     */
+    private void commitSpectrumEvent(final SpectrumEvent event, final int bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.streamName = streamName;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * 遅延の表示を更新します。
+     * @param latencyTracker 遅延の記録
+     */
+    public void updateLatency(final MediaLatencyTracker latencyTracker) {
+        if (latencyTracker == null) {
+            return;
+        }
+
+        final String text = String.format("遅延 %d ms (p50 %d ms / p99 %d ms / 最大 %d ms)",
+                latencyTracker.getLastEndToEndLag(),
+                latencyTracker.getEndToEndLag().getPercentile(0.50),
+                latencyTracker.getEndToEndLag().getPercentile(0.99),
+                latencyTracker.getEndToEndLag().getMax());
+        final Color color = latencyTracker.isAlarmActive() ? Color.RED : Color.BLACK;
+        SwingUtilities.invokeLater(() -> {
+            latencyLabel.setText(text);
+            latencyLabel.setForeground(color);
+        });
+    }
+
+    /**
+     * 通話品質の表示を更新します。
+     * @param analytics 通話品質の指標
+     */
+    public void updateAnalytics(final ConversationAnalytics analytics) {
+        if (analytics == null) {
+            return;
+        }
+
+        // 指標は録音のスレッドで更新されるので、表示する文字列はここで作ります。
+        final String text = String.format("<html>%s<br>%s<br>同時発話 %d回 (%.1f秒)</html>",
+                formatTrack("お客様", analytics.getCustomer()),
+                formatTrack("オペレーター", analytics.getOperator()),
+                analytics.getOverlapCount(),
+                analytics.getOverlapMillis() / 1000.0);
+        final Color color = analytics.getCustomer().getClippingRatio() > 0.0 || analytics.getOperator().getClippingRatio() > 0.0
+                ? Color.RED : Color.BLACK;
+        SwingUtilities.invokeLater(() -> {
+            analyticsLabel.setText(text);
+            analyticsLabel.setForeground(color);
+        });
+    }
+
+    /**
+     * 1つのトラックの通話品質を表示用の文字列にします。
+     * @param name トラックの表示名
+     * @param track トラックの指標
+     * @return 表示用の文字列
+     */
+    private static String formatTrack(final String name, final ConversationAnalytics.Track track) {
+        return String.format("%s RMS %.1f dB / ピーク %.1f dB / 無音 %.0f%% / クリップ %.2f%%",
+                name,
+                Math.max(track.getRmsLevel(), -96.0),
+                Math.max(track.getPeakLevel(), -96.0),
+                track.getSilenceRatio() * 100,
+                track.getClippingRatio() * 100);
+    }
+
     /**
      * 音声データを周波数スペクトルのデータに変換します。
+     * 音声データは16bitリトルエンディアンのPCMとして扱います。
      * https://stackoverflow.com/questions/7674877/how-to-get-frequency-from-fft-result
      * @param data 音声データ
-     * @return 周波数スペクトルのデータ
+     * @return 周波数スペクトルのデータ(0Hzからナイキスト周波数までの振幅)
      */
-    private static double[] toFrequencySpectrum(final byte[] data) {
-        double[] bufferData = new double[data.length];
-        for (int i = 0; i < bufferData.length; ++i) {
-            bufferData[i] = data[i];
+    static double[] toFrequencySpectrum(final byte[] data) {
+        final int sampleCount = data.length / 2;
+        double[] bufferData = new double[sampleCount];
+        for (int i = 0; i < sampleCount; ++i) {
+            bufferData[i] = (short)((data[2 * i] & 0xFF) | (data[2 * i + 1] << 8));
         }
 
-        DoubleFFT_1D fft = new DoubleFFT_1D(data.length);
+        DoubleFFT_1D fft = new DoubleFFT_1D(sampleCount);
         fft.realForward(bufferData);
 
-        // 実数と虚数で取得するので半分にしています。
-        // また変換したデータに対称性が見られたので、さらに半分にしています。(根拠なし)
-        int length = data.length / 4;
+        // 実数と虚数の組で格納されているので、ビンの数はサンプル数の半分になります。
+        int length = sampleCount / 2;
         double[] processedData = new double[length];
         for (int i = 0; i < length; ++i) {
             double re = bufferData[2 * i];
@@ -129,28 +325,92 @@ public class ContactPanel extends JPanel {
          */
         private static final int height = 40;
 
+        /**
+         * 表示するダイナミックレンジ(dB)。
+         */
+        private static final double DYNAMIC_RANGE = 60.0;
+
+        /**
+         * 更新ごとのピークの減衰量(dB)。
+         */
+        private static final double PEAK_DECAY = 0.5;
+
         /**
          * スペクトルの色。
          */
         private final Color spectrumColor;
 
         /**
-         * 周波数スペクトルのデータ。
+         * 帯域の分割方法。
+         */
+        private final SpectrumBands.Scale scale;
+
+        /**
+         * ビンと帯域の対応。ビンの数が変わった場合にのみ作り直します。
          */
-        private double[] data;
+        private SpectrumBands bands;
+
+        /**
+         * 帯域ごとのdB値。
+         */
+        private final double[] bandLevels = new double[width];
+
+        /**
+         * 描画する多角形のX座標。
+         */
+        private final int[] xPoints = new int[width + 2];
+
+        /**
+         * 描画する多角形のY座標。
+         */
+        private final int[] yPoints = new int[width + 2];
+
+        /**
+         * 自動レンジのピーク(dB)。
+         */
+        private double peakLevel = Double.NEGATIVE_INFINITY;
+
+        /**
+         * 描画するデータがあるかどうか。
+         */
+        private boolean hasData = false;
 
         /**
          * コンストラクタ。
          * @param color スペクトルの色
          */
         public FrequencySpectrumCanvas(final Color color) {
+            this(color, SpectrumBands.Scale.MEL);
+        }
+
+        /**
+         * コンストラクタ。
+         * @param color スペクトルの色
+         * @param scale 帯域の分割方法
+         */
+        public FrequencySpectrumCanvas(final Color color, final SpectrumBands.Scale scale) {
             if (color == null) {
                 throw new IllegalArgumentException("color can't set null.");
             }
 
+            if (scale == null) {
+                throw new IllegalArgumentException("scale can't set null.");
+            }
+
             setAlignmentX(Component.LEFT_ALIGNMENT);
             setPreferredSize(new Dimension(width, height));
             spectrumColor = color;
+            this.scale = scale;
+
+            // 多角形の両端は下辺に固定します。
+            for (int i = 0; i < width; ++i) {
+                xPoints[i + 1] = i;
+            }
+
+            xPoints[0] = 0;
+            yPoints[0] = height;
+            xPoints[width + 1] = width;
+            yPoints[width + 1] = height;
         }
 
         /**
@@ -158,37 +418,47 @@ public class ContactPanel extends JPanel {
          * @param g 描画オブジェクト。
          */
         public void paintComponent(final Graphics g) {
-            if (data == null || data.length == 0) {
-                g.setColor(Color.WHITE);
-                g.fillRect(0, 0, width, height);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            if (!hasData) {
                 return;
             }
 
-            Graphics2D g2 = (Graphics2D)g;
-            g2.setBackground(Color.WHITE);
-            g2.clearRect(0, 0, width, height);
-            g2.setColor(spectrumColor);
-            Path2D.Double path = new Path2D.Double();
-            path.moveTo(0, height);
-
-            int length = data.length;
-            for (int i = 0; i < length; ++i) {
-                path.lineTo(
-                        ((double)i / (double)length) * width,
-                        height - ((Math.min(data[i], 8000.0) / 8000.0) * height)); // 適当な値でリミッターをかけています。
-            }
-
-            path.lineTo(width, height);
-            path.closePath();
-            g2.fill(path);
+            g.setColor(spectrumColor);
+            g.fillPolygon(xPoints, yPoints, xPoints.length);
         }
 
         /**
          * 周波数スペクトルを更新します。
+         * 描画幅の帯域に集約し、直近のピークを上端とするdBスケールに変換します。
          * @param data 周波数スペクトルのデータ
          */
         public void updateFrequencySpectrum(final double[] data) {
-            this.data = data;
+            if (data == null || data.length == 0) {
+                hasData = false;
+                return;
+            }
+
+            if (bands == null || !bands.matches(data.length)) {
+                bands = new SpectrumBands(scale, width, data.length, SAMPLE_RATE);
+            }
+
+            bands.aggregate(data, bandLevels);
+
+            // ピークはゆっくり減衰させ、大きな音の直後でも表示が潰れないようにしています。
+            double maxLevel = Double.NEGATIVE_INFINITY;
+            for (double level : bandLevels) {
+                maxLevel = Math.max(maxLevel, level);
+            }
+
+            peakLevel = Math.max(maxLevel, peakLevel - PEAK_DECAY);
+            final double floorLevel = peakLevel - DYNAMIC_RANGE;
+            for (int i = 0; i < width; ++i) {
+                final double ratio = Math.min(Math.max((bandLevels[i] - floorLevel) / DYNAMIC_RANGE, 0.0), 1.0);
+                yPoints[i + 1] = height - (int)Math.round(ratio * height);
+            }
+
+            hasData = true;
         }
     }
 }
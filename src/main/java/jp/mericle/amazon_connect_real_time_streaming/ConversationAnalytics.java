@@ -0,0 +1,461 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 1件の問い合わせの音声から、通話品質の指標を逐次計算します。
+ * <p>
+ * トラックごとにRMSとピークの音量、クリッピングの割合、無音の割合を求め、
+ * お客様側とオペレーター側が同時に話している時間と回数を数えます。
+ * 発話と無音は{@value #BLOCK_SIZE}サンプル(20ms)ごとに判定し、同時発話は直近{@value #HISTORY_BLOCKS}ブロックの判定結果で照合します。
+ * 保持するのは集計値と固定長の判定結果だけなので、メモリは通話の長さによらず一定です。
+ * <p>
+ * 音声データは8kHz、16bitリトルエンディアンのPCMとして扱います。同じインスタンスを複数のスレッドから使うことはできません。
+ * @author Bladean Mericle
+ */
+public class ConversationAnalytics {
+
+    /**
+     * 音声のサンプリング周波数(Hz)。
+     */
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * 発話と無音を判定する単位となるサンプル数(20ms)。
+     */
+    static final int BLOCK_SIZE = 160;
+
+    /**
+     * 同時発話の照合のために保持するブロック数。トラック間の到着のずれがこれを超えたブロックは照合しません。
+     */
+    static final int HISTORY_BLOCKS = 64;
+
+    /**
+     * 発話として扱うブロックの音量(dBFS)。
+     */
+    private static final double SPEECH_LEVEL = -45.0;
+
+    /**
+     * 発話として扱うブロックのエネルギーの閾値。
+     */
+    private static final double SPEECH_BLOCK_ENERGY =
+            Math.pow(Math.pow(10.0, SPEECH_LEVEL / 20.0) * Short.MAX_VALUE, 2) * BLOCK_SIZE;
+
+    /**
+     * クリッピングとして扱うサンプルの絶対値。
+     */
+    private static final int CLIPPING_LEVEL = 32700;
+
+    /**
+     * お客様側の指標。
+     */
+    private final Track customer = new Track();
+
+    /**
+     * オペレーター側の指標。
+     */
+    private final Track operator = new Track();
+
+    /**
+     * 同時発話の照合が済んだブロック数。
+     */
+    private long comparedBlocks = 0;
+
+    /**
+     * 両方のトラックを分析できたブロック数。
+     */
+    private long bothAnalysedBlocks = 0;
+
+    /**
+     * 同時に話していたブロック数。
+     */
+    private long overlapBlocks = 0;
+
+    /**
+     * 同時発話の回数。
+     */
+    private long overlapCount = 0;
+
+    /**
+     * 直前に照合したブロックが同時発話だったかどうか。
+     */
+    private boolean lastOverlap = false;
+
+    /**
+     * お客様側の音声データを分析します。
+     * @param data 音声データ
+     */
+    public void processCustomer(final byte[] data) {
+        customer.process(data, true);
+        compare();
+    }
+
+    /**
+     * オペレーター側の音声データを分析します。
+     * @param data 音声データ
+     */
+    public void processOperator(final byte[] data) {
+        operator.process(data, true);
+        compare();
+    }
+
+    /**
+     * 負荷が高いため分析しなかったお客様側の音声データの長さを記録し、時刻がずれないようにします。
+     * @param data 音声データ
+     */
+    public void skipCustomer(final byte[] data) {
+        customer.process(data, false);
+        compare();
+    }
+
+    /**
+     * 負荷が高いため分析しなかったオペレーター側の音声データの長さを記録し、時刻がずれないようにします。
+     * @param data 音声データ
+     */
+    public void skipOperator(final byte[] data) {
+        operator.process(data, false);
+        compare();
+    }
+
+    /**
+     * 両方のトラックで判定が済んだブロックを照合し、同時発話を数えます。
+     */
+    private void compare() {
+        final long completed = Math.min(customer.blocks, operator.blocks);
+        final long latest = Math.max(customer.blocks, operator.blocks);
+        for (; comparedBlocks < completed; ++comparedBlocks) {
+            // 先行しているトラックの判定結果が上書きされている場合は照合しません。
+            if (latest - comparedBlocks > HISTORY_BLOCKS
+                    || !customer.isAnalysed(comparedBlocks) || !operator.isAnalysed(comparedBlocks)) {
+                lastOverlap = false;
+                continue;
+            }
+
+            ++bothAnalysedBlocks;
+            final boolean overlap = customer.isSpeech(comparedBlocks) && operator.isSpeech(comparedBlocks);
+            if (overlap) {
+                ++overlapBlocks;
+                if (!lastOverlap) {
+                    ++overlapCount;
+                }
+            }
+
+            lastOverlap = overlap;
+        }
+    }
+
+    /**
+     * お客様側の指標を取得します。
+     * @return お客様側の指標
+     */
+    public Track getCustomer() {
+        return customer;
+    }
+
+    /**
+     * オペレーター側の指標を取得します。
+     * @return オペレーター側の指標
+     */
+    public Track getOperator() {
+        return operator;
+    }
+
+    /**
+     * 同時に話していた時間を取得します。
+     * @return 同時に話していた時間(ms)
+     */
+    public long getOverlapMillis() {
+        return overlapBlocks * BLOCK_SIZE * 1000 / SAMPLE_RATE;
+    }
+
+    /**
+     * 同時発話の回数を取得します。
+     * @return 同時発話の回数
+     */
+    public long getOverlapCount() {
+        return overlapCount;
+    }
+
+    /**
+     * 両方のトラックを分析できた時間に対する、同時に話していた時間の割合を取得します。
+     * @return 同時に話していた時間の割合(0.0～1.0)
+     */
+    public double getOverlapRatio() {
+        return bothAnalysedBlocks > 0 ? (double)overlapBlocks / bothAnalysedBlocks : 0.0;
+    }
+
+    /**
+     * 指標をサマリーの項目に変換します。
+     * @return サマリーの項目
+     */
+    public Map<String, Object> toSummary() {
+        final Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("customer", customer.toSummary());
+        summary.put("operator", operator.toSummary());
+        summary.put("overlapMillis", getOverlapMillis());
+        summary.put("overlapCount", overlapCount);
+        summary.put("overlapRatio", round(getOverlapRatio()));
+        return summary;
+    }
+
+    /**
+     * 出力用に小数点以下4桁に丸めます。
+     * @param value 値
+     * @return 丸めた値
+     */
+    private static double round(final double value) {
+        return Math.round(value * 10000.0) / 10000.0;
+    }
+
+    /**
+     * 1つのトラックの指標です。
+     */
+    public static class Track {
+
+        /**
+         * 分析したサンプル数。
+         */
+        private long analysedSamples = 0;
+
+        /**
+         * 分析しなかったサンプル数。
+         */
+        private long skippedSamples = 0;
+
+        /**
+         * サンプルの2乗の合計。
+         */
+        private double sumSquares = 0.0;
+
+        /**
+         * サンプルの絶対値の最大値。
+         */
+        private int peak = 0;
+
+        /**
+         * クリッピングしたサンプル数。
+         */
+        private long clippedSamples = 0;
+
+        /**
+         * 発話と判定したブロック数。
+         */
+        private long speechBlocks = 0;
+
+        /**
+         * 無音と判定したブロック数。
+         */
+        private long silentBlocks = 0;
+
+        /**
+         * 判定が済んだブロック数。
+         */
+        private long blocks = 0;
+
+        /**
+         * 現在のブロックのサンプル数。
+         */
+        private int blockSamples = 0;
+
+        /**
+         * 現在のブロックのエネルギー。
+         */
+        private double blockEnergy = 0.0;
+
+        /**
+         * 現在のブロックの全てのサンプルを分析したかどうか。
+         */
+        private boolean blockAnalysed = true;
+
+        /**
+         * 直近のブロックを分析したかどうか(ブロック番号を{@value ConversationAnalytics#HISTORY_BLOCKS}で割った余りのビット)。
+         */
+        private long analysedHistory = 0;
+
+        /**
+         * 直近のブロックが発話だったかどうか(ブロック番号を{@value ConversationAnalytics#HISTORY_BLOCKS}で割った余りのビット)。
+         */
+        private long speechHistory = 0;
+
+        /**
+         * フレームをまたいだサンプルの下位バイト、ない場合は-1。
+         */
+        private int pendingLowByte = -1;
+
+        /**
+         * 音声データを処理します。
+         * @param data 音声データ
+         * @param analyse 分析する場合は{@code true}、長さだけを記録する場合は{@code false}
+         */
+        private void process(final byte[] data, final boolean analyse) {
+            if (data == null) {
+                return;
+            }
+
+            int offset = 0;
+            if (pendingLowByte >= 0 && data.length > 0) {
+                processSample((short)((data[0] << 8) | pendingLowByte), analyse);
+                pendingLowByte = -1;
+                offset = 1;
+            }
+
+            for (; offset + 1 < data.length; offset += 2) {
+                processSample((short)((data[offset + 1] << 8) | (data[offset] & 0xFF)), analyse);
+            }
+
+            if (offset < data.length) {
+                pendingLowByte = data[offset] & 0xFF;
+            }
+        }
+
+        /**
+         * 1サンプルを処理します。
+         * @param sample サンプル
+         * @param analyse 分析する場合は{@code true}
+         */
+        private void processSample(final short sample, final boolean analyse) {
+            if (analyse) {
+                final int magnitude = Math.abs(sample);
+                final double square = (double)sample * sample;
+                ++analysedSamples;
+                sumSquares += square;
+                blockEnergy += square;
+                if (magnitude > peak) {
+                    peak = magnitude;
+                }
+
+                if (magnitude >= CLIPPING_LEVEL) {
+                    ++clippedSamples;
+                }
+            } else {
+                ++skippedSamples;
+                blockAnalysed = false;
+            }
+
+            if (++blockSamples == BLOCK_SIZE) {
+                endBlock();
+            }
+        }
+
+        /**
+         * ブロックの発話と無音を判定します。
+         */
+        private void endBlock() {
+            final long bit = 1L << (blocks % HISTORY_BLOCKS);
+            if (blockAnalysed) {
+                analysedHistory |= bit;
+                if (blockEnergy >= SPEECH_BLOCK_ENERGY) {
+                    ++speechBlocks;
+                    speechHistory |= bit;
+                } else {
+                    ++silentBlocks;
+                    speechHistory &= ~bit;
+                }
+            } else {
+                analysedHistory &= ~bit;
+                speechHistory &= ~bit;
+            }
+
+            ++blocks;
+            blockSamples = 0;
+            blockEnergy = 0.0;
+            blockAnalysed = true;
+        }
+
+        /**
+         * 直近のブロックを分析したかどうかを判定します。
+         * @param block ブロック番号
+         * @return 分析した場合は{@code true}
+         */
+        private boolean isAnalysed(final long block) {
+            return (analysedHistory & (1L << (block % HISTORY_BLOCKS))) != 0;
+        }
+
+        /**
+         * 直近のブロックが発話だったかどうかを判定します。
+         * @param block ブロック番号
+         * @return 発話だった場合は{@code true}
+         */
+        private boolean isSpeech(final long block) {
+            return (speechHistory & (1L << (block % HISTORY_BLOCKS))) != 0;
+        }
+
+        /**
+         * RMSの音量を取得します。
+         * @return RMSの音量(dBFS)、分析していない場合は負の無限大
+         */
+        public double getRmsLevel() {
+            if (analysedSamples == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+
+            return toDecibel(Math.sqrt(sumSquares / analysedSamples));
+        }
+
+        /**
+         * ピークの音量を取得します。
+         * @return ピークの音量(dBFS)、分析していない場合は負の無限大
+         */
+        public double getPeakLevel() {
+            return toDecibel(peak);
+        }
+
+        /**
+         * クリッピングしたサンプルの割合を取得します。
+         * @return クリッピングの割合(0.0～1.0)
+         */
+        public double getClippingRatio() {
+            return analysedSamples > 0 ? (double)clippedSamples / analysedSamples : 0.0;
+        }
+
+        /**
+         * 無音の割合を取得します。
+         * @return 無音の割合(0.0～1.0)
+         */
+        public double getSilenceRatio() {
+            final long analysedBlocks = speechBlocks + silentBlocks;
+            return analysedBlocks > 0 ? (double)silentBlocks / analysedBlocks : 0.0;
+        }
+
+        /**
+         * 分析した時間を取得します。
+         * @return 分析した時間(ms)
+         */
+        public long getAnalysedMillis() {
+            return analysedSamples * 1000 / SAMPLE_RATE;
+        }
+
+        /**
+         * 負荷が高いため分析しなかった時間を取得します。
+         * @return 分析しなかった時間(ms)
+         */
+        public long getSkippedMillis() {
+            return skippedSamples * 1000 / SAMPLE_RATE;
+        }
+
+        /**
+         * 指標をサマリーの項目に変換します。
+         * @return サマリーの項目
+         */
+        private Map<String, Object> toSummary() {
+            final Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("analysedMillis", getAnalysedMillis());
+            summary.put("skippedMillis", getSkippedMillis());
+            summary.put("rmsDbfs", analysedSamples > 0 ? round(getRmsLevel()) : null);
+            summary.put("peakDbfs", peak > 0 ? round(getPeakLevel()) : null);
+            summary.put("clippingRatio", round(getClippingRatio()));
+            summary.put("silenceRatio", round(getSilenceRatio()));
+            return summary;
+        }
+
+        /**
+         * 振幅をdBFSに変換します。
+         * @param amplitude 振幅
+         * @return 音量(dBFS)
+         */
+        private static double toDecibel(final double amplitude) {
+            return 20.0 * Math.log10(amplitude / Short.MAX_VALUE);
+        }
+    }
+}
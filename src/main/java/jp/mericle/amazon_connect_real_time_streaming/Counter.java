@@ -0,0 +1,68 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 単調増加するカウンターです。
+ * 複数のスレッドから更新されてもロックを取りません。
+ * @author Bladean Mericle
+ */
+public class Counter extends Metric implements CounterMBean {
+
+    /**
+     * 値。
+     */
+    private final LongAdder value = new LongAdder();
+
+    /**
+     * コンストラクタ。
+     * @param name メトリクス名
+     * @param help 説明
+     * @param labels ラベル(キーと値を交互に指定します)
+     */
+    public Counter(final String name, final String help, final String... labels) {
+        super(name, help, labels);
+    }
+
+    /**
+     * 1加算します。
+     */
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * 加算します。
+     * @param amount 加算する値
+     */
+    public void add(final long amount) {
+        value.add(amount);
+    }
+
+    /**
+     * 現在の値を取得します。
+     * @return 現在の値
+     */
+    @Override
+    public long getValue() {
+        return value.sum();
+    }
+
+    /**
+     * Prometheusのメトリクスの種類を取得します。
+     * @return メトリクスの種類
+     */
+    @Override
+    public String getType() {
+        return "counter";
+    }
+
+    /**
+     * Prometheusのテキスト形式でサンプルを書き込みます。
+     * @param builder 書き込み先
+     */
+    @Override
+    public void writeSamples(final StringBuilder builder) {
+        writeSample(builder, getName(), null, null, getValue());
+    }
+}
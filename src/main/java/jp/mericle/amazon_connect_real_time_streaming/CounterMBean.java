@@ -0,0 +1,14 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+/**
+ * カウンターのMBeanインターフェースです。
+ * @author Bladean Mericle
+ */
+public interface CounterMBean {
+
+    /**
+     * 現在の値を取得します。
+     * @return 現在の値
+     */
+    long getValue();
+}
@@ -0,0 +1,89 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.nio.ByteBuffer;
+
+import com.amazonaws.kinesisvideo.parser.ebml.ParserByteSource;
+
+/**
+ * 読み込んだバイト数を数えるバイトソースです。
+ * @author Bladean Mericle
+ */
+public class CountingParserByteSource implements ParserByteSource {
+
+    /**
+     * 読み込み元のバイトソース。
+     */
+    private final ParserByteSource source;
+
+    /**
+     * 読み込んだバイト数。
+     */
+    private long byteCount = 0;
+
+    /**
+     * コンストラクタ。
+     * @param source 読み込み元のバイトソース
+     */
+    public CountingParserByteSource(final ParserByteSource source) {
+        if (source == null) {
+            throw new IllegalArgumentException("source can't set null.");
+        }
+
+        this.source = source;
+    }
+
+    /**
+     * 1バイト読み込みます。
+     * @return 読み込んだバイト、終端の場合は-1
+     */
+    @Override
+    public int readByte() {
+        final int value = source.readByte();
+        if (value >= 0) {
+            ++byteCount;
+        }
+
+        return value;
+    }
+
+    /**
+     * 読み込み可能なバイト数を取得します。
+     * @return 読み込み可能なバイト数
+     */
+    @Override
+    public int available() {
+        return source.available();
+    }
+
+    /**
+     * バッファに読み込みます。
+     * @param dest 読み込み先のバッファ
+     * @return 読み込んだバイト数
+     */
+    @Override
+    public int readBytes(final ByteBuffer dest) {
+        final int length = source.readBytes(dest);
+        if (length > 0) {
+            byteCount += length;
+        }
+
+        return length;
+    }
+
+    /**
+     * 終端かどうかを取得します。
+     * @return 終端の場合は{@code true}
+     */
+    @Override
+    public boolean eof() {
+        return source.eof();
+    }
+
+    /**
+     * 読み込んだバイト数を取得します。
+     * @return 読み込んだバイト数
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+}
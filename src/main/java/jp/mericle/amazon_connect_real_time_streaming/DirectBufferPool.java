@@ -0,0 +1,106 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ダイレクトバッファを使い回すためのプールです。
+ * ダイレクトバッファは確保と解放のコストが大きいので、問い合わせごとに確保せずにサイズごとに保持しておきます。
+ * @author Bladean Mericle
+ */
+public class DirectBufferPool {
+
+    /**
+     * 標準のプール。
+     */
+    private static final DirectBufferPool DEFAULT = new DirectBufferPool(64);
+
+    /**
+     * サイズごとに保持するバッファの最大数。
+     */
+    private final int maxPooledBuffers;
+
+    /**
+     * サイズごとのバッファ。
+     */
+    private final Map<Integer, Pool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * コンストラクタ。
+     * @param maxPooledBuffers サイズごとに保持するバッファの最大数
+     */
+    public DirectBufferPool(final int maxPooledBuffers) {
+        if (maxPooledBuffers < 0) {
+            throw new IllegalArgumentException("maxPooledBuffers can't set negative number.");
+        }
+
+        this.maxPooledBuffers = maxPooledBuffers;
+    }
+
+    /**
+     * 標準のプールを取得します。
+     * @return 標準のプール
+     */
+    public static DirectBufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * バッファを取得します。プールが空の場合は新しく確保します。
+     * @param capacity バッファのサイズ(byte)
+     * @return 空のバッファ
+     */
+    public ByteBuffer acquire(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive number.");
+        }
+
+        final Pool pool = pools.get(capacity);
+        final ByteBuffer buffer = pool != null ? pool.buffers.poll() : null;
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+
+        pool.size.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * バッファを返却します。プールが一杯の場合は破棄します。
+     * @param buffer バッファ
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.isReadOnly()) {
+            return;
+        }
+
+        final Pool pool = pools.computeIfAbsent(buffer.capacity(), capacity -> new Pool());
+        if (pool.size.incrementAndGet() > maxPooledBuffers) {
+            pool.size.decrementAndGet();
+            return;
+        }
+
+        pool.buffers.offer(buffer);
+    }
+
+    /**
+     * 1つのサイズのバッファのプールです。
+     */
+    private static class Pool {
+
+        /**
+         * バッファ。
+         */
+        private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 保持しているバッファの数。
+         */
+        private final AtomicInteger size = new AtomicInteger();
+    }
+}
@@ -0,0 +1,117 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * ローカルの代替サーバーで発生させる障害の設定です。
+ * @author Bladean Mericle
+ */
+public class FaultInjector {
+
+    /**
+     * スロットリングを返す割合(0.0～1.0)。
+     */
+    private final double throttleRate;
+
+    /**
+     * GetMediaの接続を途中で切断する割合(0.0～1.0)。
+     */
+    private final double dropRate;
+
+    /**
+     * GetMediaの配信速度(実時間に対する倍率、0の場合は可能な限り速く配信します)。
+     */
+    private final double mediaSpeed;
+
+    /**
+     * APIごとに追加する遅延(ms)。
+     */
+    private final long latency;
+
+    /**
+     * コンストラクタ。
+     * @param throttleRate スロットリングを返す割合(0.0～1.0)
+     * @param dropRate GetMediaの接続を途中で切断する割合(0.0～1.0)
+     * @param mediaSpeed GetMediaの配信速度(実時間に対する倍率、0の場合は可能な限り速く配信します)
+     * @param latency APIごとに追加する遅延(ms)
+     */
+    public FaultInjector(
+            final double throttleRate,
+            final double dropRate,
+            final double mediaSpeed,
+            final long latency) {
+        if (throttleRate < 0.0 || throttleRate > 1.0) {
+            throw new IllegalArgumentException("throttleRate must be between 0.0 and 1.0.");
+        }
+
+        if (dropRate < 0.0 || dropRate > 1.0) {
+            throw new IllegalArgumentException("dropRate must be between 0.0 and 1.0.");
+        }
+
+        if (mediaSpeed < 0.0) {
+            throw new IllegalArgumentException("mediaSpeed can't set negative number.");
+        }
+
+        if (latency < 0) {
+            throw new IllegalArgumentException("latency can't set negative number.");
+        }
+
+        this.throttleRate = throttleRate;
+        this.dropRate = dropRate;
+        this.mediaSpeed = mediaSpeed;
+        this.latency = latency;
+    }
+
+    /**
+     * 設定から障害の設定を作成します。
+     * @param settings 設定
+     * @return 障害の設定
+     */
+    public static FaultInjector fromSettings(final Properties settings) {
+        return new FaultInjector(
+                Double.parseDouble(settings.getProperty("localthrottlerate", "0")),
+                Double.parseDouble(settings.getProperty("localdroprate", "0")),
+                Double.parseDouble(settings.getProperty("localmediaspeed", "1")),
+                Long.parseLong(settings.getProperty("locallatency", "0")));
+    }
+
+    /**
+     * 今回のリクエストをスロットリングするかどうかを決めます。
+     * @return スロットリングする場合は{@code true}
+     */
+    public boolean shouldThrottle() {
+        return throttleRate > 0.0 && ThreadLocalRandom.current().nextDouble() < throttleRate;
+    }
+
+    /**
+     * 今回のGetMediaを途中で切断する位置を決めます。
+     * @param totalBytes ペイロードのバイト数
+     * @return 切断する位置、切断しない場合は-1
+     */
+    public long chooseDropPosition(final long totalBytes) {
+        if (dropRate <= 0.0 || totalBytes <= 0 || ThreadLocalRandom.current().nextDouble() >= dropRate) {
+            return -1;
+        }
+
+        return ThreadLocalRandom.current().nextLong(totalBytes);
+    }
+
+    /**
+     * APIごとの遅延を待ちます。
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void delay() throws InterruptedException {
+        if (latency > 0) {
+            Thread.sleep(latency);
+        }
+    }
+
+    /**
+     * GetMediaの配信速度を取得します。
+     * @return 実時間に対する倍率、0の場合は可能な限り速く配信します
+     */
+    public double getMediaSpeed() {
+        return mediaSpeed;
+    }
+}
@@ -0,0 +1,250 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 共有フォルダのファイルにリースを保存します。
+ * 同じホスト、または共有フォルダを使える複数のインスタンスで作業を分担する場合や、試験に使います。
+ * <p>
+ * リースごとに1つのファイル(キーをBase64で変換した名前に".lease"を付けたもの)に保存し、
+ * "leases.lock"のファイルロックで読み書きを排他します。
+ * 取得、延長、削除は対象のリースのファイルだけを読み書きするので、リースの数によらず一定の時間で終わります。
+ * 書き込みは一時ファイルを置き換えて行うので、途中で異常終了しても壊れたファイルは残りません。
+ * 有効期限はインスタンス間で時計が合っていることを前提にしています。
+ * @author Bladean Mericle
+ */
+public class FileLeaseStore implements LeaseStore {
+
+    /**
+     * リースのファイルの拡張子。
+     */
+    private static final String LEASE_SUFFIX = ".lease";
+
+    /**
+     * 同じプロセス内の排他に使うオブジェクト(フォルダのパスごと)。
+     * ファイルロックは同じプロセス内では排他できないので、併用します。
+     */
+    private static final Map<String, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * 保存先のフォルダ。
+     */
+    private final File directory;
+
+    /**
+     * ロックのファイル。
+     */
+    private final File lockFile;
+
+    /**
+     * 同じプロセス内の排他に使うオブジェクト。
+     */
+    private final Object processLock;
+
+    /**
+     * コンストラクタ。
+     * @param directory 保存先のフォルダ
+     * @throws IOException フォルダを作成できない場合
+     */
+    public FileLeaseStore(final File directory) throws IOException {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory can't set null.");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory.getPath());
+        }
+
+        this.directory = directory;
+        this.lockFile = new File(directory, "leases.lock");
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(directory.getCanonicalPath(), path -> new Object());
+    }
+
+    /**
+     * リースを取得します。
+     * @param key リースのキー
+     * @param owner 所有者
+     * @param durationMillis 有効期間(ms)
+     * @param data 作業を引き継ぐためのデータ
+     * @return 取得したリース、他のインスタンスが所有している場合は{@code null}
+     * @throws IOException 読み書きのエラー
+     */
+    @Override
+    public Lease acquire(final String key, final String owner, final long durationMillis, final String data) throws IOException {
+        return locked(() -> {
+            final File file = getLeaseFile(key);
+            final Lease current = read(file);
+            final long now = System.currentTimeMillis();
+            if (current != null && !current.isExpired(now) && !current.getOwner().equals(owner)) {
+                return null;
+            }
+
+            final Lease lease = new Lease(key, owner, now + durationMillis,
+                    data != null || current == null ? data : current.getData());
+            write(file, lease);
+            return lease;
+        });
+    }
+
+    /**
+     * 所有しているリースの有効期限を延長します。
+     * @param key リースのキー
+     * @param owner 所有者
+     * @param durationMillis 有効期間(ms)
+     * @return 延長した場合は{@code true}、他のインスタンスに引き継がれていた場合は{@code false}
+     * @throws IOException 読み書きのエラー
+     */
+    @Override
+    public boolean renew(final String key, final String owner, final long durationMillis) throws IOException {
+        return locked(() -> {
+            final File file = getLeaseFile(key);
+            final Lease current = read(file);
+            if (current == null || !current.getOwner().equals(owner)) {
+                return false;
+            }
+
+            write(file, new Lease(key, owner, System.currentTimeMillis() + durationMillis, current.getData()));
+            return true;
+        });
+    }
+
+    /**
+     * 所有しているリースを削除します。
+     * @param key リースのキー
+     * @param owner 所有者
+     * @throws IOException 読み書きのエラー
+     */
+    @Override
+    public void release(final String key, final String owner) throws IOException {
+        locked(() -> {
+            final File file = getLeaseFile(key);
+            final Lease current = read(file);
+            if (current != null && current.getOwner().equals(owner)) {
+                Files.deleteIfExists(file.toPath());
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * 全てのリースを取得します。
+     * @return リースの一覧
+     * @throws IOException 読み込みエラー
+     */
+    @Override
+    public List<Lease> list() throws IOException {
+        return locked(() -> {
+            final List<Lease> leases = new ArrayList<>();
+            final File[] files = directory.listFiles((dir, name) -> name.endsWith(LEASE_SUFFIX));
+            if (files != null) {
+                for (File file : files) {
+                    final Lease lease = read(file);
+                    if (lease != null) {
+                        leases.add(lease);
+                    }
+                }
+            }
+
+            return leases;
+        });
+    }
+
+    /**
+     * 排他した状態で操作を行います。
+     * @param <T> 結果の型
+     * @param operation 操作
+     * @return 操作の結果
+     * @throws IOException 読み書きのエラー
+     */
+    private <T> T locked(final LeaseOperation<T> operation) throws IOException {
+        synchronized (processLock) {
+            try (FileChannel lockChannel = FileChannel.open(lockFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                final FileLock lock = lockChannel.lock();
+                try {
+                    return operation.apply();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * リースのファイルを取得します。
+     * @param key リースのキー
+     * @return リースのファイル
+     */
+    private File getLeaseFile(final String key) {
+        return new File(directory, Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(key.getBytes(StandardCharsets.UTF_8)) + LEASE_SUFFIX);
+    }
+
+    /**
+     * リースのファイルを読み込みます。
+     * @param file リースのファイル
+     * @return リース、ファイルがない場合や形式が正しくない場合は{@code null}
+     * @throws IOException 読み込みエラー
+     */
+    private static Lease read(final File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        final String[] fields = lines.isEmpty() ? new String[0] : lines.get(0).split("\t", -1);
+        if (fields.length != 4) {
+            return null;
+        }
+
+        final String data = new String(Base64.getDecoder().decode(fields[3]), StandardCharsets.UTF_8);
+        return new Lease(fields[0], fields[1], Long.parseLong(fields[2]), data);
+    }
+
+    /**
+     * 一時ファイルに書き込んでから置き換えます。
+     * @param file リースのファイル
+     * @param lease リース
+     * @throws IOException 書き込みエラー
+     */
+    private static void write(final File file, final Lease lease) throws IOException {
+        final String content = new StringBuilder()
+                .append(lease.getKey()).append('\t')
+                .append(lease.getOwner()).append('\t')
+                .append(lease.getExpiration()).append('\t')
+                .append(Base64.getEncoder().encodeToString(lease.getData().getBytes(StandardCharsets.UTF_8)))
+                .append('\n')
+                .toString();
+        final File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        Files.write(temporaryFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporaryFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 排他した状態で行う操作です。
+     * @param <T> 結果の型
+     */
+    private interface LeaseOperation<T> {
+
+        /**
+         * 操作を行います。
+         * @return 操作の結果
+         * @throws IOException 読み書きのエラー
+         */
+        T apply() throws IOException;
+    }
+}
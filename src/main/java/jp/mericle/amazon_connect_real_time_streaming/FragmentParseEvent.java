@@ -0,0 +1,32 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * StreamingMkvReaderによるMKVフラグメント(クラスター)1つ分の解析を表すJFRイベントです。
+ * @author Bladean Mericle
+ */
+@Name("jp.mericle.amazon_connect_real_time_streaming.FragmentParse")
+@Label("Fragment Parse")
+@Category({"Amazon Connect Real Time Streaming", "Parse"})
+@Description("One MKV fragment (cluster) parsed by StreamingMkvReader, including frame processing.")
+public class FragmentParseEvent extends Event {
+
+    /**
+     * Kinesis Video Streamsのストリーム名。
+     */
+    @Label("Stream Name")
+    String streamName;
+
+    /**
+     * 読み込んだバイト数。
+     */
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
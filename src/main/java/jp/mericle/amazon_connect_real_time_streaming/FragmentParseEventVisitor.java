@@ -0,0 +1,109 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvDataElement;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvEndMasterElement;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitor;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvStartMasterElement;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvTypeInfos;
+
+/**
+ * MKVのクラスター(Kinesis Video Streamsのフラグメント)ごとにJFRイベントを記録します。
+ * JFRの記録が無効な場合は何もしません。
+ * @author Bladean Mericle
+ */
+public class FragmentParseEventVisitor extends MkvElementVisitor {
+
+    /**
+     * ストリーム名。
+     */
+    private final String streamName;
+
+    /**
+     * 読み込んだバイト数を数えるバイトソース。
+     */
+    private final CountingParserByteSource byteSource;
+
+    /**
+     * 記録中のイベント。
+     */
+    private FragmentParseEvent event;
+
+    /**
+     * イベント開始時に読み込んでいたバイト数。
+     */
+    private long startByteCount;
+
+    /**
+     * コンストラクタ。
+     * @param streamName ストリーム名
+     * @param byteSource 読み込んだバイト数を数えるバイトソース
+     */
+    public FragmentParseEventVisitor(final String streamName, final CountingParserByteSource byteSource) {
+        if (byteSource == null) {
+            throw new IllegalArgumentException("byteSource can't set null.");
+        }
+
+        this.streamName = streamName;
+        this.byteSource = byteSource;
+    }
+
+    /**
+     * マスター要素の開始を処理します。
+     * @param startMasterElement マスター要素の開始
+     */
+    @Override
+    public void visit(final MkvStartMasterElement startMasterElement) {
+        if (!MkvTypeInfos.CLUSTER.equals(startMasterElement.getElementMetaData().getTypeInfo())) {
+            return;
+        }
+
+        // 長さ不定のクラスターでは終了が通知されない場合があるので、次のクラスターの開始でも区切ります。
+        commit();
+        final FragmentParseEvent newEvent = new FragmentParseEvent();
+        if (!newEvent.isEnabled()) {
+            return;
+        }
+
+        newEvent.begin();
+        event = newEvent;
+        startByteCount = byteSource.getByteCount();
+    }
+
+    /**
+     * マスター要素の終了を処理します。
+     * @param endMasterElement マスター要素の終了
+     */
+    @Override
+    public void visit(final MkvEndMasterElement endMasterElement) {
+        if (MkvTypeInfos.CLUSTER.equals(endMasterElement.getElementMetaData().getTypeInfo())) {
+            commit();
+        }
+    }
+
+    /**
+     * データ要素を処理します。
+     * @param dataElement データ要素
+     */
+    @Override
+    public void visit(final MkvDataElement dataElement) {
+        // データ要素ごとの処理はありません。
+    }
+
+    /**
+     * 記録中のイベントを確定します。
+     */
+    public void commit() {
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.streamName = streamName;
+            event.bytes = byteSource.getByteCount() - startByteCount;
+            event.commit();
+        }
+
+        event = null;
+    }
+}
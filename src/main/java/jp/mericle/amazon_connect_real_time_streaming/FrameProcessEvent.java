@@ -0,0 +1,40 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * AudioRecordFrameProcessorによるフレーム1つ分の処理を表すJFRイベントです。
+ * @author Bladean Mericle
+ */
+@Name("jp.mericle.amazon_connect_real_time_streaming.FrameProcess")
+@Label("Frame Process")
+@Category({"Amazon Connect Real Time Streaming", "Analysis"})
+@Description("One frame processed by AudioRecordFrameProcessor.")
+@StackTrace(false)
+public class FrameProcessEvent extends Event {
+
+    /**
+     * Kinesis Video Streamsのストリーム名。
+     */
+    @Label("Stream Name")
+    String streamName;
+
+    /**
+     * トラック名。
+     */
+    @Label("Track Name")
+    String trackName;
+
+    /**
+     * フレームのバイト数。
+     */
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,69 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 増減する値を表すゲージです。
+ * 複数のスレッドから更新されてもロックを取りません。
+ * @author Bladean Mericle
+ */
+public class Gauge extends Metric implements GaugeMBean {
+
+    /**
+     * 値。
+     */
+    private final AtomicLong value = new AtomicLong();
+
+    /**
+     * コンストラクタ。
+     * @param name メトリクス名
+     * @param help 説明
+     * @param labels ラベル(キーと値を交互に指定します)
+     */
+    public Gauge(final String name, final String help, final String... labels) {
+        super(name, help, labels);
+    }
+
+    /**
+     * 値を設定します。
+     * @param newValue 値
+     */
+    public void set(final long newValue) {
+        value.set(newValue);
+    }
+
+    /**
+     * 加算します。
+     * @param amount 加算する値(減算する場合は負の値)
+     */
+    public void add(final long amount) {
+        value.addAndGet(amount);
+    }
+
+    /**
+     * 現在の値を取得します。
+     * @return 現在の値
+     */
+    @Override
+    public long getValue() {
+        return value.get();
+    }
+
+    /**
+     * Prometheusのメトリクスの種類を取得します。
+     * @return メトリクスの種類
+     */
+    @Override
+    public String getType() {
+        return "gauge";
+    }
+
+    /**
+     * Prometheusのテキスト形式でサンプルを書き込みます。
+     * @param builder 書き込み先
+     */
+    @Override
+    public void writeSamples(final StringBuilder builder) {
+        writeSample(builder, getName(), null, null, getValue());
+    }
+}
@@ -0,0 +1,14 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+/**
+ * ゲージのMBeanインターフェースです。
+ * @author Bladean Mericle
+ */
+public interface GaugeMBean {
+
+    /**
+     * 現在の値を取得します。
+     * @return 現在の値
+     */
+    long getValue();
+}
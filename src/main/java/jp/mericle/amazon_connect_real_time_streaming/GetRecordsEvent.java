@@ -0,0 +1,44 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * GetRecordsの1回分(レコードの処理を含む)を表すJFRイベントです。
+ * @author Bladean Mericle
+ */
+@Name("jp.mericle.amazon_connect_real_time_streaming.GetRecords")
+@Label("Get Records")
+@Category({"Amazon Connect Real Time Streaming", "Ingest"})
+@Description("GetRecords call and dispatch of the returned batch.")
+public class GetRecordsEvent extends Event {
+
+    /**
+     * Kinesis Data Streamsのストリーム名。
+     */
+    @Label("Stream Name")
+    String streamName;
+
+    /**
+     * レコード数。
+     */
+    @Label("Record Count")
+    int recordCount;
+
+    /**
+     * レコードのバイト数。
+     */
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    /**
+     * ストリームの最新レコードからの遅れ(ms)。
+     */
+    @Label("Millis Behind Latest")
+    long millisBehindLatest;
+}
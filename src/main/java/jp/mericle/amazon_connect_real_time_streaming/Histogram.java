@@ -0,0 +1,193 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 2のべき乗の境界で値を数えるヒストグラムです。
+ * 記録時にオブジェクトを生成せず、ロックも取らないので、フレームごとの処理からも呼び出せます。
+ * @author Bladean Mericle
+ */
+public class Histogram extends Metric implements HistogramMBean {
+
+    /**
+     * バケットの数。最後のバケットはそれ以上の値を全て数えます。
+     */
+    private static final int BUCKET_COUNT = 40;
+
+    /**
+     * バケットごとの回数。
+     * i番目のバケットは 2^(i-1) 以上 2^i 未満の値を数えます(0番目は0のみ)。
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * 記録した回数。
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * 記録した値の合計。
+     */
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * 記録した値の最大値。
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * コンストラクタ。
+     * @param name メトリクス名
+     * @param help 説明
+     * @param labels ラベル(キーと値を交互に指定します)
+     */
+    public Histogram(final String name, final String help, final String... labels) {
+        super(name, help, labels);
+    }
+
+    /**
+     * 値を記録します。負の値は0として記録します。
+     * @param value 値
+     */
+    public void record(final long value) {
+        final long v = Math.max(value, 0L);
+        buckets.incrementAndGet(bucketIndex(v));
+        count.increment();
+        sum.add(v);
+
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * 値に対応するバケットの位置を取得します。
+     * @param value 値
+     * @return バケットの位置
+     */
+    private static int bucketIndex(final long value) {
+        return Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * バケットの上限(含む)を取得します。
+     * @param index バケットの位置
+     * @return バケットの上限
+     */
+    private static long bucketUpperBound(final int index) {
+        return (1L << index) - 1;
+    }
+
+    /**
+     * 記録した回数を取得します。
+     * @return 記録した回数
+     */
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * 記録した値の合計を取得します。
+     * @return 記録した値の合計
+     */
+    @Override
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * 記録した値の最大値を取得します。
+     * @return 記録した値の最大値
+     */
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 記録した値の平均を取得します。
+     * @return 記録した値の平均
+     */
+    @Override
+    public double getMean() {
+        final long n = getCount();
+        return n == 0 ? 0.0 : (double)getSum() / n;
+    }
+
+    /**
+     * 50パーセンタイル値(上限の目安)を取得します。
+     * @return 50パーセンタイル値
+     */
+    @Override
+    public long get50thPercentile() {
+        return getPercentile(0.50);
+    }
+
+    /**
+     * 99パーセンタイル値(上限の目安)を取得します。
+     * @return 99パーセンタイル値
+     */
+    @Override
+    public long get99thPercentile() {
+        return getPercentile(0.99);
+    }
+
+    /**
+     * パーセンタイル値を取得します。
+     * 値を含むバケットの上限を返すので、実際の値以上の値になります。
+     * @param ratio 割合(0.0～1.0)
+     * @return パーセンタイル値
+     */
+    public long getPercentile(final double ratio) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += buckets.get(i);
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long threshold = (long)Math.ceil(total * ratio);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; ++i) {
+            cumulative += buckets.get(i);
+            if (cumulative >= threshold) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    /**
+     * Prometheusのメトリクスの種類を取得します。
+     * @return メトリクスの種類
+     */
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    /**
+     * Prometheusのテキスト形式でサンプルを書き込みます。
+     * @param builder 書き込み先
+     */
+    @Override
+    public void writeSamples(final StringBuilder builder) {
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; ++i) {
+            cumulative += buckets.get(i);
+            writeSample(builder, getName() + "_bucket", "le", Long.toString(bucketUpperBound(i)), cumulative);
+        }
+
+        cumulative += buckets.get(BUCKET_COUNT - 1);
+        writeSample(builder, getName() + "_bucket", "le", "+Inf", cumulative);
+        writeSample(builder, getName() + "_sum", null, null, getSum());
+        writeSample(builder, getName() + "_count", null, null, cumulative);
+    }
+}
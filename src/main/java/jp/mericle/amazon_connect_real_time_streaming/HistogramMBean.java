@@ -0,0 +1,44 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+/**
+ * ヒストグラムのMBeanインターフェースです。
+ * @author Bladean Mericle
+ */
+public interface HistogramMBean {
+
+    /**
+     * 記録した回数を取得します。
+     * @return 記録した回数
+     */
+    long getCount();
+
+    /**
+     * 記録した値の合計を取得します。
+     * @return 記録した値の合計
+     */
+    long getSum();
+
+    /**
+     * 記録した値の最大値を取得します。
+     * @return 記録した値の最大値
+     */
+    long getMax();
+
+    /**
+     * 記録した値の平均を取得します。
+     * @return 記録した値の平均
+     */
+    double getMean();
+
+    /**
+     * 50パーセンタイル値(上限の目安)を取得します。
+     * @return 50パーセンタイル値
+     */
+    long get50thPercentile();
+
+    /**
+     * 99パーセンタイル値(上限の目安)を取得します。
+     * @return 99パーセンタイル値
+     */
+    long get99thPercentile();
+}
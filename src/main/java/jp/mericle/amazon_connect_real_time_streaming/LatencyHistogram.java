@@ -0,0 +1,156 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HdrHistogramと同様の対数線形バケットで遅延を数えるヒストグラムです。
+ * 2のべき乗ごとの区間をさらに16分割するので、相対誤差は約6%以内に収まります。
+ * 記録時にオブジェクトを生成せず、ロックも取りません。
+ * @author Bladean Mericle
+ */
+public class LatencyHistogram {
+
+    /**
+     * 区間を分割するビット数。
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * 区間ごとの分割数。
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 記録できる最大の指数。これを超える値は最後のバケットに数えます。
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * バケットの数。
+     */
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    /**
+     * バケットごとの回数。
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * 記録した回数。
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * 記録した値の合計。
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * 記録した値の最大値。
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 値を記録します。負の値は0として記録します。
+     * @param value 値
+     */
+    public void record(final long value) {
+        final long v = Math.max(value, 0L);
+        buckets.incrementAndGet(bucketIndex(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * 値に対応するバケットの位置を取得します。
+     * @param value 値
+     * @return バケットの位置
+     */
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int)value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+
+        final int mantissa = (int)(value >>> (exponent - SUB_BUCKET_BITS));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + (mantissa - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * バケットの上限(含む)を取得します。
+     * @param index バケットの位置
+     * @return バケットの上限
+     */
+    private static long bucketUpperBound(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        final long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * 記録した回数を取得します。
+     * @return 記録した回数
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 記録した値の最大値を取得します。
+     * @return 記録した値の最大値
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * 記録した値の平均を取得します。
+     * @return 記録した値の平均
+     */
+    public double getMean() {
+        final long n = getCount();
+        return n == 0 ? 0.0 : (double)sum.get() / n;
+    }
+
+    /**
+     * パーセンタイル値を取得します。
+     * 値を含むバケットの上限を返すので、実際の値以上の値になります。
+     * @param ratio 割合(0.0～1.0)
+     * @return パーセンタイル値
+     */
+    public long getPercentile(final double ratio) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            total += buckets.get(i);
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        final long threshold = Math.max((long)Math.ceil(total * ratio), 1L);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            cumulative += buckets.get(i);
+            if (cumulative >= threshold) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+}
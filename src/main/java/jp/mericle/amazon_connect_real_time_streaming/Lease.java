@@ -0,0 +1,92 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+/**
+ * 複数のインスタンスで作業を分担するためのリースです。
+ * 有効期限までは所有者だけが作業を行い、期限が切れたリースは他のインスタンスが引き継げます。
+ * @author Bladean Mericle
+ */
+public class Lease {
+
+    /**
+     * リースのキー。
+     */
+    private final String key;
+
+    /**
+     * 所有者。
+     */
+    private final String owner;
+
+    /**
+     * 有効期限(エポックミリ秒)。
+     */
+    private final long expiration;
+
+    /**
+     * 作業を引き継ぐためのデータ。
+     */
+    private final String data;
+
+    /**
+     * コンストラクタ。
+     * @param key リースのキー
+     * @param owner 所有者
+     * @param expiration 有効期限(エポックミリ秒)
+     * @param data 作業を引き継ぐためのデータ、ない場合は空
+     */
+    public Lease(final String key, final String owner, final long expiration, final String data) {
+        if (key == null || key.isEmpty()) {
+            throw new IllegalArgumentException("key can't set null or empty.");
+        }
+
+        if (owner == null || owner.isEmpty()) {
+            throw new IllegalArgumentException("owner can't set null or empty.");
+        }
+
+        this.key = key;
+        this.owner = owner;
+        this.expiration = expiration;
+        this.data = data != null ? data : "";
+    }
+
+    /**
+     * リースのキーを取得します。
+     * @return リースのキー
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 所有者を取得します。
+     * @return 所有者
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * 有効期限を取得します。
+     * @return 有効期限(エポックミリ秒)
+     */
+    public long getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * 作業を引き継ぐためのデータを取得します。
+     * @return 作業を引き継ぐためのデータ、ない場合は空
+     */
+    public String getData() {
+        return data;
+    }
+
+    /**
+     * 有効期限が切れているかどうかを取得します。
+     * @param now 現在時刻(エポックミリ秒)
+     * @return 有効期限が切れている場合は{@code true}
+     */
+    public boolean isExpired(final long now) {
+        return expiration <= now;
+    }
+}
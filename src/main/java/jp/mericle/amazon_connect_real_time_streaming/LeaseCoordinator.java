@@ -0,0 +1,422 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * リースを使って、複数のインスタンスで問い合わせの録音を分担します。
+ * <p>
+ * 全てのインスタンスが問い合わせのイベントを受信し、リースを取得できたインスタンスだけが録音します。
+ * 担当している録音の数が公平な分担数を超えているインスタンスはすぐにはリースを取得せず、
+ * 他のインスタンスが取得しなかった場合に限り、有効期間の半分が経ってから取得します。
+ * そのため、インスタンスを追加すると、新しい問い合わせから順に負荷が分散されます。
+ * <p>
+ * リースは有効期間の1/3ごとにバックグラウンドで延長します。
+ * 停止したインスタンスのリースは有効期限が切れた後の最初の延長処理で他のインスタンスが取得し、
+ * リースに保存したイベントから録音をやり直します。
+ * 延長できなかった作業は他のインスタンスに引き継がれているので、登録した処理で作業を中止させます。
+ * @author Bladean Mericle
+ */
+public class LeaseCoordinator implements AutoCloseable {
+
+    /**
+     * インスタンスの生存を表すリースのキーの接頭辞。
+     */
+    static final String INSTANCE_PREFIX = "instance/";
+
+    /**
+     * 作業のリースのキーの接頭辞。
+     */
+    static final String WORK_PREFIX = "work/";
+
+    /**
+     * 完了した作業のリースを残す期間(リースの有効期間に対する倍率)。
+     */
+    private static final int COMPLETED_LEASE_FACTOR = 10;
+
+    /**
+     * 引き継いだ作業の数。
+     */
+    private static final Counter TAKEOVERS = MetricsRegistry.getDefault().counter(
+            "lease_takeovers_total", "Number of work leases taken over from other instances.");
+
+    /**
+     * 担当している作業の数。
+     */
+    private static final Gauge OWNED_WORK = MetricsRegistry.getDefault().gauge(
+            "lease_owned_work", "Number of work leases owned by this instance.");
+
+    /**
+     * リースの保存先。
+     */
+    private final LeaseStore store;
+
+    /**
+     * このインスタンスの所有者ID。
+     */
+    private final String owner;
+
+    /**
+     * リースの有効期間(ms)。
+     */
+    private final long leaseDuration;
+
+    /**
+     * 担当している作業(キーとデータ)。
+     */
+    private final Map<String, String> ownedWork = new ConcurrentHashMap<>();
+
+    /**
+     * リースを失った時に作業を中止させる処理(キーごと)。
+     */
+    private final Map<String, Runnable> lostListeners = new ConcurrentHashMap<>();
+
+    /**
+     * 他のインスタンスに譲っている作業(キーと受け付けた時刻、データ)。
+     */
+    private final Map<String, PendingWork> pendingWork = new ConcurrentHashMap<>();
+
+    /**
+     * 生存しているインスタンスの数。
+     */
+    private volatile int liveInstances = 1;
+
+    /**
+     * 全てのインスタンスが担当している作業の数。
+     */
+    private volatile int totalWork = 0;
+
+    /**
+     * 作業を開始する処理。
+     */
+    private volatile Consumer<Lease> workHandler;
+
+    /**
+     * リースを延長するスケジューラー。
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * コンストラクタ。
+     * @param store リースの保存先
+     * @param owner このインスタンスの所有者ID
+     * @param leaseDuration リースの有効期間(ms)
+     */
+    public LeaseCoordinator(final LeaseStore store, final String owner, final long leaseDuration) {
+        if (store == null) {
+            throw new IllegalArgumentException("store can't set null.");
+        }
+
+        if (owner == null || owner.isEmpty()) {
+            throw new IllegalArgumentException("owner can't set null or empty.");
+        }
+
+        if (leaseDuration <= 0) {
+            throw new IllegalArgumentException("leaseDuration must be positive number.");
+        }
+
+        this.store = store;
+        this.owner = owner;
+        this.leaseDuration = leaseDuration;
+    }
+
+    /**
+     * このプロセスの所有者IDを生成します。
+     * @return 所有者ID(プロセスIDとホスト名、再起動しても重複しない値)
+     */
+    public static String createOwnerId() {
+        return ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    /**
+     * バックグラウンドでのリースの延長を開始します。
+     * @param handler 他のインスタンスから引き継いだ作業、または譲った後に残った作業を開始する処理
+     */
+    public synchronized void start(final Consumer<Lease> handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler can't set null.");
+        }
+
+        if (scheduler != null) {
+            return;
+        }
+
+        workHandler = handler;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "lease-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long interval = Math.max(1, leaseDuration / 3);
+        scheduler.scheduleWithFixedDelay(this::tick, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 作業を受け付けます。
+     * 担当している作業が公平な分担数未満の場合はリースを取得し、それ以外の場合は他のインスタンスに譲ります。
+     * @param key 作業のキー
+     * @param data 作業を引き継ぐためのデータ
+     * @return リースを取得して、呼び出し元が作業を行う場合は{@code true}
+     */
+    public boolean offer(final String key, final String data) {
+        if (ownedWork.size() < getFairShare() && claim(key, data)) {
+            return true;
+        }
+
+        pendingWork.putIfAbsent(key, new PendingWork(data, System.currentTimeMillis()));
+        return false;
+    }
+
+    /**
+     * 作業の完了を記録します。
+     * 譲った作業を他のインスタンスが重複して行わないよう、データを空にしたリースをしばらく残します。
+     * @param key 作業のキー
+     */
+    public void complete(final String key) {
+        lostListeners.remove(key);
+        if (ownedWork.remove(key) == null) {
+            return;
+        }
+
+        OWNED_WORK.set(ownedWork.size());
+        try {
+            store.acquire(WORK_PREFIX + key, owner, leaseDuration * COMPLETED_LEASE_FACTOR, "");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 担当している作業を、すぐに他のインスタンスが引き継げるように手放します。
+     * 引き継いだ作業を開始できない場合に呼びます。
+     * @param key 作業のキー
+     */
+    public void abandon(final String key) {
+        lostListeners.remove(key);
+        if (ownedWork.remove(key) == null) {
+            return;
+        }
+
+        OWNED_WORK.set(ownedWork.size());
+        try {
+            store.renew(WORK_PREFIX + key, owner, 0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * リースを失った時に作業を中止させる処理を登録します。
+     * 既にリースを失っている場合は、すぐに実行します。処理は{@link #complete(String)}で削除します。
+     * @param key 作業のキー
+     * @param listener 作業を中止させる処理
+     */
+    public void setLostListener(final String key, final Runnable listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can't set null.");
+        }
+
+        lostListeners.put(key, listener);
+        if (!ownedWork.containsKey(key)) {
+            notifyLost(key);
+        }
+    }
+
+    /**
+     * リースを失った作業を中止させます。
+     * @param key 作業のキー
+     */
+    private void notifyLost(final String key) {
+        final Runnable listener = lostListeners.remove(key);
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 公平な分担数を取得します。
+     * @return 新しい作業を1件加えた場合の、インスタンスあたりの作業の数
+     */
+    int getFairShare() {
+        final int instances = Math.max(1, liveInstances);
+        return (totalWork + 1 + instances - 1) / instances;
+    }
+
+    /**
+     * 作業のリースを取得します。
+     * @param key 作業のキー
+     * @param data 作業を引き継ぐためのデータ
+     * @return 取得した場合は{@code true}
+     */
+    private boolean claim(final String key, final String data) {
+        try {
+            if (store.acquire(WORK_PREFIX + key, owner, leaseDuration, data) == null) {
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        ownedWork.put(key, data);
+        pendingWork.remove(key);
+        OWNED_WORK.set(ownedWork.size());
+        return true;
+    }
+
+    /**
+     * リースを延長し、譲った作業と停止したインスタンスの作業を引き継ぎます。
+     */
+    void tick() {
+        try {
+            store.acquire(INSTANCE_PREFIX + owner, owner, leaseDuration, "");
+            for (String key : ownedWork.keySet()) {
+                if (!store.renew(WORK_PREFIX + key, owner, leaseDuration)) {
+                    ownedWork.remove(key);
+                    System.err.printf("作業のリースを失いました。(%s)\n", key);
+                    notifyLost(key);
+                }
+            }
+
+            OWNED_WORK.set(ownedWork.size());
+
+            final long now = System.currentTimeMillis();
+            final List<Lease> leases = store.list();
+            final Map<String, Lease> workLeases = new HashMap<>();
+            int instances = 0;
+            int work = 0;
+            for (Lease lease : leases) {
+                if (lease.getKey().startsWith(INSTANCE_PREFIX)) {
+                    if (!lease.isExpired(now)) {
+                        ++instances;
+                    } else if (lease.isExpired(now - leaseDuration * COMPLETED_LEASE_FACTOR)) {
+                        // 異常終了したインスタンスの生存のリースを片付けます。
+                        store.release(lease.getKey(), lease.getOwner());
+                    }
+                } else if (lease.getKey().startsWith(WORK_PREFIX)) {
+                    if (lease.getData().isEmpty() && lease.isExpired(now)) {
+                        // 完了した作業のリースを片付けます。
+                        store.release(lease.getKey(), lease.getOwner());
+                        continue;
+                    }
+
+                    workLeases.put(lease.getKey().substring(WORK_PREFIX.length()), lease);
+                    if (!lease.isExpired(now) && !lease.getData().isEmpty()) {
+                        ++work;
+                    }
+                }
+            }
+
+            liveInstances = Math.max(1, instances);
+            totalWork = work;
+
+            // 譲った作業のうち、一定時間経っても誰も取得しなかったものを取得します。
+            for (Map.Entry<String, PendingWork> entry : pendingWork.entrySet()) {
+                if (workLeases.containsKey(entry.getKey())) {
+                    pendingWork.remove(entry.getKey());
+                } else if (now - entry.getValue().getReceivedTime() >= leaseDuration / 2
+                        && claim(entry.getKey(), entry.getValue().getData())) {
+                    startWork(entry.getKey(), entry.getValue().getData());
+                }
+            }
+
+            // 停止したインスタンスの作業を引き継ぎます。
+            for (Lease lease : workLeases.values()) {
+                final String key = lease.getKey().substring(WORK_PREFIX.length());
+                if (lease.isExpired(now) && !lease.getData().isEmpty() && !ownedWork.containsKey(key)
+                        && ownedWork.size() < getFairShare() && claim(key, lease.getData())) {
+                    TAKEOVERS.increment();
+                    System.out.printf("他のインスタンスの作業を引き継ぎます。(%s, %s)\n", key, lease.getOwner());
+                    startWork(key, lease.getData());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 取得した作業を開始します。
+     * @param key 作業のキー
+     * @param data 作業を引き継ぐためのデータ
+     */
+    private void startWork(final String key, final String data) {
+        final Consumer<Lease> handler = workHandler;
+        if (handler != null) {
+            handler.accept(new Lease(key, owner, System.currentTimeMillis() + leaseDuration, data));
+        }
+    }
+
+    /**
+     * リースの延長を停止します。
+     * 担当している作業は、すぐに他のインスタンスが引き継げるようにします。
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+
+        try {
+            for (String key : ownedWork.keySet()) {
+                store.renew(WORK_PREFIX + key, owner, 0);
+            }
+
+            store.release(INSTANCE_PREFIX + owner, owner);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 他のインスタンスに譲った作業です。
+     */
+    private static class PendingWork {
+
+        /**
+         * 作業を引き継ぐためのデータ。
+         */
+        private final String data;
+
+        /**
+         * 受け付けた時刻(エポックミリ秒)。
+         */
+        private final long receivedTime;
+
+        /**
+         * コンストラクタ。
+         * @param data 作業を引き継ぐためのデータ
+         * @param receivedTime 受け付けた時刻(エポックミリ秒)
+         */
+        PendingWork(final String data, final long receivedTime) {
+            this.data = data;
+            this.receivedTime = receivedTime;
+        }
+
+        /**
+         * 作業を引き継ぐためのデータを取得します。
+         * @return 作業を引き継ぐためのデータ
+         */
+        String getData() {
+            return data;
+        }
+
+        /**
+         * 受け付けた時刻を取得します。
+         * @return 受け付けた時刻(エポックミリ秒)
+         */
+        long getReceivedTime() {
+            return receivedTime;
+        }
+    }
+}
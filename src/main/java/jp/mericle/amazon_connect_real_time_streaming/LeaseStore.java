@@ -0,0 +1,50 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * リースの保存先です。
+ * 全ての操作は、複数のインスタンスから同時に呼ばれても不可分に行われる必要があります。
+ * @author Bladean Mericle
+ */
+public interface LeaseStore {
+
+    /**
+     * リースを取得します。
+     * リースが存在しない場合、有効期限が切れている場合、既に所有している場合に取得できます。
+     * @param key リースのキー
+     * @param owner 所有者
+     * @param durationMillis 有効期間(ms)
+     * @param data 作業を引き継ぐためのデータ
+     * @return 取得したリース、他のインスタンスが所有している場合は{@code null}
+     * @throws IOException 保存先のエラー
+     */
+    Lease acquire(String key, String owner, long durationMillis, String data) throws IOException;
+
+    /**
+     * 所有しているリースの有効期限を延長します。
+     * 有効期間に0を指定すると、すぐに他のインスタンスが引き継げるようになります。
+     * @param key リースのキー
+     * @param owner 所有者
+     * @param durationMillis 有効期間(ms)
+     * @return 延長した場合は{@code true}、他のインスタンスに引き継がれていた場合は{@code false}
+     * @throws IOException 保存先のエラー
+     */
+    boolean renew(String key, String owner, long durationMillis) throws IOException;
+
+    /**
+     * 所有しているリースを削除します。作業が完了した時に呼びます。
+     * @param key リースのキー
+     * @param owner 所有者
+     * @throws IOException 保存先のエラー
+     */
+    void release(String key, String owner) throws IOException;
+
+    /**
+     * 全てのリースを取得します。
+     * @return リースの一覧
+     * @throws IOException 保存先のエラー
+     */
+    List<Lease> list() throws IOException;
+}
@@ -0,0 +1,356 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 録音中の問い合わせの音声を、リアルタイムで聞いている人に配信します。
+ * <p>
+ * 録音処理はフレームを{@link #publish(VideoStreamData, Track, byte[])}で渡すだけで、聞いている人の数によらず待ちません。
+ * 聞いている人ごとに固定長の待ち行列を持ち、いっぱいの場合は古いフレームを捨てます。
+ * フレームはコピーせずに全ての待ち行列で共有するので、渡したフレームの配列は変更しないでください。
+ * @author Bladean Mericle
+ */
+public class LiveAudioHub {
+
+    /**
+     * 音声のトラックです。
+     */
+    public enum Track {
+
+        /**
+         * お客様側。
+         */
+        CUSTOMER,
+
+        /**
+         * オペレーター側。
+         */
+        OPERATOR
+    }
+
+    /**
+     * 聞いている人の数。
+     */
+    private static final Gauge LISTENERS = MetricsRegistry.getDefault().gauge(
+            "live_audio_listeners", "Number of live audio listeners.");
+
+    /**
+     * 聞いている人の待ち行列から捨てたフレーム数。
+     */
+    private static final Counter DROPPED_FRAMES = MetricsRegistry.getDefault().counter(
+            "live_audio_dropped_frames_total", "Number of frames dropped from slow live audio listeners.");
+
+    /**
+     * 標準のインスタンス。
+     */
+    private static final LiveAudioHub DEFAULT = new LiveAudioHub();
+
+    /**
+     * ストリーム名ごとの録音中の問い合わせ。
+     */
+    private final Map<String, Contact> contacts = new ConcurrentHashMap<>();
+
+    /**
+     * コンストラクタ。
+     */
+    LiveAudioHub() {
+    }
+
+    /**
+     * 標準のインスタンスを取得します。
+     * @return 標準のインスタンス
+     */
+    public static LiveAudioHub getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 問い合わせの録音の開始を登録します。
+     * @param videoStreamData ストリーム情報
+     */
+    public void open(final VideoStreamData videoStreamData) {
+        if (videoStreamData == null) {
+            throw new IllegalArgumentException("videoStreamData can't set null.");
+        }
+
+        final Contact previous = contacts.put(videoStreamData.getStreamName(), new Contact(videoStreamData));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * 録音中の問い合わせのフレームを配信します。聞いている人がいない場合は何もしません。
+     * @param videoStreamData ストリーム情報
+     * @param track トラック
+     * @param frame フレーム(配信後に変更しないこと)
+     */
+    public void publish(final VideoStreamData videoStreamData, final Track track, final byte[] frame) {
+        final Contact contact = contacts.get(videoStreamData.getStreamName());
+        if (contact == null || contact.videoStreamData != videoStreamData) {
+            return;
+        }
+
+        for (Subscription subscription : contact.subscriptions.get(track)) {
+            subscription.offer(frame);
+        }
+    }
+
+    /**
+     * 問い合わせの録音の終了を登録し、聞いている人への配信を終了します。
+     * @param videoStreamData ストリーム情報
+     */
+    public void close(final VideoStreamData videoStreamData) {
+        final Contact contact = contacts.get(videoStreamData.getStreamName());
+        if (contact != null && contact.videoStreamData == videoStreamData
+                && contacts.remove(videoStreamData.getStreamName(), contact)) {
+            contact.close();
+        }
+    }
+
+    /**
+     * 録音中の問い合わせの一覧を取得します。
+     * @return 録音中の問い合わせのストリーム情報
+     */
+    public List<VideoStreamData> getActiveContacts() {
+        final List<VideoStreamData> activeContacts = new ArrayList<>();
+        for (Contact contact : contacts.values()) {
+            activeContacts.add(contact.videoStreamData);
+        }
+
+        return activeContacts;
+    }
+
+    /**
+     * 録音中の問い合わせの音声を聞き始めます。
+     * @param streamName ストリーム名
+     * @param track トラック
+     * @param capacity 待ち行列に保持するフレーム数
+     * @return 聞いている人の待ち行列、録音中でない場合は{@code null}
+     */
+    public Subscription subscribe(final String streamName, final Track track, final int capacity) {
+        if (streamName == null) {
+            throw new IllegalArgumentException("streamName can't set null.");
+        }
+
+        if (track == null) {
+            throw new IllegalArgumentException("track can't set null.");
+        }
+
+        final Contact contact = contacts.get(streamName);
+        if (contact == null) {
+            return null;
+        }
+
+        final Subscription subscription = new Subscription(contact, track, capacity);
+        contact.subscriptions.get(track).add(subscription);
+        LISTENERS.add(1);
+
+        // 登録中に録音が終わった場合は、すぐに終了します。
+        if (contact.closed) {
+            subscription.close();
+        }
+
+        return subscription;
+    }
+
+    /**
+     * 録音中の問い合わせです。
+     */
+    private static class Contact {
+
+        /**
+         * ストリーム情報。
+         */
+        private final VideoStreamData videoStreamData;
+
+        /**
+         * トラックごとの聞いている人の待ち行列。
+         */
+        private final Map<Track, List<Subscription>> subscriptions = new EnumMap<>(Track.class);
+
+        /**
+         * 録音が終わったかどうか。
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * コンストラクタ。
+         * @param videoStreamData ストリーム情報
+         */
+        private Contact(final VideoStreamData videoStreamData) {
+            this.videoStreamData = videoStreamData;
+            for (Track track : Track.values()) {
+                subscriptions.put(track, new CopyOnWriteArrayList<>());
+            }
+        }
+
+        /**
+         * 録音の終了を全ての待ち行列に通知します。
+         */
+        private void close() {
+            closed = true;
+            for (List<Subscription> trackSubscriptions : subscriptions.values()) {
+                for (Subscription subscription : trackSubscriptions) {
+                    subscription.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * 聞いている人ごとの、古いフレームを捨てる固定長の待ち行列です。
+     */
+    public static class Subscription implements AutoCloseable {
+
+        /**
+         * 問い合わせ。
+         */
+        private final Contact contact;
+
+        /**
+         * トラック。
+         */
+        private final Track track;
+
+        /**
+         * フレームのリングバッファ。
+         */
+        private final byte[][] frames;
+
+        /**
+         * 最も古いフレームの位置。
+         */
+        private int head = 0;
+
+        /**
+         * 保持しているフレーム数。
+         */
+        private int count = 0;
+
+        /**
+         * 捨てたフレーム数。
+         */
+        private long droppedFrames = 0;
+
+        /**
+         * 終了したかどうか。
+         */
+        private boolean closed = false;
+
+        /**
+         * コンストラクタ。
+         * @param contact 問い合わせ
+         * @param track トラック
+         * @param capacity 保持するフレーム数
+         */
+        private Subscription(final Contact contact, final Track track, final int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity must be positive number.");
+            }
+
+            this.contact = contact;
+            this.track = track;
+            this.frames = new byte[capacity][];
+        }
+
+        /**
+         * フレームを追加します。いっぱいの場合は最も古いフレームを捨てます。
+         * @param frame フレーム
+         */
+        private synchronized void offer(final byte[] frame) {
+            if (closed) {
+                return;
+            }
+
+            if (count == frames.length) {
+                frames[head] = null;
+                head = (head + 1) % frames.length;
+                --count;
+                ++droppedFrames;
+                DROPPED_FRAMES.increment();
+            }
+
+            frames[(head + count) % frames.length] = frame;
+            ++count;
+            notifyAll();
+        }
+
+        /**
+         * 最も古いフレームを取り出します。ない場合は追加されるまで待ちます。
+         * @param timeout 待機する時間
+         * @param unit 待機する時間の単位
+         * @return フレーム、待機する時間が過ぎた場合や終了した場合は{@code null}
+         * @throws InterruptedException 待機中に割り込まれた場合
+         */
+        public synchronized byte[] poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (count == 0 && !closed) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+
+            if (count == 0) {
+                return null;
+            }
+
+            final byte[] frame = frames[head];
+            frames[head] = null;
+            head = (head + 1) % frames.length;
+            --count;
+            return frame;
+        }
+
+        /**
+         * 終了したかどうかを判定します。終了した後も、残っているフレームは取り出せます。
+         * @return 終了した場合は{@code true}
+         */
+        public synchronized boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * 捨てたフレーム数を取得します。
+         * @return 捨てたフレーム数
+         */
+        public synchronized long getDroppedFrames() {
+            return droppedFrames;
+        }
+
+        /**
+         * ストリーム情報を取得します。
+         * @return ストリーム情報
+         */
+        public VideoStreamData getVideoStreamData() {
+            return contact.videoStreamData;
+        }
+
+        /**
+         * 聞くのを終了します。
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                closed = true;
+                notifyAll();
+            }
+
+            contact.subscriptions.get(track).remove(this);
+            LISTENERS.add(-1);
+        }
+    }
+}
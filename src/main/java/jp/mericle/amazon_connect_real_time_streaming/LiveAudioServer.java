@@ -0,0 +1,244 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * 録音中の問い合わせの音声を、HTTPでリアルタイムに配信するサーバーです。
+ * ローカルホストからのみ接続できます。
+ * <p>
+ * "/live"で録音中の問い合わせの一覧を、"/live/(ストリーム名)/customer"または"/live/(ストリーム名)/operator"で
+ * そのトラックの音声を、長さを指定しないWAV形式で通話が終わるまで返します。
+ * 聞いている人ごとに1つのスレッドで送信し、送信が遅れた分は{@link LiveAudioHub}の待ち行列で古いフレームから捨てます。
+ * @author Bladean Mericle
+ */
+public class LiveAudioServer implements AutoCloseable {
+
+    /**
+     * 公開するパス。
+     */
+    private static final String LIVE_PATH = "/live";
+
+    /**
+     * フレームを待つ間隔(ms)。
+     */
+    private static final long POLL_INTERVAL = 1000;
+
+    /**
+     * 配信元。
+     */
+    private final LiveAudioHub hub;
+
+    /**
+     * 聞いている人ごとの待ち行列に保持するフレーム数。
+     */
+    private final int queueSize;
+
+    /**
+     * 同時に聞ける人数の上限。
+     */
+    private final Semaphore listenerPermits;
+
+    /**
+     * HTTPサーバー。
+     */
+    private final HttpServer server;
+
+    /**
+     * リクエストを処理するスレッドプール。
+     */
+    private final ExecutorService executor;
+
+    /**
+     * コンストラクタ。
+     * @param hub 配信元
+     * @param port ポート番号
+     * @param queueSize 聞いている人ごとの待ち行列に保持するフレーム数
+     * @param maxListeners 同時に聞ける人数の上限
+     * @throws IOException サーバーの作成に失敗した場合
+     */
+    public LiveAudioServer(
+            final LiveAudioHub hub,
+            final int port,
+            final int queueSize,
+            final int maxListeners) throws IOException {
+        if (hub == null) {
+            throw new IllegalArgumentException("hub can't set null.");
+        }
+
+        if (port <= 0) {
+            throw new IllegalArgumentException("port must be positive number.");
+        }
+
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("queueSize must be positive number.");
+        }
+
+        if (maxListeners <= 0) {
+            throw new IllegalArgumentException("maxListeners must be positive number.");
+        }
+
+        this.hub = hub;
+        this.queueSize = queueSize;
+        this.listenerPermits = new Semaphore(maxListeners);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(LIVE_PATH, this::handle);
+
+        // 送信中はスレッドを占有するので、上限より少し多く用意して一覧の取得や拒否の応答が詰まらないようにします。
+        this.executor = Executors.newFixedThreadPool(maxListeners + 2, runnable -> {
+            final Thread thread = new Thread(runnable, "live-audio");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * サーバーを開始します。
+     */
+    public void start() {
+        server.start();
+        System.out.printf("録音中の音声を配信します。(http://localhost:%d%s)\n", server.getAddress().getPort(), LIVE_PATH);
+    }
+
+    /**
+     * リクエストを処理します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @throws IOException 書き込みエラー
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            final String path = exchange.getRequestURI().getRawPath().substring(LIVE_PATH.length());
+            if (path.isEmpty() || path.equals("/")) {
+                sendContacts(exchange);
+                return;
+            }
+
+            final String[] names = path.substring(1).split("/");
+            final LiveAudioHub.Track track = names.length == 2 ? toTrack(names[1]) : null;
+            if (track == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            final String streamName = URLDecoder.decode(names[0], StandardCharsets.UTF_8);
+            if (!listenerPermits.tryAcquire()) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            try {
+                sendAudio(exchange, streamName, track);
+            } finally {
+                listenerPermits.release();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 録音中の問い合わせの一覧を、1行に1件ずつストリーム名、問い合わせID、開始時刻の順にタブ区切りで返します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @throws IOException 書き込みエラー
+     */
+    private void sendContacts(final HttpExchange exchange) throws IOException {
+        final StringBuilder builder = new StringBuilder();
+        for (VideoStreamData videoStreamData : hub.getActiveContacts()) {
+            builder.append(videoStreamData.getStreamName()).append('\t')
+                    .append(videoStreamData.getContactId() != null ? videoStreamData.getContactId() : "").append('\t')
+                    .append(videoStreamData.getStartTimestamp().getTime()).append('\n');
+        }
+
+        final byte[] body = builder.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    /**
+     * 録音中の問い合わせの音声を、通話が終わるか切断されるまで返します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @param streamName ストリーム名
+     * @param track トラック
+     * @throws IOException 書き込みエラー
+     */
+    private void sendAudio(
+            final HttpExchange exchange,
+            final String streamName,
+            final LiveAudioHub.Track track) throws IOException {
+        try (LiveAudioHub.Subscription subscription = hub.subscribe(streamName, track, queueSize)) {
+            if (subscription == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            System.out.printf("音声の配信を開始します。(%s, %s)\n", streamName, track);
+            exchange.getResponseHeaders().set("Content-Type", "audio/wav");
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                AudioRecordFrameProcessor.WriteAudioHeader(outputStream, -1);
+                outputStream.flush();
+                while (true) {
+                    final byte[] frame = subscription.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (frame != null) {
+                        outputStream.write(frame);
+                        outputStream.flush();
+                    } else if (subscription.isClosed()) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                // 聞いている人が切断した場合です。
+            }
+
+            System.out.printf("音声の配信を終了します。(%s, %s, 破棄したフレーム %d)\n",
+                    streamName, track, subscription.getDroppedFrames());
+        }
+    }
+
+    /**
+     * パスの名前からトラックを取得します。
+     * @param name 名前
+     * @return トラック、該当しない場合は{@code null}
+     */
+    private static LiveAudioHub.Track toTrack(final String name) {
+        for (LiveAudioHub.Track track : LiveAudioHub.Track.values()) {
+            if (track.name().equalsIgnoreCase(name)) {
+                return track;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * サーバーを停止します。
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
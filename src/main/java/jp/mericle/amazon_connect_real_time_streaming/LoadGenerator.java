@@ -0,0 +1,305 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+
+/**
+ * 合成したMKVストリームを使い、AWSに接続せずに録音処理の負荷試験を行います。
+ * 複数の問い合わせを同時に{@link MediaStreamReader}と{@link AudioRecordFrameProcessor}に流し、
+ * スループット、遅延、メモリ使用量を出力します。
+ * <p>
+ * 引数は"--contacts 100 --seconds 60 --threads 4 --output ./loadtest/"のように指定します。
+ * 出力先を指定しない場合は一時フォルダに録音し、終了時に削除します。
+ * @author Bladean Mericle
+ */
+public class LoadGenerator {
+
+    /**
+     * メモリ使用量の計測間隔(ms)。
+     */
+    private static final long MEMORY_SAMPLING_INTERVAL = 100;
+
+    /**
+     * 同時に処理する問い合わせ数。
+     */
+    private final int contacts;
+
+    /**
+     * 通話の長さ(秒)。
+     */
+    private final int seconds;
+
+    /**
+     * 処理するスレッド数。
+     */
+    private final int threads;
+
+    /**
+     * 音声の保存先フォルダ、{@code null}の場合は一時フォルダ。
+     */
+    private final String outputPath;
+
+    /**
+     * MKVストリームの生成。
+     */
+    private final SyntheticMkvGenerator generator;
+
+    /**
+     * コンストラクタ。
+     * @param contacts 同時に処理する問い合わせ数
+     * @param seconds 通話の長さ(秒)
+     * @param threads 処理するスレッド数
+     * @param fragmentMillis フラグメントの長さ(ms)
+     * @param frameMillis フレームの長さ(ms)
+     * @param outputPath 音声の保存先フォルダ、{@code null}の場合は一時フォルダ
+     */
+    public LoadGenerator(
+            final int contacts,
+            final int seconds,
+            final int threads,
+            final int fragmentMillis,
+            final int frameMillis,
+            final String outputPath) {
+        if (contacts <= 0) {
+            throw new IllegalArgumentException("contacts must be positive number.");
+        }
+
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("seconds must be positive number.");
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive number.");
+        }
+
+        this.contacts = contacts;
+        this.seconds = seconds;
+        this.threads = threads;
+        this.outputPath = outputPath;
+        this.generator = new SyntheticMkvGenerator(seconds * 1000L, fragmentMillis, frameMillis);
+    }
+
+    /**
+     * メインメソッドです。
+     * @param args コマンドライン引数
+     * @throws Exception 負荷試験に失敗した場合
+     */
+    public static void main(final String[] args) throws Exception {
+        int contacts = 10;
+        int seconds = 60;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int fragmentMillis = 2000;
+        int frameMillis = 20;
+        String outputPath = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+            case "--contacts":
+                contacts = Integer.parseInt(args[i + 1]);
+                break;
+            case "--seconds":
+                seconds = Integer.parseInt(args[i + 1]);
+                break;
+            case "--threads":
+                threads = Integer.parseInt(args[i + 1]);
+                break;
+            case "--fragment-millis":
+                fragmentMillis = Integer.parseInt(args[i + 1]);
+                break;
+            case "--frame-millis":
+                frameMillis = Integer.parseInt(args[i + 1]);
+                break;
+            case "--output":
+                outputPath = args[i + 1];
+                break;
+            default:
+                System.err.printf("不明な引数です。(%s)\n", args[i]);
+                return;
+            }
+        }
+
+        new LoadGenerator(contacts, seconds, threads, fragmentMillis, frameMillis, outputPath).run();
+    }
+
+    /**
+     * 負荷試験を実行し、結果を出力します。
+     * @throws IOException 一時フォルダの作成に失敗した場合
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void run() throws IOException, InterruptedException {
+        final File audioDirectory = outputPath != null
+                ? new File(outputPath)
+                : Files.createTempDirectory("loadtest-audio").toFile();
+
+        // 生成の時間を計測に含めないよう、MKVストリームは事前に1つだけ生成して全ての問い合わせで使い回します。
+        System.out.printf("MKVストリームを生成します。(%d 秒)\n", seconds);
+        final long startTimestamp = System.currentTimeMillis();
+        final byte[] payload = generator.generate(UUID.randomUUID().toString(), startTimestamp);
+
+        final LatencyHistogram sessionTimes = new LatencyHistogram();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong peakHeapUsed = new AtomicLong();
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final long gcCountBefore = getGcCount();
+        final long gcTimeBefore = getGcTime();
+
+        final Thread memorySampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakHeapUsed.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                try {
+                    Thread.sleep(MEMORY_SAMPLING_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        memorySampler.setDaemon(true);
+        memorySampler.start();
+
+        System.out.printf("負荷試験を開始します。(問い合わせ %d 件、スレッド %d)\n", contacts, threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final CountDownLatch doneSignal = new CountDownLatch(contacts);
+        for (int i = 0; i < contacts; ++i) {
+            final VideoStreamData videoStreamData = new VideoStreamData(
+                    String.format("loadtest-contact-%05d", i), new Date(startTimestamp + i));
+            executor.execute(() -> {
+                try {
+                    startSignal.await();
+                    final long sessionStart = System.nanoTime();
+                    try (AudioRecordFrameProcessor frameProcessor = new AudioRecordFrameProcessor(
+                            audioDirectory.getPath(), videoStreamData, null)) {
+                        MediaStreamReader.read(
+                                ChannelParserByteSource.wrap(ByteBuffer.wrap(payload)),
+                                frameProcessor,
+                                videoStreamData.getStreamName());
+                    }
+
+                    sessionTimes.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sessionStart));
+                } catch (MkvElementVisitException e) {
+                    failures.incrementAndGet();
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    doneSignal.countDown();
+                }
+            });
+        }
+
+        final long runStart = System.nanoTime();
+        startSignal.countDown();
+        doneSignal.await();
+        final long elapsedNanos = System.nanoTime() - runStart;
+        executor.shutdown();
+        memorySampler.interrupt();
+
+        printReport(elapsedNanos, sessionTimes, failures.get(), peakHeapUsed.get(),
+                getGcCount() - gcCountBefore, getGcTime() - gcTimeBefore);
+
+        if (outputPath == null) {
+            deleteRecursively(audioDirectory);
+        }
+    }
+
+    /**
+     * 結果を出力します。
+     * @param elapsedNanos 所要時間(ns)
+     * @param sessionTimes 問い合わせごとの処理時間
+     * @param failures 失敗した問い合わせ数
+     * @param peakHeapUsed ヒープ使用量の最大値(byte)
+     * @param gcCount GCの回数
+     * @param gcTime GCの合計時間(ms)
+     */
+    private void printReport(
+            final long elapsedNanos,
+            final LatencyHistogram sessionTimes,
+            final int failures,
+            final long peakHeapUsed,
+            final long gcCount,
+            final long gcTime) {
+        final double elapsedSeconds = elapsedNanos / 1.0e9;
+        // 1秒あたりの音声データは16000byte(8kHz * 1ch * 16bit / 8)です。2トラックは同時に進むので1トラック分で数えます。
+        final double audioSeconds = contacts * generator.getAudioBytesPerTrack() / 16000.0;
+        final long frames = contacts * generator.getFramesPerTrack() * 2;
+        final long bytes = contacts * generator.getAudioBytesPerTrack() * 2;
+        final double realTimeFactor = audioSeconds / elapsedSeconds;
+        final int cores = Math.min(threads, Runtime.getRuntime().availableProcessors());
+        final Metric frameTime = MetricsRegistry.getDefault().get("frame_process_time_micros");
+
+        System.out.printf("負荷試験を終了します。\n");
+        System.out.printf("       所要時間: %.2f 秒\n", elapsedSeconds);
+        System.out.printf("     問い合わせ: %d 件 (失敗 %d 件)\n", contacts, failures);
+        System.out.printf("     スループット: %.1f フレーム/秒, %.2f MB/秒\n",
+                frames / elapsedSeconds, bytes / elapsedSeconds / 1024.0 / 1024.0);
+        System.out.printf("     実時間比: %.1f 倍 (通話 %.0f 秒分)\n", realTimeFactor, audioSeconds);
+        System.out.printf("  コアあたりの同時通話数(推定): %.1f 件\n", realTimeFactor / cores);
+        System.out.printf("  問い合わせの処理時間: p50 %d ms / p99 %d ms / 最大 %d ms\n",
+                sessionTimes.getPercentile(0.50), sessionTimes.getPercentile(0.99), sessionTimes.getMax());
+        if (frameTime instanceof Histogram) {
+            final Histogram histogram = (Histogram)frameTime;
+            System.out.printf("  フレームの処理時間: p50 %d us / p99 %d us / 最大 %d us\n",
+                    histogram.get50thPercentile(), histogram.get99thPercentile(), histogram.getMax());
+        }
+
+        System.out.printf("  ヒープ使用量の最大: %.1f MB\n", peakHeapUsed / 1024.0 / 1024.0);
+        System.out.printf("            GC: %d 回, %d ms\n", gcCount, gcTime);
+    }
+
+    /**
+     * GCの回数を取得します。
+     * @return GCの回数
+     */
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+
+        return count;
+    }
+
+    /**
+     * GCの合計時間を取得します。
+     * @return GCの合計時間(ms)
+     */
+    private static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+
+        return time;
+    }
+
+    /**
+     * フォルダを削除します。
+     * @param directory フォルダ
+     */
+    private static void deleteRecursively(final File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteRecursively(file);
+            }
+        }
+
+        if (!directory.delete()) {
+            System.err.printf("削除できませんでした。(%s)\n", directory.getPath());
+        }
+    }
+}
@@ -0,0 +1,861 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Kinesis Data StreamsとKinesis Video Streamsの代わりに動作するローカルのHTTPサーバーです。
+ * DescribeStream、GetShardIterator、GetRecords、GetDataEndpoint、GetMediaだけを実装しており、
+ * AWSに接続せずに受信から録音までの処理を試験できます。
+ * <p>
+ * 一定間隔で問い合わせを発生させ、問い合わせフローのイベントをシャードに追加します。
+ * GetMediaでは合成したMKVストリーム、または録音済みのMKVファイルを配信します。
+ * スロットリング、接続の切断、配信の遅延などの障害を{@link FaultInjector}で発生させることができます。
+ * <p>
+ * Kinesis Data StreamsのクライアントはCBORではなくJSONで通信する必要があるので、
+ * システムプロパティ"com.amazonaws.sdk.disableCbor"を設定してください。
+ * @author Bladean Mericle
+ */
+public class LocalKinesisServer implements AutoCloseable {
+
+    /**
+     * 設定ファイルの名前。
+     */
+    private static final String PROPERTIES_FILE_NAME = "properties.xml";
+
+    /**
+     * シャードID。シャードは1つだけです。
+     */
+    private static final String SHARD_ID = "shardId-000000000000";
+
+    /**
+     * アカウントID。
+     */
+    private static final String ACCOUNT_ID = "000000000000";
+
+    /**
+     * 保持するレコードの最大数。
+     */
+    private static final int MAX_RECORDS = 10000;
+
+    /**
+     * 配信を終えていないメディアを保持する期間(ms)。
+     */
+    private static final long MEDIA_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * 配信を終えていないメディアを保持する最大数。
+     */
+    static final int MAX_MEDIA_SOURCES = 1000;
+
+    /**
+     * GetMediaで一度に書き込むバイト数。
+     */
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * 録音済みのMKVファイルの1秒あたりのバイト数の目安(8kHz、16bit、2トラック)。
+     */
+    private static final long RECORDED_BYTES_PER_SECOND = 32000;
+
+    /**
+     * Kinesis Data StreamsのContent-Type。
+     */
+    private static final String KINESIS_CONTENT_TYPE = "application/x-amz-json-1.1";
+
+    /**
+     * Kinesis Video StreamsのContent-Type。
+     */
+    private static final String VIDEO_CONTENT_TYPE = "application/json";
+
+    /**
+     * Kinesis Data Streamsのストリーム名。
+     */
+    private final String streamName;
+
+    /**
+     * リージョン名。
+     */
+    private final String regionName;
+
+    /**
+     * MKVストリームの生成、録音済みのファイルを配信する場合は{@code null}。
+     */
+    private final SyntheticMkvGenerator generator;
+
+    /**
+     * 録音済みのMKVファイルの一覧、合成したMKVストリームを配信する場合は空。
+     */
+    private final List<File> recordedFiles;
+
+    /**
+     * 問い合わせを発生させる間隔(ms)、0の場合は自動では発生させません。
+     */
+    private final long contactInterval;
+
+    /**
+     * 障害の設定。
+     */
+    private final FaultInjector faults;
+
+    /**
+     * JSONマッパー。
+     */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * シャードのレコード。
+     */
+    private final List<ShardRecord> records = new ArrayList<>();
+
+    /**
+     * 先頭のレコードのシャード内の位置。
+     */
+    private long firstRecordIndex;
+
+    /**
+     * Kinesis Video Streamsのストリーム名ごとのメディア。
+     */
+    private final Map<String, MediaSource> mediaSources = new ConcurrentHashMap<>();
+
+    /**
+     * 発生させた問い合わせの数。
+     */
+    private final AtomicInteger contactCount = new AtomicInteger();
+
+    /**
+     * HTTPサーバー。
+     */
+    private final HttpServer server;
+
+    /**
+     * リクエストを処理するスレッドプール。GetMediaは通話の間接続し続けるので、上限を設けていません。
+     */
+    private final ExecutorService requestExecutor;
+
+    /**
+     * 問い合わせを発生させるスケジューラー。
+     */
+    private final ScheduledExecutorService contactScheduler;
+
+    /**
+     * コンストラクタ。
+     * @param port ポート番号(0の場合は空いているポート番号)
+     * @param streamName Kinesis Data Streamsのストリーム名
+     * @param regionName リージョン名
+     * @param generator MKVストリームの生成
+     * @param recordedPath 録音済みのMKVファイルのフォルダ、{@code null}の場合は合成したMKVストリームを配信します
+     * @param contactInterval 問い合わせを発生させる間隔(ms)、0の場合は自動では発生させません
+     * @param faults 障害の設定
+     * @throws IOException サーバーの作成に失敗した場合
+     */
+    public LocalKinesisServer(
+            final int port,
+            final String streamName,
+            final String regionName,
+            final SyntheticMkvGenerator generator,
+            final File recordedPath,
+            final long contactInterval,
+            final FaultInjector faults) throws IOException {
+        if (port < 0) {
+            throw new IllegalArgumentException("port can't set negative number.");
+        }
+
+        if (streamName == null || streamName.isEmpty()) {
+            throw new IllegalArgumentException("streamName can't set null or empty.");
+        }
+
+        if (regionName == null || regionName.isEmpty()) {
+            throw new IllegalArgumentException("regionName can't set null or empty.");
+        }
+
+        if (generator == null) {
+            throw new IllegalArgumentException("generator can't set null.");
+        }
+
+        if (contactInterval < 0) {
+            throw new IllegalArgumentException("contactInterval can't set negative number.");
+        }
+
+        if (faults == null) {
+            throw new IllegalArgumentException("faults can't set null.");
+        }
+
+        this.streamName = streamName;
+        this.regionName = regionName;
+        this.generator = generator;
+        this.recordedFiles = listRecordedFiles(recordedPath);
+        this.contactInterval = contactInterval;
+        this.faults = faults;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext("/", this::handle);
+        this.requestExecutor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "local-kinesis-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(requestExecutor);
+        this.contactScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "local-kinesis-contacts");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 設定からサーバーを作成します。
+     * @param settings 設定
+     * @param port ポート番号(0の場合は空いているポート番号)
+     * @return サーバー
+     * @throws IOException サーバーの作成に失敗した場合
+     */
+    public static LocalKinesisServer fromSettings(final Properties settings, final int port) throws IOException {
+        if (settings == null) {
+            throw new IllegalArgumentException("settings can't set null.");
+        }
+
+        final String recordedPath = settings.getProperty("localmediapath", "");
+        return new LocalKinesisServer(
+                port,
+                settings.getProperty("streamname"),
+                settings.getProperty("regionname"),
+                new SyntheticMkvGenerator(
+                        Long.parseLong(settings.getProperty("localcallseconds", "60")) * 1000, 2000, 20),
+                recordedPath.isEmpty() ? null : new File(recordedPath),
+                Long.parseLong(settings.getProperty("localcontactinterval", "10000")),
+                FaultInjector.fromSettings(settings));
+    }
+
+    /**
+     * 録音済みのMKVファイルの一覧を取得します。
+     * @param recordedPath 録音済みのMKVファイルのフォルダ
+     * @return 録音済みのMKVファイルの一覧
+     */
+    private static List<File> listRecordedFiles(final File recordedPath) {
+        if (recordedPath == null) {
+            return Collections.emptyList();
+        }
+
+        final File[] files = recordedPath.listFiles((dir, name) -> name.endsWith(".mkv"));
+        if (files == null || files.length == 0) {
+            throw new IllegalArgumentException("recordedPath must contain mkv files.");
+        }
+
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * サーバーを開始します。
+     */
+    public void start() {
+        server.start();
+        if (contactInterval > 0) {
+            contactScheduler.scheduleAtFixedRate(this::addContact, 0, contactInterval, TimeUnit.MILLISECONDS);
+        }
+
+        System.out.printf("ローカルのKinesisサーバーを開始します。(%s)\n", getEndpoint());
+    }
+
+    /**
+     * 接続先を取得します。
+     * @return 接続先
+     */
+    public String getEndpoint() {
+        return String.format("http://localhost:%d", server.getAddress().getPort());
+    }
+
+    /**
+     * 問い合わせを発生させ、問い合わせフローのイベントをシャードに追加します。
+     * @return 問い合わせID
+     */
+    public String addContact() {
+        final String contactId = UUID.randomUUID().toString();
+        final String videoStreamName = "local-contact-" + contactCount.incrementAndGet();
+        final long startTimestamp = System.currentTimeMillis();
+        final MediaSource mediaSource = recordedFiles.isEmpty()
+                ? new MediaSource(contactId, startTimestamp, null)
+                : new MediaSource(contactId, startTimestamp, recordedFiles.get((contactCount.get() - 1) % recordedFiles.size()));
+        mediaSources.put(videoStreamName, mediaSource);
+        evictMediaSources(startTimestamp);
+
+        final Map<String, Object> audio = new LinkedHashMap<>();
+        audio.put("StartFragmentNumber", "91343852333181432392682062607743920146264440287");
+        audio.put("StartTimestamp", Long.toString(startTimestamp));
+        audio.put("StreamARN", String.format(
+                "arn:aws:kinesisvideo:%s:%s:stream/%s/%d", regionName, ACCOUNT_ID, videoStreamName, startTimestamp));
+        final Map<String, Object> contactData = new LinkedHashMap<>();
+        contactData.put("Channel", "VOICE");
+        contactData.put("ContactId", contactId);
+        contactData.put("InitialContactId", contactId);
+        contactData.put("InitiationMethod", "INBOUND");
+        contactData.put("MediaStreams", Collections.singletonMap("Customer", Collections.singletonMap("Audio", audio)));
+        final Map<String, Object> details = new LinkedHashMap<>();
+        details.put("ContactData", contactData);
+        details.put("Parameters", Collections.emptyMap());
+        final Map<String, Object> event = new LinkedHashMap<>();
+        event.put("Details", details);
+        event.put("Name", "ContactFlowEvent");
+
+        try {
+            final byte[] data = mapper.writeValueAsBytes(event);
+            synchronized (records) {
+                records.add(new ShardRecord(firstRecordIndex + records.size(), startTimestamp, contactId, data));
+                if (records.size() > MAX_RECORDS) {
+                    records.remove(0);
+                    ++firstRecordIndex;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        System.out.printf("問い合わせを発生させました。(%s, %s)\n", contactId, videoStreamName);
+        return contactId;
+    }
+
+    /**
+     * 配信を終えていないメディアのうち、保持する期間を過ぎたものと、最大数を超えた古いものを削除します。
+     * GetMediaが呼ばれなかったり、途中で切断されたりしたメディアが残り続けないようにします。
+     * @param now 現在のタイムスタンプ(エポックミリ秒)
+     */
+    private synchronized void evictMediaSources(final long now) {
+        mediaSources.values().removeIf(mediaSource -> mediaSource.startTimestamp < now - MEDIA_RETENTION_MILLIS);
+        while (mediaSources.size() > MAX_MEDIA_SOURCES) {
+            String oldestName = null;
+            long oldestTimestamp = Long.MAX_VALUE;
+            for (Map.Entry<String, MediaSource> entry : mediaSources.entrySet()) {
+                if (entry.getValue().startTimestamp < oldestTimestamp) {
+                    oldestName = entry.getKey();
+                    oldestTimestamp = entry.getValue().startTimestamp;
+                }
+            }
+
+            mediaSources.remove(oldestName);
+        }
+    }
+
+    /**
+     * 配信を終えていないメディアの数を取得します。
+     * @return 配信を終えていないメディアの数
+     */
+    int getMediaSourceCount() {
+        return mediaSources.size();
+    }
+
+    /**
+     * リクエストを処理します。
+     * 例外を投げた場合は、HTTPサーバーが接続をそのまま切断します。
+     * 障害として接続を切断する場合は、レスポンスの終端を送らないように、交換を閉じずに例外を投げます。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @throws IOException 読み書きのエラー、または接続を切断する場合
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        boolean dropped = false;
+        try {
+            faults.delay();
+            final byte[] body = readAll(exchange.getRequestBody());
+            final String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+            final String path = exchange.getRequestURI().getPath();
+            if (target != null) {
+                handleDataStreams(exchange, target.substring(target.indexOf('.') + 1), mapper.readTree(body));
+            } else if ("/getDataEndpoint".equals(path)) {
+                handleGetDataEndpoint(exchange);
+            } else if ("/getMedia".equals(path)) {
+                handleGetMedia(exchange, mapper.readTree(body));
+            } else {
+                sendError(exchange, 404, "UnknownOperationException", path);
+            }
+        } catch (ConnectionDroppedException e) {
+            dropped = true;
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            if (!dropped) {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Kinesis Data Streamsのリクエストを処理します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @param operation 操作名
+     * @param request リクエストのJSON
+     * @throws IOException 書き込みエラー
+     */
+    private void handleDataStreams(
+            final HttpExchange exchange,
+            final String operation,
+            final JsonNode request) throws IOException {
+        if (!streamName.equals(request.path("StreamName").asText(streamName))) {
+            sendError(exchange, 400, "ResourceNotFoundException", "Stream not found.");
+            return;
+        }
+
+        switch (operation) {
+        case "DescribeStream":
+            handleDescribeStream(exchange);
+            break;
+        case "GetShardIterator":
+            handleGetShardIterator(exchange, request);
+            break;
+        case "GetRecords":
+            if (faults.shouldThrottle()) {
+                sendError(exchange, 400, "ProvisionedThroughputExceededException", "Rate exceeded for shard.");
+                return;
+            }
+
+            handleGetRecords(exchange, request);
+            break;
+        default:
+            sendError(exchange, 400, "UnknownOperationException", operation);
+            break;
+        }
+    }
+
+    /**
+     * DescribeStreamを処理します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @throws IOException 書き込みエラー
+     */
+    private void handleDescribeStream(final HttpExchange exchange) throws IOException {
+        final Map<String, Object> hashKeyRange = new LinkedHashMap<>();
+        hashKeyRange.put("StartingHashKey", "0");
+        hashKeyRange.put("EndingHashKey", "340282366920938463463374607431768211455");
+        final Map<String, Object> shard = new LinkedHashMap<>();
+        shard.put("ShardId", SHARD_ID);
+        shard.put("HashKeyRange", hashKeyRange);
+        shard.put("SequenceNumberRange", Collections.singletonMap("StartingSequenceNumber", toSequenceNumber(0)));
+        final Map<String, Object> description = new LinkedHashMap<>();
+        description.put("StreamName", streamName);
+        description.put("StreamARN", String.format("arn:aws:kinesis:%s:%s:stream/%s", regionName, ACCOUNT_ID, streamName));
+        description.put("StreamStatus", "ACTIVE");
+        description.put("Shards", Collections.singletonList(shard));
+        description.put("HasMoreShards", false);
+        description.put("RetentionPeriodHours", 24);
+        description.put("EnhancedMonitoring", Collections.emptyList());
+        description.put("EncryptionType", "NONE");
+        sendJson(exchange, KINESIS_CONTENT_TYPE, Collections.singletonMap("StreamDescription", description));
+    }
+
+    /**
+     * GetShardIteratorを処理します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @param request リクエストのJSON
+     * @throws IOException 書き込みエラー
+     */
+    private void handleGetShardIterator(final HttpExchange exchange, final JsonNode request) throws IOException {
+        if (!SHARD_ID.equals(request.path("ShardId").asText())) {
+            sendError(exchange, 400, "ResourceNotFoundException", "Shard not found.");
+            return;
+        }
+
+        final long position;
+        synchronized (records) {
+            switch (request.path("ShardIteratorType").asText()) {
+            case "TRIM_HORIZON":
+                position = firstRecordIndex;
+                break;
+            case "LATEST":
+                position = firstRecordIndex + records.size();
+                break;
+            default:
+                sendError(exchange, 400, "InvalidArgumentException", "Unsupported ShardIteratorType.");
+                return;
+            }
+        }
+
+        sendJson(exchange, KINESIS_CONTENT_TYPE, Collections.singletonMap("ShardIterator", toShardIterator(position)));
+    }
+
+    /**
+     * GetRecordsを処理します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @param request リクエストのJSON
+     * @throws IOException 書き込みエラー
+     */
+    private void handleGetRecords(final HttpExchange exchange, final JsonNode request) throws IOException {
+        final long position;
+        try {
+            position = Long.parseLong(request.path("ShardIterator").asText().substring(SHARD_ID.length() + 1));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            sendError(exchange, 400, "InvalidArgumentException", "Invalid ShardIterator.");
+            return;
+        }
+
+        final int limit = (int)Math.min(Math.max(request.path("Limit").asLong(MAX_RECORDS), 1), MAX_RECORDS);
+        final List<Map<String, Object>> results = new ArrayList<>();
+        final long nextPosition;
+        final long millisBehindLatest;
+        synchronized (records) {
+            final long lastIndex = firstRecordIndex + records.size();
+            long index = Math.max(position, firstRecordIndex);
+            for (; index < lastIndex && results.size() < limit; ++index) {
+                final ShardRecord record = records.get((int)(index - firstRecordIndex));
+                final Map<String, Object> result = new LinkedHashMap<>();
+                result.put("SequenceNumber", toSequenceNumber(record.index));
+                result.put("ApproximateArrivalTimestamp", record.arrivalTimestamp / 1000.0);
+                result.put("Data", Base64.getEncoder().encodeToString(record.data));
+                result.put("PartitionKey", record.partitionKey);
+                results.add(result);
+            }
+
+            nextPosition = index;
+            millisBehindLatest = index < lastIndex
+                    ? System.currentTimeMillis() - records.get((int)(index - firstRecordIndex)).arrivalTimestamp
+                    : 0;
+        }
+
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("Records", results);
+        response.put("NextShardIterator", toShardIterator(nextPosition));
+        response.put("MillisBehindLatest", millisBehindLatest);
+        sendJson(exchange, KINESIS_CONTENT_TYPE, response);
+    }
+
+    /**
+     * GetDataEndpointを処理します。GetMediaの接続先として、このサーバーを返します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @throws IOException 書き込みエラー
+     */
+    private void handleGetDataEndpoint(final HttpExchange exchange) throws IOException {
+        if (faults.shouldThrottle()) {
+            sendError(exchange, 400, "ClientLimitExceededException", "Rate exceeded.");
+            return;
+        }
+
+        sendJson(exchange, VIDEO_CONTENT_TYPE, Collections.singletonMap("DataEndpoint", getEndpoint()));
+    }
+
+    /**
+     * GetMediaを処理します。
+     * 配信速度の設定に従って書き込みの間隔を調整し、切断する位置に達した場合は例外を投げて接続を切断します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @param request リクエストのJSON
+     * @throws IOException 書き込みエラー、または接続を切断する場合
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    private void handleGetMedia(
+            final HttpExchange exchange,
+            final JsonNode request) throws IOException, InterruptedException {
+        final String videoStreamName = request.path("StreamName").asText();
+        final MediaSource mediaSource = mediaSources.get(videoStreamName);
+        if (mediaSource == null) {
+            sendError(exchange, 404, "ResourceNotFoundException", "Stream not found.");
+            return;
+        }
+
+        if (faults.shouldThrottle()) {
+            sendError(exchange, 400, "ConnectionLimitExceededException", "Connection limit exceeded.");
+            return;
+        }
+
+        final byte[] payload = mediaSource.getPayload();
+        final long durationMillis = mediaSource.getDurationMillis(payload.length);
+        final double speed = faults.getMediaSpeed();
+        final long dropPosition = faults.chooseDropPosition(payload.length);
+        exchange.getResponseHeaders().set("Content-Type", "video/webm");
+        exchange.sendResponseHeaders(200, 0);
+        final OutputStream outputStream = exchange.getResponseBody();
+        final long startTime = System.nanoTime();
+        int offset = 0;
+        while (offset < payload.length) {
+            final int length = Math.min(CHUNK_SIZE, payload.length - offset);
+            if (dropPosition >= 0 && offset + length > dropPosition) {
+                outputStream.write(payload, offset, (int)(dropPosition - offset));
+                outputStream.flush();
+                System.out.printf("GetMediaの接続を切断します。(%s, %d/%dバイト)\n", videoStreamName, dropPosition, payload.length);
+                throw new ConnectionDroppedException();
+            }
+
+            outputStream.write(payload, offset, length);
+            outputStream.flush();
+            offset += length;
+            if (speed > 0.0) {
+                // 配信済みのバイト数の割合から、実時間に合わせた送信時刻を求めます。
+                final long dueTime = startTime
+                        + (long)(TimeUnit.MILLISECONDS.toNanos(durationMillis) * ((double)offset / payload.length) / speed);
+                final long waitTime = dueTime - System.nanoTime();
+                if (waitTime > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitTime);
+                }
+            }
+        }
+
+        // 終端を送る前に削除するので、全て受信したクライアントからは削除済みに見えます。
+        mediaSources.remove(videoStreamName);
+        outputStream.close();
+    }
+
+    /**
+     * JSONのレスポンスを送信します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @param contentType Content-Type
+     * @param value レスポンスの内容
+     * @throws IOException 書き込みエラー
+     */
+    private void sendJson(
+            final HttpExchange exchange,
+            final String contentType,
+            final Object value) throws IOException {
+        sendJson(exchange, 200, contentType, value);
+    }
+
+    /**
+     * JSONのレスポンスを送信します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @param statusCode ステータスコード
+     * @param contentType Content-Type
+     * @param value レスポンスの内容
+     * @throws IOException 書き込みエラー
+     */
+    private void sendJson(
+            final HttpExchange exchange,
+            final int statusCode,
+            final String contentType,
+            final Object value) throws IOException {
+        final byte[] body = mapper.writeValueAsBytes(value);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("x-amzn-RequestId", UUID.randomUUID().toString());
+        exchange.sendResponseHeaders(statusCode, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    /**
+     * エラーのレスポンスを送信します。
+     * Kinesis Data Streams(JSON)とKinesis Video Streams(REST-JSON)の両方のクライアントが解釈できる形式で送信します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @param statusCode ステータスコード
+     * @param errorType エラーの種類
+     * @param message エラーメッセージ
+     * @throws IOException 書き込みエラー
+     */
+    private void sendError(
+            final HttpExchange exchange,
+            final int statusCode,
+            final String errorType,
+            final String message) throws IOException {
+        final Map<String, Object> error = new LinkedHashMap<>();
+        error.put("__type", errorType);
+        error.put("message", message);
+        exchange.getResponseHeaders().set("x-amzn-ErrorType", errorType + ":");
+        sendJson(exchange, statusCode, KINESIS_CONTENT_TYPE, error);
+    }
+
+    /**
+     * シャード内の位置からシャードイテレータを作成します。
+     * @param position シャード内の位置
+     * @return シャードイテレータ
+     */
+    private static String toShardIterator(final long position) {
+        return SHARD_ID + ":" + position;
+    }
+
+    /**
+     * シャード内の位置からシーケンス番号を作成します。
+     * @param position シャード内の位置
+     * @return シーケンス番号
+     */
+    private static String toSequenceNumber(final long position) {
+        return String.format("4959%036d", position);
+    }
+
+    /**
+     * 入力ストリームを全て読み込みます。
+     * @param inputStream 入力ストリーム
+     * @return 読み込んだデータ
+     * @throws IOException 読み込みエラー
+     */
+    private static byte[] readAll(final InputStream inputStream) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        int length;
+        while ((length = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, length);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * サーバーを停止します。
+     */
+    @Override
+    public void close() {
+        contactScheduler.shutdownNow();
+        server.stop(0);
+        requestExecutor.shutdownNow();
+    }
+
+    /**
+     * ローカルのKinesisサーバーを単独で起動します。
+     * 設定ファイルの"localserverport"のポート番号で待ち受けます。
+     * @param args コマンドライン引数(設定ファイルのパス、省略した場合は"properties.xml")
+     */
+    public static void main(final String[] args) {
+        final String path = args.length > 0 ? args[0] : PROPERTIES_FILE_NAME;
+        final Properties settings = App.getSettings(path);
+        if (settings == null) {
+            System.err.printf("\"%s\"が見つかりませんでした。\n", path);
+            return;
+        }
+
+        try {
+            // HTTPサーバーの受付スレッドが動いている間は、プロセスは終了しません。
+            final LocalKinesisServer server = fromSettings(
+                    settings, Integer.parseInt(settings.getProperty("localserverport", "0")));
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            server.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 障害として接続を切断することを表す例外です。
+     */
+    private static class ConnectionDroppedException extends IOException {
+
+        /**
+         * シリアルバージョンUID。
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * コンストラクタ。
+         */
+        ConnectionDroppedException() {
+            super("Connection dropped by fault injection.");
+        }
+    }
+
+    /**
+     * シャードのレコードです。
+     */
+    private static class ShardRecord {
+
+        /**
+         * シャード内の位置。
+         */
+        private final long index;
+
+        /**
+         * 到着時のタイムスタンプ(エポックミリ秒)。
+         */
+        private final long arrivalTimestamp;
+
+        /**
+         * パーティションキー。
+         */
+        private final String partitionKey;
+
+        /**
+         * データ。
+         */
+        private final byte[] data;
+
+        /**
+         * コンストラクタ。
+         * @param index シャード内の位置
+         * @param arrivalTimestamp 到着時のタイムスタンプ(エポックミリ秒)
+         * @param partitionKey パーティションキー
+         * @param data データ
+         */
+        ShardRecord(final long index, final long arrivalTimestamp, final String partitionKey, final byte[] data) {
+            this.index = index;
+            this.arrivalTimestamp = arrivalTimestamp;
+            this.partitionKey = partitionKey;
+            this.data = data;
+        }
+    }
+
+    /**
+     * GetMediaで配信するメディアです。
+     */
+    private class MediaSource {
+
+        /**
+         * 問い合わせID。
+         */
+        private final String contactId;
+
+        /**
+         * 開始時のタイムスタンプ(エポックミリ秒)。
+         */
+        private final long startTimestamp;
+
+        /**
+         * 録音済みのMKVファイル、合成する場合は{@code null}。
+         */
+        private final File recordedFile;
+
+        /**
+         * コンストラクタ。
+         * @param contactId 問い合わせID
+         * @param startTimestamp 開始時のタイムスタンプ(エポックミリ秒)
+         * @param recordedFile 録音済みのMKVファイル、合成する場合は{@code null}
+         */
+        MediaSource(final String contactId, final long startTimestamp, final File recordedFile) {
+            this.contactId = contactId;
+            this.startTimestamp = startTimestamp;
+            this.recordedFile = recordedFile;
+        }
+
+        /**
+         * ペイロードを取得します。
+         * @return ペイロード
+         * @throws IOException 読み込みエラー
+         */
+        byte[] getPayload() throws IOException {
+            if (recordedFile == null) {
+                return generator.generate(contactId, startTimestamp);
+            }
+
+            return Files.readAllBytes(recordedFile.toPath());
+        }
+
+        /**
+         * 通話の長さを取得します。
+         * @param payloadLength ペイロードのバイト数
+         * @return 通話の長さ(ms)
+         */
+        long getDurationMillis(final int payloadLength) {
+            if (recordedFile == null) {
+                return generator.getAudioBytesPerTrack() * 1000 / 16000;
+            }
+
+            return payloadLength * 1000L / RECORDED_BYTES_PER_SECOND;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadata;
+
+/**
+ * 問い合わせごとに、音声がリアルタイムからどれだけ遅れているかを記録します。
+ * フラグメントのプロデューサー側タイムスタンプ、サーバー側タイムスタンプ、ローカルの処理時刻を比較します。
+ * @author Bladean Mericle
+ */
+public class MediaLatencyTracker {
+
+    /**
+     * 警告を解除する閾値の割合。警告の閾値付近で警告が繰り返されないようにしています。
+     */
+    private static final double ALARM_CLEAR_RATIO = 0.8;
+
+    /**
+     * プロデューサーからサーバーまでの遅延(全問い合わせ分)。
+     */
+    private static final Histogram INGEST_LAG = MetricsRegistry.getDefault().histogram(
+            "media_lag_millis", "Media lag in milliseconds.", "stage", "ingest");
+
+    /**
+     * サーバーからローカルの処理までの遅延(全問い合わせ分)。
+     */
+    private static final Histogram DELIVERY_LAG = MetricsRegistry.getDefault().histogram(
+            "media_lag_millis", "Media lag in milliseconds.", "stage", "delivery");
+
+    /**
+     * プロデューサーからローカルの処理までの遅延(全問い合わせ分)。
+     */
+    private static final Histogram END_TO_END_LAG = MetricsRegistry.getDefault().histogram(
+            "media_lag_millis", "Media lag in milliseconds.", "stage", "end_to_end");
+
+    /**
+     * 遅延の警告の回数。
+     */
+    private static final Counter LAG_ALARMS = MetricsRegistry.getDefault().counter(
+            "media_lag_alarms_total", "Number of sessions that fell behind the lag alarm threshold.");
+
+    /**
+     * 遅延の警告の閾値(ms)。0以下の場合は警告しません。
+     */
+    private final long alarmThreshold;
+
+    /**
+     * プロデューサーからサーバーまでの遅延。
+     */
+    private final LatencyHistogram ingestLag = new LatencyHistogram();
+
+    /**
+     * サーバーからローカルの処理までの遅延。
+     */
+    private final LatencyHistogram deliveryLag = new LatencyHistogram();
+
+    /**
+     * プロデューサーからローカルの処理までの遅延。
+     */
+    private final LatencyHistogram endToEndLag = new LatencyHistogram();
+
+    /**
+     * 直前に記録したフラグメント番号。
+     */
+    private String lastFragmentNumber;
+
+    /**
+     * 直近のプロデューサーからローカルの処理までの遅延(ms)。
+     */
+    private volatile long lastEndToEndLag;
+
+    /**
+     * 遅延の警告中かどうか。
+     */
+    private volatile boolean alarmActive = false;
+
+    /**
+     * コンストラクタ。
+     * @param alarmThreshold 遅延の警告の閾値(ms)、0以下の場合は警告しません
+     */
+    public MediaLatencyTracker(final long alarmThreshold) {
+        this.alarmThreshold = alarmThreshold;
+    }
+
+    /**
+     * フレームの遅延を記録します。
+     * フラグメント単位の遅延はフラグメントが切り替わった時だけ記録します。
+     * @param fragmentMetadata フラグメントメタ情報
+     * @param frameTimeCode フラグメント内でのフレームの相対時刻(ms)
+     * @param now ローカルの処理時刻(エポックミリ秒)
+     * @return 警告の状態が変わった場合は{@code true}
+     */
+    public boolean record(final FragmentMetadata fragmentMetadata, final long frameTimeCode, final long now) {
+        if (fragmentMetadata == null) {
+            return false;
+        }
+
+        final long producerTimestamp = fragmentMetadata.getProducerSideTimestampMillis();
+        final long serverTimestamp = fragmentMetadata.getServerSideTimestampMillis();
+        final String fragmentNumber = fragmentMetadata.getFragmentNumberString();
+        if (fragmentNumber != null && !fragmentNumber.equals(lastFragmentNumber)) {
+            lastFragmentNumber = fragmentNumber;
+            final long ingest = serverTimestamp - producerTimestamp;
+            final long delivery = now - serverTimestamp;
+            ingestLag.record(ingest);
+            deliveryLag.record(delivery);
+            INGEST_LAG.record(ingest);
+            DELIVERY_LAG.record(delivery);
+        }
+
+        final long endToEnd = now - (producerTimestamp + frameTimeCode);
+        lastEndToEndLag = endToEnd;
+        endToEndLag.record(endToEnd);
+        END_TO_END_LAG.record(endToEnd);
+        return updateAlarm(endToEnd);
+    }
+
+    /**
+     * 遅延の警告の状態を更新します。
+     * @param lag 遅延(ms)
+     * @return 警告の状態が変わった場合は{@code true}
+     */
+    private boolean updateAlarm(final long lag) {
+        if (alarmThreshold <= 0) {
+            return false;
+        }
+
+        if (!alarmActive && lag >= alarmThreshold) {
+            alarmActive = true;
+            LAG_ALARMS.increment();
+            return true;
+        }
+
+        if (alarmActive && lag < alarmThreshold * ALARM_CLEAR_RATIO) {
+            alarmActive = false;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * 遅延の警告の閾値を取得します。
+     * @return 遅延の警告の閾値(ms)
+     */
+    public long getAlarmThreshold() {
+        return alarmThreshold;
+    }
+
+    /**
+     * 遅延の警告中かどうかを取得します。
+     * @return 遅延の警告中の場合は{@code true}
+     */
+    public boolean isAlarmActive() {
+        return alarmActive;
+    }
+
+    /**
+     * 直近のプロデューサーからローカルの処理までの遅延を取得します。
+     * @return 直近の遅延(ms)
+     */
+    public long getLastEndToEndLag() {
+        return lastEndToEndLag;
+    }
+
+    /**
+     * プロデューサーからサーバーまでの遅延を取得します。
+     * @return 遅延のヒストグラム
+     */
+    public LatencyHistogram getIngestLag() {
+        return ingestLag;
+    }
+
+    /**
+     * サーバーからローカルの処理までの遅延を取得します。
+     * @return 遅延のヒストグラム
+     */
+    public LatencyHistogram getDeliveryLag() {
+        return deliveryLag;
+    }
+
+    /**
+     * プロデューサーからローカルの処理までの遅延を取得します。
+     * @return 遅延のヒストグラム
+     */
+    public LatencyHistogram getEndToEndLag() {
+        return endToEndLag;
+    }
+}
@@ -0,0 +1,30 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * GetDataEndpoint、GetMediaの呼び出しを表すJFRイベントです。
+ * @author Bladean Mericle
+ */
+@Name("jp.mericle.amazon_connect_real_time_streaming.MediaSetup")
+@Label("Media Setup")
+@Category({"Amazon Connect Real Time Streaming", "Ingest"})
+@Description("GetDataEndpoint or GetMedia call made before a recording starts.")
+public class MediaSetupEvent extends Event {
+
+    /**
+     * Kinesis Video Streamsのストリーム名。
+     */
+    @Label("Stream Name")
+    String streamName;
+
+    /**
+     * 操作名。
+     */
+    @Label("Operation")
+    String operation;
+}
@@ -0,0 +1,67 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Optional;
+
+import com.amazonaws.kinesisvideo.parser.ebml.ParserByteSource;
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+import com.amazonaws.kinesisvideo.parser.mkv.StreamingMkvReader;
+import com.amazonaws.kinesisvideo.parser.mkv.visitors.CompositeMkvElementVisitor;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import com.amazonaws.kinesisvideo.parser.utilities.FrameVisitor;
+
+/**
+ * MKVストリームを解析し、フレームごとの処理に渡します。
+ * GetMediaのペイロードでも、それ以外の入力元でも同じ処理を通るようにしています。
+ * @author Bladean Mericle
+ */
+public class MediaStreamReader {
+
+    /**
+     * コンストラクタ。
+     */
+    private MediaStreamReader() {
+    }
+
+    /**
+     * MKVストリームを終端まで読み込みます。
+     * @param source 入力元のバイトソース
+     * @param frameProcessor フレームごとの処理
+     * @param streamName ストリーム名(JFRイベントに使用します)
+     * @throws MkvElementVisitException 解析エラー
+     */
+    public static void read(
+            final ParserByteSource source,
+            final FrameVisitor.FrameProcessor frameProcessor,
+            final String streamName) throws MkvElementVisitException {
+        read(source, frameProcessor, null, streamName);
+    }
+
+    /**
+     * MKVストリームを終端まで読み込みます。
+     * @param source 入力元のバイトソース
+     * @param frameProcessor フレームごとの処理
+     * @param tagProcessor MKVタグの処理、処理しない場合は{@code null}
+     * @param streamName ストリーム名(JFRイベントに使用します)
+     * @throws MkvElementVisitException 解析エラー
+     */
+    public static void read(
+            final ParserByteSource source,
+            final FrameVisitor.FrameProcessor frameProcessor,
+            final FragmentMetadataVisitor.MkvTagProcessor tagProcessor,
+            final String streamName) throws MkvElementVisitException {
+        if (source == null) {
+            throw new IllegalArgumentException("source can't set null.");
+        }
+
+        if (frameProcessor == null) {
+            throw new IllegalArgumentException("frameProcessor can't set null.");
+        }
+
+        final CountingParserByteSource byteSource = new CountingParserByteSource(source);
+        final FrameVisitor visitor = FrameVisitor.create(frameProcessor, Optional.ofNullable(tagProcessor));
+        final FragmentParseEventVisitor fragmentEventVisitor = new FragmentParseEventVisitor(streamName, byteSource);
+        final StreamingMkvReader reader = StreamingMkvReader.createDefault(byteSource);
+        reader.apply(new CompositeMkvElementVisitor(fragmentEventVisitor, visitor));
+        fragmentEventVisitor.commit();
+    }
+}
@@ -0,0 +1,155 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * メトリクスの基底クラスです。
+ * @author Bladean Mericle
+ */
+public abstract class Metric {
+
+    /**
+     * メトリクス名。
+     */
+    private final String name;
+
+    /**
+     * 説明。
+     */
+    private final String help;
+
+    /**
+     * ラベル。
+     */
+    private final Map<String, String> labels;
+
+    /**
+     * コンストラクタ。
+     * @param name メトリクス名
+     * @param help 説明
+     * @param labels ラベル(キーと値を交互に指定します)
+     */
+    protected Metric(final String name, final String help, final String... labels) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("name can't set null or empty.");
+        }
+
+        if (help == null) {
+            throw new IllegalArgumentException("help can't set null.");
+        }
+
+        if (labels == null || labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be key-value pairs.");
+        }
+
+        final Map<String, String> labelTable = new LinkedHashMap<String, String>();
+        for (int i = 0; i < labels.length; i += 2) {
+            labelTable.put(labels[i], labels[i + 1]);
+        }
+
+        this.name = name;
+        this.help = help;
+        this.labels = Collections.unmodifiableMap(labelTable);
+    }
+
+    /**
+     * メトリクス名を取得します。
+     * @return メトリクス名
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 説明を取得します。
+     * @return 説明
+     */
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * ラベルを取得します。
+     * @return ラベル
+     */
+    public Map<String, String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Prometheusのメトリクスの種類を取得します。
+     * @return メトリクスの種類
+     */
+    public abstract String getType();
+
+    /**
+     * Prometheusのテキスト形式でサンプルを書き込みます。
+     * @param builder 書き込み先
+     */
+    public abstract void writeSamples(StringBuilder builder);
+
+    /**
+     * Prometheusのテキスト形式でサンプルを1行書き込みます。
+     * @param builder 書き込み先
+     * @param sampleName サンプル名
+     * @param extraLabelName 追加のラベル名、追加しない場合は{@code null}
+     * @param extraLabelValue 追加のラベルの値
+     * @param value 値
+     */
+    protected void writeSample(
+            final StringBuilder builder,
+            final String sampleName,
+            final String extraLabelName,
+            final String extraLabelValue,
+            final Object value) {
+        builder.append(sampleName);
+        if (!labels.isEmpty() || extraLabelName != null) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<String, String> label : labels.entrySet()) {
+                if (!first) {
+                    builder.append(',');
+                }
+
+                appendLabel(builder, label.getKey(), label.getValue());
+                first = false;
+            }
+
+            if (extraLabelName != null) {
+                if (!first) {
+                    builder.append(',');
+                }
+
+                appendLabel(builder, extraLabelName, extraLabelValue);
+            }
+
+            builder.append('}');
+        }
+
+        builder.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * ラベルを書き込みます。
+     * @param builder 書き込み先
+     * @param key ラベル名
+     * @param value ラベルの値
+     */
+    private static void appendLabel(final StringBuilder builder, final String key, final String value) {
+        builder.append(key).append("=\"");
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else {
+                builder.append(c);
+            }
+        }
+
+        builder.append('"');
+    }
+}
@@ -0,0 +1,92 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * メトリクスをPrometheusのテキスト形式で公開するHTTPサーバーです。
+ * ローカルホストからのみ接続できます。
+ * @author Bladean Mericle
+ */
+public class MetricsHttpServer implements AutoCloseable {
+
+    /**
+     * 公開するパス。
+     */
+    private static final String METRICS_PATH = "/metrics";
+
+    /**
+     * メトリクスの登録先。
+     */
+    private final MetricsRegistry registry;
+
+    /**
+     * HTTPサーバー。
+     */
+    private final HttpServer server;
+
+    /**
+     * コンストラクタ。
+     * @param registry メトリクスの登録先
+     * @param port ポート番号
+     * @throws IOException サーバーの作成に失敗した場合
+     */
+    public MetricsHttpServer(final MetricsRegistry registry, final int port) throws IOException {
+        if (registry == null) {
+            throw new IllegalArgumentException("registry can't set null.");
+        }
+
+        if (port <= 0) {
+            throw new IllegalArgumentException("port must be positive number.");
+        }
+
+        this.registry = registry;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(METRICS_PATH, this::handle);
+    }
+
+    /**
+     * サーバーを開始します。
+     */
+    public void start() {
+        server.start();
+        System.out.printf("メトリクスを公開します。(http://localhost:%d%s)\n", server.getAddress().getPort(), METRICS_PATH);
+    }
+
+    /**
+     * リクエストを処理します。
+     * @param exchange HTTPのリクエストとレスポンス
+     * @throws IOException 書き込みエラー
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            final byte[] body = registry.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * サーバーを停止します。
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
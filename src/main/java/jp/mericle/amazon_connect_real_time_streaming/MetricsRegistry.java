@@ -0,0 +1,214 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * メトリクスの登録先です。
+ * 登録したメトリクスはMBeanとしても公開します。
+ * @author Bladean Mericle
+ */
+public class MetricsRegistry {
+
+    /**
+     * MBeanのドメイン。
+     */
+    private static final String MBEAN_DOMAIN = "jp.mericle.amazon_connect_real_time_streaming";
+
+    /**
+     * 既定の登録先。
+     */
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry(ManagementFactory.getPlatformMBeanServer());
+
+    /**
+     * メトリクステーブル。
+     * キーはメトリクス名とラベルを連結した文字列で、Prometheusの出力で同じ名前のメトリクスが並ぶように整列しています。
+     */
+    private final ConcurrentSkipListMap<String, Metric> metricTable = new ConcurrentSkipListMap<String, Metric>();
+
+    /**
+     * MBeanサーバー、公開しない場合は{@code null}。
+     */
+    private final MBeanServer mbeanServer;
+
+    /**
+     * コンストラクタ。
+     * @param mbeanServer MBeanサーバー、公開しない場合は{@code null}
+     */
+    public MetricsRegistry(final MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+    /**
+     * 既定の登録先を取得します。
+     * @return 既定の登録先
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * カウンターを取得します。未登録の場合は登録します。
+     * @param name メトリクス名
+     * @param help 説明
+     * @param labels ラベル(キーと値を交互に指定します)
+     * @return カウンター
+     */
+    public Counter counter(final String name, final String help, final String... labels) {
+        return register(Counter.class, name, labels, (n) -> new Counter(n, help, labels));
+    }
+
+    /**
+     * ゲージを取得します。未登録の場合は登録します。
+     * @param name メトリクス名
+     * @param help 説明
+     * @param labels ラベル(キーと値を交互に指定します)
+     * @return ゲージ
+     */
+    public Gauge gauge(final String name, final String help, final String... labels) {
+        return register(Gauge.class, name, labels, (n) -> new Gauge(n, help, labels));
+    }
+
+    /**
+     * ヒストグラムを取得します。未登録の場合は登録します。
+     * @param name メトリクス名
+     * @param help 説明
+     * @param labels ラベル(キーと値を交互に指定します)
+     * @return ヒストグラム
+     */
+    public Histogram histogram(final String name, final String help, final String... labels) {
+        return register(Histogram.class, name, labels, (n) -> new Histogram(n, help, labels));
+    }
+
+    /**
+     * メトリクスを登録します。
+     * @param <T> メトリクスの型
+     * @param type メトリクスの型
+     * @param name メトリクス名
+     * @param labels ラベル
+     * @param factory メトリクスの生成処理
+     * @return 登録済みのメトリクス
+     */
+    private <T extends Metric> T register(
+            final Class<T> type,
+            final String name,
+            final String[] labels,
+            final Function<String, T> factory) {
+        final String key = toKey(name, labels);
+        final Metric metric = metricTable.get(key);
+        if (metric != null) {
+            return cast(type, metric);
+        }
+
+        final T newMetric = factory.apply(name);
+        final Metric existing = metricTable.putIfAbsent(key, newMetric);
+        if (existing != null) {
+            return cast(type, existing);
+        }
+
+        registerMBean(newMetric);
+        return newMetric;
+    }
+
+    /**
+     * 登録済みのメトリクスを指定の型に変換します。
+     * @param <T> メトリクスの型
+     * @param type メトリクスの型
+     * @param metric メトリクス
+     * @return メトリクス
+     */
+    private static <T extends Metric> T cast(final Class<T> type, final Metric metric) {
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(metric.getName() + " is already registered as " + metric.getType() + ".");
+        }
+
+        return type.cast(metric);
+    }
+
+    /**
+     * メトリクス名とラベルからテーブルのキーを生成します。
+     * @param name メトリクス名
+     * @param labels ラベル
+     * @return テーブルのキー
+     */
+    private static String toKey(final String name, final String[] labels) {
+        final StringBuilder builder = new StringBuilder(name);
+        for (String label : labels) {
+            builder.append('\0').append(label);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * メトリクスをMBeanとして公開します。
+     * @param metric メトリクス
+     */
+    private void registerMBean(final Metric metric) {
+        if (mbeanServer == null) {
+            return;
+        }
+
+        try {
+            final StringBuilder builder = new StringBuilder(MBEAN_DOMAIN)
+                    .append(":type=Metrics,name=")
+                    .append(ObjectName.quote(metric.getName()));
+            for (Map.Entry<String, String> label : metric.getLabels().entrySet()) {
+                builder.append(',').append(label.getKey()).append('=').append(ObjectName.quote(label.getValue()));
+            }
+
+            final ObjectName objectName = new ObjectName(builder.toString());
+            if (!mbeanServer.isRegistered(objectName)) {
+                mbeanServer.registerMBean(metric, objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 登録済みのメトリクスを取得します。
+     * @param name メトリクス名
+     * @param labels ラベル(キーと値を交互に指定します)
+     * @return メトリクス、未登録の場合は{@code null}
+     */
+    public Metric get(final String name, final String... labels) {
+        return metricTable.get(toKey(name, labels));
+    }
+
+    /**
+     * 登録済みのメトリクスを取得します。
+     * @return 登録済みのメトリクス
+     */
+    public List<Metric> getMetrics() {
+        return new ArrayList<Metric>(metricTable.values());
+    }
+
+    /**
+     * 登録済みのメトリクスをPrometheusのテキスト形式で出力します。
+     * @return Prometheusのテキスト形式のメトリクス
+     */
+    public String toPrometheusText() {
+        final StringBuilder builder = new StringBuilder();
+        String lastName = null;
+        for (Metric metric : metricTable.values()) {
+            if (!metric.getName().equals(lastName)) {
+                builder.append("# HELP ").append(metric.getName()).append(' ').append(metric.getHelp()).append('\n');
+                builder.append("# TYPE ").append(metric.getName()).append(' ').append(metric.getType()).append('\n');
+                lastName = metric.getName();
+            }
+
+            metric.writeSamples(builder);
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadata;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadataVisitor;
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTag;
+
+/**
+ * GetMediaのペイロードのMKVタグを集めます。
+ * <p>
+ * 同じ名前のタグはフラグメントごとに繰り返されるので、最初の値だけを保持します。
+ * フラグメントごとに値が変わるKinesis Video Streamsの内部のタグ("AWS_KINESISVIDEO_"で始まるもの)は集めません。
+ * @author Bladean Mericle
+ */
+public class MkvTagCollector implements FragmentMetadataVisitor.MkvTagProcessor {
+
+    /**
+     * 集めないタグの名前の接頭辞。
+     */
+    private static final String INTERNAL_TAG_PREFIX = "AWS_KINESISVIDEO_";
+
+    /**
+     * 保持するタグの数の上限。
+     */
+    private static final int MAX_TAGS = 100;
+
+    /**
+     * 保持するタグの値の長さの上限。
+     */
+    private static final int MAX_VALUE_LENGTH = 1024;
+
+    /**
+     * 集めたタグ。
+     */
+    private final Map<String, String> tags = new LinkedHashMap<>();
+
+    /**
+     * タグを処理します。
+     * @param mkvTag タグ
+     * @param currentFragmentMetadata フラグメントメタ情報
+     */
+    @Override
+    public synchronized void process(final MkvTag mkvTag, final Optional<FragmentMetadata> currentFragmentMetadata) {
+        final String name = mkvTag.getTagName();
+        final String value = mkvTag.getTagValue();
+        if (name == null || name.isEmpty() || name.startsWith(INTERNAL_TAG_PREFIX) || value == null
+                || tags.size() >= MAX_TAGS) {
+            return;
+        }
+
+        tags.putIfAbsent(name, value.length() > MAX_VALUE_LENGTH ? value.substring(0, MAX_VALUE_LENGTH) : value);
+    }
+
+    /**
+     * 集めたタグを取得します。
+     * @return 集めたタグの複製
+     */
+    public synchronized Map<String, String> getTags() {
+        return new LinkedHashMap<>(tags);
+    }
+}
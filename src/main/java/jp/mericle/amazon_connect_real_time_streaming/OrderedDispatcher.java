@@ -0,0 +1,221 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * キーごとに順番を守りながら、異なるキーの処理を並列に実行します。
+ * <p>
+ * 同じキーの処理は受け付けた順に1つずつ実行し、異なるキーの処理は固定数のスレッドで同時に実行します。
+ * 受け付けてから完了していない処理の数が上限に達すると、{@link #dispatch(String, Runnable)}は空きができるまで待ちます。
+ * 処理で発生した例外は記録するだけで、他の処理や同じキーの後続の処理には影響しません。
+ * @author Bladean Mericle
+ */
+public class OrderedDispatcher implements AutoCloseable {
+
+    /**
+     * 完了していない処理の数。
+     */
+    private static final Gauge PENDING_TASKS = MetricsRegistry.getDefault().gauge(
+            "dispatch_pending_tasks", "Number of dispatched tasks not yet completed.");
+
+    /**
+     * 例外で終了した処理の数。
+     */
+    private static final Counter FAILED_TASKS = MetricsRegistry.getDefault().counter(
+            "dispatch_failed_tasks_total", "Number of dispatched tasks that threw an exception.");
+
+    /**
+     * 処理を実行するスレッドプール。
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 完了していない処理の数の上限。
+     */
+    private final Semaphore permits;
+
+    /**
+     * 実行中のキーごとの、後続の処理の待ち行列。キーが存在する間は、そのキーの処理を実行中です。
+     */
+    private final Map<String, Deque<Runnable>> queues = new HashMap<>();
+
+    /**
+     * コンストラクタ。
+     * @param threads 同時に実行する処理の数
+     * @param maxPendingTasks 完了していない処理の数の上限
+     */
+    public OrderedDispatcher(final int threads, final int maxPendingTasks) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive number.");
+        }
+
+        if (maxPendingTasks <= 0) {
+            throw new IllegalArgumentException("maxPendingTasks must be positive number.");
+        }
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.permits = new Semaphore(maxPendingTasks);
+    }
+
+    /**
+     * 処理を受け付けます。
+     * @param key 順番を守るためのキー
+     * @param task 処理
+     * @throws InterruptedException 空きを待っている間に割り込まれた場合
+     */
+    public void dispatch(final String key, final Runnable task) throws InterruptedException {
+        if (key == null) {
+            throw new IllegalArgumentException("key can't set null.");
+        }
+
+        if (task == null) {
+            throw new IllegalArgumentException("task can't set null.");
+        }
+
+        permits.acquire();
+        submit(key, task);
+    }
+
+    /**
+     * 完了していない処理の数が上限に達していない場合だけ、待たずに処理を受け付けます。
+     * @param key 順番を守るためのキー
+     * @param task 処理
+     * @return 受け付けた場合は{@code true}、上限に達している場合は{@code false}
+     */
+    public boolean tryDispatch(final String key, final Runnable task) {
+        if (key == null) {
+            throw new IllegalArgumentException("key can't set null.");
+        }
+
+        if (task == null) {
+            throw new IllegalArgumentException("task can't set null.");
+        }
+
+        if (!permits.tryAcquire()) {
+            return false;
+        }
+
+        submit(key, task);
+        return true;
+    }
+
+    /**
+     * 空きを確保した処理を、キーの待ち行列に追加するか、スレッドプールで実行します。
+     * @param key 順番を守るためのキー
+     * @param task 処理
+     */
+    private void submit(final String key, final Runnable task) {
+        PENDING_TASKS.add(1);
+        synchronized (queues) {
+            final Deque<Runnable> queue = queues.get(key);
+            if (queue != null) {
+                queue.add(task);
+                return;
+            }
+
+            queues.put(key, new ArrayDeque<>());
+        }
+
+        try {
+            executor.execute(() -> run(key, task));
+        } catch (RejectedExecutionException e) {
+            synchronized (queues) {
+                queues.remove(key);
+            }
+
+            permits.release();
+            PENDING_TASKS.add(-1);
+            throw e;
+        }
+    }
+
+    /**
+     * 同時に実行する処理の数を変更します。
+     * 減らした場合は、実行中の処理が終わったスレッドから終了します。
+     * @param threads 同時に実行する処理の数
+     */
+    public synchronized void setThreads(final int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive number.");
+        }
+
+        // 常に最小数が最大数以下になる順番で変更します。
+        if (threads > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threads);
+            executor.setCorePoolSize(threads);
+        } else {
+            executor.setCorePoolSize(threads);
+            executor.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * キーの処理を、待ち行列が空になるまで順番に実行します。
+     * 処理が{@link Error}を投げた場合も、キーの待ち行列を残したままスレッドが終了しないように後続の処理を実行し、
+     * 待ち行列が空になってから最初の{@link Error}を投げ直します。
+     * @param key キー
+     * @param first 最初の処理
+     */
+    private void run(final String key, final Runnable first) {
+        Error error = null;
+        Runnable task = first;
+        while (task != null) {
+            try {
+                task.run();
+            } catch (RuntimeException | Error e) {
+                FAILED_TASKS.increment();
+                System.err.printf("処理に失敗しました。(%s)\n", key);
+                e.printStackTrace();
+                if (e instanceof Error && error == null) {
+                    error = (Error)e;
+                }
+            } finally {
+                permits.release();
+                PENDING_TASKS.add(-1);
+            }
+
+            synchronized (queues) {
+                task = queues.get(key).poll();
+                if (task == null) {
+                    queues.remove(key);
+                }
+            }
+        }
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 新しい処理の受け付けを停止し、受け付けた処理の完了を待ちます。
+     * @param timeout 待機する時間
+     * @param unit 待機する時間の単位
+     * @return 全ての処理が完了した場合は{@code true}
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public boolean shutdown(final long timeout, final TimeUnit unit) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 新しい処理の受け付けを停止します。実行中の処理は中断しません。
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,235 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.kinesisvideo.parser.mkv.MkvElementVisitException;
+
+/**
+ * {@link CapturingInputStream}で保存したGetMediaのペイロードを、録音と同じ処理に流し直します。
+ * 複数のファイルを同時に再生することで、実際の通話を使った負荷試験や不具合の再現ができます。
+ * <p>
+ * 引数は"--speed 1 --parallel 8 --output ./replay/ ./capture/"のように指定します。
+ * 再生するファイルにはフォルダも指定でき、その場合はフォルダ内の".mkv"ファイルを全て再生します。
+ * 音声のファイル名は開始時刻から決まるので、保存した時のファイル名("ストリーム名-開始時刻.mkv")の開始時刻を使い、
+ * 開始時刻が重なる場合は1msずつずらして、同時に再生しても上書きしないようにします。
+ * @author Bladean Mericle
+ */
+public class PayloadReplayer {
+
+    /**
+     * 再生するファイルの一覧。
+     */
+    private final List<File> payloadFiles;
+
+    /**
+     * 再生速度(実時間に対する倍率、0の場合は可能な限り速く再生します)。
+     */
+    private final double speed;
+
+    /**
+     * 同時に再生するファイル数。
+     */
+    private final int parallelism;
+
+    /**
+     * 音声の保存先フォルダ。
+     */
+    private final String outputPath;
+
+    /**
+     * コンストラクタ。
+     * @param payloadFiles 再生するファイルの一覧
+     * @param speed 再生速度(実時間に対する倍率、0の場合は可能な限り速く再生します)
+     * @param parallelism 同時に再生するファイル数
+     * @param outputPath 音声の保存先フォルダ
+     */
+    public PayloadReplayer(
+            final List<File> payloadFiles,
+            final double speed,
+            final int parallelism,
+            final String outputPath) {
+        if (payloadFiles == null || payloadFiles.isEmpty()) {
+            throw new IllegalArgumentException("payloadFiles can't set null or empty.");
+        }
+
+        if (speed < 0.0) {
+            throw new IllegalArgumentException("speed can't set negative number.");
+        }
+
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive number.");
+        }
+
+        if (outputPath == null || outputPath.isEmpty()) {
+            throw new IllegalArgumentException("outputPath can't set null or empty.");
+        }
+
+        this.payloadFiles = payloadFiles;
+        this.speed = speed;
+        this.parallelism = parallelism;
+        this.outputPath = outputPath;
+    }
+
+    /**
+     * メインメソッドです。
+     * @param args コマンドライン引数
+     * @throws Exception 再生に失敗した場合
+     */
+    public static void main(final String[] args) throws Exception {
+        double speed = 1.0;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        String outputPath = "./replay/";
+        final List<File> payloadFiles = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+            case "--speed":
+                speed = Double.parseDouble(args[++i]);
+                break;
+            case "--parallel":
+                parallelism = Integer.parseInt(args[++i]);
+                break;
+            case "--output":
+                outputPath = args[++i];
+                break;
+            default:
+                addPayloadFiles(new File(args[i]), payloadFiles);
+                break;
+            }
+        }
+
+        if (payloadFiles.isEmpty()) {
+            System.err.printf("再生するファイルを指定してください。\n");
+            return;
+        }
+
+        new PayloadReplayer(payloadFiles, speed, parallelism, outputPath).run();
+    }
+
+    /**
+     * 再生するファイルを追加します。
+     * @param file ファイルまたはフォルダ
+     * @param payloadFiles 再生するファイルの一覧
+     */
+    private static void addPayloadFiles(final File file, final List<File> payloadFiles) {
+        if (!file.isDirectory()) {
+            payloadFiles.add(file);
+            return;
+        }
+
+        final File[] files = file.listFiles((dir, name) -> name.endsWith(".mkv"));
+        if (files != null) {
+            Arrays.sort(files);
+            payloadFiles.addAll(Arrays.asList(files));
+        }
+    }
+
+    /**
+     * 全てのファイルを再生し、結果を出力します。
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void run() throws InterruptedException {
+        final File audioDirectory = new File(outputPath);
+        if (!audioDirectory.isDirectory() && !audioDirectory.mkdirs()) {
+            System.err.printf("フォルダを作成できませんでした。(%s)\n", outputPath);
+            return;
+        }
+
+        final LatencyHistogram sessionTimes = new LatencyHistogram();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicLong totalBytes = new AtomicLong();
+        final AtomicLong totalDuration = new AtomicLong();
+
+        System.out.printf("再生を開始します。(ファイル %d 件、同時 %d 件、速度 %s)\n",
+                payloadFiles.size(), parallelism, speed > 0.0 ? speed + " 倍" : "最大");
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        final long runStart = System.nanoTime();
+        final Set<Long> usedTimestamps = new HashSet<>();
+        final long defaultTimestamp = System.currentTimeMillis();
+        for (File payloadFile : payloadFiles) {
+            final VideoStreamData videoStreamData = toVideoStreamData(payloadFile, usedTimestamps, defaultTimestamp);
+            executor.execute(() -> {
+                final String streamName = videoStreamData.getStreamName();
+                final long sessionStart = System.nanoTime();
+                // 可能な限り速く再生する場合は待つ必要がないので、メモリマップして読み込みます。
+                try (ReadableByteChannel channel = speed > 0.0
+                                ? Channels.newChannel(new ReplayInputStream(payloadFile, speed))
+                                : null;
+                        ChannelParserByteSource source = channel != null
+                                ? new ChannelParserByteSource(channel)
+                                : ChannelParserByteSource.map(payloadFile);
+                        AudioRecordFrameProcessor frameProcessor = new AudioRecordFrameProcessor(
+                                audioDirectory.getPath(), videoStreamData, null)) {
+                    MediaStreamReader.read(source, frameProcessor, streamName);
+                    totalDuration.addAndGet(ReplayInputStream.getDurationMillis(payloadFile));
+                    totalBytes.addAndGet(payloadFile.length());
+                    sessionTimes.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sessionStart));
+                    System.out.printf("再生しました。(%s)\n", payloadFile.getPath());
+                } catch (MkvElementVisitException | IOException e) {
+                    failures.incrementAndGet();
+                    System.err.printf("再生に失敗しました。(%s)\n", payloadFile.getPath());
+                    e.printStackTrace();
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        final double elapsedSeconds = (System.nanoTime() - runStart) / 1.0e9;
+
+        System.out.printf("再生を終了します。\n");
+        System.out.printf("       所要時間: %.2f 秒\n", elapsedSeconds);
+        System.out.printf("       ファイル: %d 件 (失敗 %d 件)\n", payloadFiles.size(), failures.get());
+        System.out.printf("     スループット: %.2f MB/秒\n", totalBytes.get() / elapsedSeconds / 1024.0 / 1024.0);
+        System.out.printf("     実時間比: %.1f 倍 (受信 %.0f 秒分)\n",
+                totalDuration.get() / 1000.0 / elapsedSeconds, totalDuration.get() / 1000.0);
+        System.out.printf("  ファイルごとの処理時間: p50 %d ms / p99 %d ms / 最大 %d ms\n",
+                sessionTimes.getPercentile(0.50), sessionTimes.getPercentile(0.99), sessionTimes.getMax());
+    }
+
+    /**
+     * ファイル名からストリーム情報を作成します。
+     * "ストリーム名-開始時刻.mkv"の形式でない場合は、拡張子を除いたファイル名をストリーム名にして、標準の開始時刻を使います。
+     * @param payloadFile ペイロードのファイル
+     * @param usedTimestamps 使用済みの開始時刻、作成したストリーム情報の開始時刻を追加します
+     * @param defaultTimestamp ファイル名に開始時刻がない場合の開始時刻(エポックミリ秒)
+     * @return ストリーム情報(他のファイルと開始時刻が重ならないもの)
+     */
+    static VideoStreamData toVideoStreamData(
+            final File payloadFile,
+            final Set<Long> usedTimestamps,
+            final long defaultTimestamp) {
+        final String name = payloadFile.getName();
+        final int extensionIndex = name.lastIndexOf('.');
+        String streamName = extensionIndex > 0 ? name.substring(0, extensionIndex) : name;
+        long timestamp = defaultTimestamp;
+        final int separatorIndex = streamName.lastIndexOf('-');
+        if (separatorIndex > 0 && separatorIndex + 1 < streamName.length()) {
+            try {
+                timestamp = Long.parseLong(streamName.substring(separatorIndex + 1));
+                streamName = streamName.substring(0, separatorIndex);
+            } catch (NumberFormatException e) {
+                // 開始時刻ではないので、ファイル名をそのままストリーム名にします。
+            }
+        }
+
+        while (!usedTimestamps.add(timestamp)) {
+            ++timestamp;
+        }
+
+        return new VideoStreamData(streamName, new Date(timestamp));
+    }
+}
@@ -0,0 +1,986 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 録音した音声を、日ごとに1つの追記専用のファイルにまとめて保存するアーカイブです。
+ * 問い合わせごとにWAVファイルを作らないので、ファイル数が増えず、開始時刻が同じ問い合わせでも名前が衝突しません。
+ * <p>
+ * 日ごと(開始時刻のUTCの日付)に、音声を追記する"(日付).rec"と、固定長の索引を追記する"(日付).idx"を作成します。
+ * 索引には問い合わせIDとストリーム名のハッシュ、開始時刻、音声の位置を記録し、検索時はメモリマップして走査します。
+ * 書き込みを終えて閉じた日は、索引の順番をキーごとに並べ替えた"(日付).sort"を保存し、検索時は二分探索します。
+ * 開始時刻で検索する場合は、範囲外の日付のファイルを開きません。
+ * 異常終了した場合は、次に開いた時に不完全な書き込みを切り詰め、索引のない音声を索引に追加します。
+ * 分析結果のサマリーは同じ日付の"(日付).summary.jsonl"に、録音のマニフェストは"(日付).manifest.jsonl"に1行ずつ追記します。
+ * @author Bladean Mericle
+ */
+public class RecordingArchive implements RecordingSink, AutoCloseable {
+
+    /**
+     * 音声ファイルの拡張子。
+     */
+    private static final String DATA_EXTENSION = ".rec";
+
+    /**
+     * 索引ファイルの拡張子。
+     */
+    private static final String INDEX_EXTENSION = ".idx";
+
+    /**
+     * 分析結果のサマリーのファイルの拡張子。
+     */
+    private static final String SUMMARY_EXTENSION = ".summary.jsonl";
+
+    /**
+     * 録音のマニフェストのファイルの拡張子。
+     */
+    private static final String MANIFEST_EXTENSION = ".manifest.jsonl";
+
+    /**
+     * 並べ替えた索引のファイルの拡張子。
+     */
+    private static final String SORTED_EXTENSION = ".sort";
+
+    /**
+     * 書き込み中のファイルの拡張子。
+     */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    /**
+     * エントリーの先頭を表す値("ACRA")。
+     */
+    private static final int ENTRY_MAGIC = 0x41435241;
+
+    /**
+     * エントリーの固定長部分のサイズ(先頭の値、開始時刻、お客様側とオペレーター側の音声のバイト数)。
+     */
+    private static final int ENTRY_FIXED_SIZE = 4 + 8 + 4 + 4;
+
+    /**
+     * 索引の1件のサイズ。
+     * 問い合わせIDのハッシュ、ストリーム名のハッシュ、開始時刻、エントリーの位置、
+     * お客様側とオペレーター側の音声のバイト数、音声の位置の順に格納します。
+     */
+    private static final int INDEX_RECORD_SIZE = 8 + 8 + 8 + 8 + 4 + 4 + 8;
+
+    /**
+     * 索引の1件の中の、問い合わせIDのハッシュの位置。
+     */
+    private static final int CONTACT_ID_HASH_OFFSET = 0;
+
+    /**
+     * 索引の1件の中の、ストリーム名のハッシュの位置。
+     */
+    private static final int STREAM_NAME_HASH_OFFSET = 8;
+
+    /**
+     * 索引の1件の中の、開始時刻の位置。
+     */
+    private static final int START_TIMESTAMP_OFFSET = 16;
+
+    /**
+     * 並べ替えた索引に保存するキーの位置。この順に、件数の後に索引の番号の表を並べます。
+     */
+    private static final int[] SORTED_KEY_OFFSETS = {CONTACT_ID_HASH_OFFSET, STREAM_NAME_HASH_OFFSET, START_TIMESTAMP_OFFSET};
+
+    /**
+     * 1日のミリ秒数。
+     */
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * 同時に開いておく日数。日付をまたいだ通話の書き込みに備えて、前日分も開いておきます。
+     */
+    private static final int MAX_OPEN_CONTAINERS = 2;
+
+    /**
+     * 日付の書式。
+     */
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.BASIC_ISO_DATE.withZone(ZoneOffset.UTC);
+
+    /**
+     * 保存先のフォルダ。
+     */
+    private final File directory;
+
+    /**
+     * 開いている日ごとのファイル(最後に使った順)。
+     */
+    private final Map<String, Container> containers = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * コンストラクタ。
+     * @param directory 保存先のフォルダ
+     */
+    public RecordingArchive(final File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory can't set null.");
+        }
+
+        this.directory = directory;
+    }
+
+    /**
+     * 1件の問い合わせの音声を追記します。
+     * @param videoStreamData ストリーム情報
+     * @param customerAudio お客様側の音声データ
+     * @param operatorAudio オペレーター側の音声データ
+     * @throws IOException 書き込みエラー
+     */
+    @Override
+    public synchronized void write(
+            final VideoStreamData videoStreamData,
+            final byte[] customerAudio,
+            final byte[] operatorAudio) throws IOException {
+        if (videoStreamData == null) {
+            throw new IllegalArgumentException("videoStreamData can't set null.");
+        }
+
+        final long startTimestamp = videoStreamData.getStartTimestamp().getTime();
+        getContainer(DAY_FORMAT.format(Instant.ofEpochMilli(startTimestamp)))
+                .append(videoStreamData, customerAudio, operatorAudio);
+    }
+
+    /**
+     * 1件の問い合わせの分析結果のサマリーを、開始時刻の日付のファイルに1行追記します。
+     * @param videoStreamData ストリーム情報
+     * @param summary サマリー(1行のJSON)
+     * @throws IOException 書き込みエラー
+     */
+    @Override
+    public synchronized void writeSummary(final VideoStreamData videoStreamData, final byte[] summary) throws IOException {
+        appendLine(videoStreamData, SUMMARY_EXTENSION, summary);
+    }
+
+    /**
+     * 1件の問い合わせの録音のマニフェストを、開始時刻の日付のファイルに1行追記します。
+     * @param videoStreamData ストリーム情報
+     * @param manifest マニフェスト(1行のJSON)
+     * @throws IOException 書き込みエラー
+     */
+    @Override
+    public synchronized void writeManifest(final VideoStreamData videoStreamData, final byte[] manifest) throws IOException {
+        appendLine(videoStreamData, MANIFEST_EXTENSION, manifest);
+    }
+
+    /**
+     * 開始時刻の日付のファイルに1行追記します。
+     * @param videoStreamData ストリーム情報
+     * @param extension ファイルの拡張子
+     * @param line 1行の内容(改行を含まない)
+     * @throws IOException 書き込みエラー
+     */
+    private void appendLine(
+            final VideoStreamData videoStreamData,
+            final String extension,
+            final byte[] line) throws IOException {
+        if (videoStreamData == null) {
+            throw new IllegalArgumentException("videoStreamData can't set null.");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory.getPath());
+        }
+
+        final long startTimestamp = videoStreamData.getStartTimestamp().getTime();
+        final File lineFile = new File(directory, DAY_FORMAT.format(Instant.ofEpochMilli(startTimestamp)) + extension);
+        try (FileChannel channel = FileChannel.open(
+                lineFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            final FileLock lock = channel.lock();
+            try {
+                final ByteBuffer buffer = ByteBuffer.allocate(line.length + 1);
+                buffer.put(line).put((byte)'\n').flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * 日ごとのファイルを取得します。開いていない場合は開き、古いものを閉じます。
+     * @param day 日付
+     * @return 日ごとのファイル
+     * @throws IOException ファイルを開けない場合
+     */
+    private Container getContainer(final String day) throws IOException {
+        Container container = containers.get(day);
+        if (container != null) {
+            return container;
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory.getPath());
+        }
+
+        container = new Container(
+                new File(directory, day + DATA_EXTENSION),
+                new File(directory, day + INDEX_EXTENSION),
+                new File(directory, day + SORTED_EXTENSION));
+        containers.put(day, container);
+        final Iterator<Container> iterator = containers.values().iterator();
+        while (containers.size() > MAX_OPEN_CONTAINERS && iterator.hasNext()) {
+            iterator.next().close();
+            iterator.remove();
+        }
+
+        return container;
+    }
+
+    /**
+     * 問い合わせIDで検索します。
+     * @param contactId 問い合わせID
+     * @return 見つかったエントリーの一覧
+     * @throws IOException 読み込みエラー
+     */
+    public List<Entry> findByContactId(final String contactId) throws IOException {
+        if (contactId == null || contactId.isEmpty()) {
+            throw new IllegalArgumentException("contactId can't set null or empty.");
+        }
+
+        final long hash = hash(contactId);
+        return find(CONTACT_ID_HASH_OFFSET, hash, hash, entry -> contactId.equals(entry.getContactId()));
+    }
+
+    /**
+     * ストリーム名で検索します。
+     * @param streamName ストリーム名
+     * @return 見つかったエントリーの一覧
+     * @throws IOException 読み込みエラー
+     */
+    public List<Entry> findByStreamName(final String streamName) throws IOException {
+        if (streamName == null || streamName.isEmpty()) {
+            throw new IllegalArgumentException("streamName can't set null or empty.");
+        }
+
+        final long hash = hash(streamName);
+        return find(STREAM_NAME_HASH_OFFSET, hash, hash, entry -> streamName.equals(entry.getStreamName()));
+    }
+
+    /**
+     * 開始時刻で検索します。
+     * @param from 開始時刻の下限(エポックミリ秒、含む)
+     * @param to 開始時刻の上限(エポックミリ秒、含まない)
+     * @return 見つかったエントリーの一覧
+     * @throws IOException 読み込みエラー
+     */
+    public List<Entry> findByTime(final long from, final long to) throws IOException {
+        if (from >= to) {
+            return new ArrayList<>();
+        }
+
+        return find(START_TIMESTAMP_OFFSET, from, to - 1, entry -> true);
+    }
+
+    /**
+     * 索引のキーが範囲内の問い合わせを検索します。
+     * 並べ替えた索引がある場合は二分探索し、並べ替えた後に追記された索引だけを走査します。
+     * 索引にはハッシュしか記録していないので、候補はエントリーの内容を読み込んで確認します。
+     * @param keyOffset 索引の1件の中のキーの位置
+     * @param min キーの下限(含む)
+     * @param max キーの上限(含む)
+     * @param verifier エントリーが条件に一致するかどうかの判定
+     * @return 見つかったエントリーの一覧(日付と索引の順)
+     * @throws IOException 読み込みエラー
+     */
+    private List<Entry> find(
+            final int keyOffset,
+            final long min,
+            final long max,
+            final Predicate<Entry> verifier) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        final File[] indexFiles = directory.listFiles((dir, name) -> name.endsWith(INDEX_EXTENSION));
+        if (indexFiles == null) {
+            return entries;
+        }
+
+        Arrays.sort(indexFiles);
+        for (File indexFile : indexFiles) {
+            final String indexName = indexFile.getName();
+            final String day = indexName.substring(0, indexName.length() - INDEX_EXTENSION.length());
+            if (keyOffset == START_TIMESTAMP_OFFSET && !overlapsDay(day, min, max)) {
+                continue;
+            }
+
+            final File dataFile = new File(directory, day + DATA_EXTENSION);
+            try (FileChannel index = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+                    FileChannel data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ)) {
+                final int count = (int)(index.size() / INDEX_RECORD_SIZE);
+                if (count == 0) {
+                    continue;
+                }
+
+                final ByteBuffer mappedIndex = index.map(FileChannel.MapMode.READ_ONLY, 0, (long)count * INDEX_RECORD_SIZE);
+                final List<Integer> records = new ArrayList<>();
+                final int sortedCount = findSorted(
+                        new File(directory, day + SORTED_EXTENSION), mappedIndex, count, keyOffset, min, max, records);
+                for (int record = sortedCount; record < count; ++record) {
+                    final long key = mappedIndex.getLong(record * INDEX_RECORD_SIZE + keyOffset);
+                    if (key >= min && key <= max) {
+                        records.add(record);
+                    }
+                }
+
+                Collections.sort(records);
+                for (int record : records) {
+                    final Entry entry = readEntry(data, dataFile, mappedIndex.getLong(record * INDEX_RECORD_SIZE + 24));
+                    if (entry != null && verifier.test(entry)) {
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * 並べ替えた索引を二分探索し、キーが範囲内の索引の番号を追加します。
+     * @param sortedFile 並べ替えた索引のファイル
+     * @param index 索引
+     * @param count 索引の件数
+     * @param keyOffset 索引の1件の中のキーの位置
+     * @param min キーの下限(含む)
+     * @param max キーの上限(含む)
+     * @param records 見つかった索引の番号の追加先
+     * @return 並べ替えた索引に含まれる件数、並べ替えた索引がないか使えない場合は0
+     * @throws IOException 読み込みエラー
+     */
+    private static int findSorted(
+            final File sortedFile,
+            final ByteBuffer index,
+            final int count,
+            final int keyOffset,
+            final long min,
+            final long max,
+            final List<Integer> records) throws IOException {
+        final ByteBuffer sorted;
+        try (FileChannel channel = FileChannel.open(sortedFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < 8) {
+                return 0;
+            }
+
+            sorted = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+
+        // 索引を切り詰めた後の古いファイルは使いません。
+        final long sortedCount = sorted.getLong(0);
+        if (sortedCount <= 0 || sortedCount > count
+                || sorted.capacity() != 8 + SORTED_KEY_OFFSETS.length * 4 * sortedCount) {
+            return 0;
+        }
+
+        int tableOffset = 8;
+        for (int sortedKeyOffset : SORTED_KEY_OFFSETS) {
+            if (sortedKeyOffset == keyOffset) {
+                break;
+            }
+
+            tableOffset += 4 * (int)sortedCount;
+        }
+
+        // キーが下限以上の最初の位置を二分探索します。
+        int low = 0;
+        int high = (int)sortedCount;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (index.getLong(sorted.getInt(tableOffset + middle * 4) * INDEX_RECORD_SIZE + keyOffset) < min) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        for (int i = low; i < sortedCount; ++i) {
+            final int record = sorted.getInt(tableOffset + i * 4);
+            if (index.getLong(record * INDEX_RECORD_SIZE + keyOffset) > max) {
+                break;
+            }
+
+            records.add(record);
+        }
+
+        return (int)sortedCount;
+    }
+
+    /**
+     * 日付のファイルに、開始時刻が範囲内の問い合わせが含まれる可能性があるかどうかを判定します。
+     * @param day 日付
+     * @param from 開始時刻の下限(エポックミリ秒、含む)
+     * @param to 開始時刻の上限(エポックミリ秒、含む)
+     * @return 含まれる可能性がある場合、または日付ではない場合は{@code true}
+     */
+    private static boolean overlapsDay(final String day, final long from, final long to) {
+        final long dayStart;
+        try {
+            dayStart = LocalDate.parse(day, DateTimeFormatter.BASIC_ISO_DATE).toEpochDay() * DAY_MILLIS;
+        } catch (DateTimeParseException e) {
+            return true;
+        }
+
+        return dayStart <= to && dayStart + DAY_MILLIS > from;
+    }
+
+    /**
+     * エントリーの音声をWAV形式で書き込みます。
+     * @param entry エントリー
+     * @param customerOutput お客様側の出力先
+     * @param operatorOutput オペレーター側の出力先
+     * @throws IOException 読み書きのエラー
+     */
+    public static void extract(
+            final Entry entry,
+            final OutputStream customerOutput,
+            final OutputStream operatorOutput) throws IOException {
+        if (entry == null) {
+            throw new IllegalArgumentException("entry can't set null.");
+        }
+
+        try (FileChannel data = FileChannel.open(entry.dataFile.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer customerAudio = ByteBuffer.allocate(entry.customerLength);
+            readFully(data, customerAudio, entry.audioOffset);
+            AudioRecordFrameProcessor.WriteAudioData(customerOutput, customerAudio.array());
+
+            final ByteBuffer operatorAudio = ByteBuffer.allocate(entry.operatorLength);
+            readFully(data, operatorAudio, entry.audioOffset + entry.customerLength);
+            AudioRecordFrameProcessor.WriteAudioData(operatorOutput, operatorAudio.array());
+        }
+    }
+
+    /**
+     * エントリーを読み込みます。
+     * @param data 音声ファイル
+     * @param dataFile 音声ファイルのパス
+     * @param offset エントリーの位置
+     * @return エントリー、不完全または不正な場合は{@code null}
+     * @throws IOException 読み込みエラー
+     */
+    private static Entry readEntry(final FileChannel data, final File dataFile, final long offset) throws IOException {
+        final long size = data.size();
+        if (offset < 0 || offset + ENTRY_FIXED_SIZE + 4 > size) {
+            return null;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(ENTRY_FIXED_SIZE + 2);
+        readFully(data, header, offset);
+        header.flip();
+        if (header.getInt() != ENTRY_MAGIC) {
+            return null;
+        }
+
+        final long startTimestamp = header.getLong();
+        final int customerLength = header.getInt();
+        final int operatorLength = header.getInt();
+        final int contactIdLength = header.getShort() & 0xFFFF;
+        final long contactIdOffset = offset + ENTRY_FIXED_SIZE + 2;
+        if (customerLength < 0 || operatorLength < 0 || contactIdOffset + contactIdLength + 2 > size) {
+            return null;
+        }
+
+        final ByteBuffer names = ByteBuffer.allocate(contactIdLength + 2);
+        readFully(data, names, contactIdOffset);
+        names.flip();
+        final byte[] contactId = new byte[contactIdLength];
+        names.get(contactId);
+        final int streamNameLength = names.getShort() & 0xFFFF;
+        final long streamNameOffset = contactIdOffset + contactIdLength + 2;
+        final long audioOffset = streamNameOffset + streamNameLength;
+        if (audioOffset + customerLength + operatorLength > size) {
+            return null;
+        }
+
+        final ByteBuffer streamName = ByteBuffer.allocate(streamNameLength);
+        readFully(data, streamName, streamNameOffset);
+        return new Entry(
+                dataFile,
+                offset,
+                startTimestamp,
+                contactIdLength > 0 ? new String(contactId, StandardCharsets.UTF_8) : null,
+                new String(streamName.array(), StandardCharsets.UTF_8),
+                audioOffset,
+                customerLength,
+                operatorLength);
+    }
+
+    /**
+     * 指定した位置からバッファが一杯になるまで読み込みます。
+     * @param channel 読み込み元
+     * @param buffer 読み込み先
+     * @param position 読み込み位置
+     * @throws IOException 読み込みエラー、または途中で終端に達した場合
+     */
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            final int length = channel.read(buffer, current);
+            if (length < 0) {
+                throw new EOFException();
+            }
+
+            current += length;
+        }
+    }
+
+    /**
+     * 文字列の64ビットのハッシュ(FNV-1a)を求めます。
+     * @param value 文字列、{@code null}の場合は0
+     * @return ハッシュ
+     */
+    static long hash(final String value) {
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    /**
+     * 文字列をUTF-8に変換します。
+     * @param value 文字列、{@code null}の場合は空
+     * @return UTF-8のバイト列
+     */
+    private static byte[] toBytes(final String value) {
+        final byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("value is too long.");
+        }
+
+        return bytes;
+    }
+
+    /**
+     * 開いているファイルを全て閉じます。
+     */
+    @Override
+    public synchronized void close() {
+        for (Container container : containers.values()) {
+            container.close();
+        }
+
+        containers.clear();
+    }
+
+    /**
+     * 1日分の音声ファイルと索引ファイルです。
+     * 書き込む間は音声ファイルを排他ロックするので、同じフォルダを複数のプロセスで同時に書き込むことはできません。
+     */
+    private static class Container {
+
+        /**
+         * 音声ファイルのパス。
+         */
+        private final File dataFile;
+
+        /**
+         * 音声ファイル。
+         */
+        private final FileChannel data;
+
+        /**
+         * 索引ファイル。
+         */
+        private final FileChannel index;
+
+        /**
+         * 並べ替えた索引のファイルのパス。
+         */
+        private final File sortedFile;
+
+        /**
+         * コンストラクタ。ファイルを開いて排他ロックし、不完全な書き込みを修復します。
+         * 追記すると並べ替えた索引が古くなるので、閉じる時に作り直すまで削除します。
+         * @param dataFile 音声ファイルのパス
+         * @param indexFile 索引ファイルのパス
+         * @param sortedFile 並べ替えた索引のファイルのパス
+         * @throws IOException ファイルを開けない場合、または他のプロセスが書き込み中の場合
+         */
+        Container(final File dataFile, final File indexFile, final File sortedFile) throws IOException {
+            this.dataFile = dataFile;
+            this.sortedFile = sortedFile;
+            this.data = FileChannel.open(dataFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            // 他のプロセスが書き込み中のファイルを修復すると、正しい録音まで切り詰めてしまうので、開かずに失敗させます。
+            FileLock lock;
+            try {
+                lock = data.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            } catch (IOException e) {
+                data.close();
+                throw e;
+            }
+
+            if (lock == null) {
+                data.close();
+                throw new IOException("Archive is locked by another process: " + dataFile.getPath());
+            }
+
+            try {
+                this.index = FileChannel.open(indexFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                data.close();
+                throw e;
+            }
+
+            try {
+                Files.deleteIfExists(sortedFile.toPath());
+                recover();
+            } catch (IOException e) {
+                closeFiles();
+                throw e;
+            }
+        }
+
+        /**
+         * 不完全な書き込みを修復します。
+         * 音声より先に進んでいる索引を切り詰め、索引のない完全なエントリーを索引に追加し、残りの音声を切り詰めます。
+         * @throws IOException 読み書きのエラー
+         */
+        private void recover() throws IOException {
+            long indexSize = index.size() - index.size() % INDEX_RECORD_SIZE;
+            long dataEnd = 0;
+            final ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+            while (indexSize > 0) {
+                record.clear();
+                readFully(index, record, indexSize - INDEX_RECORD_SIZE);
+                final long end = record.getLong(40) + record.getInt(32) + record.getInt(36);
+                if (end <= data.size()) {
+                    dataEnd = end;
+                    break;
+                }
+
+                indexSize -= INDEX_RECORD_SIZE;
+            }
+
+            index.truncate(indexSize);
+            Entry entry;
+            int recovered = 0;
+            while ((entry = readEntry(data, dataFile, dataEnd)) != null) {
+                writeIndexRecord(entry, indexSize);
+                indexSize += INDEX_RECORD_SIZE;
+                dataEnd = entry.getEnd();
+                ++recovered;
+            }
+
+            if (recovered > 0) {
+                System.out.printf("索引のない録音を索引に追加しました。(%s, %d 件)\n", dataFile.getPath(), recovered);
+            }
+
+            data.truncate(dataEnd);
+            data.position(dataEnd);
+            index.position(indexSize);
+        }
+
+        /**
+         * 1件の問い合わせの音声を追記し、索引に追加します。
+         * 書き込みに失敗した場合は、書き込み前の状態に戻します。
+         * @param videoStreamData ストリーム情報
+         * @param customerAudio お客様側の音声データ
+         * @param operatorAudio オペレーター側の音声データ
+         * @throws IOException 書き込みエラー
+         */
+        void append(
+                final VideoStreamData videoStreamData,
+                final byte[] customerAudio,
+                final byte[] operatorAudio) throws IOException {
+            final byte[] contactId = toBytes(videoStreamData.getContactId());
+            final byte[] streamName = toBytes(videoStreamData.getStreamName());
+            final ByteBuffer header = ByteBuffer.allocate(ENTRY_FIXED_SIZE + 2 + contactId.length + 2 + streamName.length);
+            header.putInt(ENTRY_MAGIC)
+                    .putLong(videoStreamData.getStartTimestamp().getTime())
+                    .putInt(customerAudio.length)
+                    .putInt(operatorAudio.length)
+                    .putShort((short)contactId.length)
+                    .put(contactId)
+                    .putShort((short)streamName.length)
+                    .put(streamName)
+                    .flip();
+
+            final long offset = data.position();
+            final long indexSize = index.position();
+            try {
+                // 音声が空の場合もあるので、最後のバッファではなく残りのバイト数で終了を判定します。
+                final ByteBuffer[] buffers = {header, ByteBuffer.wrap(customerAudio), ByteBuffer.wrap(operatorAudio)};
+                long remaining = header.remaining() + customerAudio.length + operatorAudio.length;
+                while (remaining > 0) {
+                    remaining -= data.write(buffers);
+                }
+
+                final Entry entry = new Entry(
+                        dataFile,
+                        offset,
+                        videoStreamData.getStartTimestamp().getTime(),
+                        videoStreamData.getContactId(),
+                        videoStreamData.getStreamName(),
+                        offset + header.capacity(),
+                        customerAudio.length,
+                        operatorAudio.length);
+                writeIndexRecord(entry, indexSize);
+                index.position(indexSize + INDEX_RECORD_SIZE);
+            } catch (IOException e) {
+                data.truncate(offset);
+                data.position(offset);
+                index.truncate(indexSize);
+                index.position(indexSize);
+                throw e;
+            }
+        }
+
+        /**
+         * 索引の1件を書き込みます。
+         * @param entry エントリー
+         * @param position 書き込み位置
+         * @throws IOException 書き込みエラー
+         */
+        private void writeIndexRecord(final Entry entry, final long position) throws IOException {
+            final ByteBuffer record = ByteBuffer.allocate(INDEX_RECORD_SIZE);
+            record.putLong(hash(entry.getContactId()))
+                    .putLong(hash(entry.getStreamName()))
+                    .putLong(entry.getStartTimestamp())
+                    .putLong(entry.offset)
+                    .putInt(entry.customerLength)
+                    .putInt(entry.operatorLength)
+                    .putLong(entry.audioOffset)
+                    .flip();
+            long current = position;
+            while (record.hasRemaining()) {
+                current += index.write(record, current);
+            }
+        }
+
+        /**
+         * 索引をキーごとに並べ替えて保存します。
+         * 件数の後に、保存するキーの位置の順に、キーの順に並べた索引の番号の表を書き込みます。
+         * キーが同じ場合は索引の順に並べます。
+         * @throws IOException 読み書きのエラー
+         */
+        private void seal() throws IOException {
+            final int count = (int)(index.position() / INDEX_RECORD_SIZE);
+            if (count == 0) {
+                return;
+            }
+
+            final ByteBuffer mappedIndex = index.map(FileChannel.MapMode.READ_ONLY, 0, (long)count * INDEX_RECORD_SIZE);
+            final ByteBuffer sorted = ByteBuffer.allocate(8 + SORTED_KEY_OFFSETS.length * 4 * count);
+            sorted.putLong(count);
+            final Integer[] records = new Integer[count];
+            for (int keyOffset : SORTED_KEY_OFFSETS) {
+                for (int i = 0; i < count; ++i) {
+                    records[i] = i;
+                }
+
+                Arrays.sort(records, Comparator.comparingLong(
+                        (Integer record) -> mappedIndex.getLong(record * INDEX_RECORD_SIZE + keyOffset)));
+                for (int record : records) {
+                    sorted.putInt(record);
+                }
+            }
+
+            sorted.flip();
+            final File temporaryFile = new File(sortedFile.getPath() + TEMPORARY_EXTENSION);
+            try (FileChannel channel = FileChannel.open(temporaryFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (sorted.hasRemaining()) {
+                    channel.write(sorted);
+                }
+            }
+
+            Files.move(temporaryFile.toPath(), sortedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        /**
+         * 並べ替えた索引を保存し、ファイルを閉じます。
+         */
+        void close() {
+            try {
+                seal();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            closeFiles();
+        }
+
+        /**
+         * ファイルを閉じます。
+         */
+        private void closeFiles() {
+            try {
+                data.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+
+            try {
+                if (index != null) {
+                    index.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * アーカイブの1件の問い合わせです。
+     */
+    public static class Entry {
+
+        /**
+         * 音声ファイルのパス。
+         */
+        private final File dataFile;
+
+        /**
+         * エントリーの位置。
+         */
+        private final long offset;
+
+        /**
+         * 開始時刻(エポックミリ秒)。
+         */
+        private final long startTimestamp;
+
+        /**
+         * 問い合わせID、不明な場合は{@code null}。
+         */
+        private final String contactId;
+
+        /**
+         * ストリーム名。
+         */
+        private final String streamName;
+
+        /**
+         * 音声の位置。
+         */
+        private final long audioOffset;
+
+        /**
+         * お客様側の音声のバイト数。
+         */
+        private final int customerLength;
+
+        /**
+         * オペレーター側の音声のバイト数。
+         */
+        private final int operatorLength;
+
+        /**
+         * コンストラクタ。
+         * @param dataFile 音声ファイルのパス
+         * @param offset エントリーの位置
+         * @param startTimestamp 開始時刻(エポックミリ秒)
+         * @param contactId 問い合わせID、不明な場合は{@code null}
+         * @param streamName ストリーム名
+         * @param audioOffset 音声の位置
+         * @param customerLength お客様側の音声のバイト数
+         * @param operatorLength オペレーター側の音声のバイト数
+         */
+        Entry(
+                final File dataFile,
+                final long offset,
+                final long startTimestamp,
+                final String contactId,
+                final String streamName,
+                final long audioOffset,
+                final int customerLength,
+                final int operatorLength) {
+            this.dataFile = dataFile;
+            this.offset = offset;
+            this.startTimestamp = startTimestamp;
+            this.contactId = contactId;
+            this.streamName = streamName;
+            this.audioOffset = audioOffset;
+            this.customerLength = customerLength;
+            this.operatorLength = operatorLength;
+        }
+
+        /**
+         * 開始時刻を取得します。
+         * @return 開始時刻(エポックミリ秒)
+         */
+        public long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        /**
+         * 問い合わせIDを取得します。
+         * @return 問い合わせID、不明な場合は{@code null}
+         */
+        public String getContactId() {
+            return contactId;
+        }
+
+        /**
+         * ストリーム名を取得します。
+         * @return ストリーム名
+         */
+        public String getStreamName() {
+            return streamName;
+        }
+
+        /**
+         * お客様側の音声のバイト数を取得します。
+         * @return お客様側の音声のバイト数
+         */
+        public int getCustomerLength() {
+            return customerLength;
+        }
+
+        /**
+         * オペレーター側の音声のバイト数を取得します。
+         * @return オペレーター側の音声のバイト数
+         */
+        public int getOperatorLength() {
+            return operatorLength;
+        }
+
+        /**
+         * エントリーの終端の位置を取得します。
+         * @return エントリーの終端の位置
+         */
+        long getEnd() {
+            return audioOffset + customerLength + operatorLength;
+        }
+    }
+}
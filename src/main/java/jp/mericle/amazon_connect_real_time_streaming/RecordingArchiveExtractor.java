@@ -0,0 +1,117 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link RecordingArchive}に保存した録音を、WAVファイルとして取り出します。
+ * <p>
+ * 引数は"--archive ./archive/ --contact (問い合わせID) --output ./extract/"のように指定します。
+ * 検索条件は"--contact"、"--stream"、"--from"と"--to"(yyyy-MM-dd-HH-mm-ss形式)のいずれかを指定します。
+ * ファイル名は"(開始時刻)-(問い合わせID)-cu.wav"と"(開始時刻)-(問い合わせID)-op.wav"で、問い合わせIDが不明な場合はストリーム名を使います。
+ * @author Bladean Mericle
+ */
+public class RecordingArchiveExtractor {
+
+    /**
+     * 日時の書式。
+     */
+    private static final String DATE_PATTERN = "yyyy-MM-dd-HH-mm-ss";
+
+    /**
+     * メインメソッドです。
+     * @param args コマンドライン引数
+     * @throws Exception 取り出しに失敗した場合
+     */
+    public static void main(final String[] args) throws Exception {
+        String archivePath = "./archive/";
+        String outputPath = "./extract/";
+        String contactId = null;
+        String streamName = null;
+        Date from = null;
+        Date to = null;
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+            case "--archive":
+                archivePath = args[++i];
+                break;
+            case "--output":
+                outputPath = args[++i];
+                break;
+            case "--contact":
+                contactId = args[++i];
+                break;
+            case "--stream":
+                streamName = args[++i];
+                break;
+            case "--from":
+                from = parseDate(args[++i]);
+                break;
+            case "--to":
+                to = parseDate(args[++i]);
+                break;
+            default:
+                System.err.printf("不明な引数です。(%s)\n", args[i]);
+                return;
+            }
+        }
+
+        final RecordingArchive archive = new RecordingArchive(new File(archivePath));
+        final List<RecordingArchive.Entry> entries;
+        if (contactId != null) {
+            entries = archive.findByContactId(contactId);
+        } else if (streamName != null) {
+            entries = archive.findByStreamName(streamName);
+        } else if (from != null || to != null) {
+            entries = archive.findByTime(
+                    from != null ? from.getTime() : Long.MIN_VALUE,
+                    to != null ? to.getTime() : Long.MAX_VALUE);
+        } else {
+            System.err.printf("\"--contact\"、\"--stream\"、\"--from\"、\"--to\"のいずれかを指定してください。\n");
+            return;
+        }
+
+        if (entries.isEmpty()) {
+            System.out.printf("録音が見つかりませんでした。\n");
+            return;
+        }
+
+        final File outputDirectory = new File(outputPath);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            System.err.printf("フォルダを作成できませんでした。(%s)\n", outputPath);
+            return;
+        }
+
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS");
+        for (RecordingArchive.Entry entry : entries) {
+            final String baseFileName = dateFormat.format(new Date(entry.getStartTimestamp())) + "-"
+                    + (entry.getContactId() != null ? entry.getContactId() : entry.getStreamName());
+            final File customerFile = new File(outputDirectory, baseFileName + "-cu.wav");
+            final File operatorFile = new File(outputDirectory, baseFileName + "-op.wav");
+            try (OutputStream customerOutput = new FileOutputStream(customerFile, false);
+                    OutputStream operatorOutput = new FileOutputStream(operatorFile, false)) {
+                RecordingArchive.extract(entry, customerOutput, operatorOutput);
+                System.out.printf("録音を取り出しました。(%s)\n", baseFileName);
+            } catch (IOException e) {
+                System.err.printf("録音を取り出せませんでした。(%s)\n", baseFileName);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 日時を解析します。
+     * @param value 日時の文字列(yyyy-MM-dd-HH-mm-ss形式)
+     * @return 日時
+     * @throws ParseException 形式が正しくない場合
+     */
+    private static Date parseDate(final String value) throws ParseException {
+        return new SimpleDateFormat(DATE_PATTERN).parse(value);
+    }
+}
@@ -0,0 +1,32 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * 録音終了時の音声ファイルの書き込みを表すJFRイベントです。
+ * @author Bladean Mericle
+ */
+@Name("jp.mericle.amazon_connect_real_time_streaming.RecordingFlush")
+@Label("Recording Flush")
+@Category({"Amazon Connect Real Time Streaming", "Output"})
+@Description("Finalization of a recording in AudioRecordFrameProcessor.close().")
+public class RecordingFlushEvent extends Event {
+
+    /**
+     * Kinesis Video Streamsのストリーム名。
+     */
+    @Label("Stream Name")
+    String streamName;
+
+    /**
+     * 書き込んだ音声データのバイト数。
+     */
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
@@ -0,0 +1,313 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 録音した音声のハッシュを書き込みながら計算し、改ざんや欠落を検出するためのマニフェストを作成します。
+ * <p>
+ * トラックごとに、保存する音声データ(WAVファイルの"data"チャンクの中身)全体のSHA-256と、
+ * 指定した場合は一定の長さごとの区間のSHA-256を計算します。保存した後にファイルを読み直す必要はありません。
+ * マニフェストには、ハッシュ、バイト数、長さ、フラグメント番号の範囲、ストリーム名を記録します。
+ * 項目の順序と書式は常に同じで空白を含まないので、マニフェストのバイト列をそのまま署名できます。
+ * <p>
+ * 同じインスタンスを複数のスレッドから使うことはできません。
+ * @author Bladean Mericle
+ */
+public class RecordingManifest {
+
+    /**
+     * マニフェストの形式のバージョン。
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * ハッシュのアルゴリズム。
+     */
+    private static final String ALGORITHM = "SHA-256";
+
+    /**
+     * 1秒あたりのバイト数(8kHz、16bit、モノラル)。
+     */
+    private static final int BYTES_PER_SECOND = 16000;
+
+    /**
+     * 16進数の文字。
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * ストリーム情報。
+     */
+    private final VideoStreamData videoStreamData;
+
+    /**
+     * お客様側のハッシュ。
+     */
+    private final TrackHash customer;
+
+    /**
+     * オペレーター側のハッシュ。
+     */
+    private final TrackHash operator;
+
+    /**
+     * 最初のフラグメント番号、まだ受信していない場合は{@code null}。
+     */
+    private String firstFragmentNumber;
+
+    /**
+     * 最後のフラグメント番号、まだ受信していない場合は{@code null}。
+     */
+    private String lastFragmentNumber;
+
+    /**
+     * 受信したフラグメント数。
+     */
+    private long fragmentCount = 0;
+
+    /**
+     * コンストラクタ。
+     * @param videoStreamData ストリーム情報
+     * @param segmentMillis 区間ごとのハッシュを計算する長さ(ms)、0の場合は計算しません
+     */
+    public RecordingManifest(final VideoStreamData videoStreamData, final long segmentMillis) {
+        if (videoStreamData == null) {
+            throw new IllegalArgumentException("videoStreamData can't set null.");
+        }
+
+        if (segmentMillis < 0) {
+            throw new IllegalArgumentException("segmentMillis can't set negative number.");
+        }
+
+        // 区間の境界がサンプルの途中にならないよう、偶数のバイト数にします。
+        final long segmentBytes = segmentMillis * BYTES_PER_SECOND / 1000 / 2 * 2;
+        this.videoStreamData = videoStreamData;
+        this.customer = new TrackHash(segmentBytes);
+        this.operator = new TrackHash(segmentBytes);
+    }
+
+    /**
+     * お客様側の保存する音声データを追加します。
+     * @param data 音声データ
+     * @param offset 開始位置
+     * @param length バイト数
+     */
+    public void updateCustomer(final byte[] data, final int offset, final int length) {
+        customer.update(data, offset, length);
+    }
+
+    /**
+     * オペレーター側の保存する音声データを追加します。
+     * @param data 音声データ
+     * @param offset 開始位置
+     * @param length バイト数
+     */
+    public void updateOperator(final byte[] data, final int offset, final int length) {
+        operator.update(data, offset, length);
+    }
+
+    /**
+     * フレームが含まれていたフラグメントを記録します。
+     * @param fragmentNumber フラグメント番号
+     */
+    public void recordFragment(final String fragmentNumber) {
+        if (fragmentNumber == null || fragmentNumber.equals(lastFragmentNumber)) {
+            return;
+        }
+
+        if (firstFragmentNumber == null) {
+            firstFragmentNumber = fragmentNumber;
+        }
+
+        lastFragmentNumber = fragmentNumber;
+        ++fragmentCount;
+    }
+
+    /**
+     * ハッシュの計算を終了し、マニフェストを生成します。呼んだ後は音声データを追加できません。
+     * @return マニフェスト(1行のJSON)
+     */
+    public byte[] finish() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"version\":").append(VERSION);
+        builder.append(",\"algorithm\":");
+        appendString(builder, ALGORITHM);
+        builder.append(",\"streamName\":");
+        appendString(builder, videoStreamData.getStreamName());
+        builder.append(",\"contactId\":");
+        appendString(builder, videoStreamData.getContactId());
+        builder.append(",\"startTimestamp\":").append(videoStreamData.getStartTimestamp().getTime());
+        builder.append(",\"fragments\":{\"first\":");
+        appendString(builder, firstFragmentNumber);
+        builder.append(",\"last\":");
+        appendString(builder, lastFragmentNumber);
+        builder.append(",\"count\":").append(fragmentCount).append('}');
+        builder.append(",\"customer\":");
+        customer.finish(builder);
+        builder.append(",\"operator\":");
+        operator.finish(builder);
+        builder.append('}');
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * JSONの文字列を追加します。
+     * @param builder 追加先
+     * @param value 文字列、{@code null}の場合はnull
+     */
+    private static void appendString(final StringBuilder builder, final String value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+
+        builder.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int)c));
+            } else {
+                builder.append(c);
+            }
+        }
+
+        builder.append('"');
+    }
+
+    /**
+     * ハッシュを16進数の文字列に変換します。
+     * @param hash ハッシュ
+     * @return 16進数の文字列
+     */
+    static String toHex(final byte[] hash) {
+        final char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            chars[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0x0F];
+            chars[2 * i + 1] = HEX_DIGITS[hash[i] & 0x0F];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * ハッシュを計算するオブジェクトを生成します。
+     * @return ハッシュを計算するオブジェクト
+     */
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256は全てのJava実行環境で使えます。
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 1つのトラックのハッシュです。
+     */
+    private static class TrackHash {
+
+        /**
+         * 全体のハッシュ。
+         */
+        private final MessageDigest digest = createDigest();
+
+        /**
+         * 区間のハッシュ、計算しない場合は{@code null}。
+         */
+        private final MessageDigest segmentDigest;
+
+        /**
+         * 区間のバイト数、計算しない場合は0。
+         */
+        private final long segmentBytes;
+
+        /**
+         * 計算が済んだ区間のハッシュ。
+         */
+        private final List<String> segments = new ArrayList<>();
+
+        /**
+         * 現在の区間のバイト数。
+         */
+        private long currentSegmentBytes = 0;
+
+        /**
+         * 全体のバイト数。
+         */
+        private long bytes = 0;
+
+        /**
+         * コンストラクタ。
+         * @param segmentBytes 区間のバイト数、計算しない場合は0
+         */
+        private TrackHash(final long segmentBytes) {
+            this.segmentBytes = segmentBytes;
+            this.segmentDigest = segmentBytes > 0 ? createDigest() : null;
+        }
+
+        /**
+         * 音声データを追加します。
+         * @param data 音声データ
+         * @param offset 開始位置
+         * @param length バイト数
+         */
+        private void update(final byte[] data, final int offset, final int length) {
+            digest.update(data, offset, length);
+            bytes += length;
+            if (segmentDigest == null) {
+                return;
+            }
+
+            int position = offset;
+            int remaining = length;
+            while (remaining > 0) {
+                final int chunk = (int)Math.min(remaining, segmentBytes - currentSegmentBytes);
+                segmentDigest.update(data, position, chunk);
+                currentSegmentBytes += chunk;
+                position += chunk;
+                remaining -= chunk;
+                if (currentSegmentBytes == segmentBytes) {
+                    segments.add(toHex(segmentDigest.digest()));
+                    currentSegmentBytes = 0;
+                }
+            }
+        }
+
+        /**
+         * ハッシュの計算を終了し、JSONのオブジェクトを追加します。
+         * @param builder 追加先
+         */
+        private void finish(final StringBuilder builder) {
+            builder.append("{\"bytes\":").append(bytes);
+            builder.append(",\"durationMillis\":").append(bytes * 1000 / BYTES_PER_SECOND);
+            builder.append(",\"sha256\":\"").append(toHex(digest.digest())).append('"');
+            if (segmentDigest != null) {
+                if (currentSegmentBytes > 0) {
+                    segments.add(toHex(segmentDigest.digest()));
+                    currentSegmentBytes = 0;
+                }
+
+                builder.append(",\"segmentBytes\":").append(segmentBytes);
+                builder.append(",\"segments\":[");
+                for (int i = 0; i < segments.size(); ++i) {
+                    if (i > 0) {
+                        builder.append(',');
+                    }
+
+                    builder.append('"').append(segments.get(i)).append('"');
+                }
+
+                builder.append(']');
+            }
+
+            builder.append('}');
+        }
+    }
+}
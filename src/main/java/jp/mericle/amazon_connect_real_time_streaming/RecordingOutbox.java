@@ -0,0 +1,569 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通話が終わった録音を受け取り、ローカルの送信待ちフォルダを経由して別の保存先に書き込みます。
+ * <p>
+ * {@link #write(VideoStreamData, byte[], byte[])}は待ち行列に追加するだけなので、録音のスレッドはすぐに次の処理に進めます。
+ * 追加した録音は専用のスレッドで送信待ちフォルダに1件1ファイルで保存し、固定数のスレッドで保存先に書き込みます。
+ * 書き込みに失敗した場合は間隔を倍にしながらリトライし、全て失敗した場合はファイルの拡張子を".failed"に変えて残します。
+ * 異常終了した場合も、送信待ちフォルダに残っている録音は次に開始した時に書き込みます。
+ * 書き込みの直後に異常終了した場合は、同じ録音を2回書き込むことがあります。
+ * @author Bladean Mericle
+ */
+public class RecordingOutbox implements RecordingSink, AutoCloseable {
+
+    /**
+     * 送信待ちのファイルの拡張子。
+     */
+    private static final String JOB_EXTENSION = ".job";
+
+    /**
+     * 書き込み中のファイルの拡張子。
+     */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    /**
+     * 全てのリトライに失敗したファイルの拡張子。
+     */
+    private static final String FAILED_EXTENSION = ".failed";
+
+    /**
+     * ファイルの先頭を表す値("ACRO")。
+     */
+    private static final int JOB_MAGIC = 0x4143524F;
+
+    /**
+     * 録音のファイルの種類。
+     */
+    private static final byte KIND_RECORDING = 0;
+
+    /**
+     * 分析結果のサマリーのファイルの種類。
+     */
+    private static final byte KIND_SUMMARY = 1;
+
+    /**
+     * 録音のマニフェストのファイルの種類。
+     */
+    private static final byte KIND_MANIFEST = 2;
+
+    /**
+     * 送信待ちの件数。
+     */
+    private static final Gauge PENDING_JOBS = MetricsRegistry.getDefault().gauge(
+            "outbox_pending_jobs", "Number of finished recordings waiting to be written.");
+
+    /**
+     * リトライした回数。
+     */
+    private static final Counter RETRIES = MetricsRegistry.getDefault().counter(
+            "outbox_retries_total", "Number of retried outbox writes.");
+
+    /**
+     * 全てのリトライに失敗した件数。
+     */
+    private static final Counter FAILED_JOBS = MetricsRegistry.getDefault().counter(
+            "outbox_failed_jobs_total", "Number of outbox jobs that failed after all retries.");
+
+    /**
+     * 受け渡しの所要時間。
+     */
+    private static final Histogram HANDOFF_TIME = MetricsRegistry.getDefault().histogram(
+            "outbox_handoff_time_micros", "Time the session thread spends handing a recording to the outbox in microseconds.");
+
+    /**
+     * 送信待ちフォルダ。
+     */
+    private final File directory;
+
+    /**
+     * 書き込み先。
+     */
+    private final RecordingSink delegate;
+
+    /**
+     * 最大リトライ数。
+     */
+    private final int maxRetryCount;
+
+    /**
+     * 最初のリトライ間隔(ms)。
+     */
+    private final long retryInterval;
+
+    /**
+     * 送信待ちフォルダに保存していない録音。
+     */
+    private final BlockingQueue<Job> handoffQueue = new LinkedBlockingQueue<>();
+
+    /**
+     * 書き込みとリトライを行うスレッドプール。
+     */
+    private final ScheduledThreadPoolExecutor workers;
+
+    /**
+     * 送信待ちフォルダに保存するスレッド。
+     */
+    private final Thread spoolThread;
+
+    /**
+     * ファイル名の連番。
+     */
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    /**
+     * 終了したかどうか。
+     * 受け付けと終了の間で録音を取りこぼさないよう、変更は{@link #handoffLock}を取得して行います。
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * 終了したかどうかの確認と、待ち行列への追加を不可分に行うためのロック。
+     */
+    private final Object handoffLock = new Object();
+
+    /**
+     * コンストラクタ。
+     * @param directory 送信待ちフォルダ
+     * @param delegate 書き込み先
+     * @param threads 同時に書き込む数
+     * @param maxRetryCount 最大リトライ数
+     * @param retryInterval 最初のリトライ間隔(ms)
+     */
+    public RecordingOutbox(
+            final File directory,
+            final RecordingSink delegate,
+            final int threads,
+            final int maxRetryCount,
+            final long retryInterval) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory can't set null.");
+        }
+
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate can't set null.");
+        }
+
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive number.");
+        }
+
+        if (maxRetryCount < 0) {
+            throw new IllegalArgumentException("maxRetryCount can't set negative number.");
+        }
+
+        if (retryInterval <= 0) {
+            throw new IllegalArgumentException("retryInterval must be positive number.");
+        }
+
+        this.directory = directory;
+        this.delegate = delegate;
+        this.maxRetryCount = maxRetryCount;
+        this.retryInterval = retryInterval;
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // 終了時に待機中のリトライは実行せず、次に開始した時に書き込みます。
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.workers = executor;
+        this.spoolThread = new Thread(this::spool, "outbox-spool");
+        this.spoolThread.setDaemon(true);
+    }
+
+    /**
+     * 送信待ちフォルダに残っている録音の書き込みと、新しい録音の受け付けを開始します。
+     * @throws IOException 送信待ちフォルダを作成できない場合
+     */
+    public void start() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory: " + directory.getPath());
+        }
+
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            int recovered = 0;
+            for (File file : files) {
+                if (file.getName().endsWith(TEMPORARY_EXTENSION)) {
+                    // 保存の途中で終了したファイルは、まだ受け渡しが完了していないので削除します。
+                    Files.deleteIfExists(file.toPath());
+                } else if (file.getName().endsWith(JOB_EXTENSION)) {
+                    PENDING_JOBS.add(1);
+                    submit(file, 0, 0);
+                    ++recovered;
+                }
+            }
+
+            if (recovered > 0) {
+                System.out.printf("前回書き込めなかった録音を書き込みます。(%d 件)\n", recovered);
+            }
+        }
+
+        spoolThread.start();
+    }
+
+    /**
+     * 1件の問い合わせの音声を受け付けます。
+     * @param videoStreamData ストリーム情報
+     * @param customerAudio お客様側の音声データ
+     * @param operatorAudio オペレーター側の音声データ
+     * @throws IOException 終了した後に呼ばれた場合
+     */
+    @Override
+    public void write(
+            final VideoStreamData videoStreamData,
+            final byte[] customerAudio,
+            final byte[] operatorAudio) throws IOException {
+        handoff(new Job(KIND_RECORDING, videoStreamData, customerAudio, operatorAudio));
+    }
+
+    /**
+     * 1件の問い合わせの分析結果のサマリーを受け付けます。
+     * @param videoStreamData ストリーム情報
+     * @param summary サマリー
+     * @throws IOException 終了した後に呼ばれた場合
+     */
+    @Override
+    public void writeSummary(final VideoStreamData videoStreamData, final byte[] summary) throws IOException {
+        handoff(new Job(KIND_SUMMARY, videoStreamData, summary, new byte[0]));
+    }
+
+    /**
+     * 1件の問い合わせの録音のマニフェストを受け付けます。
+     * @param videoStreamData ストリーム情報
+     * @param manifest マニフェスト
+     * @throws IOException 終了した後に呼ばれた場合
+     */
+    @Override
+    public void writeManifest(final VideoStreamData videoStreamData, final byte[] manifest) throws IOException {
+        handoff(new Job(KIND_MANIFEST, videoStreamData, manifest, new byte[0]));
+    }
+
+    /**
+     * 録音を待ち行列に追加します。
+     * @param job 録音
+     * @throws IOException 終了した後に呼ばれた場合
+     */
+    private void handoff(final Job job) throws IOException {
+        final long startTime = System.nanoTime();
+        synchronized (handoffLock) {
+            if (closed) {
+                throw new IOException("Outbox is closed.");
+            }
+
+            // 送信待ちフォルダに保存するまでは、録音中の音声と同じくメモリを使います。
+            ResourceGovernor.getDefault().addBufferedBytes(job.getBytes());
+            PENDING_JOBS.add(1);
+            handoffQueue.add(job);
+        }
+
+        HANDOFF_TIME.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+    }
+
+    /**
+     * 待ち行列の録音を送信待ちフォルダに保存し、書き込みを予約します。終了後は残りを保存して戻ります。
+     * 終了したことを確認してから待ち行列が空になった場合だけ戻るので、終了する直前に受け付けた録音も保存します。
+     * 書き込みのスレッドプールが先に終了した場合も、残りの録音は送信待ちフォルダに保存して、次に開始した時に書き込みます。
+     */
+    private void spool() {
+        while (true) {
+            final boolean closing = closed;
+            final Job job;
+            try {
+                job = closing ? handoffQueue.poll() : handoffQueue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (job == null) {
+                if (closing) {
+                    return;
+                }
+
+                continue;
+            }
+
+            try {
+                final File file = save(job);
+                try {
+                    submit(file, 0, 0);
+                } catch (RejectedExecutionException e) {
+                    // 終了中で書き込めない場合は、保存したファイルを次に開始した時に書き込みます。
+                    PENDING_JOBS.add(-1);
+                }
+            } catch (IOException e) {
+                // 保存できない場合は、メモリから直接書き込みます。
+                System.err.printf("送信待ちフォルダに保存できませんでした。(%s)\n", job.videoStreamData.getStreamName());
+                e.printStackTrace();
+                writeDirectly(job);
+            } finally {
+                ResourceGovernor.getDefault().addBufferedBytes(-job.getBytes());
+            }
+        }
+    }
+
+    /**
+     * 録音を送信待ちフォルダに保存します。
+     * @param job 録音
+     * @return 保存したファイル
+     * @throws IOException 書き込みエラー
+     */
+    private File save(final Job job) throws IOException {
+        final String baseName = String.format("%020d", sequence.incrementAndGet());
+        final File temporaryFile = new File(directory, baseName + TEMPORARY_EXTENSION);
+        final File jobFile = new File(directory, baseName + JOB_EXTENSION);
+        try (FileOutputStream fileStream = new FileOutputStream(temporaryFile)) {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileStream));
+            output.writeInt(JOB_MAGIC);
+            output.writeByte(job.kind);
+            output.writeUTF(job.videoStreamData.getStreamName());
+            output.writeLong(job.videoStreamData.getStartTimestamp().getTime());
+            output.writeUTF(job.videoStreamData.getContactId() != null ? job.videoStreamData.getContactId() : "");
+            output.writeInt(job.first.length);
+            output.write(job.first);
+            output.writeInt(job.second.length);
+            output.write(job.second);
+            output.flush();
+            fileStream.getFD().sync();
+        }
+
+        Files.move(temporaryFile.toPath(), jobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return jobFile;
+    }
+
+    /**
+     * 送信待ちフォルダのファイルを読み込みます。
+     * @param file ファイル
+     * @return 録音
+     * @throws IOException 読み込みエラー
+     */
+    private static Job load(final File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != JOB_MAGIC) {
+                throw new IOException("Invalid outbox file: " + file.getPath());
+            }
+
+            final byte kind = input.readByte();
+            final String streamName = input.readUTF();
+            final Date startTimestamp = new Date(input.readLong());
+            final String contactId = input.readUTF();
+            final byte[] first = new byte[input.readInt()];
+            input.readFully(first);
+            final byte[] second = new byte[input.readInt()];
+            input.readFully(second);
+            return new Job(kind, new VideoStreamData(streamName, startTimestamp, contactId), first, second);
+        }
+    }
+
+    /**
+     * ファイルの書き込みを予約します。
+     * @param file 送信待ちのファイル
+     * @param retryCount これまでのリトライ数
+     * @param delay 待機する時間(ms)
+     */
+    private void submit(final File file, final int retryCount, final long delay) {
+        workers.schedule(() -> deliver(file, retryCount), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * ファイルを書き込み先に書き込み、成功した場合は削除します。失敗した場合はリトライを予約します。
+     * @param file 送信待ちのファイル
+     * @param retryCount これまでのリトライ数
+     */
+    private void deliver(final File file, final int retryCount) {
+        try {
+            final Job job = load(file);
+            job.writeTo(delegate);
+            Files.deleteIfExists(file.toPath());
+            PENDING_JOBS.add(-1);
+        } catch (IOException | RuntimeException e) {
+            if (retryCount < maxRetryCount && !closed) {
+                RETRIES.increment();
+                System.err.printf("録音の書き込みに失敗したため、リトライします。(%s, %d 回目)\n", file.getName(), retryCount + 1);
+                submit(file, retryCount + 1, retryInterval << Math.min(retryCount, 16));
+                return;
+            }
+
+            if (closed) {
+                // 終了中の場合は、次に開始した時に書き込みます。
+                PENDING_JOBS.add(-1);
+                return;
+            }
+
+            FAILED_JOBS.increment();
+            PENDING_JOBS.add(-1);
+            System.err.printf("録音を書き込めませんでした。(%s)\n", file.getName());
+            e.printStackTrace();
+            file.renameTo(new File(directory, file.getName().replace(JOB_EXTENSION, FAILED_EXTENSION)));
+        }
+    }
+
+    /**
+     * 送信待ちフォルダを使わずに書き込みます。
+     * 終了中で書き込みのスレッドプールを使えない場合は、呼び出したスレッドで書き込みます。
+     * @param job 録音
+     */
+    private void writeDirectly(final Job job) {
+        final Runnable task = () -> {
+            try {
+                job.writeTo(delegate);
+            } catch (IOException | RuntimeException e) {
+                FAILED_JOBS.increment();
+                System.err.printf("録音を書き込めませんでした。(%s)\n", job.videoStreamData.getStreamName());
+                e.printStackTrace();
+            } finally {
+                PENDING_JOBS.add(-1);
+            }
+        };
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    /**
+     * 同時に書き込む数を変更します。
+     * @param threads 同時に書き込む数
+     */
+    public void setThreads(final int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive number.");
+        }
+
+        workers.setCorePoolSize(threads);
+    }
+
+    /**
+     * 新しい録音の受け付けを停止し、受け付けた録音を送信待ちフォルダに保存してから、書き込み中の録音の完了を待ちます。
+     * 待ちきれなかった録音は、次に開始した時に書き込みます。
+     * 書き込みのスレッドプールは、送信待ちフォルダへの保存が終わってから終了します。
+     * 保存が待機する時間内に終わらなかった場合も、保存を続けるスレッドが残りを送信待ちフォルダに保存します。
+     * @param timeout 待機する時間
+     * @param unit 待機する時間の単位
+     * @return 全ての書き込みが完了した場合は{@code true}
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public boolean shutdown(final long timeout, final TimeUnit unit) throws InterruptedException {
+        synchronized (handoffLock) {
+            closed = true;
+        }
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (spoolThread.isAlive()) {
+            final long waitMillis = unit.toMillis(timeout);
+            if (waitMillis > 0) {
+                spoolThread.join(waitMillis);
+            }
+        }
+
+        workers.shutdown();
+        final boolean terminated = workers.awaitTermination(
+                Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        return terminated && !spoolThread.isAlive();
+    }
+
+    /**
+     * 新しい録音の受け付けを停止し、受け付けた録音を送信待ちフォルダに保存します。
+     */
+    @Override
+    public void close() {
+        try {
+            if (!shutdown(30, TimeUnit.SECONDS)) {
+                System.err.printf("書き込めなかった録音は、次に開始した時に書き込みます。\n");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 送信待ちの録音です。
+     */
+    private static class Job {
+
+        /**
+         * 種類。
+         */
+        private final byte kind;
+
+        /**
+         * ストリーム情報。
+         */
+        private final VideoStreamData videoStreamData;
+
+        /**
+         * お客様側の音声データ、またはサマリー。
+         */
+        private final byte[] first;
+
+        /**
+         * オペレーター側の音声データ。
+         */
+        private final byte[] second;
+
+        /**
+         * コンストラクタ。
+         * @param kind 種類
+         * @param videoStreamData ストリーム情報
+         * @param first お客様側の音声データ、またはサマリー
+         * @param second オペレーター側の音声データ
+         */
+        private Job(final byte kind, final VideoStreamData videoStreamData, final byte[] first, final byte[] second) {
+            if (videoStreamData == null) {
+                throw new IllegalArgumentException("videoStreamData can't set null.");
+            }
+
+            this.kind = kind;
+            this.videoStreamData = videoStreamData;
+            this.first = first != null ? first : new byte[0];
+            this.second = second != null ? second : new byte[0];
+        }
+
+        /**
+         * データのバイト数を取得します。
+         * @return バイト数
+         */
+        private long getBytes() {
+            return (long)first.length + second.length;
+        }
+
+        /**
+         * 書き込み先に書き込みます。
+         * @param sink 書き込み先
+         * @throws IOException 書き込みエラー
+         */
+        private void writeTo(final RecordingSink sink) throws IOException {
+            if (kind == KIND_SUMMARY) {
+                sink.writeSummary(videoStreamData, first);
+            } else if (kind == KIND_MANIFEST) {
+                sink.writeManifest(videoStreamData, first);
+            } else {
+                sink.write(videoStreamData, first, second);
+            }
+        }
+    }
+}
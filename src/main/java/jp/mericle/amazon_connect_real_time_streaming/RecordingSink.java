@@ -0,0 +1,41 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.IOException;
+
+/**
+ * 録音した音声の保存先です。
+ * @author Bladean Mericle
+ */
+public interface RecordingSink {
+
+    /**
+     * 1件の問い合わせの音声を保存します。
+     * 複数の問い合わせの終了処理から同時に呼ばれます。
+     * @param videoStreamData ストリーム情報
+     * @param customerAudio お客様側の音声データ(8kHz、16bit、モノラルのPCM)
+     * @param operatorAudio オペレーター側の音声データ(8kHz、16bit、モノラルのPCM)
+     * @throws IOException 書き込みエラー
+     */
+    void write(VideoStreamData videoStreamData, byte[] customerAudio, byte[] operatorAudio) throws IOException;
+
+    /**
+     * 1件の問い合わせの分析結果のサマリーを、録音の隣に保存します。
+     * 標準では保存しません。
+     * @param videoStreamData ストリーム情報
+     * @param summary サマリー(1行のJSON)
+     * @throws IOException 書き込みエラー
+     */
+    default void writeSummary(VideoStreamData videoStreamData, byte[] summary) throws IOException {
+    }
+
+    /**
+     * 1件の問い合わせの録音のハッシュを記録したマニフェストを、録音の隣に保存します。
+     * 署名できるように、渡されたバイト列を変更せずに保存してください。
+     * 標準では保存しません。
+     * @param videoStreamData ストリーム情報
+     * @param manifest マニフェスト(1行のJSON)
+     * @throws IOException 書き込みエラー
+     */
+    default void writeManifest(VideoStreamData videoStreamData, byte[] manifest) throws IOException {
+    }
+}
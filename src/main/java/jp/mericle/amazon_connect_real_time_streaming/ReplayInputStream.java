@@ -0,0 +1,235 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CapturingInputStream}で保存したペイロードを、受信した時と同じ間隔で読み込む入力ストリームです。
+ * {@code InputStreamParserByteSource}に渡すことで、GetMediaから受信した時と同じように処理できます。
+ * <p>
+ * 再生速度は実時間に対する倍率で指定し、0の場合は待たずに可能な限り速く読み込みます。
+ * 受信時刻のファイルがない場合は、音声のビットレート(2トラック分)から受信時刻を推定します。
+ * @author Bladean Mericle
+ */
+public class ReplayInputStream extends FilterInputStream {
+
+    /**
+     * 受信時刻のファイルがない場合の1秒あたりのバイト数(8kHz、16bit、2トラック)。
+     */
+    private static final long ESTIMATED_BYTES_PER_SECOND = 32000;
+
+    /**
+     * 受信時刻のファイルがない場合に、受信時刻を推定する間隔(byte)。
+     */
+    private static final long ESTIMATED_CHUNK_SIZE = 3200;
+
+    /**
+     * 受信した位置の一覧(昇順)。i番目の位置までのバイト列は、i番目の時刻に受信済みです。
+     */
+    private final long[] positions;
+
+    /**
+     * 受信時刻の一覧(読み込み開始からの経過時間、ns)。
+     */
+    private final long[] times;
+
+    /**
+     * 再生速度(実時間に対する倍率、0の場合は可能な限り速く読み込みます)。
+     */
+    private final double speed;
+
+    /**
+     * 読み込みを開始した時刻(ns)、開始前は-1。
+     */
+    private long startTime = -1;
+
+    /**
+     * 読み込んだバイト数。
+     */
+    private long position;
+
+    /**
+     * 次に待つ受信時刻のインデックス。
+     */
+    private int timingIndex;
+
+    /**
+     * コンストラクタ。
+     * @param payloadFile ペイロードのファイル
+     * @param speed 再生速度(実時間に対する倍率、0の場合は可能な限り速く読み込みます)
+     * @throws IOException ファイルの読み込みエラー
+     */
+    public ReplayInputStream(final File payloadFile, final double speed) throws IOException {
+        super(new BufferedInputStream(new FileInputStream(payloadFile)));
+        if (speed < 0.0) {
+            in.close();
+            throw new IllegalArgumentException("speed can't set negative number.");
+        }
+
+        this.speed = speed;
+        final long[][] timing = loadTiming(payloadFile);
+        this.positions = timing[0];
+        this.times = timing[1];
+    }
+
+    /**
+     * ペイロードのファイルの受信時刻を読み込みます。受信時刻のファイルがない場合は推定します。
+     * @param payloadFile ペイロードのファイル
+     * @return 受信した位置の一覧と受信時刻の一覧
+     * @throws IOException 読み込みエラー
+     */
+    private static long[][] loadTiming(final File payloadFile) throws IOException {
+        final File timingFile = CapturingInputStream.getTimingFile(payloadFile);
+        return timingFile.isFile()
+                ? readTiming(timingFile)
+                : estimateTiming(payloadFile.length());
+    }
+
+    /**
+     * ペイロードのファイルを保存した時の受信時間を取得します。
+     * @param payloadFile ペイロードのファイル
+     * @return 受信時間(ms)
+     * @throws IOException 読み込みエラー
+     */
+    public static long getDurationMillis(final File payloadFile) throws IOException {
+        final long[] times = loadTiming(payloadFile)[1];
+        return times.length > 0 ? TimeUnit.NANOSECONDS.toMillis(times[times.length - 1]) : 0;
+    }
+
+    /**
+     * 受信時刻のファイルを読み込みます。
+     * @param timingFile 受信時刻のファイル
+     * @return 受信した位置の一覧と受信時刻の一覧
+     * @throws IOException 読み込みエラー
+     */
+    private static long[][] readTiming(final File timingFile) throws IOException {
+        final int count = (int)(timingFile.length() / (Long.BYTES * 2));
+        final long[] positions = new long[count];
+        final long[] times = new long[count];
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(timingFile)))) {
+            for (int i = 0; i < count; ++i) {
+                positions[i] = inputStream.readLong();
+                times[i] = inputStream.readLong();
+            }
+        } catch (EOFException e) {
+            // 書き込み途中で終了したファイルは、読み込めた所までを使います。
+        }
+
+        return new long[][] { positions, times };
+    }
+
+    /**
+     * 音声のビットレートから受信時刻を推定します。
+     * @param length ペイロードのバイト数
+     * @return 受信した位置の一覧と受信時刻の一覧
+     */
+    private static long[][] estimateTiming(final long length) {
+        final int count = (int)((length + ESTIMATED_CHUNK_SIZE - 1) / ESTIMATED_CHUNK_SIZE);
+        final long[] positions = new long[count];
+        final long[] times = new long[count];
+        for (int i = 0; i < count; ++i) {
+            positions[i] = Math.min((i + 1) * ESTIMATED_CHUNK_SIZE, length);
+            times[i] = TimeUnit.SECONDS.toNanos(positions[i]) / ESTIMATED_BYTES_PER_SECOND;
+        }
+
+        return new long[][] { positions, times };
+    }
+
+    /**
+     * 次のバイトを受信した時刻まで待ち、一度に読み込めるバイト数を返します。
+     * @param length 読み込みたいバイト数
+     * @return 一度に読み込めるバイト数
+     * @throws IOException 待機中に割り込まれた場合
+     */
+    private int await(final int length) throws IOException {
+        if (startTime < 0) {
+            startTime = System.nanoTime();
+        }
+
+        while (timingIndex < positions.length && positions[timingIndex] <= position) {
+            ++timingIndex;
+        }
+
+        if (timingIndex >= positions.length) {
+            return length;
+        }
+
+        if (speed > 0.0) {
+            final long waitTime = startTime + (long)(times[timingIndex] / speed) - System.nanoTime();
+            if (waitTime > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitTime);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+            }
+        }
+
+        return (int)Math.min(length, positions[timingIndex] - position);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read() throws IOException {
+        await(1);
+        final int value = super.read();
+        if (value >= 0) {
+            ++position;
+        }
+
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        final int length = super.read(b, off, await(len));
+        if (length > 0) {
+            position += length;
+        }
+
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = super.skip(Math.min(n, await((int)Math.min(n, Integer.MAX_VALUE))));
+        position += skipped;
+        return skipped;
+    }
+
+    /**
+     * 受信時刻と読み込み位置が食い違うので、サポートしません。
+     * @return 常に{@code false}
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * 保存した時の受信時間を取得します。
+     * @return 受信時間(ms)
+     */
+    public long getDurationMillis() {
+        return times.length > 0 ? TimeUnit.NANOSECONDS.toMillis(times[times.length - 1]) : 0;
+    }
+}
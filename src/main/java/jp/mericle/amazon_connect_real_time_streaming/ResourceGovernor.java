@@ -0,0 +1,284 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 全ての問い合わせで使っているメモリと処理待ちの作業を集計し、負荷が高い時は省略できる作業を止めます。
+ * <p>
+ * 負荷は「録音中の音声のバイト数の上限に対する割合」と「GC後のヒープの使用率」の大きい方で判断し、
+ * 周波数スペクトルの表示、音声の分析の順に止めます。録音は止めません。
+ * 止めた作業は、負荷が閾値より一定以上下がってから再開します。
+ * 処理待ちの作業の数が上限に達した場合も、その種類の作業を受け付けません。
+ * @author Bladean Mericle
+ */
+public class ResourceGovernor {
+
+    /**
+     * 省略できる作業の種類です。止める順に並べています。
+     */
+    public enum Work {
+
+        /**
+         * 周波数スペクトルの表示。
+         */
+        SPECTRUM("周波数スペクトルの表示", 0.7),
+
+        /**
+         * 音声の分析。
+         */
+        ANALYTICS("音声の分析", 0.85);
+
+        /**
+         * 表示名。
+         */
+        private final String displayName;
+
+        /**
+         * 作業を止める負荷。
+         */
+        private final double threshold;
+
+        /**
+         * 受け付けなかった作業の数。
+         */
+        private final Counter shed;
+
+        /**
+         * コンストラクタ。
+         * @param displayName 表示名
+         * @param threshold 作業を止める負荷
+         */
+        Work(final String displayName, final double threshold) {
+            this.displayName = displayName;
+            this.threshold = threshold;
+            this.shed = MetricsRegistry.getDefault().counter(
+                    "governor_shed_work_total", "Number of optional work items dropped under load.", "work", name().toLowerCase());
+        }
+    }
+
+    /**
+     * 作業を再開するまでに下がる必要がある負荷。
+     */
+    private static final double HYSTERESIS = 0.1;
+
+    /**
+     * ヒープの使用率を確認する間隔(ns)。
+     */
+    private static final long HEAP_CHECK_INTERVAL = 100_000_000L;
+
+    /**
+     * 録音中の音声のバイト数。
+     */
+    private static final Gauge BUFFERED_BYTES = MetricsRegistry.getDefault().gauge(
+            "governor_buffered_bytes", "Bytes of audio buffered by all sessions.");
+
+    /**
+     * 止めている作業の種類の数。
+     */
+    private static final Gauge SHED_LEVEL = MetricsRegistry.getDefault().gauge(
+            "governor_shed_level", "Number of optional work types currently shed.");
+
+    /**
+     * 標準のインスタンス。
+     */
+    private static final ResourceGovernor DEFAULT = new ResourceGovernor(
+            Runtime.getRuntime().maxMemory() / 2, 1000, ResourceGovernor::getHeapUsage);
+
+    /**
+     * 録音中の音声のバイト数の上限。
+     */
+    private volatile long maxBufferedBytes;
+
+    /**
+     * 種類ごとの処理待ちの作業の数の上限。
+     */
+    private volatile int maxPendingWork;
+
+    /**
+     * ヒープの使用率の取得処理。
+     */
+    private final DoubleSupplier heapUsage;
+
+    /**
+     * 録音中の音声のバイト数。
+     */
+    private final AtomicLong bufferedBytes = new AtomicLong();
+
+    /**
+     * 種類ごとの処理待ちの作業の数。
+     */
+    private final AtomicInteger[] pendingWork = new AtomicInteger[Work.values().length];
+
+    /**
+     * 止めている作業の種類の数。
+     */
+    private final AtomicInteger shedLevel = new AtomicInteger();
+
+    /**
+     * 最後に確認したヒープの使用率。
+     */
+    private volatile double lastHeapUsage;
+
+    /**
+     * 最後にヒープの使用率を確認した時刻(ns)。
+     */
+    private volatile long lastHeapCheckTime = System.nanoTime() - HEAP_CHECK_INTERVAL;
+
+    /**
+     * コンストラクタ。
+     * @param maxBufferedBytes 録音中の音声のバイト数の上限
+     * @param maxPendingWork 種類ごとの処理待ちの作業の数の上限
+     * @param heapUsage ヒープの使用率(0.0～1.0)の取得処理
+     */
+    ResourceGovernor(final long maxBufferedBytes, final int maxPendingWork, final DoubleSupplier heapUsage) {
+        if (heapUsage == null) {
+            throw new IllegalArgumentException("heapUsage can't set null.");
+        }
+
+        configure(maxBufferedBytes, maxPendingWork);
+        this.heapUsage = heapUsage;
+        for (int i = 0; i < pendingWork.length; ++i) {
+            pendingWork[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * 標準のインスタンスを取得します。
+     * @return 標準のインスタンス
+     */
+    public static ResourceGovernor getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * 上限を設定します。
+     * @param maxBufferedBytes 録音中の音声のバイト数の上限
+     * @param maxPendingWork 種類ごとの処理待ちの作業の数の上限
+     */
+    public void configure(final long maxBufferedBytes, final int maxPendingWork) {
+        if (maxBufferedBytes <= 0) {
+            throw new IllegalArgumentException("maxBufferedBytes must be positive number.");
+        }
+
+        if (maxPendingWork <= 0) {
+            throw new IllegalArgumentException("maxPendingWork must be positive number.");
+        }
+
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.maxPendingWork = maxPendingWork;
+    }
+
+    /**
+     * 録音中の音声のバイト数を増減します。
+     * @param delta 増減するバイト数
+     */
+    public void addBufferedBytes(final long delta) {
+        BUFFERED_BYTES.set(bufferedBytes.addAndGet(delta));
+    }
+
+    /**
+     * 省略できる作業を受け付けます。受け付けた場合は、作業の終了時に{@link #release(Work)}を呼んでください。
+     * @param work 作業の種類
+     * @return 受け付けた場合は{@code true}、負荷が高いため受け付けなかった場合は{@code false}
+     */
+    public boolean tryAcquire(final Work work) {
+        if (work.ordinal() < updateShedLevel()) {
+            work.shed.increment();
+            return false;
+        }
+
+        final AtomicInteger pending = pendingWork[work.ordinal()];
+        if (pending.incrementAndGet() > maxPendingWork) {
+            pending.decrementAndGet();
+            work.shed.increment();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * 受け付けた作業の終了を記録します。
+     * @param work 作業の種類
+     */
+    public void release(final Work work) {
+        pendingWork[work.ordinal()].decrementAndGet();
+    }
+
+    /**
+     * 現在の負荷を取得します。
+     * @return 負荷(1.0で上限)
+     */
+    public double getPressure() {
+        final long now = System.nanoTime();
+        if (now - lastHeapCheckTime >= HEAP_CHECK_INTERVAL) {
+            lastHeapCheckTime = now;
+            lastHeapUsage = heapUsage.getAsDouble();
+        }
+
+        return Math.max((double)bufferedBytes.get() / maxBufferedBytes, lastHeapUsage);
+    }
+
+    /**
+     * 負荷から止める作業の種類の数を求め、変わった場合は出力します。
+     * @return 止める作業の種類の数
+     */
+    private int updateShedLevel() {
+        final double pressure = getPressure();
+        final int current = shedLevel.get();
+        int level = 0;
+        for (Work work : Work.values()) {
+            final boolean shed = work.ordinal() < current
+                    ? pressure >= work.threshold - HYSTERESIS
+                    : pressure >= work.threshold;
+            if (!shed) {
+                break;
+            }
+
+            ++level;
+        }
+
+        if (level != current && shedLevel.compareAndSet(current, level)) {
+            SHED_LEVEL.set(level);
+            final Work[] works = Work.values();
+            for (int i = Math.min(current, level); i < Math.max(current, level); ++i) {
+                if (level > current) {
+                    System.err.printf("負荷が高いため、%sを停止します。(負荷 %.0f%%、録音中 %d byte)\n",
+                            works[i].displayName, pressure * 100, bufferedBytes.get());
+                } else {
+                    System.out.printf("負荷が下がったため、%sを再開します。(負荷 %.0f%%)\n",
+                            works[i].displayName, pressure * 100);
+                }
+            }
+        }
+
+        return level;
+    }
+
+    /**
+     * ヒープの使用率を取得します。
+     * 回収されていないオブジェクトで値が揺れないよう、各メモリプールの直前のGC後の使用量を使います。
+     * @return ヒープの使用率(0.0～1.0)
+     */
+    private static double getHeapUsage() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP) {
+                continue;
+            }
+
+            final MemoryUsage usage = pool.getCollectionUsage();
+            if (usage != null) {
+                used += usage.getUsed();
+            }
+        }
+
+        return (double)used / Runtime.getRuntime().maxMemory();
+    }
+}
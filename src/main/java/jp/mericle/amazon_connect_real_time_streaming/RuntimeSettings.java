@@ -0,0 +1,354 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 録音を止めずに変更できる設定です。
+ * <p>
+ * 変更できない値を持つので、複数のスレッドから同時に参照できます。
+ * 設定ファイルが変更された場合は{@link SettingsWatcher}が新しいインスタンスに差し替えるので、
+ * 一連の処理の間は同じインスタンスを使い続けてください。
+ * @author Bladean Mericle
+ */
+public class RuntimeSettings {
+
+    /**
+     * 録音を止めずに変更できる設定のキー。
+     */
+    public static final Set<String> LIVE_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "getrecordsinterval", "maxretrycount", "retryinterval", "dispatchthreads", "outboxthreads",
+            "audiopath", "capturepath", "capturecontacts", "capturesamplerate", "lagalarmthreshold",
+            "tonedetection", "toneminlevel", "dtmfratio", "toneratio", "toneminmillis",
+            "agc", "agctargetlevel", "agcmaxgain", "agclookahead",
+            "segmenthashmillis", "spectrumframerate", "bufferlimit", "maxpendingwork")));
+
+    /**
+     * GetRecordsの実行間隔(ms)。
+     */
+    private final int getRecordsInterval;
+
+    /**
+     * AWSリクエストの最大リトライ数。
+     */
+    private final int maxRetryCount;
+
+    /**
+     * AWSリクエストのリトライ間隔(ms)。
+     */
+    private final int retryInterval;
+
+    /**
+     * 問い合わせごとの処理を同時に実行する数。
+     */
+    private final int dispatchThreads;
+
+    /**
+     * 送信待ちフォルダから同時に書き込む数。
+     */
+    private final int outboxThreads;
+
+    /**
+     * WAVファイルの保存先フォルダ。
+     */
+    private final String audioPath;
+
+    /**
+     * GetMediaのペイロードの保存先フォルダ、空の場合は保存しません。
+     */
+    private final String capturePath;
+
+    /**
+     * ペイロードを保存する問い合わせIDまたはストリーム名、空の場合は全ての問い合わせ。
+     */
+    private final Set<String> captureContacts;
+
+    /**
+     * ペイロードを保存する問い合わせの割合(0～1)。
+     */
+    private final double captureSampleRate;
+
+    /**
+     * 録音の遅延の警告の閾値(ms)。
+     */
+    private final long lagAlarmThreshold;
+
+    /**
+     * トーンの検出の閾値、検出しない場合は{@code null}。
+     */
+    private final ToneDetector.Thresholds toneThresholds;
+
+    /**
+     * 録音の音量の調整の設定、調整しない場合は{@code null}。
+     */
+    private final AutomaticGainControl.Parameters gainParameters;
+
+    /**
+     * 録音の区間ごとのハッシュを計算する長さ(ms)。
+     */
+    private final long segmentHashMillis;
+
+    /**
+     * 周波数スペクトルの1秒あたりの表示回数の上限、0の場合は制限しません。
+     */
+    private final int spectrumFrameRate;
+
+    /**
+     * 全ての問い合わせで録音中の音声のバイト数の上限。
+     */
+    private final long bufferLimit;
+
+    /**
+     * 処理待ちの作業の数の上限。
+     */
+    private final int maxPendingWork;
+
+    /**
+     * コンストラクタ。
+     * @param settings 設定
+     */
+    private RuntimeSettings(final Properties settings) {
+        getRecordsInterval = Integer.parseInt(getRequiredProperty(settings, "getrecordsinterval"));
+        if (getRecordsInterval <= 0) {
+            throw new IllegalArgumentException("getrecordsinterval must be positive number.");
+        }
+
+        maxRetryCount = Integer.parseInt(getRequiredProperty(settings, "maxretrycount"));
+        if (maxRetryCount < 0) {
+            throw new IllegalArgumentException("maxretrycount can't set negative number.");
+        }
+
+        retryInterval = Integer.parseInt(getRequiredProperty(settings, "retryinterval"));
+        if (retryInterval < 0) {
+            throw new IllegalArgumentException("retryinterval can't set negative number.");
+        }
+
+        dispatchThreads = Integer.parseInt(settings.getProperty("dispatchthreads", "100"));
+        if (dispatchThreads <= 0) {
+            throw new IllegalArgumentException("dispatchthreads must be positive number.");
+        }
+
+        outboxThreads = Integer.parseInt(settings.getProperty("outboxthreads", "2"));
+        if (outboxThreads <= 0) {
+            throw new IllegalArgumentException("outboxthreads must be positive number.");
+        }
+
+        // アーカイブに保存する場合は、WAVファイルの保存先を使いません。
+        audioPath = settings.getProperty("audiopath", "");
+        if (audioPath.isEmpty() && settings.getProperty("archivepath", "").isEmpty()) {
+            throw new IllegalArgumentException("audiopath can't set null or empty.");
+        }
+
+        capturePath = settings.getProperty("capturepath", "");
+        final Set<String> contacts = new HashSet<>();
+        for (String contact : settings.getProperty("capturecontacts", "").split(",")) {
+            if (!contact.trim().isEmpty()) {
+                contacts.add(contact.trim());
+            }
+        }
+
+        captureContacts = Collections.unmodifiableSet(contacts);
+        captureSampleRate = Double.parseDouble(settings.getProperty("capturesamplerate", "1"));
+        if (!(captureSampleRate >= 0 && captureSampleRate <= 1)) {
+            throw new IllegalArgumentException("capturesamplerate must be between 0 and 1.");
+        }
+
+        lagAlarmThreshold = Long.parseLong(settings.getProperty("lagalarmthreshold", "0"));
+        toneThresholds = Boolean.parseBoolean(settings.getProperty("tonedetection", "true"))
+                ? ToneDetector.Thresholds.fromSettings(settings) : null;
+        gainParameters = Boolean.parseBoolean(settings.getProperty("agc", "false"))
+                ? AutomaticGainControl.Parameters.fromSettings(settings) : null;
+
+        segmentHashMillis = Long.parseLong(settings.getProperty("segmenthashmillis", "0"));
+        if (segmentHashMillis < 0) {
+            throw new IllegalArgumentException("segmenthashmillis can't set negative number.");
+        }
+
+        spectrumFrameRate = Integer.parseInt(settings.getProperty("spectrumframerate", "0"));
+        if (spectrumFrameRate < 0) {
+            throw new IllegalArgumentException("spectrumframerate can't set negative number.");
+        }
+
+        bufferLimit = Long.parseLong(settings.getProperty("bufferlimit", "0"));
+        if (bufferLimit < 0) {
+            throw new IllegalArgumentException("bufferlimit can't set negative number.");
+        }
+
+        maxPendingWork = Integer.parseInt(settings.getProperty("maxpendingwork", "1000"));
+        if (maxPendingWork <= 0) {
+            throw new IllegalArgumentException("maxpendingwork must be positive number.");
+        }
+    }
+
+    /**
+     * 設定から生成します。
+     * @param settings 設定
+     * @return 録音を止めずに変更できる設定
+     * @throws IllegalArgumentException 設定の値が正しくない場合
+     */
+    public static RuntimeSettings fromSettings(final Properties settings) {
+        if (settings == null) {
+            throw new IllegalArgumentException("settings can't set null.");
+        }
+
+        return new RuntimeSettings(settings);
+    }
+
+    /**
+     * 必須の設定の値を取得します。
+     * @param settings 設定
+     * @param key キー
+     * @return 値
+     */
+    private static String getRequiredProperty(final Properties settings, final String key) {
+        final String value = settings.getProperty(key);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException(key + " can't set null or empty.");
+        }
+
+        return value;
+    }
+
+    /**
+     * GetRecordsの実行間隔を取得します。
+     * @return GetRecordsの実行間隔(ms)
+     */
+    public int getGetRecordsInterval() {
+        return getRecordsInterval;
+    }
+
+    /**
+     * AWSリクエストの最大リトライ数を取得します。
+     * @return AWSリクエストの最大リトライ数
+     */
+    public int getMaxRetryCount() {
+        return maxRetryCount;
+    }
+
+    /**
+     * AWSリクエストのリトライ間隔を取得します。
+     * @return AWSリクエストのリトライ間隔(ms)
+     */
+    public int getRetryInterval() {
+        return retryInterval;
+    }
+
+    /**
+     * 問い合わせごとの処理を同時に実行する数を取得します。
+     * @return 問い合わせごとの処理を同時に実行する数
+     */
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    /**
+     * 送信待ちフォルダから同時に書き込む数を取得します。
+     * @return 送信待ちフォルダから同時に書き込む数
+     */
+    public int getOutboxThreads() {
+        return outboxThreads;
+    }
+
+    /**
+     * WAVファイルの保存先フォルダを取得します。
+     * @return WAVファイルの保存先フォルダ、アーカイブに保存する場合は空の場合があります
+     */
+    public String getAudioPath() {
+        return audioPath;
+    }
+
+    /**
+     * GetMediaのペイロードの保存先フォルダを取得します。
+     * @return GetMediaのペイロードの保存先フォルダ、空の場合は保存しません
+     */
+    public String getCapturePath() {
+        return capturePath;
+    }
+
+    /**
+     * 問い合わせのペイロードを保存するかどうかを判定します。
+     * 保存する問い合わせIDまたはストリーム名の一覧("capturecontacts")に含まれ、保存する割合("capturesamplerate")で
+     * 選ばれた問い合わせを保存します。割合は問い合わせID(ない場合はストリーム名)のハッシュで選ぶので、
+     * 他のインスタンスに引き継がれても同じ問い合わせを選びます。
+     * @param videoStreamData ストリーム情報
+     * @return 保存する場合は{@code true}、保存先フォルダが空の場合は常に{@code false}
+     */
+    public boolean shouldCapture(final VideoStreamData videoStreamData) {
+        if (videoStreamData == null) {
+            throw new IllegalArgumentException("videoStreamData can't set null.");
+        }
+
+        if (capturePath.isEmpty()) {
+            return false;
+        }
+
+        final String contactId = videoStreamData.getContactId();
+        final String streamName = videoStreamData.getStreamName();
+        if (!captureContacts.isEmpty()
+                && !captureContacts.contains(contactId) && !captureContacts.contains(streamName)) {
+            return false;
+        }
+
+        final String key = contactId != null ? contactId : streamName;
+        return Math.floorMod(key.hashCode(), 10000) < Math.round(captureSampleRate * 10000);
+    }
+
+    /**
+     * 録音の遅延の警告の閾値を取得します。
+     * @return 録音の遅延の警告の閾値(ms)、0以下の場合は警告しません
+     */
+    public long getLagAlarmThreshold() {
+        return lagAlarmThreshold;
+    }
+
+    /**
+     * トーンの検出の閾値を取得します。
+     * @return トーンの検出の閾値、検出しない場合は{@code null}
+     */
+    public ToneDetector.Thresholds getToneThresholds() {
+        return toneThresholds;
+    }
+
+    /**
+     * 録音の音量の調整の設定を取得します。
+     * @return 録音の音量の調整の設定、調整しない場合は{@code null}
+     */
+    public AutomaticGainControl.Parameters getGainParameters() {
+        return gainParameters;
+    }
+
+    /**
+     * 録音の区間ごとのハッシュを計算する長さを取得します。
+     * @return 録音の区間ごとのハッシュを計算する長さ(ms)、0の場合は計算しません
+     */
+    public long getSegmentHashMillis() {
+        return segmentHashMillis;
+    }
+
+    /**
+     * 周波数スペクトルの1秒あたりの表示回数の上限を取得します。
+     * @return 周波数スペクトルの1秒あたりの表示回数の上限、0の場合は制限しません
+     */
+    public int getSpectrumFrameRate() {
+        return spectrumFrameRate;
+    }
+
+    /**
+     * 全ての問い合わせで録音中の音声のバイト数の上限を取得します。
+     * @return 録音中の音声のバイト数の上限、0の場合は最大ヒープサイズの半分
+     */
+    public long getBufferLimit() {
+        return bufferLimit;
+    }
+
+    /**
+     * 処理待ちの作業の数の上限を取得します。
+     * @return 処理待ちの作業の数の上限
+     */
+    public int getMaxPendingWork() {
+        return maxPendingWork;
+    }
+}
@@ -0,0 +1,222 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 設定ファイルの変更を監視し、録音を止めずに変更できる設定を反映します。
+ * <p>
+ * 一定間隔で設定ファイルの更新日時とサイズを確認し、変わっていれば読み込み直します。
+ * 読み込んだ設定は全て検証してから1つのインスタンスとして差し替えるので、
+ * 値が正しくない場合や書きかけの場合は何も反映せず、一部の値だけが変わった状態にはなりません。
+ * 録音を止めずに変更できない設定が変わった場合は、再起動するまで反映されないことを出力します。
+ * @author Bladean Mericle
+ */
+public class SettingsWatcher implements AutoCloseable {
+
+    /**
+     * 反映した回数。
+     */
+    private static final Counter APPLIED = MetricsRegistry.getDefault().counter(
+            "settings_reloads_total", "Number of settings reloads.", "result", "applied");
+
+    /**
+     * 正しくないため反映しなかった回数。
+     */
+    private static final Counter REJECTED = MetricsRegistry.getDefault().counter(
+            "settings_reloads_total", "Number of settings reloads.", "result", "rejected");
+
+    /**
+     * 設定ファイル。
+     */
+    private final File file;
+
+    /**
+     * 現在の設定。
+     */
+    private final AtomicReference<RuntimeSettings> current;
+
+    /**
+     * 設定を変更した時に呼ぶ処理。
+     */
+    private final List<Consumer<RuntimeSettings>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 最後に読み込んだ設定。
+     */
+    private Properties lastSettings;
+
+    /**
+     * 最後に読み込んだ設定ファイルの更新日時。
+     */
+    private long lastModified;
+
+    /**
+     * 最後に読み込んだ設定ファイルのサイズ。
+     */
+    private long lastLength;
+
+    /**
+     * 監視するスレッド、監視していない場合は{@code null}。
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * コンストラクタ。
+     * @param path 設定ファイルのパス
+     * @param settings 起動時に読み込んだ設定
+     * @throws IllegalArgumentException 設定の値が正しくない場合
+     */
+    public SettingsWatcher(final String path, final Properties settings) {
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("path can't set null or empty.");
+        }
+
+        this.file = new File(path);
+        this.current = new AtomicReference<>(RuntimeSettings.fromSettings(settings));
+        this.lastSettings = settings;
+        this.lastModified = file.lastModified();
+        this.lastLength = file.length();
+    }
+
+    /**
+     * 現在の設定を取得します。
+     * @return 現在の設定
+     */
+    public RuntimeSettings get() {
+        return current.get();
+    }
+
+    /**
+     * 設定を変更した時に呼ぶ処理を追加します。処理は監視するスレッドで呼ばれます。
+     * @param listener 変更した後の設定を受け取る処理
+     */
+    public void addListener(final Consumer<RuntimeSettings> listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can't set null.");
+        }
+
+        listeners.add(listener);
+    }
+
+    /**
+     * 設定ファイルの監視を開始します。
+     * @param interval 確認する間隔(ms)
+     */
+    public synchronized void start(final long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive number.");
+        }
+
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "settings-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 設定ファイルが変わっていれば読み込み直します。
+     */
+    private void poll() {
+        try {
+            if (file.lastModified() != lastModified || file.length() != lastLength) {
+                reload();
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 設定ファイルを読み込み直し、正しければ反映します。
+     * @return 反映した場合は{@code true}
+     */
+    public synchronized boolean reload() {
+        lastModified = file.lastModified();
+        lastLength = file.length();
+        final Properties settings = App.getSettings(file.getPath());
+        if (settings == null) {
+            REJECTED.increment();
+            System.err.printf("設定ファイルを読み込めないため、変更を反映しません。(%s)\n", file.getPath());
+            return false;
+        }
+
+        final RuntimeSettings next;
+        try {
+            next = RuntimeSettings.fromSettings(settings);
+        } catch (IllegalArgumentException e) {
+            REJECTED.increment();
+            System.err.printf("設定が正しくないため、変更を反映しません。(%s)\n", e.getMessage());
+            return false;
+        }
+
+        final Set<String> liveKeys = new TreeSet<>();
+        final Set<String> restartKeys = new TreeSet<>();
+        for (String key : getChangedKeys(lastSettings, settings)) {
+            (RuntimeSettings.LIVE_KEYS.contains(key) ? liveKeys : restartKeys).add(key);
+        }
+
+        lastSettings = settings;
+        if (!restartKeys.isEmpty()) {
+            System.err.printf("次の設定は再起動するまで反映されません。(%s)\n", String.join(", ", restartKeys));
+        }
+
+        if (liveKeys.isEmpty()) {
+            return false;
+        }
+
+        current.set(next);
+        APPLIED.increment();
+        System.out.printf("設定を変更しました。(%s)\n", String.join(", ", liveKeys));
+        for (Consumer<RuntimeSettings> listener : listeners) {
+            try {
+                listener.accept(next);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 値が変わった設定のキーを取得します。
+     * @param before 変更前の設定
+     * @param after 変更後の設定
+     * @return 値が変わった設定のキー
+     */
+    private static Set<String> getChangedKeys(final Properties before, final Properties after) {
+        final Set<String> keys = new HashSet<>(before.stringPropertyNames());
+        keys.addAll(after.stringPropertyNames());
+        keys.removeIf(key -> Objects.equals(before.getProperty(key), after.getProperty(key)));
+        return keys;
+    }
+
+    /**
+     * 設定ファイルの監視を終了します。
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+/**
+ * 周波数スペクトルのビンを描画幅の帯域に集約します。
+ * ビンと帯域の対応は構築時に一度だけ計算するので、集約のコストは帯域数(描画幅)にのみ依存します。
+ * @author Bladean Mericle
+ */
+public class SpectrumBands {
+
+    /**
+     * 帯域の分割方法です。
+     */
+    public enum Scale {
+        /**
+         * 対数スケール。
+         */
+        LOG,
+
+        /**
+         * メルスケール。
+         */
+        MEL;
+
+        /**
+         * 名前から分割方法を取得します。
+         * @param name 名前
+         * @param defaultScale 名前が不正な場合の分割方法
+         * @return 分割方法
+         */
+        public static Scale fromName(final String name, final Scale defaultScale) {
+            if (name == null || name.isEmpty()) {
+                return defaultScale;
+            }
+
+            for (Scale scale : values()) {
+                if (scale.name().equalsIgnoreCase(name.trim())) {
+                    return scale;
+                }
+            }
+
+            return defaultScale;
+        }
+    }
+
+    /**
+     * 最低周波数(Hz)。
+     */
+    private static final double MIN_FREQUENCY = 50.0;
+
+    /**
+     * 無音とみなす振幅の下限。dBに変換する際の負の無限大を避けるために使います。
+     */
+    private static final double MIN_MAGNITUDE = 1.0e-9;
+
+    /**
+     * 分割方法。
+     */
+    private final Scale scale;
+
+    /**
+     * ビンの数。
+     */
+    private final int binCount;
+
+    /**
+     * 帯域ごとの開始ビン(含む)。
+     */
+    private final int[] bandStarts;
+
+    /**
+     * 帯域ごとの終了ビン(含まない)。
+     */
+    private final int[] bandEnds;
+
+    /**
+     * コンストラクタ。
+     * @param scale 分割方法
+     * @param bandCount 帯域の数
+     * @param binCount ビンの数
+     * @param sampleRate サンプリング周波数(Hz)
+     */
+    public SpectrumBands(
+            final Scale scale,
+            final int bandCount,
+            final int binCount,
+            final int sampleRate) {
+        if (scale == null) {
+            throw new IllegalArgumentException("scale can't set null.");
+        }
+
+        if (bandCount <= 0) {
+            throw new IllegalArgumentException("bandCount must be positive number.");
+        }
+
+        if (binCount <= 0) {
+            throw new IllegalArgumentException("binCount must be positive number.");
+        }
+
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be positive number.");
+        }
+
+        this.scale = scale;
+        this.binCount = binCount;
+        this.bandStarts = new int[bandCount];
+        this.bandEnds = new int[bandCount];
+
+        // ビン1つ分の周波数幅です。ビンは0Hzからナイキスト周波数までを均等に分割しています。
+        final double maxFrequency = sampleRate / 2.0;
+        final double binWidth = maxFrequency / binCount;
+        final double minFrequency = Math.min(Math.max(MIN_FREQUENCY, binWidth), maxFrequency);
+        for (int i = 0; i < bandCount; ++i) {
+            final double low = toFrequency((double)i / bandCount, minFrequency, maxFrequency);
+            final double high = toFrequency((double)(i + 1) / bandCount, minFrequency, maxFrequency);
+            final int start = Math.min((int)(low / binWidth), binCount - 1);
+            final int end = Math.min(Math.max((int)(high / binWidth), start + 1), binCount);
+            bandStarts[i] = start;
+            bandEnds[i] = end;
+        }
+    }
+
+    /**
+     * 帯域内の位置を周波数に変換します。
+     * @param position 帯域内の位置(0.0～1.0)
+     * @param minFrequency 最低周波数(Hz)
+     * @param maxFrequency 最高周波数(Hz)
+     * @return 周波数(Hz)
+     */
+    private double toFrequency(final double position, final double minFrequency, final double maxFrequency) {
+        switch (scale) {
+        case MEL:
+            final double minMel = toMel(minFrequency);
+            final double maxMel = toMel(maxFrequency);
+            return fromMel(minMel + (maxMel - minMel) * position);
+        case LOG:
+        default:
+            return minFrequency * Math.pow(maxFrequency / minFrequency, position);
+        }
+    }
+
+    /**
+     * 周波数をメルに変換します。
+     * @param frequency 周波数(Hz)
+     * @return メル
+     */
+    private static double toMel(final double frequency) {
+        return 2595.0 * Math.log10(1.0 + frequency / 700.0);
+    }
+
+    /**
+     * メルを周波数に変換します。
+     * @param mel メル
+     * @return 周波数(Hz)
+     */
+    private static double fromMel(final double mel) {
+        return 700.0 * (Math.pow(10.0, mel / 2595.0) - 1.0);
+    }
+
+    /**
+     * ビンの数が一致するかどうかを取得します。
+     * @param binCount ビンの数
+     * @return ビンの数が一致する場合は{@code true}
+     */
+    public boolean matches(final int binCount) {
+        return this.binCount == binCount;
+    }
+
+    /**
+     * 帯域の数を取得します。
+     * @return 帯域の数
+     */
+    public int getBandCount() {
+        return bandStarts.length;
+    }
+
+    /**
+     * 周波数スペクトルを帯域ごとのdB値に集約します。
+     * 帯域内のビンの最大振幅を、その帯域の値とします。
+     * @param spectrum 周波数スペクトルのデータ(振幅)
+     * @param bands 帯域ごとのdB値の格納先
+     */
+    public void aggregate(final double[] spectrum, final double[] bands) {
+        if (spectrum == null || spectrum.length != binCount) {
+            throw new IllegalArgumentException("spectrum length must be equal to binCount.");
+        }
+
+        if (bands == null || bands.length != bandStarts.length) {
+            throw new IllegalArgumentException("bands length must be equal to bandCount.");
+        }
+
+        for (int i = 0; i < bandStarts.length; ++i) {
+            double max = MIN_MAGNITUDE;
+            for (int j = bandStarts[i]; j < bandEnds[i]; ++j) {
+                if (spectrum[j] > max) {
+                    max = spectrum[j];
+                }
+            }
+
+            bands[i] = 20.0 * Math.log10(max);
+        }
+    }
+}
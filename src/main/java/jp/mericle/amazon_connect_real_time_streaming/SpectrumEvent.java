@@ -0,0 +1,34 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * 周波数スペクトルの計算(FFTと帯域への集約)を表すJFRイベントです。
+ * @author Bladean Mericle
+ */
+@Name("jp.mericle.amazon_connect_real_time_streaming.Spectrum")
+@Label("Spectrum")
+@Category({"Amazon Connect Real Time Streaming", "Analysis"})
+@Description("FFT and band aggregation of one frame for the spectrum display.")
+@StackTrace(false)
+public class SpectrumEvent extends Event {
+
+    /**
+     * Kinesis Video Streamsのストリーム名。
+     */
+    @Label("Stream Name")
+    String streamName;
+
+    /**
+     * 音声データのバイト数。
+     */
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
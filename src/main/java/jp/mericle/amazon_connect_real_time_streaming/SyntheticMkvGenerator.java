@@ -0,0 +1,493 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Amazon ConnectのライブメディアストリーミングをGetMediaで取得した時と同じ構成のMKVストリームを生成します。
+ * フラグメントごとにEBMLヘッダー、セグメント(長さ不定)、トラック情報、フラグメントのタグ、クラスターを出力します。
+ * 音声は2トラック("AUDIO_FROM_CUSTOMER"と"AUDIO_TO_CUSTOMER")の8kHz、16bit、モノラルのPCMで、
+ * 話している区間と黙っている区間を交互に繰り返します。
+ * @author Bladean Mericle
+ */
+public class SyntheticMkvGenerator {
+
+    /**
+     * お客様側のトラック名。
+     */
+    private static final String CUSTOMER_TRACK_NAME = "AUDIO_FROM_CUSTOMER";
+
+    /**
+     * オペレーター側のトラック名。
+     */
+    private static final String OPERATOR_TRACK_NAME = "AUDIO_TO_CUSTOMER";
+
+    /**
+     * お客様側のトラック番号。
+     */
+    private static final int CUSTOMER_TRACK_NUMBER = 1;
+
+    /**
+     * オペレーター側のトラック番号。
+     */
+    private static final int OPERATOR_TRACK_NUMBER = 2;
+
+    /**
+     * サンプリング周波数(Hz)。
+     */
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * プロデューサーからサーバーまでの遅延(ms)。
+     */
+    private static final int INGEST_DELAY = 40;
+
+    /**
+     * 長さ不定を表すサイズ。
+     */
+    private static final long UNKNOWN_SIZE = -1;
+
+    /**
+     * 通話の長さ(ms)。
+     */
+    private final long callMillis;
+
+    /**
+     * フラグメントの長さ(ms)。
+     */
+    private final int fragmentMillis;
+
+    /**
+     * フレームの長さ(ms)。
+     */
+    private final int frameMillis;
+
+    /**
+     * コンストラクタ。
+     * @param callMillis 通話の長さ(ms)
+     * @param fragmentMillis フラグメントの長さ(ms)
+     * @param frameMillis フレームの長さ(ms)
+     */
+    public SyntheticMkvGenerator(final long callMillis, final int fragmentMillis, final int frameMillis) {
+        if (callMillis <= 0) {
+            throw new IllegalArgumentException("callMillis must be positive number.");
+        }
+
+        if (fragmentMillis <= 0 || fragmentMillis > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("fragmentMillis must be between 1 and 32767.");
+        }
+
+        if (frameMillis <= 0 || frameMillis > fragmentMillis) {
+            throw new IllegalArgumentException("frameMillis must be between 1 and fragmentMillis.");
+        }
+
+        this.callMillis = callMillis;
+        this.fragmentMillis = fragmentMillis;
+        this.frameMillis = frameMillis;
+    }
+
+    /**
+     * 1トラック分の音声のバイト数を取得します。
+     * @return 1トラック分の音声のバイト数
+     */
+    public long getAudioBytesPerTrack() {
+        final long fragmentCount = (callMillis + fragmentMillis - 1) / fragmentMillis;
+        return fragmentCount * (fragmentMillis / frameMillis) * frameMillis * SAMPLE_RATE / 1000 * 2;
+    }
+
+    /**
+     * 1トラック分のフレーム数を取得します。
+     * @return 1トラック分のフレーム数
+     */
+    public long getFramesPerTrack() {
+        final long fragmentCount = (callMillis + fragmentMillis - 1) / fragmentMillis;
+        return fragmentCount * (fragmentMillis / frameMillis);
+    }
+
+    /**
+     * MKVストリームを生成します。
+     * @param contactId 問い合わせID
+     * @param startTimestamp 開始時のタイムスタンプ(エポックミリ秒)
+     * @return MKVストリーム
+     */
+    public byte[] generate(final String contactId, final long startTimestamp) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try {
+            write(outputStream, contactId, startTimestamp);
+        } catch (IOException e) {
+            // ByteArrayOutputStreamでは発生しません。
+            throw new IllegalStateException(e);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * MKVストリームを書き込みます。
+     * @param outputStream 出力ストリーム
+     * @param contactId 問い合わせID
+     * @param startTimestamp 開始時のタイムスタンプ(エポックミリ秒)
+     * @throws IOException 書き込みエラー
+     */
+    public void write(
+            final OutputStream outputStream,
+            final String contactId,
+            final long startTimestamp) throws IOException {
+        if (outputStream == null) {
+            throw new IllegalArgumentException("outputStream can't set null.");
+        }
+
+        if (contactId == null || contactId.isEmpty()) {
+            throw new IllegalArgumentException("contactId can't set null or empty.");
+        }
+
+        final Random random = new Random(contactId.hashCode());
+        final VoiceSource customerVoice = new VoiceSource(random, 180.0, 0);
+        final VoiceSource operatorVoice = new VoiceSource(random, 240.0, 2500);
+        final int samplesPerFrame = frameMillis * SAMPLE_RATE / 1000;
+        final byte[] customerFrame = new byte[samplesPerFrame * 2];
+        final byte[] operatorFrame = new byte[samplesPerFrame * 2];
+        final String fragmentNumberPrefix = "9134385233318143239268206262222059076519";
+
+        long fragmentIndex = 0;
+        for (long offset = 0; offset < callMillis; offset += fragmentMillis, ++fragmentIndex) {
+            final long producerTimestamp = startTimestamp + offset;
+            final long serverTimestamp = producerTimestamp + INGEST_DELAY + random.nextInt(INGEST_DELAY);
+
+            final Ebml fragment = new Ebml();
+            fragment.master(0x1A45DFA3, writeEbmlHeader());
+
+            final Ebml segment = new Ebml();
+            segment.master(0x1549A966, writeInfo());
+            segment.master(0x1654AE6B, writeTracks());
+            segment.master(0x1254C367, writeTags(
+                    "AWS_KINESISVIDEO_FRAGMENT_NUMBER", String.format("%s%07d", fragmentNumberPrefix, fragmentIndex),
+                    "AWS_KINESISVIDEO_SERVER_TIMESTAMP", toSeconds(serverTimestamp),
+                    "AWS_KINESISVIDEO_PRODUCER_TIMESTAMP", toSeconds(producerTimestamp),
+                    "ContactId", contactId));
+
+            final Ebml cluster = new Ebml();
+            cluster.uint(0xE7, producerTimestamp);
+            for (int frameOffset = 0; frameOffset + frameMillis <= fragmentMillis; frameOffset += frameMillis) {
+                customerVoice.fill(customerFrame, offset + frameOffset);
+                operatorVoice.fill(operatorFrame, offset + frameOffset);
+                cluster.bytes(0xA3, writeSimpleBlock(CUSTOMER_TRACK_NUMBER, frameOffset, customerFrame));
+                cluster.bytes(0xA3, writeSimpleBlock(OPERATOR_TRACK_NUMBER, frameOffset, operatorFrame));
+            }
+
+            segment.master(0x1F43B675, cluster);
+            segment.master(0x1254C367, writeTags(
+                    "AWS_KINESISVIDEO_MILLIS_BEHIND_NOW", "0"));
+            fragment.unknownSizeMaster(0x18538067, segment);
+            fragment.writeTo(outputStream);
+        }
+    }
+
+    /**
+     * EBMLヘッダーを生成します。
+     * @return EBMLヘッダーの中身
+     */
+    private static Ebml writeEbmlHeader() {
+        final Ebml header = new Ebml();
+        header.uint(0x4286, 1); // EBMLVersion
+        header.uint(0x42F7, 1); // EBMLReadVersion
+        header.uint(0x42F2, 4); // EBMLMaxIDLength
+        header.uint(0x42F3, 8); // EBMLMaxSizeLength
+        header.string(0x4282, "matroska"); // DocType
+        header.uint(0x4287, 2); // DocTypeVersion
+        header.uint(0x4285, 2); // DocTypeReadVersion
+        return header;
+    }
+
+    /**
+     * セグメント情報を生成します。
+     * @return セグメント情報の中身
+     */
+    private static Ebml writeInfo() {
+        final Ebml info = new Ebml();
+        info.uint(0x2AD7B1, 1000000); // TimecodeScale(1ms)
+        info.string(0x4D80, "SyntheticMkvGenerator"); // MuxingApp
+        info.string(0x5741, "SyntheticMkvGenerator"); // WritingApp
+        return info;
+    }
+
+    /**
+     * トラック情報を生成します。
+     * @return トラック情報の中身
+     */
+    private static Ebml writeTracks() {
+        final Ebml tracks = new Ebml();
+        tracks.master(0xAE, writeTrackEntry(CUSTOMER_TRACK_NUMBER, CUSTOMER_TRACK_NAME));
+        tracks.master(0xAE, writeTrackEntry(OPERATOR_TRACK_NUMBER, OPERATOR_TRACK_NAME));
+        return tracks;
+    }
+
+    /**
+     * トラックを生成します。
+     * @param trackNumber トラック番号
+     * @param trackName トラック名
+     * @return トラックの中身
+     */
+    private static Ebml writeTrackEntry(final int trackNumber, final String trackName) {
+        final Ebml audio = new Ebml();
+        audio.float64(0xB5, SAMPLE_RATE); // SamplingFrequency
+        audio.uint(0x9F, 1); // Channels
+        audio.uint(0x6264, 16); // BitDepth
+
+        final Ebml trackEntry = new Ebml();
+        trackEntry.uint(0xD7, trackNumber); // TrackNumber
+        trackEntry.uint(0x73C5, trackNumber); // TrackUID
+        trackEntry.uint(0x83, 2); // TrackType(音声)
+        trackEntry.string(0x536E, trackName); // Name
+        trackEntry.string(0x86, "A_PCM/INT/LIT"); // CodecID
+        trackEntry.master(0xE1, audio);
+        return trackEntry;
+    }
+
+    /**
+     * タグを生成します。
+     * @param nameValues タグ名と値(交互に指定します)
+     * @return タグの中身
+     */
+    private static Ebml writeTags(final String... nameValues) {
+        final Ebml tag = new Ebml();
+        tag.master(0x63C0, new Ebml()); // Targets
+        for (int i = 0; i < nameValues.length; i += 2) {
+            final Ebml simpleTag = new Ebml();
+            simpleTag.string(0x45A3, nameValues[i]); // TagName
+            simpleTag.string(0x4487, nameValues[i + 1]); // TagString
+            tag.master(0x67C8, simpleTag);
+        }
+
+        final Ebml tags = new Ebml();
+        tags.master(0x7373, tag);
+        return tags;
+    }
+
+    /**
+     * SimpleBlockを生成します。
+     * @param trackNumber トラック番号
+     * @param timecode クラスターからの相対時刻(ms)
+     * @param data フレームのデータ
+     * @return SimpleBlockの中身
+     */
+    private static byte[] writeSimpleBlock(final int trackNumber, final int timecode, final byte[] data) {
+        final byte[] block = new byte[4 + data.length];
+        block[0] = (byte)(0x80 | trackNumber);
+        block[1] = (byte)(timecode >> 8);
+        block[2] = (byte)timecode;
+        block[3] = (byte)0x80; // キーフレーム
+        System.arraycopy(data, 0, block, 4, data.length);
+        return block;
+    }
+
+    /**
+     * エポックミリ秒をKinesis Video Streamsのタグの書式(秒.ミリ秒)に変換します。
+     * @param millis エポックミリ秒
+     * @return タグの値
+     */
+    private static String toSeconds(final long millis) {
+        return String.format("%d.%03d", millis / 1000, millis % 1000);
+    }
+
+    /**
+     * 話している区間と黙っている区間を交互に繰り返す音声の生成元です。
+     */
+    private static class VoiceSource {
+
+        /**
+         * 話している区間の長さ(ms)。
+         */
+        private static final long TALK_MILLIS = 3000;
+
+        /**
+         * 黙っている区間の長さ(ms)。
+         */
+        private static final long PAUSE_MILLIS = 2000;
+
+        /**
+         * 乱数。
+         */
+        private final Random random;
+
+        /**
+         * 基本周波数(Hz)。
+         */
+        private final double pitch;
+
+        /**
+         * 区間の開始位置のずれ(ms)。
+         */
+        private final long phaseOffset;
+
+        /**
+         * コンストラクタ。
+         * @param random 乱数
+         * @param pitch 基本周波数(Hz)
+         * @param phaseOffset 区間の開始位置のずれ(ms)
+         */
+        private VoiceSource(final Random random, final double pitch, final long phaseOffset) {
+            this.random = random;
+            this.pitch = pitch;
+            this.phaseOffset = phaseOffset;
+        }
+
+        /**
+         * フレームの音声を生成します。
+         * @param frame 格納先(16bitリトルエンディアン)
+         * @param offsetMillis 通話開始からの時刻(ms)
+         */
+        private void fill(final byte[] frame, final long offsetMillis) {
+            final boolean talking = (offsetMillis + phaseOffset) % (TALK_MILLIS + PAUSE_MILLIS) < TALK_MILLIS;
+            final long firstSample = offsetMillis * SAMPLE_RATE / 1000;
+            for (int i = 0; i < frame.length / 2; ++i) {
+                final double t = (double)(firstSample + i) / SAMPLE_RATE;
+                double value = random.nextGaussian() * 60.0;
+                if (talking) {
+                    value += 4000.0 * Math.sin(2.0 * Math.PI * pitch * t)
+                            + 2000.0 * Math.sin(2.0 * Math.PI * pitch * 2.0 * t)
+                            + 1000.0 * Math.sin(2.0 * Math.PI * pitch * 3.0 * t);
+                }
+
+                final short sample = (short)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+                frame[2 * i] = (byte)sample;
+                frame[2 * i + 1] = (byte)(sample >> 8);
+            }
+        }
+    }
+
+    /**
+     * EBML要素を組み立てます。
+     */
+    private static class Ebml {
+
+        /**
+         * 組み立て中の要素。
+         */
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        /**
+         * 符号なし整数の要素を追加します。
+         * @param id 要素ID
+         * @param value 値
+         */
+        private void uint(final int id, final long value) {
+            int length = 1;
+            while (length < 8 && (value >>> (length * 8)) != 0) {
+                ++length;
+            }
+
+            final byte[] data = new byte[length];
+            for (int i = 0; i < length; ++i) {
+                data[i] = (byte)(value >>> ((length - 1 - i) * 8));
+            }
+
+            bytes(id, data);
+        }
+
+        /**
+         * 浮動小数点数の要素を追加します。
+         * @param id 要素ID
+         * @param value 値
+         */
+        private void float64(final int id, final double value) {
+            final long bits = Double.doubleToLongBits(value);
+            final byte[] data = new byte[8];
+            for (int i = 0; i < 8; ++i) {
+                data[i] = (byte)(bits >>> ((7 - i) * 8));
+            }
+
+            bytes(id, data);
+        }
+
+        /**
+         * 文字列の要素を追加します。
+         * @param id 要素ID
+         * @param value 値
+         */
+        private void string(final int id, final String value) {
+            bytes(id, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * マスター要素を追加します。
+         * @param id 要素ID
+         * @param child 子要素
+         */
+        private void master(final int id, final Ebml child) {
+            bytes(id, child.buffer.toByteArray());
+        }
+
+        /**
+         * 長さ不定のマスター要素を追加します。
+         * @param id 要素ID
+         * @param child 子要素
+         */
+        private void unknownSizeMaster(final int id, final Ebml child) {
+            writeId(id);
+            writeSize(UNKNOWN_SIZE);
+            buffer.write(child.buffer.toByteArray(), 0, child.buffer.size());
+        }
+
+        /**
+         * バイナリの要素を追加します。
+         * @param id 要素ID
+         * @param data 値
+         */
+        private void bytes(final int id, final byte[] data) {
+            writeId(id);
+            writeSize(data.length);
+            buffer.write(data, 0, data.length);
+        }
+
+        /**
+         * 要素IDを書き込みます。要素IDは長さの印を含んだ値をそのまま書き込みます。
+         * @param id 要素ID
+         */
+        private void writeId(final int id) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                final int value = (id >>> shift) & 0xFF;
+                if (value != 0 || shift == 0 || (id >>> shift) > 0xFF) {
+                    buffer.write(value);
+                }
+            }
+        }
+
+        /**
+         * 要素のサイズを可変長整数で書き込みます。
+         * @param size サイズ、長さ不定の場合は{@link SyntheticMkvGenerator#UNKNOWN_SIZE}
+         */
+        private void writeSize(final long size) {
+            if (size == UNKNOWN_SIZE) {
+                buffer.write(0x01);
+                for (int i = 0; i < 7; ++i) {
+                    buffer.write(0xFF);
+                }
+
+                return;
+            }
+
+            int length = 1;
+            while (length < 8 && size >= (1L << (7 * length)) - 1) {
+                ++length;
+            }
+
+            final long value = size | (1L << (7 * length));
+            for (int i = length - 1; i >= 0; --i) {
+                buffer.write((int)(value >>> (i * 8)) & 0xFF);
+            }
+        }
+
+        /**
+         * 組み立てた要素を書き込みます。
+         * @param outputStream 出力ストリーム
+         * @throws IOException 書き込みエラー
+         */
+        private void writeTo(final OutputStream outputStream) throws IOException {
+            buffer.writeTo(outputStream);
+        }
+    }
+}
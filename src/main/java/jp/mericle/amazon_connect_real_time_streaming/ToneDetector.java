@@ -0,0 +1,543 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Properties;
+
+/**
+ * 1つのトラックの音声から、DTMF、FAX・モデムのトーン、ビープ音を検出します。
+ * <p>
+ * 周波数ごとのGoertzelフィルタを並べ、フレームを受け取るたびに1サンプルずつ更新します。
+ * {@value #BLOCK_SIZE}サンプル(約26ms)ごとに、ブロック全体のエネルギーに対する各周波数のエネルギーの割合を求めて判定します。
+ * 保持するのはフィルタの状態だけなので、メモリは通話の長さによらず一定で、FFTよりも少ない計算量で全ての通話に使えます。
+ * <p>
+ * 音声データは8kHz、16bitリトルエンディアンのPCMとして扱います。
+ * 検出したトーンは、トーンが終わった時点で開始時刻と長さを添えて通知します。
+ * @author Bladean Mericle
+ */
+public class ToneDetector {
+
+    /**
+     * 検出するトーンの種類です。
+     */
+    public enum ToneType {
+
+        /**
+         * DTMF。
+         */
+        DTMF,
+
+        /**
+         * FAXの発呼トーン(CNG、1100Hz)。
+         */
+        FAX_CALLING,
+
+        /**
+         * FAX・モデムの応答トーン(CED、2100Hz)。
+         */
+        FAX_ANSWER,
+
+        /**
+         * ビープ音(1000Hz)。
+         */
+        BEEP
+    }
+
+    /**
+     * 検出したトーンを受け取る処理です。
+     */
+    public interface Listener {
+
+        /**
+         * トーンを検出した時に呼ばれます。
+         * @param detection 検出したトーン
+         */
+        void onTone(Detection detection);
+    }
+
+    /**
+     * 音声のサンプリング周波数(Hz)。
+     */
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * 判定の単位となるサンプル数。DTMFの周波数を区別できる長さです。
+     */
+    static final int BLOCK_SIZE = 205;
+
+    /**
+     * DTMFの低群の周波数(Hz)。
+     */
+    private static final double[] DTMF_ROWS = {697, 770, 852, 941};
+
+    /**
+     * DTMFの高群の周波数(Hz)。
+     */
+    private static final double[] DTMF_COLUMNS = {1209, 1336, 1477, 1633};
+
+    /**
+     * DTMFの低群と高群の組み合わせに対応する文字。
+     */
+    private static final String[] DTMF_KEYS = {"123A", "456B", "789C", "*0#D"};
+
+    /**
+     * 単一のトーンの周波数(Hz)。
+     */
+    private static final double[] TONE_FREQUENCIES = {1100, 2100, 1000};
+
+    /**
+     * 単一のトーンの種類。
+     */
+    private static final ToneType[] TONE_TYPES = {ToneType.FAX_CALLING, ToneType.FAX_ANSWER, ToneType.BEEP};
+
+    /**
+     * DTMFの低群と高群のエネルギーの比の上限(8dB)。
+     */
+    private static final double MAX_TWIST = Math.pow(10.0, 0.8);
+
+    /**
+     * DTMFとして扱う最小のブロック数(約51ms)。
+     */
+    private static final int MIN_DTMF_BLOCKS = 2;
+
+    /**
+     * 検出の閾値。
+     */
+    private final Thresholds thresholds;
+
+    /**
+     * 検出したトーンを受け取る処理。
+     */
+    private final Listener listener;
+
+    /**
+     * 周波数ごとのGoertzelフィルタの係数(DTMFの低群、高群、単一のトーンの順)。
+     */
+    private final double[] coefficients;
+
+    /**
+     * 周波数ごとのGoertzelフィルタの1つ前の状態。
+     */
+    private final double[] previous1;
+
+    /**
+     * 周波数ごとのGoertzelフィルタの2つ前の状態。
+     */
+    private final double[] previous2;
+
+    /**
+     * 周波数ごとのブロック全体に対するエネルギーの割合。
+     */
+    private final double[] ratios;
+
+    /**
+     * 無音として扱うブロックのエネルギーの閾値。
+     */
+    private final double minBlockEnergy;
+
+    /**
+     * 単一のトーンとして扱う最小のブロック数。
+     */
+    private final int minToneBlocks;
+
+    /**
+     * 現在のブロックのサンプル数。
+     */
+    private int blockSamples = 0;
+
+    /**
+     * 現在のブロックのエネルギー。
+     */
+    private double blockEnergy = 0.0;
+
+    /**
+     * 処理したブロック数。
+     */
+    private long blockCount = 0;
+
+    /**
+     * フレームをまたいだサンプルの下位バイト、ない場合は-1。
+     */
+    private int pendingLowByte = -1;
+
+    /**
+     * 検出中のトーンの種類、検出していない場合は{@code null}。
+     */
+    private ToneType currentType;
+
+    /**
+     * 検出中のトーンの値。
+     */
+    private String currentValue;
+
+    /**
+     * 検出中のトーンが始まったブロック。
+     */
+    private long currentStartBlock;
+
+    /**
+     * 検出中のトーンが続いているブロック数。
+     */
+    private int currentBlocks;
+
+    /**
+     * コンストラクタ。
+     * @param thresholds 検出の閾値
+     * @param listener 検出したトーンを受け取る処理
+     */
+    public ToneDetector(final Thresholds thresholds, final Listener listener) {
+        if (thresholds == null) {
+            throw new IllegalArgumentException("thresholds can't set null.");
+        }
+
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can't set null.");
+        }
+
+        this.thresholds = thresholds;
+        this.listener = listener;
+
+        final int filterCount = DTMF_ROWS.length + DTMF_COLUMNS.length + TONE_FREQUENCIES.length;
+        coefficients = new double[filterCount];
+        previous1 = new double[filterCount];
+        previous2 = new double[filterCount];
+        ratios = new double[filterCount];
+        int index = 0;
+        for (double[] frequencies : new double[][] {DTMF_ROWS, DTMF_COLUMNS, TONE_FREQUENCIES}) {
+            for (double frequency : frequencies) {
+                coefficients[index++] = 2.0 * Math.cos(2.0 * Math.PI * frequency / SAMPLE_RATE);
+            }
+        }
+
+        final double minAmplitude = Math.pow(10.0, thresholds.getMinLevel() / 20.0) * Short.MAX_VALUE;
+        minBlockEnergy = minAmplitude * minAmplitude * BLOCK_SIZE / 2.0;
+        minToneBlocks = (int)Math.max(1, Math.ceil(thresholds.getMinToneMillis() * SAMPLE_RATE / 1000.0 / BLOCK_SIZE));
+    }
+
+    /**
+     * 音声データを処理します。
+     * @param data 音声データ
+     */
+    public void process(final byte[] data) {
+        if (data == null) {
+            return;
+        }
+
+        int offset = 0;
+        if (pendingLowByte >= 0 && data.length > 0) {
+            processSample((short)((data[0] << 8) | pendingLowByte));
+            pendingLowByte = -1;
+            offset = 1;
+        }
+
+        for (; offset + 1 < data.length; offset += 2) {
+            processSample((short)((data[offset + 1] << 8) | (data[offset] & 0xFF)));
+        }
+
+        if (offset < data.length) {
+            pendingLowByte = data[offset] & 0xFF;
+        }
+    }
+
+    /**
+     * 通話の終了時に呼び、検出中のトーンを通知します。
+     */
+    public void flush() {
+        endTone();
+    }
+
+    /**
+     * 1サンプルを処理します。
+     * @param sample サンプル
+     */
+    private void processSample(final short sample) {
+        final double x = sample;
+        for (int i = 0; i < coefficients.length; ++i) {
+            final double s = x + coefficients[i] * previous1[i] - previous2[i];
+            previous2[i] = previous1[i];
+            previous1[i] = s;
+        }
+
+        blockEnergy += x * x;
+        if (++blockSamples == BLOCK_SIZE) {
+            evaluateBlock();
+        }
+    }
+
+    /**
+     * ブロックの判定を行い、フィルタをリセットします。
+     */
+    private void evaluateBlock() {
+        ToneType type = null;
+        String value = null;
+        if (blockEnergy >= minBlockEnergy) {
+            // 正弦波のエネルギーが全てその周波数にある場合に1.0になるよう正規化します。
+            final double normalization = blockEnergy * BLOCK_SIZE / 2.0;
+            for (int i = 0; i < coefficients.length; ++i) {
+                final double power = previous1[i] * previous1[i] + previous2[i] * previous2[i]
+                        - coefficients[i] * previous1[i] * previous2[i];
+                ratios[i] = power / normalization;
+            }
+
+            final int row = maxIndex(0, DTMF_ROWS.length);
+            final int column = maxIndex(DTMF_ROWS.length, DTMF_COLUMNS.length);
+            final double rowRatio = ratios[row];
+            final double columnRatio = ratios[DTMF_ROWS.length + column];
+            if (rowRatio + columnRatio >= thresholds.getDtmfRatio()
+                    && rowRatio * MAX_TWIST >= columnRatio
+                    && columnRatio * MAX_TWIST >= rowRatio) {
+                type = ToneType.DTMF;
+                value = String.valueOf(DTMF_KEYS[row].charAt(column));
+            } else {
+                final int toneOffset = DTMF_ROWS.length + DTMF_COLUMNS.length;
+                for (int i = 0; i < TONE_FREQUENCIES.length; ++i) {
+                    if (ratios[toneOffset + i] >= thresholds.getToneRatio()) {
+                        type = TONE_TYPES[i];
+                        value = Integer.toString((int)TONE_FREQUENCIES[i]);
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (type != null && type == currentType && value.equals(currentValue)) {
+            ++currentBlocks;
+        } else {
+            endTone();
+            if (type != null) {
+                currentType = type;
+                currentValue = value;
+                currentStartBlock = blockCount;
+                currentBlocks = 1;
+            }
+        }
+
+        ++blockCount;
+        blockSamples = 0;
+        blockEnergy = 0.0;
+        for (int i = 0; i < coefficients.length; ++i) {
+            previous1[i] = 0.0;
+            previous2[i] = 0.0;
+        }
+    }
+
+    /**
+     * 指定した範囲で、エネルギーの割合が最も大きいフィルタを求めます。
+     * @param offset 範囲の先頭
+     * @param length 範囲の長さ
+     * @return 範囲の先頭からの位置
+     */
+    private int maxIndex(final int offset, final int length) {
+        int index = 0;
+        for (int i = 1; i < length; ++i) {
+            if (ratios[offset + i] > ratios[offset + index]) {
+                index = i;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * 検出中のトーンを終了し、十分な長さがあれば通知します。
+     */
+    private void endTone() {
+        if (currentType == null) {
+            return;
+        }
+
+        final int minBlocks = currentType == ToneType.DTMF ? MIN_DTMF_BLOCKS : minToneBlocks;
+        if (currentBlocks >= minBlocks) {
+            listener.onTone(new Detection(
+                    currentType,
+                    currentValue,
+                    toMillis(currentStartBlock),
+                    toMillis(currentBlocks)));
+        }
+
+        currentType = null;
+        currentValue = null;
+        currentBlocks = 0;
+    }
+
+    /**
+     * ブロック数を時間に変換します。
+     * @param blocks ブロック数
+     * @return 時間(ms)
+     */
+    private static long toMillis(final long blocks) {
+        return blocks * BLOCK_SIZE * 1000 / SAMPLE_RATE;
+    }
+
+    /**
+     * 検出したトーンです。
+     */
+    public static class Detection {
+
+        /**
+         * トーンの種類。
+         */
+        private final ToneType type;
+
+        /**
+         * トーンの値(DTMFの場合は文字、それ以外の場合は周波数)。
+         */
+        private final String value;
+
+        /**
+         * トラックの先頭からの開始時刻(ms)。
+         */
+        private final long startMillis;
+
+        /**
+         * 長さ(ms)。
+         */
+        private final long durationMillis;
+
+        /**
+         * コンストラクタ。
+         * @param type トーンの種類
+         * @param value トーンの値(DTMFの場合は文字、それ以外の場合は周波数)
+         * @param startMillis トラックの先頭からの開始時刻(ms)
+         * @param durationMillis 長さ(ms)
+         */
+        public Detection(final ToneType type, final String value, final long startMillis, final long durationMillis) {
+            this.type = type;
+            this.value = value;
+            this.startMillis = startMillis;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * トーンの種類を取得します。
+         * @return トーンの種類
+         */
+        public ToneType getType() {
+            return type;
+        }
+
+        /**
+         * トーンの値を取得します。
+         * @return トーンの値(DTMFの場合は文字、それ以外の場合は周波数)
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * トラックの先頭からの開始時刻を取得します。
+         * @return 開始時刻(ms)
+         */
+        public long getStartMillis() {
+            return startMillis;
+        }
+
+        /**
+         * 長さを取得します。
+         * @return 長さ(ms)
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+    }
+
+    /**
+     * 検出の閾値です。
+     */
+    public static class Thresholds {
+
+        /**
+         * 標準の閾値。
+         */
+        public static final Thresholds DEFAULT = new Thresholds(-40.0, 0.7, 0.8, 200);
+
+        /**
+         * 判定する最小の音量(dBFS)。
+         */
+        private final double minLevel;
+
+        /**
+         * DTMFとして扱う、低群と高群の周波数のエネルギーの割合の合計。
+         */
+        private final double dtmfRatio;
+
+        /**
+         * 単一のトーンとして扱う、その周波数のエネルギーの割合。
+         */
+        private final double toneRatio;
+
+        /**
+         * 単一のトーンとして扱う最小の長さ(ms)。
+         */
+        private final long minToneMillis;
+
+        /**
+         * コンストラクタ。
+         * @param minLevel 判定する最小の音量(dBFS)
+         * @param dtmfRatio DTMFとして扱う、低群と高群の周波数のエネルギーの割合の合計(0.0～1.0)
+         * @param toneRatio 単一のトーンとして扱う、その周波数のエネルギーの割合(0.0～1.0)
+         * @param minToneMillis 単一のトーンとして扱う最小の長さ(ms)
+         */
+        public Thresholds(final double minLevel, final double dtmfRatio, final double toneRatio, final long minToneMillis) {
+            if (dtmfRatio <= 0.0 || dtmfRatio > 1.0) {
+                throw new IllegalArgumentException("dtmfRatio must be between 0.0 and 1.0.");
+            }
+
+            if (toneRatio <= 0.0 || toneRatio > 1.0) {
+                throw new IllegalArgumentException("toneRatio must be between 0.0 and 1.0.");
+            }
+
+            if (minToneMillis < 0) {
+                throw new IllegalArgumentException("minToneMillis can't set negative number.");
+            }
+
+            this.minLevel = minLevel;
+            this.dtmfRatio = dtmfRatio;
+            this.toneRatio = toneRatio;
+            this.minToneMillis = minToneMillis;
+        }
+
+        /**
+         * 設定から閾値を生成します。
+         * @param settings 設定
+         * @return 閾値
+         */
+        public static Thresholds fromSettings(final Properties settings) {
+            return new Thresholds(
+                    Double.parseDouble(settings.getProperty("toneminlevel", Double.toString(DEFAULT.minLevel))),
+                    Double.parseDouble(settings.getProperty("dtmfratio", Double.toString(DEFAULT.dtmfRatio))),
+                    Double.parseDouble(settings.getProperty("toneratio", Double.toString(DEFAULT.toneRatio))),
+                    Long.parseLong(settings.getProperty("toneminmillis", Long.toString(DEFAULT.minToneMillis))));
+        }
+
+        /**
+         * 判定する最小の音量を取得します。
+         * @return 判定する最小の音量(dBFS)
+         */
+        public double getMinLevel() {
+            return minLevel;
+        }
+
+        /**
+         * DTMFとして扱う、低群と高群の周波数のエネルギーの割合の合計を取得します。
+         * @return エネルギーの割合の合計
+         */
+        public double getDtmfRatio() {
+            return dtmfRatio;
+        }
+
+        /**
+         * 単一のトーンとして扱う、その周波数のエネルギーの割合を取得します。
+         * @return エネルギーの割合
+         */
+        public double getToneRatio() {
+            return toneRatio;
+        }
+
+        /**
+         * 単一のトーンとして扱う最小の長さを取得します。
+         * @return 最小の長さ(ms)
+         */
+        public long getMinToneMillis() {
+            return minToneMillis;
+        }
+    }
+}
@@ -18,6 +18,11 @@ public class VideoStreamData {
      */
     private final Date startTimestamp;
 
+    /**
+     * 問い合わせID、不明な場合は{@code null}。
+     */
+    private final String contactId;
+
     /**
      * コンストラクタ。
      * @param streamName ストリーム名
@@ -26,6 +31,20 @@ public class VideoStreamData {
     public VideoStreamData(
             final String streamName,
             final Date startTimestamp)
+    {
+        this(streamName, startTimestamp, null);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param streamName ストリーム名
+     * @param startTimestamp 開始時のタイムスタンプ
+     * @param contactId 問い合わせID、不明な場合は{@code null}
+     */
+    public VideoStreamData(
+            final String streamName,
+            final Date startTimestamp,
+            final String contactId)
     {
         if (streamName == null || streamName.isEmpty())
         {
@@ -39,6 +58,7 @@ public class VideoStreamData {
 
         this.streamName = streamName;
         this.startTimestamp = startTimestamp;
+        this.contactId = contactId != null && !contactId.isEmpty() ? contactId : null;
     }
 
     /**
@@ -58,4 +78,13 @@ public class VideoStreamData {
     {
         return startTimestamp;
     }
+
+    /**
+     * 問い合わせIDを取得します。
+     * @return 問い合わせID、不明な場合は{@code null}
+     */
+    public String getContactId()
+    {
+        return contactId;
+    }
 }
@@ -0,0 +1,144 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.function.Supplier;
+
+/**
+ * 問い合わせごとに、お客様側とオペレーター側の2つのWAVファイルに保存します。
+ * ファイル名は"(開始時刻)-cu.wav"と"(開始時刻)-op.wav"、分析結果のサマリーは"(開始時刻)-summary.json"、
+ * 録音のハッシュを記録したマニフェストは"(開始時刻)-manifest.json"です。
+ * @author Bladean Mericle
+ */
+public class WavFileSink implements RecordingSink {
+
+    /**
+     * 保存先のフォルダを取得する処理。
+     */
+    private final Supplier<String> audioPathSupplier;
+
+    /**
+     * コンストラクタ。
+     * @param audioPath 保存先のフォルダ
+     */
+    public WavFileSink(final String audioPath) {
+        if (audioPath == null || audioPath.isEmpty())
+        {
+            throw new IllegalArgumentException("audioPath can't set null or empty.");
+        }
+
+        this.audioPathSupplier = () -> audioPath;
+    }
+
+    /**
+     * コンストラクタ。
+     * 保存先のフォルダは、問い合わせを保存するたびに取得します。
+     * @param audioPathSupplier 保存先のフォルダを取得する処理
+     */
+    public WavFileSink(final Supplier<String> audioPathSupplier) {
+        if (audioPathSupplier == null)
+        {
+            throw new IllegalArgumentException("audioPathSupplier can't set null.");
+        }
+
+        this.audioPathSupplier = audioPathSupplier;
+    }
+
+    /**
+     * 1件の問い合わせの音声を保存します。
+     * 片方の書き込みに失敗しても、もう片方は書き込みます。
+     * @param videoStreamData ストリーム情報
+     * @param customerAudio お客様側の音声データ
+     * @param operatorAudio オペレーター側の音声データ
+     * @throws IOException どちらかの書き込みに失敗した場合
+     */
+    @Override
+    public void write(
+            final VideoStreamData videoStreamData,
+            final byte[] customerAudio,
+            final byte[] operatorAudio) throws IOException {
+        final String baseFileName = getBaseFileName(videoStreamData);
+        final String audioPath = audioPathSupplier.get();
+
+        // フォルダの作成
+        new File(audioPath).mkdirs();
+
+        IOException error = null;
+        final File customerPath = new File(audioPath, baseFileName + "-cu.wav");
+        try (OutputStream customerFileStream = new FileOutputStream(customerPath, false)){
+            AudioRecordFrameProcessor.WriteAudioData(customerFileStream, customerAudio);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        final File operatorPath = new File(audioPath, baseFileName + "-op.wav");
+        try (OutputStream operatorFileStream = new FileOutputStream(operatorPath, false)){
+            AudioRecordFrameProcessor.WriteAudioData(operatorFileStream, operatorAudio);
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            } else {
+                error.addSuppressed(e);
+            }
+        }
+
+        // 送信待ちフォルダからリトライできるよう、片方でも失敗した場合は例外を投げます。
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * 1件の問い合わせの分析結果のサマリーを保存します。
+     * @param videoStreamData ストリーム情報
+     * @param summary サマリー
+     * @throws IOException 書き込みエラー
+     */
+    @Override
+    public void writeSummary(final VideoStreamData videoStreamData, final byte[] summary) throws IOException {
+        writeSideFile(videoStreamData, "-summary.json", summary);
+    }
+
+    /**
+     * 1件の問い合わせの録音のマニフェストを保存します。
+     * @param videoStreamData ストリーム情報
+     * @param manifest マニフェスト
+     * @throws IOException 書き込みエラー
+     */
+    @Override
+    public void writeManifest(final VideoStreamData videoStreamData, final byte[] manifest) throws IOException {
+        writeSideFile(videoStreamData, "-manifest.json", manifest);
+    }
+
+    /**
+     * 録音の隣にファイルを保存します。
+     * @param videoStreamData ストリーム情報
+     * @param suffix ファイル名の末尾
+     * @param data 内容
+     * @throws IOException 書き込みエラー
+     */
+    private void writeSideFile(
+            final VideoStreamData videoStreamData,
+            final String suffix,
+            final byte[] data) throws IOException {
+        final String audioPath = audioPathSupplier.get();
+        new File(audioPath).mkdirs();
+        try (OutputStream sideFileStream = new FileOutputStream(
+                new File(audioPath, getBaseFileName(videoStreamData) + suffix), false)) {
+            sideFileStream.write(data);
+        }
+    }
+
+    /**
+     * 開始時刻からファイル名の共通部分を生成します。
+     * @param videoStreamData ストリーム情報
+     * @return ファイル名の共通部分
+     */
+    private static String getBaseFileName(final VideoStreamData videoStreamData) {
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS");
+        return dateFormat.format(videoStreamData.getStartTimestamp());
+    }
+}
@@ -32,6 +32,11 @@ public class Window implements Runnable {
      */
     private final Consumer<Window> businessLogic;
 
+    /**
+     * 周波数スペクトルの帯域の分割方法。
+     */
+    private final SpectrumBands.Scale spectrumScale;
+
     /**
      * 問い合わせパネル。
      */
@@ -44,10 +49,24 @@ public class Window implements Runnable {
 
     /**
      * コンストラクタ。
-     * @param businessLogic ビジネスロジック
+     * @param businessLogic ビジネスロジック、ない場合は{@code null}
      */
     public Window(Consumer<Window> businessLogic) {
+        this(businessLogic, SpectrumBands.Scale.MEL);
+    }
+
+    /**
+     * コンストラクタ。
+     * @param businessLogic ビジネスロジック、ない場合は{@code null}
+     * @param spectrumScale 周波数スペクトルの帯域の分割方法
+     */
+    public Window(Consumer<Window> businessLogic, SpectrumBands.Scale spectrumScale) {
+        if (spectrumScale == null) {
+            throw new IllegalArgumentException("spectrumScale can't set null.");
+        }
+
         this.businessLogic = businessLogic;
+        this.spectrumScale = spectrumScale;
     }
 
     /**
@@ -104,7 +123,8 @@ public class Window implements Runnable {
                 return contactPanel;
             }
 
-            final ContactPanel newContactPanel = new ContactPanel(videoStreamData.getStartTimestamp());
+            final ContactPanel newContactPanel = new ContactPanel(
+                    videoStreamData.getStreamName(), videoStreamData.getStartTimestamp(), spectrumScale);
             contactPanelTable.put(videoStreamData.getStreamName(), newContactPanel);
 
             SwingUtilities.invokeLater(() -> {
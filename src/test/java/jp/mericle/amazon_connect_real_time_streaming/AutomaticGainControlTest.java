@@ -0,0 +1,176 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link AutomaticGainControl}のテストです。
+ */
+public class AutomaticGainControlTest
+    extends TestCase
+{
+    /**
+     * サンプリング周波数(Hz)。
+     */
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * 小さい音を目標の音量まで上げ、出力の長さが入力と同じになることを確認します。
+     */
+    public void testRaiseQuietSpeech()
+    {
+        // -40dBFS(RMS)の正弦波を3秒間入力します。
+        final byte[] input = createTone(0.01 * Math.sqrt(2) * Short.MAX_VALUE, 3000);
+        final byte[] output = process(new AutomaticGainControl(new AutomaticGainControl.Parameters(-30.0, 20.0, 5)), input, 320);
+
+        assertEquals(input.length, output.length);
+        final double lastSecondLevel = rmsLevel(output, output.length - SAMPLE_RATE * 2, output.length);
+        assertEquals(-30.0, lastSecondLevel, 1.0);
+    }
+
+    /**
+     * ゲインを上げている時に大きな音が来ても、クリッピングしないことを確認します。
+     */
+    public void testLimitPeaks()
+    {
+        final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        final byte[] quiet = createTone(0.01 * Math.sqrt(2) * Short.MAX_VALUE, 3000);
+        input.write(quiet, 0, quiet.length);
+        final byte[] loud = createTone(Short.MAX_VALUE, 100);
+        input.write(loud, 0, loud.length);
+
+        final byte[] output = process(
+                new AutomaticGainControl(AutomaticGainControl.Parameters.DEFAULT), input.toByteArray(), 333);
+        assertEquals(input.size(), output.length);
+        for (int i = 0; i + 1 < output.length; i += 2) {
+            final int sample = (short)((output[i + 1] << 8) | (output[i] & 0xFF));
+            assertTrue(Math.abs(sample) <= 32000);
+        }
+    }
+
+    /**
+     * 大きな音の前で、ゲインを1サンプルで下げずに先読みの長さをかけて下げることを確認します。
+     */
+    public void testRampBeforePeak()
+    {
+        // 一定の値の音声なので、出力と入力の比がそのままゲインになります。
+        final ByteArrayOutputStream input = new ByteArrayOutputStream();
+        final byte[] quiet = createConstant(300, 3000);
+        input.write(quiet, 0, quiet.length);
+        final byte[] loud = createConstant(30000, 100);
+        input.write(loud, 0, loud.length);
+        final byte[] inputData = input.toByteArray();
+
+        final byte[] output = process(
+                new AutomaticGainControl(AutomaticGainControl.Parameters.DEFAULT), inputData, 320);
+        assertEquals(inputData.length, output.length);
+        final double[] gains = new double[output.length / 2];
+        double maxGain = 0.0;
+        for (int i = 0; i < gains.length; ++i) {
+            final int sample = (short)((output[2 * i + 1] << 8) | (output[2 * i] & 0xFF));
+            final int original = (short)((inputData[2 * i + 1] << 8) | (inputData[2 * i] & 0xFF));
+            assertTrue(Math.abs(sample) <= 32000);
+            gains[i] = (double)sample / original;
+            maxGain = Math.max(maxGain, gains[i]);
+        }
+
+        // 大きな音の直前まで10倍近くに上げたゲインを、5msの40サンプルに分けて下げます。
+        assertTrue(maxGain > 5.0);
+        final int lookAheadSamples = SAMPLE_RATE * 5 / 1000;
+        for (int i = 1; i < gains.length; ++i) {
+            assertTrue(Math.abs(gains[i] - gains[i - 1]) <= maxGain * 2 / lookAheadSamples);
+        }
+    }
+
+    /**
+     * 先読みの長さが上限を超える場合は、例外を投げることを確認します。
+     */
+    public void testLookAheadLimit()
+    {
+        new AutomaticGainControl.Parameters(-20.0, 20.0, AutomaticGainControl.Parameters.MAX_LOOK_AHEAD_MILLIS);
+        try {
+            new AutomaticGainControl.Parameters(-20.0, 20.0, AutomaticGainControl.Parameters.MAX_LOOK_AHEAD_MILLIS + 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 想定通りです。
+        }
+    }
+
+    /**
+     * 音声データをフレームに分けて処理します。
+     * @param gainControl 音量の調整
+     * @param input 音声データ
+     * @param frameBytes フレームのバイト数
+     * @return 音量を調整した音声データ
+     */
+    private static byte[] process(final AutomaticGainControl gainControl, final byte[] input, final int frameBytes)
+    {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int offset = 0; offset < input.length; offset += frameBytes) {
+            final byte[] frame = new byte[Math.min(frameBytes, input.length - offset)];
+            System.arraycopy(input, offset, frame, 0, frame.length);
+            final byte[] processed = gainControl.process(frame);
+            output.write(processed, 0, processed.length);
+        }
+
+        final byte[] rest = gainControl.flush();
+        output.write(rest, 0, rest.length);
+        return output.toByteArray();
+    }
+
+    /**
+     * 440Hzの正弦波を生成します。
+     * @param amplitude 振幅
+     * @param millis 長さ(ms)
+     * @return 音声データ
+     */
+    private static byte[] createTone(final double amplitude, final int millis)
+    {
+        final int samples = SAMPLE_RATE * millis / 1000;
+        final byte[] data = new byte[samples * 2];
+        for (int i = 0; i < samples; ++i) {
+            final int sample = (int)Math.round(amplitude * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+            data[2 * i] = (byte)sample;
+            data[2 * i + 1] = (byte)(sample >> 8);
+        }
+
+        return data;
+    }
+
+    /**
+     * 一定の値の音声データを生成します。
+     * @param value 値
+     * @param millis 長さ(ms)
+     * @return 音声データ
+     */
+    private static byte[] createConstant(final int value, final int millis)
+    {
+        final int samples = SAMPLE_RATE * millis / 1000;
+        final byte[] data = new byte[samples * 2];
+        for (int i = 0; i < samples; ++i) {
+            data[2 * i] = (byte)value;
+            data[2 * i + 1] = (byte)(value >> 8);
+        }
+
+        return data;
+    }
+
+    /**
+     * 音声データの範囲のRMSの音量を求めます。
+     * @param data 音声データ
+     * @param from 開始位置(byte)
+     * @param to 終了位置(byte)
+     * @return RMSの音量(dBFS)
+     */
+    private static double rmsLevel(final byte[] data, final int from, final int to)
+    {
+        double sum = 0.0;
+        for (int i = from; i + 1 < to; i += 2) {
+            final double sample = (short)((data[i + 1] << 8) | (data[i] & 0xFF));
+            sum += sample * sample;
+        }
+
+        return 20.0 * Math.log10(Math.sqrt(sum / ((to - from) / 2)) / Short.MAX_VALUE);
+    }
+}
@@ -0,0 +1,167 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.kinesisvideo.model.Fragment;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link Backfiller}のテストです。
+ */
+public class BackfillerTest
+    extends TestCase
+{
+    /**
+     * テスト用のイベントのファイル。
+     */
+    private File eventsFile;
+
+    /**
+     * テスト用のイベントのファイルを作成します。
+     * @throws IOException 作成に失敗した場合
+     */
+    @Override
+    protected void setUp() throws IOException
+    {
+        eventsFile = File.createTempFile("events", ".json");
+    }
+
+    /**
+     * テスト用のイベントのファイルを削除します。
+     */
+    @Override
+    protected void tearDown()
+    {
+        eventsFile.delete();
+    }
+
+    /**
+     * イベントのファイルから問い合わせを読み込み、終了時刻がない場合は一定時間を録音することを確認します。
+     * @throws IOException 読み込みエラー
+     */
+    public void testReadContacts() throws IOException
+    {
+        Files.write(eventsFile.toPath(), Arrays.asList(
+                createEvent("contact-1", "stream-1", 1600000000000L, "1600000060000"),
+                "",
+                createEvent("contact-2", "stream-2", 1600000100000L, null),
+                "{\"Details\":{\"ContactData\":{\"ContactId\":\"contact-3\"}}}"), StandardCharsets.UTF_8);
+
+        final List<Backfiller.Contact> contacts = Backfiller.readContacts(eventsFile.getPath());
+        assertEquals(2, contacts.size());
+        assertEquals("stream-1", contacts.get(0).getVideoStreamData().getStreamName());
+        assertEquals("contact-1", contacts.get(0).getVideoStreamData().getContactId());
+        assertEquals(1600000000000L, contacts.get(0).getVideoStreamData().getStartTimestamp().getTime());
+        assertEquals(1600000060000L, contacts.get(0).getEndTimestamp().getTime());
+        assertEquals("stream-2", contacts.get(1).getVideoStreamData().getStreamName());
+        assertEquals(1600000100000L + TimeUnit.HOURS.toMillis(1), contacts.get(1).getEndTimestamp().getTime());
+    }
+
+    /**
+     * 同じストリームを使い回した問い合わせは、次の問い合わせの開始時刻までで録音を終了することを確認します。
+     * @throws IOException 読み込みエラー
+     */
+    public void testReuseStream() throws IOException
+    {
+        Files.write(eventsFile.toPath(), Arrays.asList(
+                createEvent("contact-2", "stream-1", 1600000600000L, null),
+                createEvent("contact-1", "stream-1", 1600000000000L, null),
+                createEvent("contact-1", "stream-1", 1600000000000L, null),
+                createEvent("contact-3", "stream-2", 1600000300000L, null),
+                createEvent("contact-4", "stream-2", 1600009000000L, null)), StandardCharsets.UTF_8);
+
+        final List<Backfiller.Contact> contacts = Backfiller.readContacts(eventsFile.getPath());
+        assertEquals(4, contacts.size());
+
+        // 次の問い合わせの開始時刻までに制限します。重複したイベントは1件にします。
+        assertEquals("contact-2", contacts.get(0).getVideoStreamData().getContactId());
+        assertEquals(1600000600000L + TimeUnit.HOURS.toMillis(1), contacts.get(0).getEndTimestamp().getTime());
+        assertEquals("contact-1", contacts.get(1).getVideoStreamData().getContactId());
+        assertEquals(1600000600000L, contacts.get(1).getEndTimestamp().getTime());
+
+        // 次の問い合わせが一定時間より後の場合は、一定時間までを録音します。
+        assertEquals("contact-3", contacts.get(2).getVideoStreamData().getContactId());
+        assertEquals(1600000300000L + TimeUnit.HOURS.toMillis(1), contacts.get(2).getEndTimestamp().getTime());
+        assertEquals("contact-4", contacts.get(3).getVideoStreamData().getContactId());
+    }
+
+    /**
+     * フラグメント番号の桁数が違っても、数値の順に並べ替えることを確認します。
+     */
+    public void testSortFragments()
+    {
+        final List<Fragment> fragments = new ArrayList<>(Arrays.asList(
+                createFragment("91343852333181432392682062607743920146264440287"),
+                createFragment("9134385233318143239268206260774392014626444028"),
+                createFragment("91343852333181432392682062607743920146264440286")));
+
+        Backfiller.sortFragments(fragments);
+        assertEquals("9134385233318143239268206260774392014626444028", fragments.get(0).getFragmentNumber());
+        assertEquals("91343852333181432392682062607743920146264440286", fragments.get(1).getFragmentNumber());
+        assertEquals("91343852333181432392682062607743920146264440287", fragments.get(2).getFragmentNumber());
+    }
+
+    /**
+     * フラグメントを順番を変えずに一定数ごとに分け、最後は残りだけになることを確認します。
+     */
+    public void testSplitBatches()
+    {
+        final List<Fragment> fragments = new ArrayList<>();
+        for (int i = 0; i < 7; ++i) {
+            fragments.add(createFragment(String.valueOf(i)));
+        }
+
+        final List<List<Fragment>> batches = Backfiller.splitBatches(fragments, 3);
+        assertEquals(3, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals(3, batches.get(1).size());
+        assertEquals(1, batches.get(2).size());
+        int number = 0;
+        for (List<Fragment> batch : batches) {
+            for (Fragment fragment : batch) {
+                assertEquals(String.valueOf(number++), fragment.getFragmentNumber());
+            }
+        }
+
+        assertTrue(Backfiller.splitBatches(new ArrayList<>(), 3).isEmpty());
+    }
+
+    /**
+     * テスト用の問い合わせのイベントを生成します。
+     * @param contactId 問い合わせID
+     * @param streamName ストリーム名
+     * @param startTimestamp 開始時刻
+     * @param stopTimestamp 終了時刻、ない場合は{@code null}
+     * @return イベントのJSON
+     */
+    private static String createEvent(
+            final String contactId,
+            final String streamName,
+            final long startTimestamp,
+            final String stopTimestamp)
+    {
+        return "{\"Details\":{\"ContactData\":{\"ContactId\":\"" + contactId + "\",\"MediaStreams\":{\"Customer\":{\"Audio\":{"
+                + "\"StreamARN\":\"arn:aws:kinesisvideo:ap-northeast-1:123456789012:stream/" + streamName + "/1600000000000\","
+                + "\"StartTimestamp\":\"" + startTimestamp + "\""
+                + (stopTimestamp != null ? ",\"StopTimestamp\":\"" + stopTimestamp + "\"" : "")
+                + "}}}}}}";
+    }
+
+    /**
+     * テスト用のフラグメントを生成します。
+     * @param fragmentNumber フラグメント番号
+     * @return フラグメント
+     */
+    private static Fragment createFragment(final String fragmentNumber)
+    {
+        return new Fragment().withFragmentNumber(fragmentNumber);
+    }
+}
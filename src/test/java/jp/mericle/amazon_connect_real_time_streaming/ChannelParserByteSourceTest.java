@@ -0,0 +1,92 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link ChannelParserByteSource}のテストです。
+ */
+public class ChannelParserByteSourceTest
+    extends TestCase
+{
+    /**
+     * テスト用のデータ。
+     */
+    private static final byte[] DATA = createData(100000);
+
+    /**
+     * 先読みしない場合に全てのデータを読み込めることを確認します。
+     */
+    public void testWithoutReadAhead()
+    {
+        try (ChannelParserByteSource source = new ChannelParserByteSource(
+                Channels.newChannel(new ByteArrayInputStream(DATA)), 4096, 0)) {
+            assertTrue(Arrays.equals(DATA, readAll(source)));
+            assertEquals(-1, source.readByte());
+        }
+    }
+
+    /**
+     * 先読みする場合に全てのデータを順番通りに読み込めることを確認します。
+     */
+    public void testWithReadAhead()
+    {
+        try (ChannelParserByteSource source = new ChannelParserByteSource(
+                Channels.newChannel(new ByteArrayInputStream(DATA)), 4096, 3)) {
+            assertTrue(Arrays.equals(DATA, readAll(source)));
+            assertEquals(-1, source.readByte());
+        }
+    }
+
+    /**
+     * 読み込み済みのバッファから読み込めることを確認します。
+     */
+    public void testWrap()
+    {
+        try (ChannelParserByteSource source = ChannelParserByteSource.wrap(ByteBuffer.wrap(DATA))) {
+            assertEquals(DATA.length, source.available());
+            assertTrue(Arrays.equals(DATA, readAll(source)));
+        }
+    }
+
+    /**
+     * バイトソースを終端まで読み込みます。1バイトずつの読み込みとバッファへの読み込みを交互に行います。
+     * @param source バイトソース
+     * @return 読み込んだデータ
+     */
+    private static byte[] readAll(final ChannelParserByteSource source)
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final ByteBuffer buffer = ByteBuffer.allocate(1000);
+        while (!source.eof()) {
+            outputStream.write(source.readByte());
+            buffer.clear();
+            final int length = source.readBytes(buffer);
+            if (length > 0) {
+                outputStream.write(buffer.array(), 0, length);
+            }
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * テスト用のデータを作成します。
+     * @param length バイト数
+     * @return テスト用のデータ
+     */
+    private static byte[] createData(final int length)
+    {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte)(i * 7 + i / 256);
+        }
+
+        return data;
+    }
+}
@@ -0,0 +1,97 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link ContactIndex}のテストです。
+ */
+public class ContactIndexTest
+    extends TemporaryDirectoryCase
+{
+    /**
+     * セグメントに書き出した情報と書き出していない情報を、問い合わせIDと開始時刻で検索できることを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testAppendAndFind() throws IOException
+    {
+        try (ContactIndex index = new ContactIndex(directory, 100)) {
+            // 開始時刻の順ではなく追加しても、検索結果は開始時刻の順になります。
+            for (int i = 249; i >= 0; --i) {
+                index.append(createMetadata(i));
+            }
+
+            final List<ContactMetadata> found = index.findByContactId("contact-123");
+            assertEquals(1, found.size());
+            assertEquals("+819001230123", found.get(0).getCustomerEndpoint());
+            assertEquals("queue-3", found.get(0).getQueue());
+            assertEquals("agent-123", found.get(0).getAgent());
+            assertEquals("value-123", found.get(0).getAttributes().get("key"));
+            assertEquals("tag-123", found.get(0).getTags().get("name"));
+            assertEquals(1600000123000L, found.get(0).getVideoStreamData().getStartTimestamp().getTime());
+
+            // 書き出していない情報も検索できます。
+            assertEquals(1, index.findByContactId("contact-10").size());
+            assertTrue(index.findByContactId("contact-999").isEmpty());
+
+            final List<ContactMetadata> range = index.findByTime(1600000040000L, 1600000210000L);
+            assertEquals(170, range.size());
+            for (int i = 0; i < range.size(); ++i) {
+                assertEquals("contact-" + (40 + i), range.get(i).getContactId());
+            }
+        }
+    }
+
+    /**
+     * 開き直した時に、書き出していない情報をログから読み込み直し、不完全な書き込みを切り詰めることを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testReopen() throws IOException
+    {
+        try (ContactIndex index = new ContactIndex(directory, 10)) {
+            for (int i = 0; i < 15; ++i) {
+                index.append(createMetadata(i));
+            }
+        }
+
+        // 書き込み途中で終了した場合を再現します。
+        final File[] logs = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(1, logs.length);
+        try (RandomAccessFile file = new RandomAccessFile(logs[0], "rw")) {
+            file.seek(file.length());
+            file.write(new byte[] {0, 0, 1, 0, 1, 2});
+        }
+
+        try (ContactIndex reader = new ContactIndex(directory)) {
+            assertEquals(15, reader.findByTime(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+
+        try (ContactIndex index = new ContactIndex(directory, 10)) {
+            assertEquals(15, index.findByTime(Long.MIN_VALUE, Long.MAX_VALUE).size());
+            index.append(createMetadata(15));
+            assertEquals(1, index.findByContactId("contact-12").size());
+            assertEquals(1, index.findByContactId("contact-15").size());
+            assertEquals(16, index.findByTime(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+    }
+
+    /**
+     * テスト用の問い合わせの情報を生成します。
+     * @param number 番号
+     * @return 問い合わせの情報
+     */
+    private static ContactMetadata createMetadata(final int number)
+    {
+        return new ContactMetadata(
+                new VideoStreamData("stream", new Date(1600000000000L + number * 1000L), "contact-" + number),
+                String.format("+8190%04d%04d", number, number),
+                "queue-" + (number % 10),
+                "agent-" + number,
+                Collections.singletonMap("key", "value-" + number),
+                Collections.singletonMap("name", "tag-" + number));
+    }
+}
@@ -0,0 +1,128 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link ConversationAnalytics}のテストです。
+ */
+public class ConversationAnalyticsTest
+    extends TestCase
+{
+    /**
+     * サンプリング周波数(Hz)。
+     */
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * 音量、クリッピング、無音の割合、同時発話を計算することを確認します。
+     */
+    public void testLevelsAndOverlap()
+    {
+        // お客様側は1秒話して1秒黙り、オペレーター側は0.5秒後から1秒話します。
+        final ByteArrayOutputStream customer = new ByteArrayOutputStream();
+        appendTone(customer, 16384, 1000);
+        appendSilence(customer, 1000);
+        final ByteArrayOutputStream operator = new ByteArrayOutputStream();
+        appendSilence(operator, 500);
+        appendTone(operator, 40000, 1000);
+        appendSilence(operator, 500);
+
+        final ConversationAnalytics analytics = new ConversationAnalytics();
+        final byte[] customerAudio = customer.toByteArray();
+        final byte[] operatorAudio = operator.toByteArray();
+        for (int offset = 0; offset < customerAudio.length; offset += 321) {
+            final int length = Math.min(321, customerAudio.length - offset);
+            analytics.processCustomer(slice(customerAudio, offset, length));
+            analytics.processOperator(slice(operatorAudio, offset, length));
+        }
+
+        // 正弦波のRMSはピークの-3dBで、半分が無音なのでさらに-3dBです。
+        assertEquals(-12.0, analytics.getCustomer().getRmsLevel(), 0.2);
+        assertEquals(-6.0, analytics.getCustomer().getPeakLevel(), 0.1);
+        assertEquals(0.0, analytics.getCustomer().getClippingRatio(), 0.0);
+        assertEquals(0.5, analytics.getCustomer().getSilenceRatio(), 0.02);
+        assertEquals(0.0, analytics.getOperator().getPeakLevel(), 0.01);
+        assertTrue(analytics.getOperator().getClippingRatio() > 0.0);
+
+        assertEquals(1, analytics.getOverlapCount());
+        assertEquals(500, analytics.getOverlapMillis(), 40);
+        assertEquals(0.25, analytics.getOverlapRatio(), 0.02);
+    }
+
+    /**
+     * 分析しなかった音声は指標に含めず、トラック間の時刻はずれないことを確認します。
+     */
+    public void testSkip()
+    {
+        final ByteArrayOutputStream speech = new ByteArrayOutputStream();
+        appendTone(speech, 16384, 1000);
+        final byte[] audio = speech.toByteArray();
+
+        final ConversationAnalytics analytics = new ConversationAnalytics();
+        analytics.skipCustomer(audio);
+        analytics.processOperator(audio);
+        analytics.processCustomer(audio);
+        analytics.processOperator(new byte[audio.length]);
+
+        assertEquals(1000, analytics.getCustomer().getAnalysedMillis());
+        assertEquals(1000, analytics.getCustomer().getSkippedMillis());
+        assertEquals(0.0, analytics.getCustomer().getSilenceRatio(), 0.0);
+        assertEquals(0.5, analytics.getOperator().getSilenceRatio(), 0.0);
+        assertEquals(0, analytics.getOverlapCount());
+        assertEquals(0.0, analytics.getOverlapRatio(), 0.0);
+    }
+
+    /**
+     * 音声データの一部を切り出します。
+     * @param audio 音声データ
+     * @param offset 開始位置
+     * @param length 長さ
+     * @return 切り出した音声データ
+     */
+    private static byte[] slice(final byte[] audio, final int offset, final int length)
+    {
+        final byte[] frame = new byte[length];
+        System.arraycopy(audio, offset, frame, 0, length);
+        return frame;
+    }
+
+    /**
+     * 440Hzの正弦波を追加します。16bitの範囲を超える振幅はクリッピングします。
+     * @param audio 音声データ
+     * @param amplitude 振幅
+     * @param millis 長さ(ms)
+     */
+    private static void appendTone(final ByteArrayOutputStream audio, final double amplitude, final int millis)
+    {
+        for (int i = 0; i < SAMPLE_RATE * millis / 1000; ++i) {
+            final double value = amplitude * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE);
+            appendSample(audio, Math.max(Math.min(value, Short.MAX_VALUE), Short.MIN_VALUE));
+        }
+    }
+
+    /**
+     * 無音を追加します。
+     * @param audio 音声データ
+     * @param millis 長さ(ms)
+     */
+    private static void appendSilence(final ByteArrayOutputStream audio, final int millis)
+    {
+        for (int i = 0; i < SAMPLE_RATE * millis / 1000; ++i) {
+            appendSample(audio, 0);
+        }
+    }
+
+    /**
+     * 16bitリトルエンディアンのサンプルを追加します。
+     * @param audio 音声データ
+     * @param value サンプルの値
+     */
+    private static void appendSample(final ByteArrayOutputStream audio, final double value)
+    {
+        final int sample = (int)Math.round(value);
+        audio.write(sample & 0xFF);
+        audio.write((sample >> 8) & 0xFF);
+    }
+}
@@ -0,0 +1,135 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Event;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import com.amazonaws.services.kinesis.AbstractAmazonKinesis;
+import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.model.GetRecordsRequest;
+import com.amazonaws.services.kinesis.model.GetRecordsResult;
+import com.amazonaws.services.kinesis.model.Record;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import junit.framework.TestCase;
+
+/**
+ * JFRイベントのテストです。
+ */
+public class JfrEventsTest
+    extends TestCase
+{
+    /**
+     * 録音を終了した時に、ストリーム名とバイト数を含む{@link RecordingFlushEvent}を記録することを確認します。
+     * @throws IOException 記録の読み書きのエラー
+     */
+    public void testRecordingFlush() throws IOException
+    {
+        final List<RecordedEvent> events = record(RecordingFlushEvent.class, () -> {
+            final AudioRecordFrameProcessor frameProcessor = new AudioRecordFrameProcessor(
+                    (videoStreamData, customerAudio, operatorAudio) -> { },
+                    new VideoStreamData("jfr-stream", new Date(1600000000000L), "jfr-contact"),
+                    null,
+                    AudioRecordFrameProcessor.Options.DEFAULT);
+            frameProcessor.close();
+        });
+
+        assertEquals(1, events.size());
+        assertEquals("jfr-stream", events.get(0).getString("streamName"));
+        assertEquals(0L, events.get(0).getLong("bytes"));
+        assertFalse(events.get(0).getDuration().isNegative());
+    }
+
+    /**
+     * GetRecordsで受信したレコードを処理に渡した時に、件数とバイト数を含む{@link GetRecordsEvent}を記録することを確認します。
+     * @throws Exception テストのエラー
+     */
+    public void testGetRecords() throws Exception
+    {
+        final byte[] contactEvent = ("{\"Details\":{\"ContactData\":{\"ContactId\":\"jfr-contact\",\"MediaStreams\":{"
+                + "\"Customer\":{\"Audio\":{\"StreamARN\":"
+                + "\"arn:aws:kinesisvideo:ap-northeast-1:123456789012:stream/jfr-media/1600000000000\","
+                + "\"StartTimestamp\":\"1600000000000\"}}}}}}").getBytes(StandardCharsets.UTF_8);
+        final byte[] otherEvent = "{}".getBytes(StandardCharsets.UTF_8);
+        final AmazonKinesis dataStreams = new AbstractAmazonKinesis() {
+            @Override
+            public GetRecordsResult getRecords(final GetRecordsRequest request)
+            {
+                return new GetRecordsResult()
+                        .withRecords(Arrays.asList(
+                                new Record().withData(ByteBuffer.wrap(contactEvent)),
+                                new Record().withData(ByteBuffer.wrap(otherEvent))))
+                        .withNextShardIterator("next-iterator")
+                        .withMillisBehindLatest(500L);
+            }
+        };
+
+        final List<String> processed = new CopyOnWriteArrayList<>();
+        final OrderedDispatcher dispatcher = new OrderedDispatcher(1, 10);
+        final String[] nextShardIterator = new String[1];
+        final List<RecordedEvent> events;
+        try {
+            events = record(GetRecordsEvent.class, () -> nextShardIterator[0] = App.getRecords(
+                    dataStreams, "jfr-stream", "iterator", new ObjectMapper(),
+                    (videoStreamData, json) -> processed.add(videoStreamData.getContactId()), dispatcher, 0, 0));
+        } finally {
+            assertTrue(dispatcher.shutdown(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals("next-iterator", nextShardIterator[0]);
+        assertEquals(Arrays.asList("jfr-contact"), processed);
+        assertEquals(1, events.size());
+        assertEquals("jp.mericle.amazon_connect_real_time_streaming.GetRecords", events.get(0).getEventType().getName());
+        assertEquals("jfr-stream", events.get(0).getString("streamName"));
+        assertEquals(2, events.get(0).getInt("recordCount"));
+        assertEquals(contactEvent.length + otherEvent.length, events.get(0).getLong("bytes"));
+        assertEquals(500L, events.get(0).getLong("millisBehindLatest"));
+    }
+
+    /**
+     * 処理の間だけJFRで記録し、指定した種類のイベントを読み込みます。
+     * @param eventClass イベントの種類
+     * @param action 処理
+     * @return 記録したイベント
+     * @throws IOException 記録の読み書きのエラー
+     */
+    private static List<RecordedEvent> record(final Class<? extends Event> eventClass, final Runnable action)
+            throws IOException
+    {
+        final File file = File.createTempFile("events", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable(eventClass).withoutThreshold();
+                recording.start();
+                action.run();
+                recording.stop();
+                recording.dump(file.toPath());
+            }
+
+            final String eventName = eventClass.getAnnotation(Name.class).value();
+            final List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                if (event.getEventType().getName().equals(eventName)) {
+                    events.add(event);
+                }
+            }
+
+            return events;
+        } finally {
+            file.delete();
+        }
+    }
+}
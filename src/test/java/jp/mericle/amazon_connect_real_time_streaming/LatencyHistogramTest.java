@@ -0,0 +1,40 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link LatencyHistogram}のテストです。
+ */
+public class LatencyHistogramTest
+    extends TestCase
+{
+    /**
+     * 小さい値は誤差なく記録されることを確認します。
+     */
+    public void testSmallValues()
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; ++i) {
+            histogram.record(i);
+        }
+
+        assertEquals(5, histogram.getPercentile(0.50));
+        assertEquals(10, histogram.getPercentile(1.0));
+        assertEquals(5.5, histogram.getMean(), 1.0e-9);
+    }
+
+    /**
+     * 大きい値の相対誤差が1/16以内に収まることを確認します。
+     */
+    public void testRelativeError()
+    {
+        for (long value = 17; value < 100000000L; value = value * 3 + 1) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(value * 100);
+            final long percentile = histogram.getPercentile(0.50);
+            assertTrue(percentile >= value);
+            assertTrue(percentile - value <= value / 16 + 1);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link LeaseCoordinator}と{@link FileLeaseStore}のテストです。
+ */
+public class LeaseCoordinatorTest
+    extends TemporaryDirectoryCase
+{
+    /**
+     * 有効期限内のリースは他の所有者が取得できず、期限が切れると取得できることを確認します。
+     * @throws Exception 読み書きのエラー
+     */
+    public void testAcquireAndExpire() throws Exception
+    {
+        final FileLeaseStore store = new FileLeaseStore(directory);
+        assertNotNull(store.acquire("work/a", "owner-1", 50, "data"));
+        assertNull(store.acquire("work/a", "owner-2", 50, "other"));
+        assertTrue(store.renew("work/a", "owner-1", 50));
+        assertFalse(store.renew("work/a", "owner-2", 50));
+
+        Thread.sleep(100);
+        final Lease lease = store.acquire("work/a", "owner-2", 50, null);
+        assertNotNull(lease);
+        assertEquals("data", lease.getData());
+        assertFalse(store.renew("work/a", "owner-1", 50));
+    }
+
+    /**
+     * リースごとのファイルに保存し、一覧の取得と削除ができることを確認します。
+     * @throws Exception 読み書きのエラー
+     */
+    public void testListAndRelease() throws Exception
+    {
+        final FileLeaseStore store = new FileLeaseStore(directory);
+        for (int i = 0; i < 10; ++i) {
+            assertNotNull(store.acquire("work/stream-" + i + "/1600000000000", "owner-1", 60000, i % 2 == 0 ? "data" : ""));
+        }
+
+        assertEquals(10, directory.listFiles((dir, name) -> name.endsWith(".lease")).length);
+        assertEquals(10, store.list().size());
+
+        // 完了した作業の空のデータも読み込めます。
+        final Lease completed = store.acquire("work/stream-1/1600000000000", "owner-1", 60000, null);
+        assertEquals("", completed.getData());
+
+        store.release("work/stream-0/1600000000000", "owner-2");
+        assertEquals(10, store.list().size());
+        store.release("work/stream-0/1600000000000", "owner-1");
+        assertEquals(9, store.list().size());
+        assertEquals(9, directory.listFiles((dir, name) -> name.endsWith(".lease")).length);
+    }
+
+    /**
+     * 停止したインスタンスの作業を、保存したデータと共に引き継ぐことを確認します。
+     * @throws Exception 待機中に割り込まれた場合
+     */
+    public void testTakeover() throws Exception
+    {
+        final LeaseCoordinator stopped = new LeaseCoordinator(new FileLeaseStore(directory), "stopped", 100);
+        assertTrue(stopped.offer("contact-1", "{\"event\":1}"));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Lease> takenOver = new CopyOnWriteArrayList<>();
+        try (LeaseCoordinator survivor = new LeaseCoordinator(new FileLeaseStore(directory), "survivor", 100)) {
+            survivor.start(lease -> {
+                takenOver.add(lease);
+                latch.countDown();
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals("contact-1", takenOver.get(0).getKey());
+        assertEquals("{\"event\":1}", takenOver.get(0).getData());
+    }
+
+    /**
+     * 他のインスタンスが完了した作業を、譲ったインスタンスが重複して行わないことを確認します。
+     * @throws Exception 待機中に割り込まれた場合
+     */
+    public void testCompletedWorkIsNotRepeated() throws Exception
+    {
+        final LeaseCoordinator first = new LeaseCoordinator(new FileLeaseStore(directory), "first", 100);
+        final LeaseCoordinator second = new LeaseCoordinator(new FileLeaseStore(directory), "second", 100);
+        assertTrue(first.offer("contact-1", "event"));
+        first.complete("contact-1");
+        assertFalse(second.offer("contact-1", "event"));
+
+        final List<Lease> started = new CopyOnWriteArrayList<>();
+        second.start(started::add);
+        Thread.sleep(300);
+        second.close();
+        assertTrue(started.isEmpty());
+    }
+
+    /**
+     * 他のインスタンスに引き継がれた作業は、登録した処理で中止させ、完了しても引き継いだリースを上書きしないことを確認します。
+     * @throws Exception 読み書きのエラー
+     */
+    public void testLostLease() throws Exception
+    {
+        final FileLeaseStore store = new FileLeaseStore(directory);
+        final LeaseCoordinator coordinator = new LeaseCoordinator(store, "first", 50);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        assertTrue(coordinator.offer("contact-1", "event"));
+        coordinator.setLostListener("contact-1", stopped::countDown);
+
+        Thread.sleep(100);
+        assertNotNull(store.acquire("work/contact-1", "second", 1000, null));
+        coordinator.tick();
+        assertEquals(0, stopped.getCount());
+
+        coordinator.complete("contact-1");
+        final Lease lease = store.acquire("work/contact-1", "second", 1000, null);
+        assertNotNull(lease);
+        assertEquals("event", lease.getData());
+
+        // 既に失っている作業に登録した処理は、すぐに実行します。
+        final CountDownLatch late = new CountDownLatch(1);
+        coordinator.setLostListener("contact-1", late::countDown);
+        assertEquals(0, late.getCount());
+    }
+
+    /**
+     * 手放した作業は、有効期限を待たずに他のインスタンスが取得できることを確認します。
+     * @throws Exception 読み書きのエラー
+     */
+    public void testAbandon() throws Exception
+    {
+        final FileLeaseStore store = new FileLeaseStore(directory);
+        final LeaseCoordinator coordinator = new LeaseCoordinator(store, "first", 60000);
+        assertTrue(coordinator.offer("contact-1", "event"));
+        assertNull(store.acquire("work/contact-1", "second", 60000, null));
+
+        coordinator.abandon("contact-1");
+        final Lease lease = store.acquire("work/contact-1", "second", 60000, null);
+        assertNotNull(lease);
+        assertEquals("event", lease.getData());
+    }
+}
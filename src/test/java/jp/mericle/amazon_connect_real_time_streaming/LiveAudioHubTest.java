@@ -0,0 +1,67 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link LiveAudioHub}のテストです。
+ */
+public class LiveAudioHubTest
+    extends TestCase
+{
+    /**
+     * 聞いている人ごとに古いフレームから捨て、フレームはコピーせずに共有することを確認します。
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void testDropOldestWithoutCopy() throws InterruptedException
+    {
+        final LiveAudioHub hub = new LiveAudioHub();
+        final VideoStreamData videoStreamData = new VideoStreamData("stream-a", new Date(), "contact-a");
+        hub.open(videoStreamData);
+        final LiveAudioHub.Subscription slow = hub.subscribe("stream-a", LiveAudioHub.Track.CUSTOMER, 2);
+        final LiveAudioHub.Subscription fast = hub.subscribe("stream-a", LiveAudioHub.Track.CUSTOMER, 8);
+        final LiveAudioHub.Subscription operator = hub.subscribe("stream-a", LiveAudioHub.Track.OPERATOR, 8);
+
+        final byte[][] frames = {{1}, {2}, {3}};
+        for (byte[] frame : frames) {
+            hub.publish(videoStreamData, LiveAudioHub.Track.CUSTOMER, frame);
+        }
+
+        assertEquals(1, slow.getDroppedFrames());
+        assertSame(frames[1], slow.poll(1, TimeUnit.SECONDS));
+        assertSame(frames[2], slow.poll(1, TimeUnit.SECONDS));
+        assertNull(slow.poll(10, TimeUnit.MILLISECONDS));
+        for (byte[] frame : frames) {
+            assertSame(frame, fast.poll(1, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, fast.getDroppedFrames());
+        assertNull(operator.poll(10, TimeUnit.MILLISECONDS));
+        assertFalse(operator.isClosed());
+    }
+
+    /**
+     * 録音が終わると、残っているフレームを取り出した後に配信が終了することを確認します。
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void testCloseContact() throws InterruptedException
+    {
+        final LiveAudioHub hub = new LiveAudioHub();
+        assertNull(hub.subscribe("stream-a", LiveAudioHub.Track.CUSTOMER, 2));
+
+        final VideoStreamData videoStreamData = new VideoStreamData("stream-a", new Date(), "contact-a");
+        hub.open(videoStreamData);
+        assertEquals(1, hub.getActiveContacts().size());
+        final LiveAudioHub.Subscription subscription = hub.subscribe("stream-a", LiveAudioHub.Track.OPERATOR, 2);
+        final byte[] frame = {1};
+        hub.publish(videoStreamData, LiveAudioHub.Track.OPERATOR, frame);
+        hub.close(videoStreamData);
+
+        assertTrue(subscription.isClosed());
+        assertTrue(hub.getActiveContacts().isEmpty());
+        assertSame(frame, subscription.poll(1, TimeUnit.SECONDS));
+        assertNull(subscription.poll(1, TimeUnit.SECONDS));
+    }
+}
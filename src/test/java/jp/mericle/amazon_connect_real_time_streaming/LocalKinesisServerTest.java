@@ -0,0 +1,188 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link LocalKinesisServer}のテストです。
+ */
+public class LocalKinesisServerTest
+    extends TestCase
+{
+    /**
+     * テスト用の通話の長さ(ms)。
+     */
+    private static final long CALL_MILLIS = 4000;
+
+    /**
+     * JSONマッパー。
+     */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * テスト用のサーバー。
+     */
+    private LocalKinesisServer server;
+
+    /**
+     * テスト用のサーバーを開始します。
+     * @throws IOException サーバーの作成に失敗した場合
+     */
+    @Override
+    protected void setUp() throws IOException
+    {
+        server = new LocalKinesisServer(
+                0, "stream", "ap-northeast-1", new SyntheticMkvGenerator(CALL_MILLIS, 2000, 20), null, 0,
+                new FaultInjector(0.0, 0.0, 0.0, 0));
+        server.start();
+    }
+
+    /**
+     * テスト用のサーバーを停止します。
+     */
+    @Override
+    protected void tearDown()
+    {
+        server.close();
+    }
+
+    /**
+     * 発生させた問い合わせのイベントを、シャードイテレータとGetRecordsで受信できることを確認します。
+     * @throws IOException 通信エラー
+     */
+    public void testGetRecords() throws IOException
+    {
+        final String contactId = server.addContact();
+
+        final JsonNode iterator = postDataStreams(
+                "GetShardIterator",
+                "{\"StreamName\":\"stream\",\"ShardId\":\"shardId-000000000000\",\"ShardIteratorType\":\"TRIM_HORIZON\"}");
+        final String shardIterator = iterator.path("ShardIterator").asText();
+        assertFalse(shardIterator.isEmpty());
+
+        final JsonNode result = postDataStreams(
+                "GetRecords", "{\"StreamName\":\"stream\",\"ShardIterator\":\"" + shardIterator + "\"}");
+        assertEquals(1, result.path("Records").size());
+        final JsonNode record = result.path("Records").get(0);
+        assertEquals(contactId, record.path("PartitionKey").asText());
+        final JsonNode event = mapper.readTree(Base64.getDecoder().decode(record.path("Data").asText()));
+        assertEquals(contactId, event.path("Details").path("ContactData").path("ContactId").asText());
+        assertEquals(0, result.path("MillisBehindLatest").asLong());
+
+        // 次のシャードイテレータでは、新しいレコードだけを受信します。
+        final JsonNode next = postDataStreams(
+                "GetRecords", "{\"StreamName\":\"stream\",\"ShardIterator\":\""
+                        + result.path("NextShardIterator").asText() + "\"}");
+        assertEquals(0, next.path("Records").size());
+    }
+
+    /**
+     * GetMediaで合成したMKVストリームを全て配信し、配信を終えたメディアを削除することを確認します。
+     * @throws IOException 通信エラー
+     */
+    public void testGetMedia() throws IOException
+    {
+        server.addContact();
+        assertEquals(1, server.getMediaSourceCount());
+
+        final HttpURLConnection connection = post(
+                "/getMedia", null, "{\"StreamName\":\"local-contact-1\",\"StartSelector\":{}}");
+        assertEquals(200, connection.getResponseCode());
+        final byte[] payload;
+        try (InputStream inputStream = connection.getInputStream()) {
+            payload = readAll(inputStream);
+        }
+
+        // EBMLヘッダーから始まり、両方のトラックの音声を含みます。
+        assertTrue(Arrays.equals(new byte[] {0x1A, 0x45, (byte)0xDF, (byte)0xA3}, Arrays.copyOf(payload, 4)));
+        assertTrue(payload.length > new SyntheticMkvGenerator(CALL_MILLIS, 2000, 20).getAudioBytesPerTrack() * 2);
+        assertEquals(0, server.getMediaSourceCount());
+
+        final HttpURLConnection missing = post(
+                "/getMedia", null, "{\"StreamName\":\"local-contact-1\",\"StartSelector\":{}}");
+        assertEquals(404, missing.getResponseCode());
+        missing.disconnect();
+    }
+
+    /**
+     * 配信していないメディアが最大数を超えないことを確認します。
+     */
+    public void testEvictMediaSources()
+    {
+        for (int i = 0; i < LocalKinesisServer.MAX_MEDIA_SOURCES + 10; ++i) {
+            server.addContact();
+        }
+
+        assertEquals(LocalKinesisServer.MAX_MEDIA_SOURCES, server.getMediaSourceCount());
+    }
+
+    /**
+     * Kinesis Data StreamsのAPIを呼び出します。
+     * @param operation 操作名
+     * @param body リクエストのJSON
+     * @return レスポンスのJSON
+     * @throws IOException 通信エラー
+     */
+    private JsonNode postDataStreams(final String operation, final String body) throws IOException
+    {
+        final HttpURLConnection connection = post("/", "Kinesis_20131202." + operation, body);
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream inputStream = connection.getInputStream()) {
+            return mapper.readTree(readAll(inputStream));
+        }
+    }
+
+    /**
+     * リクエストを送信します。
+     * @param path パス
+     * @param target X-Amz-Targetヘッダー、ない場合は{@code null}
+     * @param body リクエストのJSON
+     * @return 接続
+     * @throws IOException 通信エラー
+     */
+    private HttpURLConnection post(final String path, final String target, final String body) throws IOException
+    {
+        final HttpURLConnection connection = (HttpURLConnection)new URL(server.getEndpoint() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (target != null) {
+            connection.setRequestProperty("X-Amz-Target", target);
+        }
+
+        try (OutputStream outputStream = connection.getOutputStream()) {
+            outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        return connection;
+    }
+
+    /**
+     * 入力ストリームを全て読み込みます。
+     * @param inputStream 入力ストリーム
+     * @return 読み込んだデータ
+     * @throws IOException 読み込みエラー
+     */
+    private static byte[] readAll(final InputStream inputStream) throws IOException
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int length;
+        while ((length = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, length);
+        }
+
+        return outputStream.toByteArray();
+    }
+}
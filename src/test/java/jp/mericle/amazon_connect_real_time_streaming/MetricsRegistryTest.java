@@ -0,0 +1,77 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link MetricsRegistry}のテストです。
+ */
+public class MetricsRegistryTest
+    extends TestCase
+{
+    /**
+     * 同じ名前とラベルでは同じメトリクスを返すことを確認します。
+     */
+    public void testSameMetric()
+    {
+        final MetricsRegistry registry = new MetricsRegistry(null);
+        final Counter counter = registry.counter("test_total", "Test.", "track", "a");
+        assertSame(counter, registry.counter("test_total", "Test.", "track", "a"));
+        assertNotNull(registry.counter("test_total", "Test.", "track", "b"));
+        assertEquals(2, registry.getMetrics().size());
+    }
+
+    /**
+     * ヒストグラムのパーセンタイル値がバケットの上限になることを確認します。
+     */
+    public void testHistogramPercentile()
+    {
+        final Histogram histogram = new MetricsRegistry(null).histogram("test_micros", "Test.");
+        for (int i = 0; i < 99; ++i) {
+            histogram.record(3);
+        }
+
+        histogram.record(1000);
+        assertEquals(100, histogram.getCount());
+        assertEquals(3, histogram.get50thPercentile());
+        assertEquals(3, histogram.get99thPercentile());
+        assertEquals(1000, histogram.getPercentile(1.0));
+        assertEquals(1000, histogram.getMax());
+    }
+
+    /**
+     * Prometheusのテキスト形式で出力できることを確認します。
+     */
+    public void testPrometheusText()
+    {
+        final MetricsRegistry registry = new MetricsRegistry(null);
+        registry.counter("frames_total", "Frames.", "track", "A").add(5);
+        registry.counter("frames_total", "Frames.", "track", "B").add(7);
+        registry.histogram("latency_millis", "Latency.").record(2);
+
+        final String text = registry.toPrometheusText();
+        assertTrue(text.contains("# TYPE frames_total counter\n"));
+        assertTrue(text.contains("frames_total{track=\"A\"} 5\n"));
+        assertTrue(text.contains("frames_total{track=\"B\"} 7\n"));
+        assertTrue(text.contains("latency_millis_bucket{le=\"3\"} 1\n"));
+        assertTrue(text.contains("latency_millis_count 1\n"));
+        assertEquals(text.indexOf("# TYPE frames_total"), text.lastIndexOf("# TYPE frames_total"));
+    }
+
+    /**
+     * MBeanとして公開されることを確認します。
+     * @throws Exception 取得エラー
+     */
+    public void testMBean() throws Exception
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        new MetricsRegistry(server).gauge("test_gauge", "Test.", "kind", "x").set(42);
+        final ObjectName name = new ObjectName(
+                "jp.mericle.amazon_connect_real_time_streaming:type=Metrics,name=\"test_gauge\",kind=\"x\"");
+        assertEquals(Long.valueOf(42), server.getAttribute(name, "Value"));
+    }
+}
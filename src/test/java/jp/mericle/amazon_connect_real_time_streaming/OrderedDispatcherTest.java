@@ -0,0 +1,127 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link OrderedDispatcher}のテストです。
+ */
+public class OrderedDispatcherTest
+    extends TestCase
+{
+    /**
+     * 同じキーの処理は受け付けた順に実行し、例外が発生しても後続の処理を実行することを確認します。
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void testOrderPerKey() throws InterruptedException
+    {
+        final Map<String, List<Integer>> results = new ConcurrentHashMap<>();
+        final OrderedDispatcher dispatcher = new OrderedDispatcher(4, 16);
+        for (int i = 0; i < 100; ++i) {
+            final String key = "stream-" + (i % 3);
+            final int value = i;
+            dispatcher.dispatch(key, () -> {
+                if (value == 10) {
+                    throw new IllegalStateException("test");
+                }
+
+                results.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(value);
+            });
+        }
+
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        for (int k = 0; k < 3; ++k) {
+            final List<Integer> values = results.get("stream-" + k);
+            int previous = -1;
+            for (int value : values) {
+                assertTrue(value > previous);
+                assertEquals(k, value % 3);
+                previous = value;
+            }
+        }
+
+        assertEquals(99, results.values().stream().mapToInt(List::size).sum());
+    }
+
+    /**
+     * 完了していない処理の数が上限に達している場合は、待たずに受け付けないことを確認します。
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void testTryDispatch() throws InterruptedException
+    {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<Integer> results = new CopyOnWriteArrayList<>();
+        final OrderedDispatcher dispatcher = new OrderedDispatcher(1, 2);
+        assertTrue(dispatcher.tryDispatch("stream", () -> {
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(dispatcher.tryDispatch("stream", () -> results.add(1)));
+        assertFalse(dispatcher.tryDispatch("other", () -> results.add(2)));
+
+        blocked.countDown();
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(1), results);
+    }
+
+    /**
+     * 処理が{@link Error}を投げても、同じキーの後続の処理を実行することを確認します。
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void testErrorHandOff() throws InterruptedException
+    {
+        final List<Integer> results = new CopyOnWriteArrayList<>();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final OrderedDispatcher dispatcher = new OrderedDispatcher(1, 16);
+        dispatcher.dispatch("stream", () -> {
+            try {
+                blocked.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            throw new LinkageError("test");
+        });
+        for (int i = 0; i < 5; ++i) {
+            final int value = i;
+            dispatcher.dispatch("stream", () -> results.add(value));
+        }
+
+        blocked.countDown();
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), results);
+    }
+
+    /**
+     * 異なるキーの処理を同時に実行することを確認します。
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    public void testConcurrentKeys() throws InterruptedException
+    {
+        final CountDownLatch started = new CountDownLatch(2);
+        final OrderedDispatcher dispatcher = new OrderedDispatcher(2, 2);
+        for (int i = 0; i < 2; ++i) {
+            dispatcher.dispatch("stream-" + i, () -> {
+                started.countDown();
+                try {
+                    started.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(dispatcher.shutdown(5, TimeUnit.SECONDS));
+    }
+}
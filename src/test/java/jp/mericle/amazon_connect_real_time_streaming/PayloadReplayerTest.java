@@ -0,0 +1,48 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link PayloadReplayer}のテストです。
+ */
+public class PayloadReplayerTest
+    extends TestCase
+{
+    /**
+     * 保存した時のファイル名からストリーム名と開始時刻を取り出すことを確認します。
+     */
+    public void testTimestampFromFileName()
+    {
+        final VideoStreamData videoStreamData = PayloadReplayer.toVideoStreamData(
+                new File("capture", "local-contact-1-1600000000123.mkv"), new HashSet<>(), 1700000000000L);
+        assertEquals("local-contact-1", videoStreamData.getStreamName());
+        assertEquals(1600000000123L, videoStreamData.getStartTimestamp().getTime());
+    }
+
+    /**
+     * 開始時刻が重なるファイルや、開始時刻がないファイルを同時に再生しても、開始時刻が重ならないことを確認します。
+     */
+    public void testUniqueTimestamps()
+    {
+        final Set<Long> usedTimestamps = new HashSet<>();
+        final VideoStreamData first = PayloadReplayer.toVideoStreamData(
+                new File("a", "stream-1600000000000.mkv"), usedTimestamps, 1700000000000L);
+        final VideoStreamData second = PayloadReplayer.toVideoStreamData(
+                new File("b", "stream-1600000000000.mkv"), usedTimestamps, 1700000000000L);
+        final VideoStreamData third = PayloadReplayer.toVideoStreamData(
+                new File("a", "payload.mkv"), usedTimestamps, 1700000000000L);
+        final VideoStreamData fourth = PayloadReplayer.toVideoStreamData(
+                new File("a", "other-payload.mkv"), usedTimestamps, 1700000000000L);
+
+        assertEquals(1600000000000L, first.getStartTimestamp().getTime());
+        assertEquals(1600000000001L, second.getStartTimestamp().getTime());
+        assertEquals("payload", third.getStreamName());
+        assertEquals(1700000000000L, third.getStartTimestamp().getTime());
+        assertEquals("other-payload", fourth.getStreamName());
+        assertEquals(1700000000001L, fourth.getStartTimestamp().getTime());
+    }
+}
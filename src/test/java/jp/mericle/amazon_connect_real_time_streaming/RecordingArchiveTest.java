@@ -0,0 +1,174 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * {@link RecordingArchive}のテストです。
+ */
+public class RecordingArchiveTest
+    extends TemporaryDirectoryCase
+{
+    /**
+     * 開始時刻が同じ問い合わせを保存し、問い合わせID、ストリーム名、開始時刻で検索できることを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testWriteAndFind() throws IOException
+    {
+        final Date startTimestamp = new Date(1600000000000L);
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            archive.write(new VideoStreamData("stream-a", startTimestamp, "contact-a"), new byte[] {1, 2}, new byte[] {3});
+            archive.write(new VideoStreamData("stream-b", startTimestamp, "contact-b"), new byte[] {4}, new byte[] {5, 6, 7});
+
+            final List<RecordingArchive.Entry> entries = archive.findByContactId("contact-b");
+            assertEquals(1, entries.size());
+            assertEquals("stream-b", entries.get(0).getStreamName());
+            assertEquals(1, entries.get(0).getCustomerLength());
+            assertEquals(3, entries.get(0).getOperatorLength());
+
+            final ByteArrayOutputStream customerOutput = new ByteArrayOutputStream();
+            final ByteArrayOutputStream operatorOutput = new ByteArrayOutputStream();
+            RecordingArchive.extract(entries.get(0), customerOutput, operatorOutput);
+            final byte[] operatorWav = operatorOutput.toByteArray();
+            assertEquals(44 + 3, operatorWav.length);
+            assertTrue(Arrays.equals(new byte[] {5, 6, 7}, Arrays.copyOfRange(operatorWav, 44, 47)));
+
+            assertEquals(1, archive.findByStreamName("stream-a").size());
+            assertEquals(0, archive.findByContactId("contact-c").size());
+            assertEquals(2, archive.findByTime(startTimestamp.getTime(), startTimestamp.getTime() + 1).size());
+        }
+    }
+
+    /**
+     * 不完全な書き込みを切り詰め、索引のない録音を索引に追加することを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testRecovery() throws IOException
+    {
+        final Date startTimestamp = new Date(1600000000000L);
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            archive.write(new VideoStreamData("stream-a", startTimestamp, "contact-a"), new byte[100], new byte[100]);
+            archive.write(new VideoStreamData("stream-b", startTimestamp, "contact-b"), new byte[100], new byte[100]);
+        }
+
+        final File[] indexFiles = directory.listFiles((dir, name) -> name.endsWith(".idx"));
+        final File[] dataFiles = directory.listFiles((dir, name) -> name.endsWith(".rec"));
+        assertEquals(1, indexFiles.length);
+        assertEquals(1, dataFiles.length);
+
+        // 2件目の索引を失い、音声の末尾に書きかけのデータが残った状態にします。
+        try (RandomAccessFile index = new RandomAccessFile(indexFiles[0], "rw");
+                RandomAccessFile data = new RandomAccessFile(dataFiles[0], "rw")) {
+            index.setLength(index.length() / 2 + 10);
+            data.seek(data.length());
+            data.write(new byte[] {0x41, 0x43});
+        }
+
+        final long expectedLength = dataFiles[0].length() - 2;
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            archive.write(new VideoStreamData("stream-c", startTimestamp, "contact-c"), new byte[10], new byte[10]);
+            assertEquals(1, archive.findByContactId("contact-b").size());
+            assertEquals(1, archive.findByContactId("contact-c").size());
+            assertEquals(3, archive.findByTime(Long.MIN_VALUE, Long.MAX_VALUE).size());
+            assertTrue(dataFiles[0].length() > expectedLength);
+        }
+    }
+
+    /**
+     * 閉じた日の索引を並べ替えて保存し、並べ替えた索引と後から追記した索引の両方から検索できることを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testSortedIndex() throws IOException
+    {
+        final long[] startTimestamps = {1600000300000L, 1600000100000L, 1600000200000L, 1600000100000L};
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            for (int i = 0; i < startTimestamps.length; ++i) {
+                archive.write(new VideoStreamData("stream-" + (i % 2), new Date(startTimestamps[i]), "contact-" + i),
+                        new byte[] {(byte)i}, new byte[0]);
+            }
+        }
+
+        final File sortedFile = new File(directory, "20200913Z.sort");
+        assertTrue(sortedFile.isFile());
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            // 二分探索で見つけた結果も、書き込んだ順に返します。
+            final List<RecordingArchive.Entry> entries = archive.findByTime(1600000100000L, 1600000300000L);
+            assertEquals(3, entries.size());
+            assertEquals("contact-1", entries.get(0).getContactId());
+            assertEquals("contact-2", entries.get(1).getContactId());
+            assertEquals("contact-3", entries.get(2).getContactId());
+            assertEquals(1, archive.findByTime(1600000300000L, Long.MAX_VALUE).size());
+            assertEquals(0, archive.findByTime(1600000300000L, 1600000300000L).size());
+            assertEquals(1, archive.findByContactId("contact-2").size());
+            assertEquals(2, archive.findByStreamName("stream-1").size());
+
+            // 書き込みを再開すると、並べ替えた索引は閉じるまで削除します。
+            archive.write(new VideoStreamData("stream-1", new Date(1600000000000L), "contact-4"), new byte[1], new byte[0]);
+            assertFalse(sortedFile.exists());
+            assertEquals(5, archive.findByTime(Long.MIN_VALUE, Long.MAX_VALUE).size());
+            assertEquals(3, archive.findByStreamName("stream-1").size());
+        }
+
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            assertTrue(sortedFile.isFile());
+            assertEquals("contact-4", archive.findByTime(1600000000000L, 1600000100000L).get(0).getContactId());
+            assertEquals(1, archive.findByContactId("contact-4").size());
+        }
+    }
+
+    /**
+     * 開始時刻で検索する場合は、範囲外の日付のファイルを開かないことを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testFindByTimeSkipsOtherDays() throws IOException
+    {
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            archive.write(new VideoStreamData("stream-a", new Date(1600000000000L), "contact-a"), new byte[1], new byte[1]);
+        }
+
+        // 音声ファイルのない別の日の索引は、開くと失敗します。
+        Files.write(new File(directory, "20200101Z.idx").toPath(), new byte[48]);
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            assertEquals(1, archive.findByTime(1599955200000L, 1600041600000L).size());
+            try {
+                archive.findByTime(Long.MIN_VALUE, Long.MAX_VALUE);
+                fail();
+            } catch (IOException e) {
+                // 範囲内の日付のファイルは開きます。
+            }
+        }
+    }
+
+    /**
+     * 書き込み中の日ごとのファイルを、別のアーカイブが書き込めないことを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testLock() throws IOException
+    {
+        final Date startTimestamp = new Date(1600000000000L);
+        try (RecordingArchive first = new RecordingArchive(directory);
+                RecordingArchive second = new RecordingArchive(directory)) {
+            first.write(new VideoStreamData("stream-a", startTimestamp, "contact-a"), new byte[10], new byte[10]);
+            try {
+                second.write(new VideoStreamData("stream-b", startTimestamp, "contact-b"), new byte[10], new byte[10]);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Archive is locked by another process"));
+            }
+
+            // 書き込めなかった録音で、書き込み中の録音を切り詰めることはありません。
+            assertEquals(1, first.findByTime(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+
+        try (RecordingArchive archive = new RecordingArchive(directory)) {
+            archive.write(new VideoStreamData("stream-b", startTimestamp, "contact-b"), new byte[10], new byte[10]);
+            assertEquals(2, archive.findByTime(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link RecordingManifest}のテストです。
+ */
+public class RecordingManifestTest
+    extends TestCase
+{
+    /**
+     * 分割して追加しても、全体と区間のハッシュが音声データ全体から計算したものと一致することを確認します。
+     * @throws Exception 予期しないエラー
+     */
+    public void testHashes()
+        throws Exception
+    {
+        // 2.5秒分の音声を、区間の境界をまたぐ長さで分割して追加します。
+        final byte[] audio = new byte[40000];
+        for (int i = 0; i < audio.length; ++i) {
+            audio[i] = (byte)(i * 31);
+        }
+
+        final RecordingManifest manifest = new RecordingManifest(
+                new VideoStreamData("stream-1", new Date(1000), "contact-1"), 1000);
+        for (int offset = 0; offset < audio.length; offset += 321) {
+            manifest.updateCustomer(audio, offset, Math.min(321, audio.length - offset));
+        }
+
+        manifest.recordFragment("100");
+        manifest.recordFragment("100");
+        manifest.recordFragment("101");
+        manifest.recordFragment("102");
+        final String json = new String(manifest.finish(), StandardCharsets.UTF_8);
+
+        assertTrue(json.startsWith("{\"version\":1,\"algorithm\":\"SHA-256\",\"streamName\":\"stream-1\","
+                + "\"contactId\":\"contact-1\",\"startTimestamp\":1000,"
+                + "\"fragments\":{\"first\":\"100\",\"last\":\"102\",\"count\":3},"));
+        assertTrue(json.contains("\"customer\":{\"bytes\":40000,\"durationMillis\":2500,\"sha256\":\""
+                + sha256(audio, 0, 40000) + "\",\"segmentBytes\":16000,\"segments\":[\""
+                + sha256(audio, 0, 16000) + "\",\""
+                + sha256(audio, 16000, 32000) + "\",\""
+                + sha256(audio, 32000, 40000) + "\"]}"));
+        assertTrue(json.endsWith("\"operator\":{\"bytes\":0,\"durationMillis\":0,\"sha256\":\""
+                + sha256(new byte[0], 0, 0) + "\",\"segmentBytes\":16000,\"segments\":[]}}"));
+    }
+
+    /**
+     * 区間を指定しない場合は、全体のハッシュだけを記録することを確認します。
+     */
+    public void testWithoutSegments()
+    {
+        final RecordingManifest manifest = new RecordingManifest(
+                new VideoStreamData("stream\"1", new Date(0)), 0);
+        manifest.updateOperator(new byte[] { 1, 2, 3, 4 }, 0, 4);
+        final String json = new String(manifest.finish(), StandardCharsets.UTF_8);
+
+        assertTrue(json.contains("\"streamName\":\"stream\\\"1\",\"contactId\":null,"));
+        assertTrue(json.contains("\"fragments\":{\"first\":null,\"last\":null,\"count\":0}"));
+        assertFalse(json.contains("segments"));
+    }
+
+    /**
+     * SHA-256を計算します。
+     * @param data データ
+     * @param from 開始位置
+     * @param to 終了位置
+     * @return 16進数のハッシュ
+     * @throws Exception 予期しないエラー
+     */
+    private static String sha256(final byte[] data, final int from, final int to)
+        throws Exception
+    {
+        return RecordingManifest.toHex(MessageDigest.getInstance("SHA-256").digest(Arrays.copyOfRange(data, from, to)));
+    }
+}
@@ -0,0 +1,181 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * {@link RecordingOutbox}のテストです。
+ */
+public class RecordingOutboxTest
+    extends TemporaryDirectoryCase
+{
+    /**
+     * 書き込みに失敗した場合はリトライし、成功した録音とサマリーを送信待ちフォルダから削除することを確認します。
+     * @throws Exception テストのエラー
+     */
+    public void testRetry() throws Exception
+    {
+        final AtomicInteger failures = new AtomicInteger(2);
+        final List<String> written = new CopyOnWriteArrayList<>();
+        final RecordingSink sink = new RecordingSink() {
+            @Override
+            public void write(final VideoStreamData videoStreamData, final byte[] customerAudio, final byte[] operatorAudio)
+                    throws IOException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IOException("test");
+                }
+
+                written.add(videoStreamData.getContactId() + ":" + Arrays.toString(customerAudio) + Arrays.toString(operatorAudio));
+            }
+
+            @Override
+            public void writeSummary(final VideoStreamData videoStreamData, final byte[] summary) {
+                written.add(videoStreamData.getContactId() + ":" + new String(summary));
+            }
+        };
+
+        final RecordingOutbox outbox = new RecordingOutbox(directory, sink, 2, 3, 10);
+        outbox.start();
+        final VideoStreamData videoStreamData = new VideoStreamData("stream-a", new Date(1600000000000L), "contact-a");
+        outbox.write(videoStreamData, new byte[] {1, 2}, new byte[] {3});
+        outbox.writeSummary(videoStreamData, "{}".getBytes());
+        waitUntil(() -> written.size() == 2);
+        assertTrue(outbox.shutdown(5, TimeUnit.SECONDS));
+
+        assertTrue(written.contains("contact-a:[1, 2][3]"));
+        assertTrue(written.contains("contact-a:{}"));
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    /**
+     * 書き込めずに終了した録音を、次に開始した時に書き込むことを確認します。
+     * @throws Exception テストのエラー
+     */
+    public void testRecoverAfterRestart() throws Exception
+    {
+        final RecordingSink failingSink = (videoStreamData, customerAudio, operatorAudio) -> {
+            throw new IOException("test");
+        };
+        final RecordingOutbox first = new RecordingOutbox(directory, failingSink, 1, 1, TimeUnit.HOURS.toMillis(1));
+        first.start();
+        first.write(new VideoStreamData("stream-a", new Date(1600000000000L), "contact-a"), new byte[] {1}, new byte[] {2});
+        assertTrue(first.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(1, directory.listFiles().length);
+
+        final List<VideoStreamData> written = new CopyOnWriteArrayList<>();
+        final RecordingOutbox second = new RecordingOutbox(
+                directory, (videoStreamData, customerAudio, operatorAudio) -> written.add(videoStreamData), 1, 1, 10);
+        second.start();
+        waitUntil(() -> written.size() == 1);
+        assertTrue(second.shutdown(5, TimeUnit.SECONDS));
+
+        assertEquals("stream-a", written.get(0).getStreamName());
+        assertEquals("contact-a", written.get(0).getContactId());
+        assertEquals(1600000000000L, written.get(0).getStartTimestamp().getTime());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    /**
+     * 終了と同時に受け付けた録音も、受け付けた録音は全て書き込むことを確認します。
+     * @throws Exception テストのエラー
+     */
+    public void testHandoffDuringShutdown() throws Exception
+    {
+        final List<String> written = new CopyOnWriteArrayList<>();
+        final RecordingOutbox outbox = new RecordingOutbox(
+                directory, (videoStreamData, customerAudio, operatorAudio) -> written.add(videoStreamData.getContactId()),
+                4, 1, 10);
+        outbox.start();
+
+        final List<String> accepted = new CopyOnWriteArrayList<>();
+        final CountDownLatch started = new CountDownLatch(4);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                started.countDown();
+                for (int i = 0; i < 10000; ++i) {
+                    final String contactId = "contact-" + thread + "-" + i;
+                    try {
+                        outbox.write(new VideoStreamData("stream", new Date(1600000000000L + i), contactId),
+                                new byte[] {1}, new byte[] {2});
+                        accepted.add(contactId);
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        started.await();
+        assertTrue(outbox.shutdown(30, TimeUnit.SECONDS));
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(new HashSet<>(accepted), new HashSet<>(written));
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    /**
+     * 書き込みが遅く、終了を待ちきれなかった場合も、受け付けた録音は書き込むか送信待ちフォルダに残すことを確認します。
+     * @throws Exception テストのエラー
+     */
+    public void testShutdownTimeoutWithSlowSink() throws Exception
+    {
+        final List<String> written = new CopyOnWriteArrayList<>();
+        final RecordingOutbox outbox = new RecordingOutbox(
+                directory, (videoStreamData, customerAudio, operatorAudio) -> {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    written.add(videoStreamData.getContactId());
+                }, 1, 1, 10);
+        outbox.start();
+
+        final int jobs = 200;
+        for (int i = 0; i < jobs; ++i) {
+            outbox.write(new VideoStreamData("stream", new Date(1600000000000L + i), "contact-" + i),
+                    new byte[64 * 1024], new byte[64 * 1024]);
+        }
+
+        assertFalse(outbox.shutdown(1, TimeUnit.MILLISECONDS));
+
+        // 書き込み中の録音が終わり、保存を続けるスレッドが残りを保存するまで待ちます。
+        waitUntil(() -> written.size() + directory.listFiles((dir, name) -> name.endsWith(".job")).length == jobs
+                && directory.listFiles((dir, name) -> name.endsWith(".tmp")).length == 0);
+        Thread.sleep(200);
+        assertEquals(jobs, written.size() + directory.listFiles((dir, name) -> name.endsWith(".job")).length);
+        assertEquals(jobs, new HashSet<>(written).size() + directory.listFiles((dir, name) -> name.endsWith(".job")).length);
+    }
+
+    /**
+     * 条件を満たすまで待ちます。
+     * @param condition 条件
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    private static void waitUntil(final BooleanSupplier condition) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
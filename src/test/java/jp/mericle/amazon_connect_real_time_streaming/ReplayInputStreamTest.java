@@ -0,0 +1,86 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link CapturingInputStream}と{@link ReplayInputStream}のテストです。
+ */
+public class ReplayInputStreamTest
+    extends TestCase
+{
+    /**
+     * 保存したペイロードを同じ内容で再生できることを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testRoundTrip() throws IOException
+    {
+        final byte[] payload = new byte[100000];
+        for (int i = 0; i < payload.length; ++i) {
+            payload[i] = (byte)(i * 31);
+        }
+
+        final File payloadFile = File.createTempFile("capture", ".mkv");
+        final File timingFile = CapturingInputStream.getTimingFile(payloadFile);
+        try {
+            final byte[] captured;
+            try (InputStream inputStream = new CapturingInputStream(new ByteArrayInputStream(payload), payloadFile)) {
+                captured = readAll(inputStream);
+            }
+
+            assertTrue(Arrays.equals(payload, captured));
+            assertTrue(Arrays.equals(payload, Files.readAllBytes(payloadFile.toPath())));
+            assertTrue(timingFile.length() > 0);
+
+            try (InputStream inputStream = new ReplayInputStream(payloadFile, 0.0)) {
+                assertTrue(Arrays.equals(payload, readAll(inputStream)));
+            }
+        } finally {
+            payloadFile.delete();
+            timingFile.delete();
+        }
+    }
+
+    /**
+     * 受信時刻のファイルがない場合は、ビットレートから再生時間を推定することを確認します。
+     * @throws IOException 読み書きのエラー
+     */
+    public void testEstimatedTiming() throws IOException
+    {
+        final File payloadFile = File.createTempFile("capture", ".mkv");
+        try {
+            Files.write(payloadFile.toPath(), new byte[64000]);
+            try (ReplayInputStream inputStream = new ReplayInputStream(payloadFile, 0.0)) {
+                assertEquals(2000, inputStream.getDurationMillis());
+                assertEquals(64000, readAll(inputStream).length);
+            }
+        } finally {
+            payloadFile.delete();
+        }
+    }
+
+    /**
+     * 入力ストリームを全て読み込みます。
+     * @param inputStream 入力ストリーム
+     * @return 読み込んだデータ
+     * @throws IOException 読み込みエラー
+     */
+    private static byte[] readAll(final InputStream inputStream) throws IOException
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1000];
+        int length;
+        while ((length = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, length);
+        }
+
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,67 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link ResourceGovernor}のテストです。
+ */
+public class ResourceGovernorTest
+    extends TestCase
+{
+    /**
+     * 負荷に応じて周波数スペクトルの表示、音声の分析の順に止め、負荷が十分に下がると再開することを確認します。
+     */
+    public void testShedInPriorityOrder()
+    {
+        final ResourceGovernor governor = new ResourceGovernor(1000, 100, () -> 0.0);
+        assertAcquired(governor, ResourceGovernor.Work.SPECTRUM, true);
+
+        governor.addBufferedBytes(750);
+        assertAcquired(governor, ResourceGovernor.Work.SPECTRUM, false);
+        assertAcquired(governor, ResourceGovernor.Work.ANALYTICS, true);
+
+        governor.addBufferedBytes(150);
+        assertAcquired(governor, ResourceGovernor.Work.ANALYTICS, false);
+
+        // 閾値を少し下回っただけでは再開しません。
+        governor.addBufferedBytes(-250);
+        assertAcquired(governor, ResourceGovernor.Work.SPECTRUM, false);
+        assertAcquired(governor, ResourceGovernor.Work.ANALYTICS, true);
+
+        governor.addBufferedBytes(-100);
+        assertAcquired(governor, ResourceGovernor.Work.SPECTRUM, true);
+    }
+
+    /**
+     * 処理待ちの作業の数が上限に達すると受け付けないことを確認します。
+     */
+    public void testPendingLimit()
+    {
+        final ResourceGovernor governor = new ResourceGovernor(1000, 2, () -> 0.0);
+        assertTrue(governor.tryAcquire(ResourceGovernor.Work.SPECTRUM));
+        assertTrue(governor.tryAcquire(ResourceGovernor.Work.SPECTRUM));
+        assertFalse(governor.tryAcquire(ResourceGovernor.Work.SPECTRUM));
+        assertTrue(governor.tryAcquire(ResourceGovernor.Work.ANALYTICS));
+
+        governor.release(ResourceGovernor.Work.SPECTRUM);
+        assertTrue(governor.tryAcquire(ResourceGovernor.Work.SPECTRUM));
+    }
+
+    /**
+     * 作業を受け付けるかどうかを確認し、受け付けた場合は終了を記録します。
+     * @param governor 確認するインスタンス
+     * @param work 作業の種類
+     * @param expected 受け付けるかどうか
+     */
+    private static void assertAcquired(
+            final ResourceGovernor governor,
+            final ResourceGovernor.Work work,
+            final boolean expected)
+    {
+        final boolean acquired = governor.tryAcquire(work);
+        assertEquals(expected, acquired);
+        if (acquired) {
+            governor.release(work);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link SettingsWatcher}のテストです。
+ */
+public class SettingsWatcherTest
+    extends TestCase
+{
+    /**
+     * テスト用の設定ファイル。
+     */
+    private File file;
+
+    /**
+     * テスト用の設定ファイルを作成します。
+     * @throws IOException 作成に失敗した場合
+     */
+    @Override
+    protected void setUp() throws IOException
+    {
+        file = File.createTempFile("settings", ".xml");
+    }
+
+    /**
+     * テスト用の設定ファイルを削除します。
+     */
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    /**
+     * 正しい変更だけを反映し、正しくない変更の間は前の設定を使い続けることを確認します。
+     * @throws Exception テストのエラー
+     */
+    public void testReload() throws Exception
+    {
+        final Properties settings = createSettings();
+        save(settings);
+        final List<RuntimeSettings> applied = new CopyOnWriteArrayList<>();
+        try (SettingsWatcher watcher = new SettingsWatcher(file.getPath(), settings)) {
+            watcher.addListener(applied::add);
+            final RuntimeSettings initial = watcher.get();
+            assertEquals(1000, initial.getGetRecordsInterval());
+            assertNull(initial.getGainParameters());
+
+            // 検証で失敗する値を含む場合は、他の値も反映しません。
+            final Properties invalid = createSettings();
+            invalid.setProperty("getrecordsinterval", "500");
+            invalid.setProperty("dispatchthreads", "0");
+            save(invalid);
+            assertFalse(watcher.reload());
+            assertSame(initial, watcher.get());
+
+            final Properties valid = createSettings();
+            valid.setProperty("getrecordsinterval", "500");
+            valid.setProperty("agc", "true");
+            save(valid);
+            assertTrue(watcher.reload());
+            assertEquals(500, watcher.get().getGetRecordsInterval());
+            assertNotNull(watcher.get().getGainParameters());
+            assertEquals(1, applied.size());
+            assertSame(watcher.get(), applied.get(0));
+
+            // 録音を止めずに変更できない設定だけが変わった場合は、差し替えません。
+            final RuntimeSettings current = watcher.get();
+            valid.setProperty("streamname", "other");
+            save(valid);
+            assertFalse(watcher.reload());
+            assertSame(current, watcher.get());
+            assertEquals(1, applied.size());
+        }
+    }
+
+    /**
+     * 必須の設定がない場合は生成できないことを確認します。
+     */
+    public void testValidation()
+    {
+        final Properties settings = createSettings();
+        settings.remove("maxretrycount");
+        try {
+            RuntimeSettings.fromSettings(settings);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("maxretrycount can't set null or empty.", e.getMessage());
+        }
+    }
+
+    /**
+     * 保存先フォルダ、問い合わせの一覧、割合で、ペイロードを保存する問い合わせを選ぶことを確認します。
+     */
+    public void testCaptureSelector()
+    {
+        final Properties settings = createSettings();
+        final VideoStreamData first = new VideoStreamData("stream-1", new Date(1600000000000L), "contact-1");
+        final VideoStreamData second = new VideoStreamData("stream-2", new Date(1600000000000L), "contact-2");
+        assertFalse(RuntimeSettings.fromSettings(settings).shouldCapture(first));
+
+        settings.setProperty("capturepath", "./capture/");
+        assertTrue(RuntimeSettings.fromSettings(settings).shouldCapture(first));
+
+        settings.setProperty("capturecontacts", "contact-1, stream-3");
+        assertTrue(RuntimeSettings.fromSettings(settings).shouldCapture(first));
+        assertFalse(RuntimeSettings.fromSettings(settings).shouldCapture(second));
+
+        settings.setProperty("capturecontacts", "stream-2");
+        assertFalse(RuntimeSettings.fromSettings(settings).shouldCapture(first));
+        assertTrue(RuntimeSettings.fromSettings(settings).shouldCapture(second));
+
+        // 割合で選ぶ問い合わせは、同じ問い合わせIDなら常に同じです。
+        settings.remove("capturecontacts");
+        settings.setProperty("capturesamplerate", "0.5");
+        final RuntimeSettings sampled = RuntimeSettings.fromSettings(settings);
+        int captured = 0;
+        for (int i = 0; i < 1000; ++i) {
+            final VideoStreamData videoStreamData = new VideoStreamData("stream", new Date(1600000000000L), "contact-" + i);
+            if (sampled.shouldCapture(videoStreamData)) {
+                assertTrue(RuntimeSettings.fromSettings(settings).shouldCapture(videoStreamData));
+                ++captured;
+            }
+        }
+
+        assertTrue(captured > 400 && captured < 600);
+
+        settings.setProperty("capturesamplerate", "0");
+        assertFalse(RuntimeSettings.fromSettings(settings).shouldCapture(first));
+
+        settings.setProperty("capturesamplerate", "1.5");
+        try {
+            RuntimeSettings.fromSettings(settings);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("capturesamplerate must be between 0 and 1.", e.getMessage());
+        }
+    }
+
+    /**
+     * テスト用の設定を生成します。
+     * @return 設定
+     */
+    private static Properties createSettings()
+    {
+        final Properties settings = new Properties();
+        settings.setProperty("streamname", "stream");
+        settings.setProperty("maxretrycount", "3");
+        settings.setProperty("retryinterval", "1000");
+        settings.setProperty("getrecordsinterval", "1000");
+        settings.setProperty("audiopath", "./audio/");
+        return settings;
+    }
+
+    /**
+     * 設定ファイルに保存します。
+     * @param settings 設定
+     * @throws IOException 書き込みエラー
+     */
+    private void save(final Properties settings) throws IOException
+    {
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            settings.storeToXML(outputStream, null);
+        }
+    }
+}
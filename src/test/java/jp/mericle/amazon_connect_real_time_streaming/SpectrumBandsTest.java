@@ -0,0 +1,81 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link SpectrumBands}のテストです。
+ */
+public class SpectrumBandsTest
+    extends TestCase
+{
+    /**
+     * 全ての帯域に値が入ることを確認します。
+     */
+    public void testAggregateFillsAllBands()
+    {
+        for (SpectrumBands.Scale scale : SpectrumBands.Scale.values()) {
+            final SpectrumBands bands = new SpectrumBands(scale, 200, 160, 8000);
+            final double[] spectrum = new double[160];
+            Arrays.fill(spectrum, 10.0);
+            final double[] levels = new double[200];
+            bands.aggregate(spectrum, levels);
+            for (double level : levels) {
+                assertEquals(20.0, level, 1.0e-9);
+            }
+        }
+    }
+
+    /**
+     * 低い周波数のピークは左側、高い周波数のピークは右側の帯域に現れることを確認します。
+     */
+    public void testPeakPosition()
+    {
+        final SpectrumBands bands = new SpectrumBands(SpectrumBands.Scale.LOG, 100, 160, 8000);
+        final double[] low = new double[160];
+        low[4] = 1000.0;
+        final double[] high = new double[160];
+        high[150] = 1000.0;
+        final double[] levels = new double[100];
+
+        bands.aggregate(low, levels);
+        final int lowBand = indexOfMax(levels);
+        bands.aggregate(high, levels);
+        final int highBand = indexOfMax(levels);
+        assertTrue(lowBand < highBand);
+    }
+
+    /**
+     * ビンの数が異なるスペクトルは受け付けないことを確認します。
+     */
+    public void testMismatchedBinCount()
+    {
+        final SpectrumBands bands = new SpectrumBands(SpectrumBands.Scale.MEL, 10, 160, 8000);
+        assertTrue(bands.matches(160));
+        assertFalse(bands.matches(80));
+        try {
+            bands.aggregate(new double[80], new double[10]);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // 期待通り
+        }
+    }
+
+    /**
+     * 最大値の位置を取得します。
+     * @param values 値
+     * @return 最大値の位置
+     */
+    private static int indexOfMax(final double[] values)
+    {
+        int index = 0;
+        for (int i = 1; i < values.length; ++i) {
+            if (values[i] > values[index]) {
+                index = i;
+            }
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,55 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import com.amazonaws.kinesisvideo.parser.ebml.InputStreamParserByteSource;
+import com.amazonaws.kinesisvideo.parser.mkv.Frame;
+import com.amazonaws.kinesisvideo.parser.utilities.FragmentMetadata;
+import com.amazonaws.kinesisvideo.parser.utilities.FrameVisitor;
+import com.amazonaws.kinesisvideo.parser.utilities.MkvTrackMetadata;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link SyntheticMkvGenerator}のテストです。
+ */
+public class SyntheticMkvGeneratorTest
+    extends TestCase
+{
+    /**
+     * 生成したストリームをKinesis Video Streamsのパーサーで読み込めることを確認します。
+     * @throws Exception 解析エラー
+     */
+    public void testParse() throws Exception
+    {
+        final long startTimestamp = 1565781909613L;
+        final SyntheticMkvGenerator generator = new SyntheticMkvGenerator(6000, 2000, 20);
+        final byte[] payload = generator.generate("contact-1", startTimestamp);
+
+        final Map<String, Integer> frameCounts = new HashMap<String, Integer>();
+        final long[] lastProducerTimestamp = new long[1];
+        MediaStreamReader.read(
+                new InputStreamParserByteSource(new ByteArrayInputStream(payload)),
+                new FrameVisitor.FrameProcessor() {
+                    @Override
+                    public void process(
+                            final Frame frame,
+                            final MkvTrackMetadata trackMetadata,
+                            final Optional<FragmentMetadata> fragmentMetadata) {
+                        assertEquals(320, frame.getFrameData().remaining());
+                        assertTrue(fragmentMetadata.isPresent());
+                        lastProducerTimestamp[0] = fragmentMetadata.get().getProducerSideTimestampMillis();
+                        frameCounts.merge(trackMetadata.getTrackName(), 1, Integer::sum);
+                    }
+                },
+                "test-stream");
+
+        assertEquals(Integer.valueOf(300), frameCounts.get("AUDIO_FROM_CUSTOMER"));
+        assertEquals(Integer.valueOf(300), frameCounts.get("AUDIO_TO_CUSTOMER"));
+        assertEquals(300, generator.getFramesPerTrack());
+        assertEquals(startTimestamp + 4000, lastProducerTimestamp[0]);
+    }
+}
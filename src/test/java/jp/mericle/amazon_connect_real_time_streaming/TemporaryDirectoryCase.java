@@ -0,0 +1,56 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+/**
+ * テストごとに一時フォルダを作成し、終了後に中身ごと削除するテストの基底クラスです。
+ */
+public abstract class TemporaryDirectoryCase
+    extends TestCase
+{
+    /**
+     * テスト用の一時フォルダ。
+     */
+    protected File directory;
+
+    /**
+     * テスト用の一時フォルダを作成します。
+     * @throws IOException 作成に失敗した場合
+     */
+    @Override
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    }
+
+    /**
+     * テスト用の一時フォルダを、中のファイルやフォルダごと削除します。
+     * @throws IOException 削除に失敗した場合
+     */
+    @Override
+    protected void tearDown() throws IOException
+    {
+        if (directory == null || !directory.exists()) {
+            return;
+        }
+
+        // 中身から先に削除するので、深い順に並べます。
+        final List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory.toPath())) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
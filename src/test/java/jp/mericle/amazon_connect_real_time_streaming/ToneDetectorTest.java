@@ -0,0 +1,148 @@
+package jp.mericle.amazon_connect_real_time_streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link ToneDetector}のテストです。
+ */
+public class ToneDetectorTest
+    extends TestCase
+{
+    /**
+     * サンプリング周波数(Hz)。
+     */
+    private static final int SAMPLE_RATE = 8000;
+
+    /**
+     * 無音を挟んだDTMFとFAXの発呼トーンを、開始時刻と長さとともに検出することを確認します。
+     */
+    public void testDetectDtmfAndFaxTone()
+    {
+        final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        appendDtmf(audio, 697, 1209, 100);
+        appendSilence(audio, 100);
+        appendDtmf(audio, 941, 1477, 100);
+        appendSilence(audio, 100);
+        appendTone(audio, 1100, 500);
+        appendSilence(audio, 100);
+
+        final List<ToneDetector.Detection> detections = detect(audio.toByteArray(), 161);
+        assertEquals(3, detections.size());
+        assertDetection(detections.get(0), ToneDetector.ToneType.DTMF, "1", 0);
+        assertDetection(detections.get(1), ToneDetector.ToneType.DTMF, "#", 200);
+        assertDetection(detections.get(2), ToneDetector.ToneType.FAX_CALLING, "1100", 400);
+        assertTrue(Math.abs(detections.get(2).getDurationMillis() - 500) <= 52);
+    }
+
+    /**
+     * 雑音や短いビープ音ではトーンを検出しないことを確認します。
+     */
+    public void testIgnoreNoiseAndShortTone()
+    {
+        final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        final byte[] noise = new byte[SAMPLE_RATE * 2];
+        new Random(0).nextBytes(noise);
+        audio.write(noise, 0, noise.length);
+        appendTone(audio, 1000, 100);
+        appendSilence(audio, 100);
+
+        assertTrue(detect(audio.toByteArray(), 320).isEmpty());
+    }
+
+    /**
+     * 音声データをフレームに分けて検出します。
+     * @param audio 音声データ
+     * @param frameBytes フレームのバイト数
+     * @return 検出したトーン
+     */
+    private static List<ToneDetector.Detection> detect(final byte[] audio, final int frameBytes)
+    {
+        final List<ToneDetector.Detection> detections = new ArrayList<>();
+        final ToneDetector detector = new ToneDetector(ToneDetector.Thresholds.DEFAULT, detections::add);
+        for (int offset = 0; offset < audio.length; offset += frameBytes) {
+            final byte[] frame = new byte[Math.min(frameBytes, audio.length - offset)];
+            System.arraycopy(audio, offset, frame, 0, frame.length);
+            detector.process(frame);
+        }
+
+        detector.flush();
+        return detections;
+    }
+
+    /**
+     * 検出したトーンを確認します。開始時刻はブロックの長さの誤差を許容します。
+     * @param detection 検出したトーン
+     * @param type トーンの種類
+     * @param value トーンの値
+     * @param startMillis 開始時刻(ms)
+     */
+    private static void assertDetection(
+            final ToneDetector.Detection detection,
+            final ToneDetector.ToneType type,
+            final String value,
+            final long startMillis)
+    {
+        assertEquals(type, detection.getType());
+        assertEquals(value, detection.getValue());
+        assertTrue(Math.abs(detection.getStartMillis() - startMillis) <= 26);
+    }
+
+    /**
+     * DTMFを追加します。
+     * @param audio 音声データ
+     * @param low 低群の周波数(Hz)
+     * @param high 高群の周波数(Hz)
+     * @param millis 長さ(ms)
+     */
+    private static void appendDtmf(final ByteArrayOutputStream audio, final double low, final double high, final int millis)
+    {
+        final int samples = SAMPLE_RATE * millis / 1000;
+        for (int i = 0; i < samples; ++i) {
+            final double t = (double)i / SAMPLE_RATE;
+            appendSample(audio, 8000 * (Math.sin(2 * Math.PI * low * t) + Math.sin(2 * Math.PI * high * t)));
+        }
+    }
+
+    /**
+     * 単一のトーンを追加します。
+     * @param audio 音声データ
+     * @param frequency 周波数(Hz)
+     * @param millis 長さ(ms)
+     */
+    private static void appendTone(final ByteArrayOutputStream audio, final double frequency, final int millis)
+    {
+        final int samples = SAMPLE_RATE * millis / 1000;
+        for (int i = 0; i < samples; ++i) {
+            appendSample(audio, 10000 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+    }
+
+    /**
+     * 無音を追加します。
+     * @param audio 音声データ
+     * @param millis 長さ(ms)
+     */
+    private static void appendSilence(final ByteArrayOutputStream audio, final int millis)
+    {
+        for (int i = 0; i < SAMPLE_RATE * millis / 1000; ++i) {
+            appendSample(audio, 0);
+        }
+    }
+
+    /**
+     * 16bitリトルエンディアンのサンプルを追加します。
+     * @param audio 音声データ
+     * @param value サンプルの値
+     */
+    private static void appendSample(final ByteArrayOutputStream audio, final double value)
+    {
+        final int sample = (int)Math.round(value);
+        audio.write(sample & 0xFF);
+        audio.write((sample >> 8) & 0xFF);
+    }
+}